@@ -0,0 +1,248 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original text protocol, for example "TR 40 60\r\n".
+ *
+ * Understood by every firmware version, except for the drive command "D left right" that
+ * streaming, the gamepad, tilt and paths use, which needs newer firmware. Until the firmware
+ * is known to understand it, each drive command is sent as the original motion command that
+ * comes closest to its wheel speeds, so older robots can still be driven smoothly. Numbers
+ * are written digit by digit so encoding never builds a string.
+ */
+public class AsciiCommandCodec implements CommandCodec {
+
+    /// Longest mnemonic, separators, two signed ints and the line terminator
+    private static final int MAX_FRAME_LENGTH = 4 + 2 * 12 + 2;
+
+    /// Tracks if the firmware understands drive commands
+    private volatile boolean driveSupported;
+
+    /// Mnemonic bytes for each opcode, built once
+    private static final byte[][] MNEMONIC_BYTES = new byte[RobotCommand.OPCODE_COUNT][];
+
+    static {
+        for (int i = 0; i < MNEMONIC_BYTES.length; i++) {
+            MNEMONIC_BYTES[i] = RobotCommand.getMnemonic(i).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Constructor for a codec that sends drive commands as the original motion commands
+     */
+    public AsciiCommandCodec() {
+        this(false);
+    }
+
+    /**
+     * Constructor for this codec
+     * @param driveSupported true if the firmware understands drive commands
+     */
+    public AsciiCommandCodec(boolean driveSupported) {
+        this.driveSupported = driveSupported;
+    }
+
+    /**
+     * Sets whether the firmware understands drive commands. Takes effect from the next
+     * command encoded.
+     * @param driveSupported true if the firmware understands drive commands
+     */
+    public void setDriveSupported(boolean driveSupported) {
+        this.driveSupported = driveSupported;
+    }
+
+    /**
+     * Determines if drive commands are sent as they are
+     * @return true if the firmware understands drive commands
+     */
+    public boolean isDriveSupported() {
+        return driveSupported;
+    }
+
+    /**
+     * Gets the largest number of bytes a single encoded command can take
+     * @return The maximum frame length in bytes
+     */
+    @Override
+    public int getMaxFrameLength() {
+        return MAX_FRAME_LENGTH;
+    }
+
+    /**
+     * Encodes a command as a line of text. A drive command is encoded as the closest
+     * original motion command unless the firmware understands drive commands.
+     * @param command The command to encode
+     * @param buffer The buffer to write into
+     * @param offset The position in the buffer to start writing at
+     * @return The number of bytes written
+     */
+    @Override
+    public int encode(RobotCommand command, byte[] buffer, int offset) {
+        if (command.opcode == RobotCommand.DRIVE && !driveSupported) {
+            long closest = RobotCommand.getClosestMotion(command.arg0, command.arg1);
+            int args = (int)closest;
+            return encode((int)(closest >>> 32), args >> 16, (short)args, buffer, offset);
+        }
+        return encode(command.opcode, command.arg0, command.arg1, buffer, offset);
+    }
+
+    /**
+     * Encodes a command given by its opcode and arguments as a line of text
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @param buffer The buffer to write into
+     * @param offset The position in the buffer to start writing at
+     * @return The number of bytes written
+     */
+    private static int encode(int opcode, int arg0, int arg1, byte[] buffer, int offset) {
+        int position = offset;
+        byte[] mnemonic = MNEMONIC_BYTES[opcode];
+        System.arraycopy(mnemonic, 0, buffer, position, mnemonic.length);
+        position += mnemonic.length;
+
+        int argumentCount = RobotCommand.getArgumentCount(opcode);
+        if (argumentCount > 0) {
+            buffer[position++] = ' ';
+            position = writeInt(arg0, buffer, position);
+        }
+        if (argumentCount > 1) {
+            buffer[position++] = ' ';
+            position = writeInt(arg1, buffer, position);
+        }
+
+        buffer[position++] = '\r';
+        buffer[position++] = '\n';
+        return position - offset;
+    }
+
+    /**
+     * Decodes a single line of text
+     * @param buffer The buffer to read from
+     * @param offset The position in the buffer to start reading at
+     * @param length The number of readable bytes
+     * @param command Receives the decoded command
+     * @return The number of bytes consumed, INCOMPLETE, or INVALID
+     */
+    @Override
+    public int decode(byte[] buffer, int offset, int length, RobotCommand command) {
+        int end = offset + length;
+        int lineEnd = -1;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] == '\n') {
+                lineEnd = i;
+                break;
+            }
+        }
+        if (lineEnd < 0) {
+            return length >= MAX_FRAME_LENGTH ? INVALID : INCOMPLETE;
+        }
+        int consumed = lineEnd + 1 - offset;
+        if (lineEnd > offset && buffer[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+
+        int mnemonicEnd = offset;
+        while (mnemonicEnd < lineEnd && buffer[mnemonicEnd] != ' ') {
+            mnemonicEnd++;
+        }
+        int opcode = findOpcode(buffer, offset, mnemonicEnd - offset);
+        if (opcode < 0) {
+            return INVALID;
+        }
+
+        int arg0 = 0;
+        int arg1 = 0;
+        int position = mnemonicEnd;
+        int argumentCount = RobotCommand.getArgumentCount(opcode);
+        for (int i = 0; i < argumentCount; i++) {
+            if (position >= lineEnd || buffer[position] != ' ') {
+                return INVALID;
+            }
+            position++;
+            boolean negative = position < lineEnd && buffer[position] == '-';
+            if (negative) {
+                position++;
+            }
+            int start = position;
+            int value = 0;
+            while (position < lineEnd && buffer[position] >= '0' && buffer[position] <= '9') {
+                value = value * 10 + (buffer[position] - '0');
+                position++;
+            }
+            if (position == start) {
+                return INVALID;
+            }
+            if (i == 0) {
+                arg0 = negative ? -value : value;
+            }
+            else {
+                arg1 = negative ? -value : value;
+            }
+        }
+        if (position != lineEnd) {
+            return INVALID;
+        }
+
+        command.set(opcode, arg0, arg1);
+        return consumed;
+    }
+
+    /**
+     * Writes a signed decimal integer
+     * @param value The value to write
+     * @param buffer The buffer to write into
+     * @param position The position in the buffer to start writing at
+     * @return The position after the last digit
+     */
+    private static int writeInt(int value, byte[] buffer, int position) {
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[position++] = '-';
+            remaining = -remaining;
+        }
+        int digits = 1;
+        for (long limit = 10; limit <= remaining; limit *= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Finds the opcode for a mnemonic
+     * @param buffer The buffer holding the mnemonic
+     * @param offset The position of the mnemonic
+     * @param length The length of the mnemonic
+     * @return The opcode, or -1 if the mnemonic is unknown
+     */
+    private static int findOpcode(byte[] buffer, int offset, int length) {
+        for (int opcode = 0; opcode < MNEMONIC_BYTES.length; opcode++) {
+            byte[] mnemonic = MNEMONIC_BYTES[opcode];
+            if (mnemonic.length != length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < length; i++) {
+                if (buffer[offset + i] != mnemonic[i]) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return opcode;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff for retrying connections.
+ *
+ * The delay ceiling doubles with every attempt up to a maximum. Each delay is between half
+ * the ceiling and the full ceiling, so retries never hammer the radio back to back and
+ * several controllers retrying at once spread out instead of colliding.
+ */
+public class Backoff {
+
+    /// Delay ceiling of the first retry, in milliseconds
+    public static final long DEFAULT_INITIAL_DELAY_MS = 250;
+    /// Largest delay ceiling, in milliseconds
+    public static final long DEFAULT_MAX_DELAY_MS = 8000;
+    /// Number of attempts before giving up
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    /// Delay ceiling of the first retry, in milliseconds
+    private final long initialDelayMs;
+    /// Largest delay ceiling, in milliseconds
+    private final long maxDelayMs;
+    /// Number of attempts before giving up
+    private final int maxAttempts;
+    /// Source of the jitter
+    private final Random random;
+
+    /**
+     * Constructor for a backoff with the default timing
+     */
+    public Backoff() {
+        this(DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    /**
+     * Constructor for this backoff
+     * @param initialDelayMs Delay ceiling of the first retry, in milliseconds
+     * @param maxDelayMs Largest delay ceiling, in milliseconds
+     * @param maxAttempts Number of attempts before giving up
+     * @param random Source of the jitter
+     */
+    public Backoff(long initialDelayMs, long maxDelayMs, int maxAttempts,
+                   @NonNull Random random) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid backoff timing");
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+    }
+
+    /**
+     * Gets the delay before an attempt
+     * @param attempt The attempt number, starting at 0
+     * @return The delay, in milliseconds
+     */
+    public long getDelayMs(int attempt) {
+        long ceiling = maxDelayMs;
+        if (attempt < 62 && initialDelayMs <= maxDelayMs >> Math.min(attempt, 62)) {
+            ceiling = initialDelayMs << attempt;
+        }
+        long half = ceiling / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (ceiling - half + 1));
+        }
+    }
+
+    /**
+     * Gets the number of attempts before giving up
+     * @return The maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Wraps a batch of encoded commands in one frame with a sequence number, and tracks the
+ * robot's cumulative acknowledgements.
+ *
+ * A batch frame is the sync byte, FRAME_BATCH, the sequence number, the payload length,
+ * the payload and an XOR checksum of the type, sequence, length and payload bytes. The
+ * payload is the batch's commands encoded back to back with the link's codec. The robot
+ * answers with "ACK n" or an ack frame, which acknowledges batch n and every batch before
+ * it, so a lost acknowledgement is covered by the next one.
+ *
+ * Sequence numbers wrap at 256. A batch enters the window of unacknowledged batches when
+ * it is framed, before it is written, so an acknowledgement that arrives while the write
+ * is still returning is matched. The framer remembers when each batch's write started to
+ * measure the acknowledgement time, and counts batches that were written but never
+ * acknowledged once they fall out of the window.
+ */
+public class BatchFramer {
+
+    /// Frame type of a batch. Above every opcode, so a decoder that predates batches skips it.
+    public static final int FRAME_BATCH = 0xB0;
+    /// Bytes in a batch frame besides the payload: sync, type, sequence, length and checksum
+    public static final int FRAME_OVERHEAD = 5;
+    /// Largest payload a batch frame can carry, in bytes
+    public static final int MAX_PAYLOAD = 255;
+    /// Number of distinct sequence numbers
+    public static final int SEQUENCE_RANGE = 256;
+
+    /// Batches written but not acknowledged, oldest first, at most half the sequence range
+    private static final int WINDOW = SEQUENCE_RANGE / 2;
+
+    /// Counts acknowledgements and their timing
+    private final LinkMetrics metrics;
+    /// Time each batch in the window was written, indexed by sequence number
+    private final long[] sentTimes = new long[SEQUENCE_RANGE];
+    /// Sequence number of the next batch
+    private int nextSequence = 0;
+    /// Sequence number of the oldest unacknowledged batch
+    private int oldestUnacked = 0;
+    /// Number of batches written and not yet acknowledged
+    private int unackedCount = 0;
+    /// Number of batches that left the window without an acknowledgement
+    private long unackedDropCount = 0;
+    /// Time from writing the newest acknowledged batch to its acknowledgement, or 0
+    private long lastAckLatency = 0;
+
+    /**
+     * Constructor for this batch framer
+     * @param metrics Counts acknowledgements and their timing
+     */
+    public BatchFramer(@NonNull LinkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the position in a frame buffer where the payload starts
+     * @return The payload offset
+     */
+    public static int getPayloadOffset() {
+        return FRAME_OVERHEAD - 1;
+    }
+
+    /**
+     * Writes the header and checksum around a payload already in the buffer, using the
+     * next sequence number, and adds the batch to the window of unacknowledged batches.
+     * Called on the writer thread right before the frame is written.
+     * @param buffer The frame buffer, with the payload at the payload offset
+     * @param payloadLength The length of the payload
+     * @param nanos The time the write starts
+     * @return The length of the whole frame
+     */
+    public synchronized int frame(byte[] buffer, int payloadLength, long nanos) {
+        if (payloadLength < 0 || payloadLength > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload length out of range: " + payloadLength);
+        }
+        int sequence = nextSequence;
+        nextSequence = (nextSequence + 1) % SEQUENCE_RANGE;
+        buffer[0] = BinaryCommandCodec.SYNC;
+        buffer[1] = (byte) FRAME_BATCH;
+        buffer[2] = (byte) sequence;
+        buffer[3] = (byte) payloadLength;
+        int checksumIndex = getPayloadOffset() + payloadLength;
+        buffer[checksumIndex] = BinaryCommandCodec.checksum(buffer, 1, checksumIndex - 1);
+
+        if (unackedCount == WINDOW) {
+            // The robot is not acknowledging; forget the oldest batch
+            oldestUnacked = (oldestUnacked + 1) % SEQUENCE_RANGE;
+            unackedCount--;
+            unackedDropCount++;
+        }
+        if (unackedCount == 0) {
+            oldestUnacked = sequence;
+        }
+        sentTimes[sequence] = nanos;
+        unackedCount++;
+        return checksumIndex + 1;
+    }
+
+    /**
+     * Acknowledges a batch and every batch before it. Called on the reader thread.
+     * @param sequence The sequence number of the newest batch the robot received
+     * @param nanos The time the acknowledgement arrived
+     * @return The number of batches newly acknowledged
+     */
+    public synchronized int onAck(int sequence, long nanos) {
+        if (sequence < 0 || sequence >= SEQUENCE_RANGE) {
+            return 0;
+        }
+        int acked = (sequence - oldestUnacked + SEQUENCE_RANGE) % SEQUENCE_RANGE + 1;
+        if (unackedCount == 0 || acked > unackedCount) {
+            // A duplicate, or an acknowledgement for a batch not in the window
+            return 0;
+        }
+        lastAckLatency = nanos - sentTimes[sequence];
+        metrics.batchAckLatency.record(lastAckLatency);
+        metrics.batchesAcked.add(acked);
+        oldestUnacked = (sequence + 1) % SEQUENCE_RANGE;
+        unackedCount -= acked;
+        return acked;
+    }
+
+    /**
+     * Gets the number of batches written and not yet acknowledged
+     * @return The unacknowledged count
+     */
+    public synchronized int getUnackedCount() {
+        return unackedCount;
+    }
+
+    /**
+     * Gets the number of batches that left the window without an acknowledgement
+     * @return The count of batches never acknowledged
+     */
+    public synchronized long getUnackedDropCount() {
+        return unackedDropCount;
+    }
+
+    /**
+     * Gets the time from writing the newest acknowledged batch to its acknowledgement
+     * @return The latency, in nanoseconds, or 0 if no batch has been acknowledged
+     */
+    public synchronized long getLastAckLatency() {
+        return lastAckLatency;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+/**
+ * Compact framed binary protocol for firmware that supports it.
+ *
+ * Each frame is a sync byte, the opcode, one signed byte per argument and an
+ * XOR checksum of the opcode and argument bytes. A stop is 3 bytes and a turn is 5,
+ * compared to up to 14 bytes for the same commands in the text protocol.
+ */
+public class BinaryCommandCodec implements CommandCodec {
+
+    /// Marks the start of every binary frame
+    public static final byte SYNC = (byte) 0xA5;
+
+    /// Sync byte, opcode, two arguments and the checksum
+    private static final int MAX_FRAME_LENGTH = 5;
+
+    /**
+     * Gets the largest number of bytes a single encoded command can take
+     * @return The maximum frame length in bytes
+     */
+    @Override
+    public int getMaxFrameLength() {
+        return MAX_FRAME_LENGTH;
+    }
+
+    /**
+     * Encodes a command as a binary frame. Arguments must fit in a signed byte.
+     * @param command The command to encode
+     * @param buffer The buffer to write into
+     * @param offset The position in the buffer to start writing at
+     * @return The number of bytes written
+     */
+    @Override
+    public int encode(RobotCommand command, byte[] buffer, int offset) {
+        int position = offset;
+        buffer[position++] = SYNC;
+        buffer[position++] = (byte) command.opcode;
+
+        int argumentCount = RobotCommand.getArgumentCount(command.opcode);
+        if (argumentCount > 0) {
+            buffer[position++] = toSignedByte(command.arg0);
+        }
+        if (argumentCount > 1) {
+            buffer[position++] = toSignedByte(command.arg1);
+        }
+
+        buffer[position] = checksum(buffer, offset + 1, position - offset - 1);
+        return position + 1 - offset;
+    }
+
+    /**
+     * Decodes a single binary frame
+     * @param buffer The buffer to read from
+     * @param offset The position in the buffer to start reading at
+     * @param length The number of readable bytes
+     * @param command Receives the decoded command
+     * @return The number of bytes consumed, INCOMPLETE, or INVALID
+     */
+    @Override
+    public int decode(byte[] buffer, int offset, int length, RobotCommand command) {
+        if (length < 1) {
+            return INCOMPLETE;
+        }
+        if (buffer[offset] != SYNC) {
+            return INVALID;
+        }
+        if (length < 2) {
+            return INCOMPLETE;
+        }
+
+        int opcode = buffer[offset + 1] & 0xFF;
+        if (opcode >= RobotCommand.OPCODE_COUNT) {
+            return INVALID;
+        }
+        int argumentCount = RobotCommand.getArgumentCount(opcode);
+        int frameLength = argumentCount + 3;
+        if (length < frameLength) {
+            return INCOMPLETE;
+        }
+        if (buffer[offset + frameLength - 1] != checksum(buffer, offset + 1, argumentCount + 1)) {
+            return INVALID;
+        }
+
+        command.set(opcode,
+                argumentCount > 0 ? buffer[offset + 2] : 0,
+                argumentCount > 1 ? buffer[offset + 3] : 0);
+        return frameLength;
+    }
+
+    /**
+     * Computes the XOR checksum of a range of bytes
+     * @param buffer The buffer holding the bytes
+     * @param offset The position of the first byte
+     * @param length The number of bytes
+     * @return The checksum byte
+     */
+    public static byte checksum(byte[] buffer, int offset, int length) {
+        int checksum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            checksum ^= buffer[i];
+        }
+        return (byte) checksum;
+    }
+
+    /**
+     * Narrows a command argument to a signed byte
+     * @param value The argument value
+     * @return The argument as a byte
+     */
+    private static byte toSignedByte(int value) {
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Argument out of range: " + value);
+        }
+        return (byte) value;
+    }
+}
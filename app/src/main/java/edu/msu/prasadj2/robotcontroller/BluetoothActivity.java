@@ -8,22 +8,24 @@ package edu.msu.prasadj2.robotcontroller;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.graphics.Color;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Settings;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.Button;
-import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -32,17 +34,34 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Starting activity for finding nearby devices and
- * establishing a bluetooth connection with the robot
+ * establishing a bluetooth connection with the robot.
+ *
+ * Robots the app has recently connected to are cached, and are dialed directly
+ * before falling back to a discovery scan.
+ *
+ * Devices are shown in recycled lists. Found broadcasts only record the device, and the
+ * lists are brought up to date once per frame, so a scan in a room full of devices
+ * rebinds a handful of rows per frame instead of inflating a view per broadcast.
+ * Every device seen is kept in an indexed registry, so selecting a row or handling a
+ * repeated broadcast is a single lookup, and discoveries not seen for a while are aged
+ * out when the next discovery starts. Discovery ends as soon as a configured robot is
+ * found, and that robot is selected.
+ *
+ * Debug builds can drive the robot simulator over the network instead of a robot, by
+ * launching with the simulator's address, for example from the emulator:
+ * adb shell am start -n edu.msu.prasadj2.robotcontroller/.BluetoothActivity
+ * -e simulator 10.0.2.2:7476
  */
 public class BluetoothActivity extends AppCompatActivity {
 
@@ -61,6 +80,31 @@ public class BluetoothActivity extends AppCompatActivity {
     /// Request code for turning on location services
     private static final int REQUEST_LOCATION_ENABLE = 3;
 
+    /// Name of the preferences file holding the cache of recently connected robots and the
+    /// connection strategy statistics. Also used by the robot control service.
+    static final String DEVICE_CACHE_PREFERENCES = "device_cache";
+    /// Preference key of the stored device cache
+    private static final String DEVICE_CACHE_KEY = "devices";
+    /// Most cached robots dialed at once before falling back to discovery
+    private static final int FAST_CONNECT_CANDIDATES = 3;
+    /// Longest time to wait for a cached robot before falling back to discovery, in milliseconds
+    private static final long FAST_CONNECT_TIMEOUT_MS = 5000;
+    /// Longest time a discovered device stays listed without being found again, in milliseconds
+    private static final long DISCOVERY_MAX_AGE_MS = 30000;
+    /// Preference key of the stored connection strategy statistics. Also used by the robot
+    /// control service.
+    static final String STRATEGY_STATS_KEY = "strategies";
+    /// Longest time one way of connecting to the selected robot may take, in milliseconds
+    private static final long CONNECT_ATTEMPT_TIMEOUT_MS =
+            StrategyConnector.DEFAULT_ATTEMPT_TIMEOUT_MS;
+    /// Log tag for device list frame times
+    private static final String LIST_METRIC_TAG = "List Metric";
+    /// Intent extra holding the host[:port] of a robot simulator to connect to instead of a
+    /// robot. Only honored by debug builds.
+    private static final String SIMULATOR_EXTRA = "simulator";
+    /// Longest time to wait for the robot simulator to accept, in milliseconds
+    private static final int SIMULATOR_CONNECT_TIMEOUT_MS = 5000;
+
     /// Tracks if the app has been granted all necessary permissions
     private boolean permissionsGranted = false;
     /// Determines if a new connection thread can be launched
@@ -75,16 +119,74 @@ public class BluetoothActivity extends AppCompatActivity {
     private LocationManager locationManager = null;
     /// The device's bluetooth adapter
     private BluetoothAdapter bluetoothAdapter = null;
-    /// The set of bluetooth devices this device has previously bonded to
-    private Set<BluetoothDevice> pairedDevices = new HashSet<BluetoothDevice>();
-    /// The set of bluetooth devices found during a discovery search
-    private Set<BluetoothDevice> discoveredDevices = new HashSet<BluetoothDevice>();
+    /// The paired devices and the devices found by discovery, indexed for lookup
+    private final DeviceRegistry<BluetoothDevice> deviceRegistry =
+            new DeviceRegistry<BluetoothDevice>();
 
+    /// Ranks discovered devices and ends discovery once a configured robot is found
+    private DiscoveryController discoveryController = null;
     /// The bluetooth device currently selected by the user
     private BluetoothDevice selectedDevice = null;
 
+    /// Races the ways of connecting to the selected robot, shared with every other connect
+    private StrategyConnector strategyConnector = null;
     /// Worker thread used to establish a connection with the robot
     private EstablishConnectionThread connectionThread = null;
+    /// Worker thread used to connect to recently connected robots without discovery
+    private FastConnectThread fastConnectThread = null;
+
+    /// Robots this app has recently connected to
+    private DeviceCache deviceCache = new DeviceCache();
+    /// The time this activity was created, for measuring the time to connected
+    private long launchNanos = 0;
+
+    /// Shows the paired devices
+    private DeviceListAdapter pairedAdapter = null;
+    /// Shows the devices found by discovery
+    private DeviceListAdapter discoveredAdapter = null;
+    /// Tracks if the device lists are updated on the next frame
+    private boolean frameScheduled = false;
+    /// Time spent bringing the device lists up to date each frame, in nanoseconds
+    private final LogLinearHistogram listFrameTime = new LogLinearHistogram();
+
+    /// Brings the device lists up to date once per frame
+    private final Choreographer.FrameCallback listFrameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+            long start = System.nanoTime();
+            pairedAdapter.getList().dispatch(pairedAdapter);
+            discoveredAdapter.getList().dispatch(discoveredAdapter);
+            listFrameTime.record(System.nanoTime() - start);
+        }
+    };
+
+    /// Selects the device behind a tapped row
+    private final DeviceListAdapter.Listener deviceTapListener =
+            new DeviceListAdapter.Listener() {
+        @Override
+        public void onDeviceTapped(DeviceListAdapter adapter, long id) {
+            onSelectDevice(id);
+        }
+    };
+
+    /// Stops discovery and selects the robot as soon as a configured robot is found
+    private final DiscoveryController.Listener robotFoundListener =
+            new DiscoveryController.Listener() {
+        @Override
+        public void onRobotFound(DiscoveryController.Candidate candidate,
+                                 long timeToRobotNanos) {
+            // Discovery takes radio time from connecting, so end it right away
+            if (bluetoothAdapter != null) {
+                bluetoothAdapter.cancelDiscovery();
+            }
+            Log.i("Connection Metric", "Found " + candidate.getAddress() + " "
+                    + TimeUnit.NANOSECONDS.toMillis(timeToRobotNanos)
+                    + " ms after discovery started, rssi " + candidate.getRssi());
+            selectDevice(deviceRegistry.getByAddress(candidate.getAddress()));
+        }
+    };
 
     /// The broadcast receiver this app will use to listen to bluetooth and location statuses
     private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver() {
@@ -102,9 +204,27 @@ public class BluetoothActivity extends AppCompatActivity {
                 }
             }
             else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
-                // Build a fresh list of devices whenever a new discovery process is started
-                discoveredDevices.clear();
-                clearDeviceListUI(R.id.discoveredDevicesList);
+                // Devices found recently stay listed; the ones not seen for a while are dropped
+                expireDiscoveredDevices();
+                discoveryController.onScanStarted(System.nanoTime());
+            }
+            else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+                if (discoveryController.isScanning()) {
+                    // No configured robot answered, so offer the most likely robot found
+                    discoveryController.onScanFinished();
+                    DiscoveryController.Candidate best = discoveryController.getBestRobot();
+                    if (best != null && selectedDevice == null) {
+                        selectDevice(deviceRegistry.getByAddress(best.getAddress()));
+                    }
+                }
+                Log.i(LIST_METRIC_TAG, "Discovery showed " + discoveredAdapter.getItemCount()
+                        + " devices, dropped " + discoveredAdapter.getList().getDuplicateCount()
+                        + " duplicate updates, frame p50 "
+                        + TimeUnit.NANOSECONDS.toMicros(listFrameTime.getPercentile(50))
+                        + " us, p99 "
+                        + TimeUnit.NANOSECONDS.toMicros(listFrameTime.getPercentile(99))
+                        + " us, max " + TimeUnit.NANOSECONDS.toMicros(listFrameTime.getMax())
+                        + " us over " + listFrameTime.getCount() + " frames");
             }
             else if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
                 int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE,
@@ -126,9 +246,24 @@ public class BluetoothActivity extends AppCompatActivity {
                 // Update the discovered device list whenever a new bluetooth device is found
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                 if (device != null) {
-                    discoveredDevices.add(device);
-                    updateDeviceListUI(R.id.discoveredDevicesList,
-                            device.getName(), device.getAddress());
+                    short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI,
+                            (short)DeviceCache.UNKNOWN_RSSI);
+                    deviceCache.recordRssi(device.getAddress(), rssi);
+                    DeviceRegistry.Entry<BluetoothDevice> entry = deviceRegistry.recordDiscovery(
+                            device, device.getAddress(), device.getName(),
+                            rssi == DeviceCache.UNKNOWN_RSSI ? DeviceRegistry.RSSI_UNKNOWN : rssi,
+                            device.getBondState(), SystemClock.elapsedRealtime());
+                    // Repeated broadcasts for the same device are dropped by the list
+                    if (discoveredAdapter.getList().update(entry.getId(), entry.getAddress(),
+                            entry.getName())) {
+                        scheduleListFrame();
+                    }
+                    BluetoothClass bluetoothClass =
+                            intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+                    discoveryController.onDeviceFound(entry.getAddress(), entry.getName(),
+                            entry.getRssi(), bluetoothClass == null
+                                    ? DiscoveryController.UNKNOWN_DEVICE_CLASS
+                                    : bluetoothClass.getDeviceClass(), System.nanoTime());
                 }
             }
         }
@@ -142,10 +277,27 @@ public class BluetoothActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_bluetooth);
+        launchNanos = System.nanoTime();
+        pairedAdapter = createDeviceList(R.id.pairedDevicesList);
+        discoveredAdapter = createDeviceList(R.id.discoveredDevicesList);
+        deviceCache = DeviceCache.decode(getSharedPreferences(DEVICE_CACHE_PREFERENCES,
+                MODE_PRIVATE).getString(DEVICE_CACHE_KEY, null));
+        discoveryController = new DiscoveryController(robotFoundListener);
+        for (DeviceCache.Entry entry : deviceCache.getCandidates(DeviceCache.MAX_ENTRIES)) {
+            discoveryController.addConfiguredRobot(entry.getAddress());
+        }
 
         // Register a broadcast receiver with bluetooth and location filters
         registerBroadcastReceiver();
 
+        // Debug builds can connect to the robot simulator instead, skipping bluetooth
+        String simulator = getIntent().getStringExtra(SIMULATOR_EXTRA);
+        if (BuildConfig.DEBUG && simulator != null) {
+            setReadyToConnect(false);
+            new SimulatorConnectThread(simulator).start();
+            return;
+        }
+
         // Get permissions
         requestNecessaryPermissions();
 
@@ -161,6 +313,9 @@ public class BluetoothActivity extends AppCompatActivity {
                 finish();
                 return;
             }
+            strategyConnector = BluetoothTransport.getConnector(bluetoothAdapter);
+            strategyConnector.restore(getSharedPreferences(DEVICE_CACHE_PREFERENCES,
+                    MODE_PRIVATE).getString(STRATEGY_STATS_KEY, null));
 
             locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
             if (locationManager == null) {
@@ -185,12 +340,8 @@ public class BluetoothActivity extends AppCompatActivity {
             else {
                 // Bluetooth was already enabled beforehand.
                 // Populate list of paired (any previously bonded) devices.
-                pairedDevices = bluetoothAdapter.getBondedDevices();
-                for (BluetoothDevice device : pairedDevices) {
-                    updateDeviceListUI(R.id.pairedDevicesList,
-                            device.getName(), device.getAddress());
-                }
-                bluetoothAdapter.startDiscovery();
+                showPairedDevices(bluetoothAdapter.getBondedDevices());
+                startFastConnectOrDiscovery();
             }
 
         }
@@ -204,12 +355,17 @@ public class BluetoothActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         unregisterReceiver(broadcastReceiver);
+        Choreographer.getInstance().removeFrameCallback(listFrameCallback);
         if (bluetoothAdapter != null) {
             bluetoothAdapter.cancelDiscovery();
         }
         if (connectionThread != null) {
             connectionThread.terminate();
         }
+        if (fastConnectThread != null) {
+            fastConnectThread.terminate();
+        }
+        saveDeviceCache();
         for (AlertDialog alertDialog: alertDialogs) {
             if (alertDialog != null && alertDialog.isShowing()) {
                 alertDialog.dismiss();
@@ -218,25 +374,25 @@ public class BluetoothActivity extends AppCompatActivity {
     }
 
     /**
-     * Button handler for bluetooth device selection
-     * @param view The current view
+     * Handler for bluetooth device selection
+     * @param id The id of the tapped device's row
      */
-    public void onSelectDevice(View view) {
+    private void onSelectDevice(long id) {
         if (!isConnectedToRobot()) {
-            Set<BluetoothDevice> allDevices = new HashSet<BluetoothDevice>(pairedDevices);
-            allDevices.addAll(discoveredDevices);
-            for (BluetoothDevice device : allDevices) {
-                if ((device.getAddress() != null &&
-                        device.getAddress().equals(((Button) view).getText().toString())) ||
-                        (device.getName() != null &&
-                                device.getName().equals(((Button) view).getText().toString()))) {
-                    selectedDevice = device;
-                    ((Button) findViewById(R.id.connect)).setEnabled(true);
-                    clearSelectedDevicesUI();
-                    view.setBackgroundColor(Color.LTGRAY);
-                    return;
-                }
-            }
+            selectDevice(deviceRegistry.getById(id));
+        }
+    }
+
+    /**
+     * Selects a device to connect to and highlights its row
+     * @param entry The device's registry entry, or null to do nothing
+     */
+    private void selectDevice(@Nullable DeviceRegistry.Entry<BluetoothDevice> entry) {
+        if (entry != null && !isConnectedToRobot()) {
+            selectedDevice = entry.getDevice();
+            ((Button) findViewById(R.id.connect)).setEnabled(true);
+            pairedAdapter.setSelectedAddress(entry.getAddress());
+            discoveredAdapter.setSelectedAddress(entry.getAddress());
         }
     }
 
@@ -305,7 +461,7 @@ public class BluetoothActivity extends AppCompatActivity {
             case REQUEST_BLUETOOTH_ENABLE:
                 if (resultCode == RESULT_OK) {
                     if (bluetoothAdapter != null && !bluetoothAdapter.isDiscovering()) {
-                        bluetoothAdapter.startDiscovery();
+                        startFastConnectOrDiscovery();
                     }
                 }
                 else {
@@ -530,56 +686,72 @@ public class BluetoothActivity extends AppCompatActivity {
         IntentFilter filter = new IntentFilter();
         filter.addAction(LocationManager.PROVIDERS_CHANGED_ACTION);
         filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
         filter.addAction(BluetoothDevice.ACTION_FOUND);
         registerReceiver(broadcastReceiver, filter);
     }
 
     /**
-     * Adds to the list of bluetooth devices this device has found or has previously paired with
-     * @param listId The list to update on screen (previously paired or discovered nearby).
-     * @param deviceName The name of the bluetooth device
-     * @param deviceHardwareAddress The MAC address of the bluetooth device
+     * Sets up a recycled list of bluetooth devices on screen
+     * @param listId The recycler view showing the list (previously paired or discovered nearby)
+     * @return The adapter showing the list
      */
-    private void updateDeviceListUI(int listId, String deviceName, String deviceHardwareAddress) {
-        LinearLayout linearLayout = (LinearLayout)findViewById(listId);
-        Button deviceEntry = new Button(this, null,
-                android.R.attr.borderlessButtonStyle);
-        deviceEntry.setLayoutParams(new
-                LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT,
-                LinearLayout.LayoutParams.WRAP_CONTENT));
-        deviceEntry.setText(deviceName == null ? deviceHardwareAddress : deviceName);
-        deviceEntry.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                onSelectDevice(v);
-            }
-        });
-        linearLayout.addView(deviceEntry);
-        linearLayout.invalidate();
+    private DeviceListAdapter createDeviceList(int listId) {
+        RecyclerView recyclerView = (RecyclerView)findViewById(listId);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setHasFixedSize(true);
+        DeviceListAdapter adapter = new DeviceListAdapter(new DeviceList(), deviceTapListener);
+        recyclerView.setAdapter(adapter);
+        return adapter;
     }
 
     /**
-     * Clears a list of bluetooth devices on screen
-     * @param listId The specific list to clear
+     * Shows the paired devices, replacing the paired devices on screen
+     * @param bondedDevices The devices this device has previously bonded to
      */
-    private void clearDeviceListUI(int listId) {
-        LinearLayout linearLayout = (LinearLayout)findViewById(listId);
-        linearLayout.removeAllViews();
-        linearLayout.invalidate();
+    private void showPairedDevices(@NonNull Set<BluetoothDevice> bondedDevices) {
+        DeviceList list = pairedAdapter.getList();
+        list.clear();
+        for (BluetoothDevice device : bondedDevices) {
+            DeviceRegistry.Entry<BluetoothDevice> entry = deviceRegistry.recordBonded(device,
+                    device.getAddress(), device.getName());
+            list.update(entry.getId(), entry.getAddress(), entry.getName());
+            // A paired robot module is one the user set up, so finding it ends discovery
+            if (DiscoveryController.isRobotName(entry.getName())) {
+                discoveryController.addConfiguredRobot(entry.getAddress());
+            }
+        }
+        scheduleListFrame();
     }
 
     /**
-     * UI update for deselecting a bluetooth device from the devices list
+     * Drops the discovered devices that have not been found again for a while
      */
-    private void clearSelectedDevicesUI() {
-        LinearLayout linearLayout = (LinearLayout)findViewById(R.id.pairedDevicesList);
-        for (int i = 0; i < linearLayout.getChildCount(); i++) {
-            linearLayout.getChildAt(i).setBackgroundColor(Color.TRANSPARENT);
+    private void expireDiscoveredDevices() {
+        List<DeviceRegistry.Entry<BluetoothDevice>> expired = deviceRegistry.expire(
+                SystemClock.elapsedRealtime(), DISCOVERY_MAX_AGE_MS);
+        for (DeviceRegistry.Entry<BluetoothDevice> entry : expired) {
+            discoveredAdapter.getList().remove(entry.getAddress());
+            if (!entry.isBonded() && selectedDevice != null
+                    && entry.getAddress().equals(selectedDevice.getAddress())) {
+                selectedDevice = null;
+                discoveredAdapter.setSelectedAddress(null);
+                ((Button)findViewById(R.id.connect)).setEnabled(false);
+            }
         }
-        linearLayout = (LinearLayout)findViewById(R.id.discoveredDevicesList);
-        for (int i = 0; i < linearLayout.getChildCount(); i++) {
-            linearLayout.getChildAt(i).setBackgroundColor(Color.TRANSPARENT);
+        if (!expired.isEmpty()) {
+            scheduleListFrame();
+        }
+    }
+
+    /**
+     * Brings the device lists up to date on the next frame, if they are not already due to be
+     */
+    private void scheduleListFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(listFrameCallback);
         }
     }
 
@@ -587,16 +759,22 @@ public class BluetoothActivity extends AppCompatActivity {
      * Resets (clears) the bluetooth functionality for this app
      */
     private void resetBluetooth() {
-        discoveredDevices.clear();
-        pairedDevices = new HashSet<BluetoothDevice>();
-        clearDeviceListUI(R.id.discoveredDevicesList);
-        clearDeviceListUI(R.id.pairedDevicesList);
+        deviceRegistry.clear();
+        discoveredAdapter.getList().clear();
+        pairedAdapter.getList().clear();
+        pairedAdapter.setSelectedAddress(null);
+        discoveredAdapter.setSelectedAddress(null);
+        scheduleListFrame();
         selectedDevice = null;
         ((Button)findViewById(R.id.connect)).setEnabled(false);
         ((Button)findViewById(R.id.control)).setEnabled(false);
         if (connectionThread != null) {
             connectionThread.terminate();
         }
+        if (fastConnectThread != null) {
+            fastConnectThread.terminate();
+            fastConnectThread = null;
+        }
         setReadyToConnect(true);
         setConnectedToRobot(false);
     }
@@ -610,12 +788,88 @@ public class BluetoothActivity extends AppCompatActivity {
             if (!bluetoothAdapter.isDiscovering()) {
                 bluetoothAdapter.startDiscovery();
             }
-            pairedDevices = bluetoothAdapter.getBondedDevices();
+            showPairedDevices(bluetoothAdapter.getBondedDevices());
+        }
+    }
+
+    /**
+     * Dials the most promising recently connected robots directly, falling back to
+     * discovery if there are none or none of them answer
+     */
+    private void startFastConnectOrDiscovery() {
+        List<DeviceCache.Entry> candidates = deviceCache.getCandidates(FAST_CONNECT_CANDIDATES);
+        if (candidates.isEmpty() || !isReadyToConnect() || isConnectedToRobot()) {
+            if (!bluetoothAdapter.isDiscovering()) {
+                bluetoothAdapter.startDiscovery();
+            }
+            return;
         }
-        for (BluetoothDevice device : pairedDevices) {
-            updateDeviceListUI(R.id.pairedDevicesList,
-                    device.getName(), device.getAddress());
+
+        setReadyToConnect(false);
+        List<String> addresses = new ArrayList<String>();
+        for (DeviceCache.Entry candidate : candidates) {
+            addresses.add(candidate.getAddress());
         }
+        Toast toast = Toast.makeText(this, R.string.attempting_fast_connection,
+                Toast.LENGTH_SHORT);
+        toast.setGravity(Gravity.CENTER, 0, 0);
+        toast.show();
+        fastConnectThread = new FastConnectThread(addresses);
+        fastConnectThread.start();
+    }
+
+    /**
+     * Stores the device cache so it survives app restarts
+     */
+    private void saveDeviceCache() {
+        getSharedPreferences(DEVICE_CACHE_PREFERENCES, MODE_PRIVATE).edit()
+                .putString(DEVICE_CACHE_KEY, deviceCache.encode()).apply();
+    }
+
+    /**
+     * Stores the connection strategy statistics so the fastest strategy is tried first
+     * after app restarts
+     */
+    private void saveStrategyStats() {
+        getSharedPreferences(DEVICE_CACHE_PREFERENCES, MODE_PRIVATE).edit()
+                .putString(STRATEGY_STATS_KEY, strategyConnector.encode()).apply();
+    }
+
+    /**
+     * Makes a new robot connection available to the app, caches a bluetooth robot for fast
+     * reconnects, and records the time to connected. Called on a worker thread.
+     * @param transport The connection to the robot
+     * @param dialNanos The time the connect itself took, in nanoseconds
+     */
+    private void onRobotConnected(@NonNull RobotTransport transport, long dialNanos) {
+        GlobalSocketManager.setTransport(transport);
+        if (transport instanceof BluetoothTransport) {
+            BluetoothTransport bluetoothTransport = (BluetoothTransport)transport;
+            String address = bluetoothTransport.getAddress();
+            BluetoothDevice device = bluetoothTransport.getSocket().getRemoteDevice();
+            if (address != null) {
+                deviceCache.recordSuccess(address, device == null ? null : device.getName(),
+                        TimeUnit.NANOSECONDS.toMillis(dialNanos), System.currentTimeMillis());
+                saveDeviceCache();
+            }
+        }
+        Log.i("Connection Metric", "Connected to " + transport.getName() + " "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchNanos)
+                + " ms after launch, connect took "
+                + TimeUnit.NANOSECONDS.toMillis(dialNanos) + " ms");
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                ((Button)findViewById(R.id.connect)).setEnabled(false);
+                ((Button)findViewById(R.id.control)).setEnabled(true);
+                Toast toast = Toast.makeText(BluetoothActivity.this,
+                        R.string.connection_successful, Toast.LENGTH_SHORT);
+                toast.setGravity(Gravity.CENTER, 0, 0);
+                toast.show();
+            }
+        });
+        setConnectedToRobot(true);
     }
 
     /**
@@ -654,31 +908,20 @@ public class BluetoothActivity extends AppCompatActivity {
      * Class for the worker thread that will set up the initial connection to the robot
      */
     private class EstablishConnectionThread extends Thread {
-        // The specific UUID for the Arduino HC-06 bluetooth module
-        private static final String UUID_STRING = "00001101-0000-1000-8000-00805F9B34FB";
-        // The robot's bluetooth socket
-        private final BluetoothSocket socket;
+        /// The hardware address of the robot's bluetooth module
+        private final String address;
 
         /**
          * Constructor for this connection thread
-         * Attempts to set up the bluetooth socket
          * @param device The robot's bluetooth module
          */
         public EstablishConnectionThread(@NonNull BluetoothDevice device) {
-            BluetoothSocket testSocket = null;
-            try {
-                testSocket = device.createRfcommSocketToServiceRecord(UUID.fromString(UUID_STRING));
-            } catch (IOException e) {
-                Toast toast = Toast.makeText(BluetoothActivity.this,
-                        R.string.socket_creation_failed, Toast.LENGTH_SHORT);
-                toast.setGravity(Gravity.CENTER, 0, 0);
-                toast.show();
-            }
-            socket = testSocket;
+            address = device.getAddress();
         }
 
         /**
-         * Attempts to establish a connection with the robot
+         * Attempts to establish a connection with the robot, racing the ways of connecting
+         * with the fastest one so far started first
          */
         @Override
         public void run() {
@@ -686,9 +929,12 @@ public class BluetoothActivity extends AppCompatActivity {
                 bluetoothAdapter.cancelDiscovery();
             }
 
+            StrategyConnector.Result result;
             try {
-                socket.connect();
+                result = strategyConnector.connect(address, CONNECT_ATTEMPT_TIMEOUT_MS,
+                        StrategyConnector.DEFAULT_STAGGER_MS);
             } catch (IOException e) {
+                saveStrategyStats();
                 setReadyToConnect(true);
                 runOnUiThread(new Runnable() {
                     @Override
@@ -699,46 +945,140 @@ public class BluetoothActivity extends AppCompatActivity {
                         toast.show();
                     }
                 });
-                try {
-                    socket.close();
-                } catch (IOException ex) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast toast = Toast.makeText(BluetoothActivity.this,
-                                    R.string.socket_close_fail, Toast.LENGTH_SHORT);
-                            toast.setGravity(Gravity.CENTER, 0, 0);
-                            toast.show();
-                        }
-                    });
-                }
+                return;
+            } catch (InterruptedException e) {
+                // Terminated
                 return;
             }
 
-            // Passes the socket to the app's global socket manager if the connection is successful
-            GlobalSocketManager.setBluetoothSocket(socket);
-            runOnUiThread(new Runnable() {
+            saveStrategyStats();
+            StrategyConnector.Stats stats = strategyConnector.getStats(result.strategy);
+            Log.i("Connection Metric", "Connected by " + result.strategy + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(result.connectNanos) + " ms, "
+                    + stats.getSuccesses() + " of " + stats.getAttempts()
+                    + " attempts succeeded, failed " + result.failedStrategies);
+
+            // Passes the connection to the app's global socket manager
+            onRobotConnected(result.transport, result.elapsedNanos);
+        }
+
+        /**
+         * Terminates the thread, cancelling the connection attempts
+         */
+        public void terminate() {
+            interrupt();
+        }
+    }
+
+    /**
+     * Class for the worker thread that connects to recently connected robots directly,
+     * without a discovery scan
+     */
+    private class FastConnectThread extends Thread {
+        /// The addresses of the robots to dial
+        private final List<String> addresses;
+
+        /**
+         * Constructor for this fast connect thread
+         * @param addresses The addresses of the robots to dial, best first
+         */
+        public FastConnectThread(@NonNull List<String> addresses) {
+            this.addresses = addresses;
+        }
+
+        /**
+         * Dials every robot at once and keeps the first connection,
+         * or starts discovery if none connect
+         */
+        @Override
+        public void run() {
+            ParallelConnector connector = new ParallelConnector(new ParallelConnector.Dialer() {
                 @Override
-                public void run() {
-                    ((Button)findViewById(R.id.connect)).setEnabled(false);
-                    ((Button)findViewById(R.id.control)).setEnabled(true);
-                    Toast toast = Toast.makeText(BluetoothActivity.this,
-                            R.string.connection_successful, Toast.LENGTH_SHORT);
-                    toast.setGravity(Gravity.CENTER, 0, 0);
-                    toast.show();
+                public StrategyConnector.Attempt open(String address) throws IOException {
+                    return BluetoothTransport.open(bluetoothAdapter, address);
                 }
             });
-            setConnectedToRobot(true);
+
+            try {
+                ParallelConnector.Result result =
+                        connector.connect(addresses, FAST_CONNECT_TIMEOUT_MS);
+                for (String address : result.failedAddresses) {
+                    deviceCache.recordFailure(address);
+                }
+                saveStrategyStats();
+                onRobotConnected(result.transport, result.elapsedNanos);
+            } catch (IOException e) {
+                for (String address : addresses) {
+                    deviceCache.recordFailure(address);
+                }
+                saveDeviceCache();
+                saveStrategyStats();
+                setReadyToConnect(true);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Fall back to finding the robot by hand
+                        if (bluetoothAdapter != null && !bluetoothAdapter.isDiscovering()) {
+                            bluetoothAdapter.startDiscovery();
+                        }
+                    }
+                });
+            } catch (InterruptedException e) {
+                // Terminated
+            }
         }
 
         /**
-         * Terminates the thread by closing the socket
+         * Terminates the thread, cancelling the dials still connecting. Connections that
+         * complete afterwards are closed.
          */
         public void terminate() {
+            interrupt();
+        }
+    }
+
+    /**
+     * Class for the worker thread that connects to the robot simulator over the network,
+     * in debug builds only
+     */
+    private class SimulatorConnectThread extends Thread {
+        /// The simulator's host name or address
+        private final String host;
+        /// The simulator's TCP port
+        private final int port;
+
+        /**
+         * Constructor for this simulator connect thread
+         * @param address The simulator's address as host[:port]
+         */
+        public SimulatorConnectThread(@NonNull String address) {
+            int colon = address.lastIndexOf(':');
+            host = colon < 0 ? address : address.substring(0, colon);
+            port = colon < 0 ? TcpTransport.SIMULATOR_PORT
+                    : Integer.parseInt(address.substring(colon + 1));
+        }
+
+        /**
+         * Connects to the simulator and makes it available to the app like a robot
+         */
+        @Override
+        public void run() {
+            long start = System.nanoTime();
             try {
-                socket.close();
-            } catch (IOException ex) {
-                // Ignore
+                RobotTransport transport =
+                        TcpTransport.connect(host, port, SIMULATOR_CONNECT_TIMEOUT_MS);
+                onRobotConnected(transport, System.nanoTime() - start);
+            } catch (IOException e) {
+                Log.w("Connection Metric", "Cannot connect to the simulator", e);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast toast = Toast.makeText(BluetoothActivity.this,
+                                R.string.connection_failed, Toast.LENGTH_SHORT);
+                        toast.setGravity(Gravity.CENTER, 0, 0);
+                        toast.show();
+                    }
+                });
             }
         }
     }
@@ -0,0 +1,364 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Robot transport over a connected bluetooth RFCOMM socket
+ *
+ * Every connect in the app goes through one shared strategy connector, so the statistics
+ * of each way of connecting cover the first connect, fast reconnects to cached robots and
+ * the service's reconnects alike, and the fastest way is always started first.
+ */
+public class BluetoothTransport implements RobotTransport {
+    /// The serial port profile UUID of the Arduino HC-06 bluetooth module
+    public static final UUID SERIAL_PORT_UUID =
+            UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    /// Name of the strategy connecting through an encrypted socket found by service discovery
+    public static final String STRATEGY_SECURE = "secure";
+    /// Name of the strategy connecting through an unencrypted socket found by service discovery
+    public static final String STRATEGY_INSECURE = "insecure";
+    /// Name of the strategy connecting straight to RFCOMM channel 1, skipping service discovery
+    public static final String STRATEGY_CHANNEL_1 = "channel1";
+
+    /// Ways of connecting tried per robot when dialing several cached robots at once
+    private static final int FAST_CONNECT_STRATEGIES = 1;
+
+    /// Races the ways of connecting for every connect in the app. Guarded by the class.
+    private static StrategyConnector sharedConnector = null;
+
+    /// The connected bluetooth socket
+    private final BluetoothSocket socket;
+
+    /**
+     * An attempt to connect through one bluetooth socket
+     */
+    private static class SocketAttempt implements StrategyConnector.Attempt {
+        /// The socket to connect
+        private final BluetoothSocket socket;
+
+        /**
+         * Constructor for this attempt
+         * @param socket The socket to connect
+         */
+        SocketAttempt(BluetoothSocket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Connects the socket
+         * @return The connected transport
+         * @throws IOException If the connect fails or is cancelled
+         */
+        @Override
+        public RobotTransport connect() throws IOException {
+            try {
+                socket.connect();
+            } catch (IOException e) {
+                cancel();
+                throw e;
+            }
+            return new BluetoothTransport(socket);
+        }
+
+        /**
+         * Closes the socket, failing a connect in progress
+         */
+        @Override
+        public void cancel() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * An attempt to connect through the shared strategy connector, cancelled by
+     * interrupting the thread that is connecting
+     */
+    private static class ConnectorAttempt implements StrategyConnector.Attempt {
+        /// This device's bluetooth adapter
+        private final BluetoothAdapter adapter;
+        /// The hardware address of the robot's bluetooth module
+        private final String address;
+        /// The thread that is connecting, or null. Guarded by this.
+        private Thread connectingThread = null;
+        /// Tracks if the attempt has been cancelled. Guarded by this.
+        private boolean cancelled = false;
+
+        /**
+         * Constructor for this attempt
+         * @param adapter This device's bluetooth adapter
+         * @param address The hardware address of the robot's bluetooth module
+         */
+        ConnectorAttempt(BluetoothAdapter adapter, String address) {
+            this.adapter = adapter;
+            this.address = address;
+        }
+
+        /**
+         * Connects to the robot the way that has connected fastest. Attempts are dialed
+         * several at once, so racing every way for each one would open too many sockets.
+         * @return The connected transport
+         * @throws IOException If the connect failed or the attempt is cancelled
+         */
+        @Override
+        public RobotTransport connect() throws IOException {
+            synchronized (this) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Connect cancelled");
+                }
+                connectingThread = Thread.currentThread();
+            }
+            try {
+                return BluetoothTransport.connect(adapter, address, FAST_CONNECT_STRATEGIES);
+            } finally {
+                synchronized (this) {
+                    connectingThread = null;
+                }
+            }
+        }
+
+        /**
+         * Interrupts the connect in progress, which cancels the race's socket attempts
+         */
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            if (connectingThread != null) {
+                connectingThread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens one kind of bluetooth socket to a robot
+     */
+    private static class SocketStrategy implements StrategyConnector.Strategy {
+        /// This device's bluetooth adapter
+        private final BluetoothAdapter adapter;
+        /// The strategy's name, one of the STRATEGY_ constants
+        private final String name;
+
+        /**
+         * Constructor for this strategy
+         * @param adapter This device's bluetooth adapter
+         * @param name The strategy's name, one of the STRATEGY_ constants
+         */
+        SocketStrategy(BluetoothAdapter adapter, String name) {
+            this.adapter = adapter;
+            this.name = name;
+        }
+
+        /**
+         * Gets the strategy's name
+         * @return The name
+         */
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Creates the strategy's kind of socket to a robot
+         * @param address The hardware address of the robot's bluetooth module
+         * @return The attempt to connect the socket
+         * @throws IOException If the socket cannot be created
+         */
+        @Override
+        public StrategyConnector.Attempt open(String address) throws IOException {
+            BluetoothDevice device = adapter.getRemoteDevice(address);
+            if (STRATEGY_SECURE.equals(name)) {
+                return new SocketAttempt(
+                        device.createRfcommSocketToServiceRecord(SERIAL_PORT_UUID));
+            }
+            if (STRATEGY_INSECURE.equals(name)) {
+                return new SocketAttempt(
+                        device.createInsecureRfcommSocketToServiceRecord(SERIAL_PORT_UUID));
+            }
+            // Not in the public API, but present on every release and the only way to skip
+            // a service lookup that some modules answer slowly
+            try {
+                Method method = device.getClass().getMethod("createRfcommSocket", int.class);
+                return new SocketAttempt((BluetoothSocket)method.invoke(device, 1));
+            } catch (Exception e) {
+                throw new IOException("Cannot create a channel 1 socket", e);
+            }
+        }
+    }
+
+    /**
+     * Constructor for this bluetooth transport
+     * @param socket A connected bluetooth socket
+     */
+    public BluetoothTransport(@NonNull BluetoothSocket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Gets the strategy connector every connect in the app goes through, creating it on
+     * first use
+     * @param adapter This device's bluetooth adapter
+     * @return The shared strategy connector
+     */
+    public static synchronized StrategyConnector getConnector(
+            @NonNull BluetoothAdapter adapter) {
+        if (sharedConnector == null) {
+            sharedConnector = new StrategyConnector(createStrategies(adapter));
+        }
+        return sharedConnector;
+    }
+
+    /**
+     * Connects directly to a robot's bluetooth module by hardware address, without discovery,
+     * racing the ways of connecting through the shared strategy connector
+     * @param adapter This device's bluetooth adapter
+     * @param address The hardware address of the robot's bluetooth module
+     * @return The connected transport
+     * @throws IOException If the connection fails. An InterruptedIOException if the calling
+     *                     thread is interrupted, which is interrupted again.
+     */
+    public static BluetoothTransport connect(@NonNull BluetoothAdapter adapter,
+                                             @NonNull String address) throws IOException {
+        return connect(adapter, address, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Connects directly to a robot's bluetooth module by hardware address, racing the best
+     * few ways of connecting through the shared strategy connector
+     * @param adapter This device's bluetooth adapter
+     * @param address The hardware address of the robot's bluetooth module
+     * @param strategyCount The most ways of connecting to race, best first
+     * @return The connected transport
+     * @throws IOException If the connection fails. An InterruptedIOException if the calling
+     *                     thread is interrupted, which is interrupted again.
+     */
+    private static BluetoothTransport connect(BluetoothAdapter adapter, String address,
+                                              int strategyCount) throws IOException {
+        // Discovery slows down connecting
+        adapter.cancelDiscovery();
+        try {
+            StrategyConnector.Result result = getConnector(adapter).connect(address,
+                    StrategyConnector.DEFAULT_ATTEMPT_TIMEOUT_MS,
+                    StrategyConnector.DEFAULT_STAGGER_MS, strategyCount);
+            return (BluetoothTransport)result.transport;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Connect interrupted");
+        }
+    }
+
+    /**
+     * Prepares a direct connection to a robot's bluetooth module by hardware address
+     * through the shared strategy connector, which can be cancelled from another thread
+     * while it connects. Only the way that has connected fastest is tried, since several
+     * of these are dialed at once.
+     * @param adapter This device's bluetooth adapter
+     * @param address The hardware address of the robot's bluetooth module
+     * @return The attempt to connect
+     */
+    public static StrategyConnector.Attempt open(@NonNull BluetoothAdapter adapter,
+                                                 @NonNull String address) {
+        return new ConnectorAttempt(adapter, address);
+    }
+
+    /**
+     * Creates the ways of connecting to a robot, for racing with a strategy connector
+     * @param adapter This device's bluetooth adapter
+     * @return The strategies, in the order to use before any have been measured
+     */
+    public static List<StrategyConnector.Strategy> createStrategies(
+            @NonNull BluetoothAdapter adapter) {
+        List<StrategyConnector.Strategy> strategies = new ArrayList<StrategyConnector.Strategy>();
+        strategies.add(new SocketStrategy(adapter, STRATEGY_SECURE));
+        strategies.add(new SocketStrategy(adapter, STRATEGY_INSECURE));
+        strategies.add(new SocketStrategy(adapter, STRATEGY_CHANNEL_1));
+        return strategies;
+    }
+
+    /**
+     * Gets the hardware address of the robot's bluetooth module
+     * @return The hardware address, or null if it is not known
+     */
+    public String getAddress() {
+        BluetoothDevice device = socket.getRemoteDevice();
+        return device == null ? null : device.getAddress();
+    }
+
+    /**
+     * Gets the underlying bluetooth socket
+     * @return The bluetooth socket
+     */
+    public BluetoothSocket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Gets the stream of bytes sent by the robot
+     * @return The input stream
+     * @throws IOException If the stream is not available
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    /**
+     * Gets the stream of bytes sent to the robot
+     * @return The output stream
+     * @throws IOException If the stream is not available
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    /**
+     * Determines if the transport is still connected
+     * @return true if the transport is connected
+     */
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    /**
+     * Gets a short description of the remote end
+     * @return The transport name
+     */
+    @Override
+    public String getName() {
+        String address = getAddress();
+        return address == null ? "bluetooth" : "bluetooth:" + address;
+    }
+
+    /**
+     * Closes the socket
+     * @throws IOException If closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+/**
+ * Converts robot commands to and from the bytes sent over the link.
+ *
+ * Implementations write into a caller supplied buffer and must not allocate
+ * while encoding, since encoding happens once for every command sent.
+ */
+public interface CommandCodec {
+
+    /// Returned by decode when the buffer does not yet hold a complete command
+    int INCOMPLETE = 0;
+    /// Returned by decode when the buffer does not start with a valid command
+    int INVALID = -1;
+
+    /**
+     * Gets the largest number of bytes a single encoded command can take
+     * @return The maximum frame length in bytes
+     */
+    int getMaxFrameLength();
+
+    /**
+     * Encodes a command into a buffer
+     * @param command The command to encode
+     * @param buffer The buffer to write into
+     * @param offset The position in the buffer to start writing at
+     * @return The number of bytes written
+     */
+    int encode(RobotCommand command, byte[] buffer, int offset);
+
+    /**
+     * Decodes a single command from the start of a buffer region
+     * @param buffer The buffer to read from
+     * @param offset The position in the buffer to start reading at
+     * @param length The number of readable bytes
+     * @param command Receives the decoded command
+     * @return The number of bytes consumed, INCOMPLETE, or INVALID
+     */
+    int decode(byte[] buffer, int offset, int length, RobotCommand command);
+}
@@ -0,0 +1,292 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, coalescing queue of commands waiting to be written to the robot.
+ *
+ * A stop command always jumps ahead of everything else and discards any motion
+ * command that has not been sent yet. Motion commands share a single slot, so only
+ * the latest motion target is ever sent. Any other command is kept in order in a
+ * bounded ring and is dropped when the ring is full.
+ *
+ * The queue remembers when each waiting command was offered, so the writer can measure how
+ * long it waited. All methods are synchronized. The queue is filled by the UI thread and
+ * drained by the command writer thread.
+ */
+public class CommandQueue {
+
+    /// Default number of ordered (non-motion) commands that can be waiting at once
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /// Marks the motion slot as empty
+    private static final int NO_MOTION = -1;
+
+    /// Tracks if a stop command is waiting to be sent
+    private boolean stopPending = false;
+    /// Time the waiting stop command was offered, in nanoseconds
+    private long stopNanos = 0;
+
+    /// Opcode of the waiting motion command, or NO_MOTION
+    private int motionOpcode = NO_MOTION;
+    /// First argument of the waiting motion command
+    private int motionArg0 = 0;
+    /// Second argument of the waiting motion command
+    private int motionArg1 = 0;
+    /// Time the waiting motion command was offered, in nanoseconds
+    private long motionNanos = 0;
+
+    /// Ring of waiting ordered commands, three ints (opcode, arg0, arg1) per entry
+    private final int[] ring;
+    /// Time each entry in the ring was offered, in nanoseconds
+    private final long[] ringNanos;
+    /// The number of entries the ring can hold
+    private final int capacity;
+    /// Index of the oldest entry in the ring
+    private int head = 0;
+    /// Number of entries in the ring
+    private int size = 0;
+
+    /// Number of commands rejected because the queue was full
+    private long droppedCount = 0;
+    /// Number of motion commands superseded before they could be sent
+    private long coalescedCount = 0;
+    /// Highest depth the queue has reached
+    private int maxDepth = 0;
+
+    /// Time the command last removed was offered, in nanoseconds
+    private long polledNanos = 0;
+    /// Tracks if a thread waiting for a command has been asked to stop waiting
+    private boolean woken = false;
+
+    /// Tracks if the queue has been closed
+    private boolean closed = false;
+
+    /**
+     * Constructor for a queue with the default capacity
+     */
+    public CommandQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for this command queue
+     * @param capacity The number of ordered commands that can be waiting at once
+     */
+    public CommandQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        ring = new int[capacity * 3];
+        ringNanos = new long[capacity];
+    }
+
+    /**
+     * Adds a command to the queue without blocking
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return true if the command was queued, false if the queue is closed or full
+     */
+    public synchronized boolean offer(int opcode, int arg0, int arg1) {
+        if (closed) {
+            return false;
+        }
+
+        if (opcode == RobotCommand.STOP) {
+            // A stop makes any unsent motion target obsolete
+            if (motionOpcode != NO_MOTION) {
+                motionOpcode = NO_MOTION;
+                coalescedCount++;
+            }
+            stopPending = true;
+            stopNanos = System.nanoTime();
+        }
+        else if (RobotCommand.isMotion(opcode)) {
+            if (motionOpcode != NO_MOTION) {
+                coalescedCount++;
+            }
+            motionOpcode = opcode;
+            motionArg0 = arg0;
+            motionArg1 = arg1;
+            motionNanos = System.nanoTime();
+        }
+        else {
+            if (size == capacity) {
+                droppedCount++;
+                return false;
+            }
+            int index = ((head + size) % capacity) * 3;
+            ring[index] = opcode;
+            ring[index + 1] = arg0;
+            ring[index + 2] = arg1;
+            ringNanos[index / 3] = System.nanoTime();
+            size++;
+        }
+
+        maxDepth = Math.max(maxDepth, getDepth());
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Removes the next command to send, waiting until one is available
+     * @param command Receives the removed command
+     * @return true if a command was removed, false if the queue was closed
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public synchronized boolean take(RobotCommand command) throws InterruptedException {
+        while (!closed && getDepth() == 0) {
+            wait();
+        }
+        return poll(command);
+    }
+
+    /**
+     * Removes the next command to send, waiting up to a timeout for one to be available
+     * @param command Receives the removed command
+     * @param timeoutNanos The longest time to wait, in nanoseconds
+     * @return true if a command was removed, false if none arrived in time or the queue closed
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public synchronized boolean poll(RobotCommand command, long timeoutNanos)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long remaining;
+        while (!closed && getDepth() == 0 && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return poll(command);
+    }
+
+    /**
+     * Waits until a command is available, the queue is closed, or wake is called. Lets the
+     * writer also wait for work that does not go through this queue.
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public synchronized void awaitCommand() throws InterruptedException {
+        while (!closed && !woken && getDepth() == 0) {
+            wait();
+        }
+        woken = false;
+    }
+
+    /**
+     * Releases a thread waiting in awaitCommand, or the next one to call it, even if no
+     * command is waiting
+     */
+    public synchronized void wake() {
+        woken = true;
+        notifyAll();
+    }
+
+    /**
+     * Gets the opcode of the command poll would remove next, without removing it
+     * @return The opcode, or -1 if the queue is empty or closed
+     */
+    public synchronized int peekOpcode() {
+        if (closed || getDepth() == 0) {
+            return -1;
+        }
+        if (stopPending) {
+            return RobotCommand.STOP;
+        }
+        return size > 0 ? ring[head * 3] : motionOpcode;
+    }
+
+    /**
+     * Gets the time the command last removed was offered
+     * @return The time, in nanoseconds, or 0 if no command has been removed
+     */
+    public synchronized long getPolledOfferNanos() {
+        return polledNanos;
+    }
+
+    /**
+     * Removes the next command to send without blocking
+     * @param command Receives the removed command
+     * @return true if a command was removed, false if the queue is empty or closed
+     */
+    public synchronized boolean poll(RobotCommand command) {
+        if (closed || getDepth() == 0) {
+            return false;
+        }
+
+        if (stopPending) {
+            stopPending = false;
+            command.set(RobotCommand.STOP, 0, 0);
+            polledNanos = stopNanos;
+        }
+        else if (size > 0) {
+            int index = head * 3;
+            command.set(ring[index], ring[index + 1], ring[index + 2]);
+            polledNanos = ringNanos[head];
+            head = (head + 1) % capacity;
+            size--;
+        }
+        else {
+            command.set(motionOpcode, motionArg0, motionArg1);
+            motionOpcode = NO_MOTION;
+            polledNanos = motionNanos;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the queue. Waiting commands are discarded and any blocked taker is released.
+     */
+    public synchronized void close() {
+        closed = true;
+        stopPending = false;
+        motionOpcode = NO_MOTION;
+        size = 0;
+        notifyAll();
+    }
+
+    /**
+     * Determines if the queue has been closed
+     * @return true if the queue is closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Gets the number of commands currently waiting to be sent
+     * @return The queue depth
+     */
+    public synchronized int getDepth() {
+        return (stopPending ? 1 : 0) + (motionOpcode != NO_MOTION ? 1 : 0) + size;
+    }
+
+    /**
+     * Gets the highest depth the queue has reached
+     * @return The maximum queue depth
+     */
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the number of commands rejected because the queue was full
+     * @return The drop count
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Gets the number of motion commands that were superseded before being sent
+     * @return The coalesce count
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records every command sent to the robot and every line it sends back to a compact,
+ * append-only binary log, so runs can be replayed later.
+ *
+ * Entries are packed into a direct buffer and written to a file channel whenever it fills,
+ * so recording costs no allocation and no system call per entry. Each entry is a type byte,
+ * the nanoseconds since the previous entry as a variable length integer, then either a
+ * command (opcode byte and two zigzag encoded variable length arguments) or a line
+ * (variable length size followed by its bytes). A command takes 3 to 5 bytes in the
+ * common case.
+ *
+ * Recording never throws to the threads that call it. The first write failure stops the
+ * recording and is kept for getError.
+ */
+public class CommandRecorder implements TelemetryParser.Listener {
+
+    /// Marks the start of a recording file
+    public static final int MAGIC = 0x52435244;
+    /// Version of the recording format
+    public static final int VERSION = 1;
+    /// Size of the file header: magic, version and the wall clock start time
+    public static final int HEADER_LENGTH = 4 + 1 + 8;
+    /// Entry type of a command sent to the robot
+    public static final int ENTRY_COMMAND = 1;
+    /// Entry type of a line received from the robot
+    public static final int ENTRY_LINE = 2;
+    /// Longest line recorded. Longer lines are truncated.
+    public static final int MAX_LINE_LENGTH = 4096;
+    /// Longest possible entry, in bytes
+    public static final int MAX_ENTRY_LENGTH = 1 + 10 + 3 + MAX_LINE_LENGTH;
+
+    /// Size of the write buffer, in bytes
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /// The channel entries are appended to
+    private final FileChannel channel;
+    /// Entries waiting to be written
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /// Time of the previous entry
+    private long lastNanos;
+    /// Number of entries recorded
+    private long entryCount = 0;
+    /// The failure that stopped the recording, or null
+    private IOException error = null;
+    /// Tracks if the recorder has been closed
+    private boolean closed = false;
+
+    /**
+     * Constructor for this command recorder
+     * @param channel The channel entries are appended to
+     * @param startNanos The time the recording starts
+     */
+    private CommandRecorder(FileChannel channel, long startNanos) {
+        this.channel = channel;
+        lastNanos = startNanos;
+    }
+
+    /**
+     * Creates a recording file and writes its header
+     * @param file The file to create. Its directory is created if needed.
+     * @return The recorder
+     * @throws IOException If the file cannot be created
+     */
+    public static CommandRecorder create(@NonNull File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        FileChannel channel = new FileOutputStream(file).getChannel();
+        CommandRecorder recorder = new CommandRecorder(channel, System.nanoTime());
+        recorder.buffer.putInt(MAGIC);
+        recorder.buffer.put((byte) VERSION);
+        recorder.buffer.putLong(System.currentTimeMillis());
+        return recorder;
+    }
+
+    /**
+     * Records a command sent to the robot
+     * @param command The command
+     * @param nanos The time it was sent
+     */
+    public synchronized void recordCommand(@NonNull RobotCommand command, long nanos) {
+        if (!reserve()) {
+            return;
+        }
+        buffer.put((byte) ENTRY_COMMAND);
+        putDelta(nanos);
+        buffer.put((byte) command.opcode);
+        putVarLong(zigzag(command.arg0));
+        putVarLong(zigzag(command.arg1));
+        entryCount++;
+    }
+
+    /**
+     * Records a line received from the robot
+     * @param data Buffer holding the line
+     * @param offset The position of the line in the buffer
+     * @param length The length of the line
+     * @param nanos The time the line was received
+     */
+    public synchronized void recordLine(byte[] data, int offset, int length, long nanos) {
+        if (!reserve()) {
+            return;
+        }
+        length = Math.min(length, MAX_LINE_LENGTH);
+        buffer.put((byte) ENTRY_LINE);
+        putDelta(nanos);
+        putVarLong(length);
+        buffer.put(data, offset, length);
+        entryCount++;
+    }
+
+    /**
+     * Records lines from the robot that are not telemetry
+     * @param buffer Buffer holding the line
+     * @param offset The position of the line in the buffer
+     * @param length The length of the line
+     * @param nanos The time the line was received
+     */
+    @Override
+    public void onTextLine(byte[] buffer, int offset, int length, long nanos) {
+        recordLine(buffer, offset, length, nanos);
+    }
+
+    /**
+     * Heartbeat replies are not recorded, since replay sends no pings
+     * @param sequence The echoed ping sequence number
+     * @param nanos The time the reply was received
+     */
+    @Override
+    public void onPong(int sequence, long nanos) {}
+
+    /**
+     * Encoder counts are not recorded
+     * @param left The left encoder count
+     * @param right The right encoder count
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onEncoders(int left, int right, long nanos) {}
+
+    /**
+     * Battery voltage is not recorded
+     * @param millivolts The battery voltage, in millivolts
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onBattery(int millivolts, long nanos) {}
+
+    /**
+     * Batch acknowledgements are not recorded
+     * @param sequence The sequence number of the newest batch received
+     * @param nanos The time the acknowledgement was received
+     */
+    @Override
+    public void onAck(int sequence, long nanos) {}
+
+    /**
+     * Writes buffered entries to the file
+     */
+    public synchronized void flush() {
+        if (!closed && error == null) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes buffered entries and closes the file
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries recorded
+     * @return The number of entries
+     */
+    public synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the failure that stopped the recording
+     * @return The failure, or null if recording is healthy
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * Makes room for one entry, writing buffered entries out if needed
+     * @return true if the entry can be recorded
+     */
+    private boolean reserve() {
+        if (closed || error != null) {
+            return false;
+        }
+        if (buffer.remaining() < MAX_ENTRY_LENGTH) {
+            drain();
+        }
+        return error == null;
+    }
+
+    /**
+     * Writes every buffered byte to the channel
+     */
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the time since the previous entry
+     * @param nanos The time of this entry
+     */
+    private void putDelta(long nanos) {
+        // Entries from different threads can be stamped slightly out of order
+        long delta = Math.max(0, nanos - lastNanos);
+        lastNanos += delta;
+        putVarLong(delta);
+    }
+
+    /**
+     * Writes an unsigned variable length integer, 7 bits per byte
+     * @param value The value
+     */
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Maps signed values to unsigned ones so small negative numbers stay short
+     * @param value The signed value
+     * @return The zigzag encoded value
+     */
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+}
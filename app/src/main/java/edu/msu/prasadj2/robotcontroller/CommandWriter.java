@@ -0,0 +1,404 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker thread that drains a command queue and writes each command to the robot.
+ *
+ * Keeping the blocking socket write on this thread means a congested link
+ * never stalls the thread that queues the commands. Commands are encoded by a
+ * pluggable codec into a buffer allocated once, so writing is allocation free.
+ * Each write updates the link metrics without locking.
+ *
+ * With batching enabled, the writer keeps collecting commands for a short window after
+ * the first one and sends them all with a single write, so a burst of commands costs one
+ * RFCOMM packet instead of one each. A stop is never held back: it drops any motion
+ * already in the batch, the same way the queue does, and is written straight away.
+ * Batches can be wrapped in a sequenced frame the robot acknowledges. A rate controller
+ * can widen the window to pace writes to what the link carries.
+ *
+ * With reliable delivery, each command is sent through a reliable sender instead, and
+ * the writer also sends again any frame whose acknowledgement is overdue.
+ *
+ * With a scheduler, commands share the link with configuration and bulk transfers, and
+ * the scheduler picks what is written next.
+ */
+public class CommandWriter extends Thread {
+
+    /// Most commands sent in one batch
+    public static final int MAX_BATCH_COMMANDS = 32;
+
+    /**
+     * Receives the outcome of each write. Called on the writer thread.
+     */
+    public interface Listener {
+        /**
+         * Called after a command has been written to the robot
+         * @param command The command that was sent
+         */
+        void onCommandSent(RobotCommand command);
+
+        /**
+         * Called when writing to the robot fails. The writer stops afterwards.
+         * @param e The write failure
+         */
+        void onWriteFailed(IOException e);
+    }
+
+    /// The queue commands are taken from
+    private final CommandQueue queue;
+    /// Byte stream for outgoing communication to the robot
+    private final OutputStream outputStream;
+    /// Converts commands to the bytes sent to the robot
+    private final CommandCodec codec;
+    /// Receives the outcome of each write
+    private final Listener listener;
+    /// Reusable holder for the command being written
+    private final RobotCommand command = new RobotCommand();
+    /// Reusable buffer each command or batch is encoded into
+    private byte[] frame;
+    /// Counts commands, bytes and write times
+    private final LinkMetrics metrics;
+
+    /// Tracks if commands are batched
+    private boolean batching = false;
+    /// Time to keep collecting commands after the first of a batch, in nanoseconds
+    private long batchWindowNanos = 0;
+    /// Wraps batches in acknowledged frames, or null to send them bare
+    private BatchFramer batchFramer = null;
+    /// Reusable holders for the commands of the current batch
+    private RobotCommand[] batch = null;
+    /// Number of commands in the current batch
+    private int batchCount = 0;
+    /// Sends commands in acknowledged frames, or null to send them unframed
+    private ReliableSender reliableSender = null;
+    /// Paces batched writes, or null to write each batch when its window closes
+    private RateController rateController = null;
+    /// Shares the link between commands and transfers, or null if there are no transfers
+    private OutboundScheduler scheduler = null;
+
+    /**
+     * Constructor for a command writer with its own metrics
+     * @param queue The queue commands are taken from
+     * @param outputStream Byte stream for outgoing communication to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param listener Receives the outcome of each write
+     */
+    public CommandWriter(@NonNull CommandQueue queue, @NonNull OutputStream outputStream,
+                         @NonNull CommandCodec codec, @NonNull Listener listener) {
+        this(queue, outputStream, codec, listener, new LinkMetrics());
+    }
+
+    /**
+     * Constructor for this command writer
+     * @param queue The queue commands are taken from
+     * @param outputStream Byte stream for outgoing communication to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param listener Receives the outcome of each write
+     * @param metrics Counts commands, bytes and write times
+     */
+    public CommandWriter(@NonNull CommandQueue queue, @NonNull OutputStream outputStream,
+                         @NonNull CommandCodec codec, @NonNull Listener listener,
+                         @NonNull LinkMetrics metrics) {
+        super("CommandWriter");
+        this.queue = queue;
+        this.outputStream = outputStream;
+        this.codec = codec;
+        this.listener = listener;
+        this.metrics = metrics;
+        frame = new byte[codec.getMaxFrameLength()];
+    }
+
+    /**
+     * Sends commands in batches. Must be called before starting.
+     * @param windowMs Time to keep collecting commands after the first of a batch,
+     *                 in milliseconds. 0 only batches commands that are already waiting.
+     * @param framer Wraps each batch in an acknowledged frame, or null to send the
+     *               commands back to back, which any firmware understands
+     */
+    public void setBatching(long windowMs, @Nullable BatchFramer framer) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Batch window must not be negative");
+        }
+        if (reliableSender != null || scheduler != null) {
+            throw new IllegalStateException("Reliable delivery and scheduling do not batch");
+        }
+        batching = true;
+        batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        batchFramer = framer;
+        batch = new RobotCommand[MAX_BATCH_COMMANDS];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new RobotCommand();
+        }
+        frame = new byte[framer != null ? BatchFramer.FRAME_OVERHEAD + BatchFramer.MAX_PAYLOAD
+                : MAX_BATCH_COMMANDS * codec.getMaxFrameLength()];
+    }
+
+    /**
+     * Paces batched writes to the rate the link is measured to carry, coalescing the
+     * commands that arrive in between. Must be called after setBatching and before
+     * starting.
+     * @param controller Adapts the write rate and gets the timing of each write
+     */
+    public void setRateControl(@NonNull RateController controller) {
+        if (!batching) {
+            throw new IllegalStateException("Rate control needs batching");
+        }
+        rateController = controller;
+    }
+
+    /**
+     * Gets the controller batched writes are paced by
+     * @return The rate controller, or null if writes are not paced
+     */
+    public RateController getRateController() {
+        return rateController;
+    }
+
+    /**
+     * Sends every command in a frame the robot acknowledges, retransmitting frames that are
+     * not acknowledged in time. Must be called before starting.
+     * @param sender Frames, tracks and retransmits the commands
+     */
+    public void setReliable(@NonNull ReliableSender sender) {
+        if (batching || scheduler != null) {
+            throw new IllegalStateException("Batched and scheduled writes are not reliable");
+        }
+        reliableSender = sender;
+    }
+
+    /**
+     * Lets commands share the link with transfers, writing whatever the scheduler picks
+     * next. Must be called before starting.
+     * @param scheduler Picks the next command or transfer fragment, taking commands from
+     *                  this writer's queue
+     */
+    public void setScheduler(@NonNull OutboundScheduler scheduler) {
+        if (batching || reliableSender != null) {
+            throw new IllegalStateException("Batched and reliable writes are not scheduled");
+        }
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Gets the scheduler commands share the link through
+     * @return The outbound scheduler, or null if writes are not scheduled
+     */
+    public OutboundScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Writes queued commands until the queue is closed or a write fails
+     */
+    @Override
+    public void run() {
+        try {
+            if (reliableSender != null) {
+                runReliable();
+                return;
+            }
+            if (scheduler != null) {
+                runScheduled();
+                return;
+            }
+            while (queue.take(command)) {
+                if (batching) {
+                    collectBatch();
+                    writeBatch();
+                    continue;
+                }
+                metrics.queueDepth.set(queue.getDepth());
+                int length = codec.encode(command, frame, 0);
+                long start = System.nanoTime();
+                outputStream.write(frame, 0, length);
+                outputStream.flush();
+                metrics.writeLatency.record(System.nanoTime() - start);
+                metrics.commandsSent.increment();
+                metrics.bytesOut.add(length);
+                listener.onCommandSent(command);
+            }
+        } catch (InterruptedException e) {
+            // Terminated
+        } catch (IOException e) {
+            queue.close();
+            listener.onWriteFailed(e);
+        }
+    }
+
+    /**
+     * Writes queued commands through the reliable sender, and retransmits its expired
+     * frames, until the queue is closed
+     * @throws InterruptedException If the writer is interrupted
+     * @throws IOException If a frame runs out of attempts or a write fails
+     */
+    private void runReliable() throws InterruptedException, IOException {
+        while (!queue.isClosed()) {
+            reliableSender.retransmitExpired(outputStream, System.nanoTime());
+            long wait = reliableSender.getNanosUntilNextTimeout(System.nanoTime());
+            if (!reliableSender.hasSpace()) {
+                reliableSender.awaitSpace(wait);
+                continue;
+            }
+            boolean taken = wait == Long.MAX_VALUE ? queue.take(command)
+                    : queue.poll(command, wait);
+            if (!taken) {
+                continue;
+            }
+            metrics.queueDepth.set(queue.getDepth());
+            long start = System.nanoTime();
+            int length = reliableSender.send(command, outputStream);
+            metrics.writeLatency.record(System.nanoTime() - start);
+            metrics.commandsSent.increment();
+            metrics.bytesOut.add(length);
+            listener.onCommandSent(command);
+        }
+    }
+
+    /**
+     * Writes whatever the scheduler picks next until the queue is closed, waiting while
+     * nothing is waiting
+     * @throws InterruptedException If the writer is interrupted
+     * @throws IOException If a write fails
+     */
+    private void runScheduled() throws InterruptedException, IOException {
+        while (!queue.isClosed()) {
+            metrics.queueDepth.set(queue.getDepth());
+            int trafficClass = scheduler.writeNext(outputStream, command);
+            if (trafficClass < 0) {
+                queue.awaitCommand();
+            }
+            else if (trafficClass == OutboundScheduler.SAFETY
+                    || trafficClass == OutboundScheduler.MOTION) {
+                metrics.commandsSent.increment();
+                listener.onCommandSent(command);
+            }
+        }
+    }
+
+    /**
+     * Gets the sender commands are reliably delivered with
+     * @return The reliable sender, or null if reliable delivery is off
+     */
+    public ReliableSender getReliableSender() {
+        return reliableSender;
+    }
+
+    /**
+     * Collects the batch that starts with the command just taken, until the window closes,
+     * the batch is full, or a stop arrives
+     * @throws InterruptedException If the writer is interrupted
+     */
+    private void collectBatch() throws InterruptedException {
+        batchCount = 0;
+        addToBatch(command);
+        if (command.opcode == RobotCommand.STOP) {
+            return;
+        }
+        int maxLength = frame.length
+                - (batchFramer != null ? BatchFramer.FRAME_OVERHEAD : 0);
+        long now = System.nanoTime();
+        long window = rateController != null
+                ? rateController.getCoalescingWindowNanos(now, batchWindowNanos)
+                : batchWindowNanos;
+        long deadline = now + window;
+        while (batchCount < MAX_BATCH_COMMANDS
+                && (batchCount + 1) * codec.getMaxFrameLength() <= maxLength) {
+            long remaining = deadline - System.nanoTime();
+            boolean taken = remaining > 0 ? queue.poll(command, remaining) : queue.poll(command);
+            if (!taken) {
+                return;
+            }
+            addToBatch(command);
+            if (command.opcode == RobotCommand.STOP) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds a command to the batch. A motion command replaces any motion already in the
+     * batch, and a stop removes it.
+     * @param added The command to add
+     */
+    private void addToBatch(RobotCommand added) {
+        if (added.opcode == RobotCommand.STOP || RobotCommand.isMotion(added.opcode)) {
+            for (int i = 0; i < batchCount; i++) {
+                if (RobotCommand.isMotion(batch[i].opcode)) {
+                    if (added.opcode != RobotCommand.STOP) {
+                        batch[i].set(added.opcode, added.arg0, added.arg1);
+                        return;
+                    }
+                    // Shift the rest down over the superseded motion
+                    RobotCommand removed = batch[i];
+                    System.arraycopy(batch, i + 1, batch, i, batchCount - i - 1);
+                    batch[--batchCount] = removed;
+                    break;
+                }
+            }
+        }
+        batch[batchCount++].set(added.opcode, added.arg0, added.arg1);
+    }
+
+    /**
+     * Encodes the collected batch and writes it with a single write
+     * @throws IOException If the write fails
+     */
+    private void writeBatch() throws IOException {
+        metrics.queueDepth.set(queue.getDepth());
+        int offset = batchFramer != null ? BatchFramer.getPayloadOffset() : 0;
+        int length = offset;
+        for (int i = 0; i < batchCount; i++) {
+            length += codec.encode(batch[i], frame, length);
+        }
+        long start = System.nanoTime();
+        if (batchFramer != null) {
+            // Registered before the write, since the robot can acknowledge it before the
+            // write returns
+            length = batchFramer.frame(frame, length - offset, start);
+        }
+
+        outputStream.write(frame, 0, length);
+        outputStream.flush();
+        long end = System.nanoTime();
+        if (rateController != null) {
+            rateController.onWrite(length, start, end);
+        }
+        metrics.writeLatency.record(end - start);
+        metrics.commandsSent.add(batchCount);
+        metrics.bytesOut.add(length);
+        metrics.batchSize.record(batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            listener.onCommandSent(batch[i]);
+        }
+    }
+
+    /**
+     * Gets the framer batches are wrapped with
+     * @return The batch framer, or null if batches are not framed or batching is off
+     */
+    public BatchFramer getBatchFramer() {
+        return batchFramer;
+    }
+
+    /**
+     * Terminates the writer by closing its queue
+     */
+    public void terminate() {
+        queue.close();
+        if (reliableSender != null) {
+            reliableSender.close();
+        }
+    }
+}
@@ -6,37 +6,88 @@
 
 package edu.msu.prasadj2.robotcontroller;
 
-import android.bluetooth.BluetoothSocket;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.input.InputManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.InputDevice;
+import android.view.MotionEvent;
 import android.view.View;
+import android.widget.CompoundButton;
 import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 
 /**
  * The activity for controlling the robot after a connection has successfully been established.
  *
- * Motor speeds are set using seek bar sliders and commands are sent when the on-screen
+ * Motor speeds are set using seek bar sliders and the robot is driven when the on-screen
  * buttons are pressed. The direction of each motor (forward/positive or backward/negative)
  * is automatically reflected on the sliders depending on the type of motion requested.
+ * Button motions are ramped to their speeds with limited acceleration and jerk, so the
+ * wheels do not slip and the motors do not draw current spikes; stop still stops at once.
+ * When streaming is switched on, the slider speeds are also sent continuously at a fixed
+ * control rate so the robot can be steered smoothly. The path button runs the trajectory
+ * saved in the app's files, and any other button aborts it.
  *
- * Communication between the app and the robot is logged.
+ * A gamepad's left stick drives the robot as soon as it is moved, and switching tilt on
+ * drives it by tilting the phone like a steering wheel. Both are sampled at a fixed control
+ * rate off the UI thread, and pressing any button takes back manual control. Input that
+ * stops, including a gamepad that is disconnected mid-drive, stops the robot.
+ *
+ * A heartbeat measures the round trip time to the robot, which is shown on screen,
+ * and stops the robot if it stops answering. If the connection drops, the robot is
+ * reconnected in the background and sent a stop before control resumes.
+ *
+ * Commands are queued by the UI thread and written to the robot by a separate
+ * writer thread, so a congested link never blocks the UI. The original text protocol
+ * is used, and button ramps are sent with the original motion commands, so older firmware
+ * can still be driven with the buttons. Streaming, the gamepad, tilt and paths set both
+ * wheel speeds, which only newer firmware's drive command can express exactly. Unless the
+ * drive firmware switch is on, they are sent as the closest original motion command, and
+ * curves are driven straight. Firmware that understands the compact binary frames can be
+ * driven by creating the robot link with a BinaryCommandCodec.
+ *
+ * The session is owned by the robot control service, which this activity binds to, so
+ * recreating the activity keeps the link open. The session is stopped when the activity
+ * finishes. Link metrics and a live chart of the battery voltage can be shown in an
+ * on-screen overlay.
  */
 public class ControllerActivity extends AppCompatActivity
-        implements View.OnClickListener, SeekBar.OnSeekBarChangeListener {
+        implements View.OnClickListener, SeekBar.OnSeekBarChangeListener,
+        CompoundButton.OnCheckedChangeListener {
 
     /// Offset for converting seek bar progress (0-200) to motor speeds (-100 to 100)
     private static final int SEEK_BAR_OFFSET = 100;
+    /// File under the app's files that the path button runs
+    private static final String TRAJECTORY_FILE = "trajectory.txt";
+    /// Interval a path resends its current command at, in milliseconds
+    private static final long TRAJECTORY_REFRESH_MS = 250;
+    /// Time between refreshes of the stats overlay, in milliseconds
+    private static final long STATS_REFRESH_MS = 500;
+    /// Tilt from the pose tilt was switched on in that gives full throttle or steering
+    private static final double MAX_TILT_RAD = Math.toRadians(30);
+    /// Marks that no gamepad is driving the robot
+    private static final int NO_GAMEPAD = -1;
+    /// Preferences file for the controller's settings
+    private static final String CONTROLLER_PREFERENCES = "controller";
+    /// Preference key for whether the robot's firmware understands drive commands
+    private static final String DRIVE_COMMAND_KEY = "drive_command";
 
     /// The speed of the robot's left motor
     private int leftMotorSpeed = 0;
@@ -48,10 +99,89 @@ public class ControllerActivity extends AppCompatActivity
     /// The seek bar that controls the robot's right motor speed
     SeekBar rightMotorController = null;
 
-    /// Worker thread for communicating with the robot
-    private ControllerThread controllerThread = null;
-    /// Boolean for tracking if the worker thread is active. Accessed with synchronized methods.
-    private boolean communicationActive = false;
+    /// The service owning the session, or null while not bound
+    private RobotControlService controlService = null;
+    /// Control session with the robot, which reconnects if the link drops
+    private RobotSession robotSession = null;
+    /// Receives the session's events while this activity is shown
+    private final SessionListener sessionListener = new SessionListener();
+    /// Worker thread that ramps the robot to the slider speeds while streaming is switched
+    /// on, or to the speeds of the last button pressed. It outlives the streaming switch,
+    /// so a button ramp under way is never left at an intermediate speed.
+    private DriveStreamer driveStreamer = null;
+    /// Wheel speeds of the last motion command written to the robot, packed as
+    /// (left << 16) | (right & 0xFFFF)
+    private volatile int sentWheelSpeeds = 0;
+    /// Worker thread that runs the saved path, or null if no path is running
+    private TrajectoryExecutor trajectoryExecutor = null;
+    /// Worker thread that drives from a gamepad or tilt, or null if neither is in use
+    private volatile InputPipeline inputPipeline = null;
+    /// Thread the tilt sensors are delivered on, or null while tilt is off
+    private HandlerThread sensorThread = null;
+    /// Feeds the tilt sensors to the input pipeline, or null while tilt is off
+    private TiltListener tiltListener = null;
+    /// Id of the gamepad driving the robot, or NO_GAMEPAD
+    private int gamepadDeviceId = NO_GAMEPAD;
+    /// Stops a gamepad's input when the gamepad is disconnected
+    private final InputManager.InputDeviceListener inputDeviceListener =
+            new InputManager.InputDeviceListener() {
+        @Override
+        public void onInputDeviceAdded(int deviceId) {}
+
+        @Override
+        public void onInputDeviceRemoved(int deviceId) {
+            // The gamepad's last axes must not keep driving the robot
+            if (deviceId == gamepadDeviceId && tiltListener == null) {
+                stopInput();
+            }
+        }
+
+        @Override
+        public void onInputDeviceChanged(int deviceId) {}
+    };
+    /// Runs the stats overlay refreshes on the UI thread
+    private final Handler handler = new Handler();
+    /// Refreshes the stats overlay while it is shown
+    private final Runnable statsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updateStats();
+            handler.postDelayed(this, STATS_REFRESH_MS);
+        }
+    };
+    /// Attaches to the session once the service is bound, starting it on first use
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            controlService = ((RobotControlService.LocalBinder)binder).getService();
+            if (!controlService.startSession(GlobalSocketManager.getTransport())) {
+                Toast.makeText(ControllerActivity.this, R.string.failed_input,
+                        Toast.LENGTH_SHORT).show();
+            }
+            controlService.setDriveCommandSupported(
+                    ((CompoundButton)findViewById(R.id.driveCommandSwitch)).isChecked());
+            robotSession = controlService.attach(sessionListener);
+            ((TelemetryChartView)findViewById(R.id.batteryChart)).setSeries(
+                    controlService.getTelemetry().getChannel(TelemetryStore.BATTERY),
+                    TelemetryChartView.DEFAULT_WINDOW_NANOS);
+            if (((CompoundButton)findViewById(R.id.streamSwitch)).isChecked()) {
+                startStreaming();
+            }
+            if (((CompoundButton)findViewById(R.id.tiltSwitch)).isChecked()) {
+                startTilt();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            stopDriveStreamer();
+            stopTrajectory();
+            stopTilt();
+            stopInput();
+            controlService = null;
+            robotSession = null;
+        }
+    };
 
     /**
      * Creates this activity
@@ -67,26 +197,54 @@ public class ControllerActivity extends AppCompatActivity
         leftMotorController.setOnSeekBarChangeListener(this);
         rightMotorController = (SeekBar)findViewById(R.id.rightMotorController);
         rightMotorController.setOnSeekBarChangeListener(this);
-
-        // Start only one worker thread
-        if (!isCommunicationActive()) {
-            setCommunicationActive(true);
-            controllerThread = new ControllerThread(GlobalSocketManager.getBluetoothSocket());
-            controllerThread.start();
+        ((CompoundButton)findViewById(R.id.streamSwitch)).setOnCheckedChangeListener(this);
+        ((CompoundButton)findViewById(R.id.statsSwitch)).setOnCheckedChangeListener(this);
+        ((CompoundButton)findViewById(R.id.tiltSwitch)).setOnCheckedChangeListener(this);
+        CompoundButton driveCommandSwitch = (CompoundButton)findViewById(R.id.driveCommandSwitch);
+        driveCommandSwitch.setChecked(getSharedPreferences(CONTROLLER_PREFERENCES, MODE_PRIVATE)
+                .getBoolean(DRIVE_COMMAND_KEY, false));
+        driveCommandSwitch.setOnCheckedChangeListener(this);
+        InputManager inputManager = (InputManager)getSystemService(INPUT_SERVICE);
+        if (inputManager != null) {
+            inputManager.registerInputDeviceListener(inputDeviceListener, handler);
         }
 
+        // The service outlives this activity, so it is started as well as bound
+        Intent intent = new Intent(this, RobotControlService.class);
+        startService(intent);
+        bindService(intent, serviceConnection, BIND_AUTO_CREATE);
     }
 
     /**
-     * Terminates the worker thread, if it exists,
-     * when the activity is destroyed
+     * Stops the streaming, path and input threads and detaches from the session when the
+     * activity is destroyed. The session is stopped only if the activity is finishing, not
+     * when it is recreated.
      */
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (controllerThread != null) {
-            controllerThread.terminate();
+        // A button ramp cut off part way would leave the robot at whatever speed it reached
+        if (driveStreamer != null && !driveStreamer.isSettled()) {
+            driveStreamer.halt();
+        }
+        stopDriveStreamer();
+        stopTrajectory();
+        stopTilt();
+        stopInput();
+        InputManager inputManager = (InputManager)getSystemService(INPUT_SERVICE);
+        if (inputManager != null) {
+            inputManager.unregisterInputDeviceListener(inputDeviceListener);
         }
+        handler.removeCallbacks(statsUpdater);
+        if (controlService != null) {
+            controlService.detach(sessionListener);
+            if (isFinishing()) {
+                controlService.stopSession();
+            }
+        }
+        unbindService(serviceConnection);
+        controlService = null;
+        robotSession = null;
     }
 
     /**
@@ -95,23 +253,34 @@ public class ControllerActivity extends AppCompatActivity
      */
     @Override
     public void onClick(View v) {
-        if (controllerThread == null) {
+        if (robotSession == null) {
+            return;
+        }
+        if (v.getId() == R.id.pathButton) {
+            startTrajectory();
             return;
         }
+        // Manual control always takes over from a running path, a gamepad or tilt
+        stopTrajectory();
+        ((CompoundButton)findViewById(R.id.tiltSwitch)).setChecked(false);
+        stopInput();
+        int opcode;
         switch (v.getId()) {
-            // Stops all movement
+            // Stops all movement at once rather than ramping down
             case R.id.stopButton:
+                if (driveStreamer == null || !driveStreamer.halt()) {
+                    robotSession.sendCommand(RobotCommand.STOP, 0, 0);
+                }
                 leftMotorController.setProgress(SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("STP");
-                break;
+                return;
             // Moves the robot forward
             case R.id.forwardButton:
                 {
                 int speed = Math.max(Math.abs(leftMotorSpeed), Math.abs(rightMotorSpeed));
                 leftMotorController.setProgress(speed + SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(speed + SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("F " + speed);
+                opcode = RobotCommand.FORWARD;
                 }
                 break;
             // Moves the robot backward
@@ -120,7 +289,7 @@ public class ControllerActivity extends AppCompatActivity
                 int speed = -Math.max(Math.abs(leftMotorSpeed), Math.abs(rightMotorSpeed));
                 leftMotorController.setProgress(speed + SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(speed + SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("B " + -speed);
+                opcode = RobotCommand.BACKWARD;
                 }
                 break;
             // Turns the robot right
@@ -130,7 +299,7 @@ public class ControllerActivity extends AppCompatActivity
                 int rightSpeed = -Math.abs(rightMotorSpeed);
                 leftMotorController.setProgress(leftSpeed + SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(rightSpeed + SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("TR " + -rightSpeed + " " + leftSpeed);
+                opcode = RobotCommand.TURN_RIGHT;
                 }
                 break;
             // Turns the robot left
@@ -140,7 +309,7 @@ public class ControllerActivity extends AppCompatActivity
                 int rightSpeed = Math.abs(rightMotorSpeed);
                 leftMotorController.setProgress(leftSpeed + SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(rightSpeed + SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("TL " + rightSpeed + " " + -leftSpeed);
+                opcode = RobotCommand.TURN_LEFT;
                 }
                 break;
             // Spins the robot right
@@ -149,7 +318,7 @@ public class ControllerActivity extends AppCompatActivity
                 int leftSpeed = Math.abs(leftMotorSpeed);
                 leftMotorController.setProgress(leftSpeed + SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("SR " + leftMotorSpeed);
+                opcode = RobotCommand.SPIN_RIGHT;
                 }
                 break;
             // Spins the robot left
@@ -158,12 +327,44 @@ public class ControllerActivity extends AppCompatActivity
                 int rightSpeed = Math.abs(rightMotorSpeed);
                 leftMotorController.setProgress(SEEK_BAR_OFFSET);
                 rightMotorController.setProgress(rightSpeed + SEEK_BAR_OFFSET);
-                controllerThread.sendCommand("SL " + rightMotorSpeed);
+                opcode = RobotCommand.SPIN_LEFT;
                 }
                 break;
+            default:
+                return;
+        }
+        // The sliders now show the wheel speeds the motion needs, which are ramped to with
+        // the button's own command so older firmware understands them
+        if (startDriveStreamer()) {
+            driveStreamer.setTarget(leftMotorSpeed, rightMotorSpeed, opcode);
         }
     }
 
+    /**
+     * Drives the robot from a gamepad's left stick, taking over from the sliders
+     * @param event The motion event
+     * @return true if the event came from a gamepad stick
+     */
+    @Override
+    public boolean onGenericMotionEvent(MotionEvent event) {
+        if ((event.getSource() & InputDevice.SOURCE_JOYSTICK) != InputDevice.SOURCE_JOYSTICK
+                || event.getAction() != MotionEvent.ACTION_MOVE) {
+            return super.onGenericMotionEvent(event);
+        }
+        // Tilt has the motors while it is switched on
+        if (tiltListener == null) {
+            InputPipeline pipeline = startInput(InputCurve.GAMEPAD);
+            if (pipeline != null) {
+                gamepadDeviceId = event.getDeviceId();
+                // Event times share the monotonic clock System.nanoTime reads
+                pipeline.setAxes(-event.getAxisValue(MotionEvent.AXIS_Y),
+                        event.getAxisValue(MotionEvent.AXIS_X),
+                        event.getEventTime() * 1000000L);
+            }
+        }
+        return true;
+    }
+
     /**
      * Handles seek bar slider changes
      * @param seekBar The seek bar that was changed
@@ -181,119 +382,475 @@ public class ControllerActivity extends AppCompatActivity
                 break;
         }
 
+        if (driveStreamer != null
+                && ((CompoundButton)findViewById(R.id.streamSwitch)).isChecked()) {
+            driveStreamer.setTarget(leftMotorSpeed, rightMotorSpeed);
+        }
+    }
+
+    /**
+     * Handles the streaming and stats switches
+     * @param buttonView The switch that was changed
+     * @param isChecked true if the switch was switched on
+     */
+    @Override
+    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+        switch (buttonView.getId()) {
+            case R.id.streamSwitch:
+                // Switching off only stops the sliders feeding the streamer, which still
+                // finishes any ramp under way
+                if (isChecked) {
+                    startStreaming();
+                }
+                break;
+            case R.id.tiltSwitch:
+                if (isChecked) {
+                    startTilt();
+                }
+                else {
+                    stopTilt();
+                    stopInput();
+                }
+                break;
+            case R.id.driveCommandSwitch:
+                // Remembered, since it describes the robot's firmware rather than this drive
+                getSharedPreferences(CONTROLLER_PREFERENCES, MODE_PRIVATE).edit()
+                        .putBoolean(DRIVE_COMMAND_KEY, isChecked).apply();
+                if (controlService != null) {
+                    controlService.setDriveCommandSupported(isChecked);
+                }
+                break;
+            case R.id.statsSwitch:
+                TextView statsText = (TextView)findViewById(R.id.statsText);
+                View batteryChart = findViewById(R.id.batteryChart);
+                handler.removeCallbacks(statsUpdater);
+                if (isChecked) {
+                    statsText.setVisibility(View.VISIBLE);
+                    batteryChart.setVisibility(View.VISIBLE);
+                    statsUpdater.run();
+                }
+                else {
+                    statsText.setVisibility(View.GONE);
+                    batteryChart.setVisibility(View.GONE);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Shows the latest snapshot of the session's metrics in the stats overlay
+     */
+    private void updateStats() {
+        if (robotSession == null) {
+            return;
+        }
+        MetricsSnapshot snapshot = robotSession.getMetrics().registry.snapshot();
+        ((TextView)findViewById(R.id.statsText)).setText(getString(R.string.stats_format,
+                snapshot.getValue(LinkMetrics.COMMANDS_SENT),
+                snapshot.getValue(LinkMetrics.COMMANDS_DROPPED),
+                snapshot.getValue(LinkMetrics.BYTES_OUT),
+                snapshot.getValue(LinkMetrics.BYTES_IN),
+                snapshot.getMedian(LinkMetrics.WRITE_LATENCY) / 1e3,
+                snapshot.getTail(LinkMetrics.WRITE_LATENCY) / 1e3,
+                snapshot.getValue(LinkMetrics.QUEUE_DEPTH),
+                snapshot.getMax(LinkMetrics.QUEUE_DEPTH),
+                snapshot.getValue(LinkMetrics.RECONNECTS),
+                snapshot.getValue(LinkMetrics.ERRORS)));
     }
 
     /**
-     * Determines if there is a communication link with the robot
-     * @return true if there is a communication link
+     * Starts streaming the slider speeds to the robot
      */
-    public synchronized boolean isCommunicationActive() {
-        return communicationActive;
+    private void startStreaming() {
+        if (startDriveStreamer()) {
+            driveStreamer.setTarget(leftMotorSpeed, rightMotorSpeed);
+        }
     }
 
     /**
-     * Sets the communication link state
-     * @param isActive The current link state
+     * Starts the thread that ramps the robot to the slider or button speeds, unless it is
+     * already running
+     * @return true if the drive streamer is running
      */
-    public synchronized void setCommunicationActive(boolean isActive) {
-        communicationActive = isActive;
+    private boolean startDriveStreamer() {
+        if (driveStreamer != null) {
+            return true;
+        }
+        if (robotSession == null || !robotSession.isResumed()) {
+            return false;
+        }
+        stopTrajectory();
+        ((CompoundButton)findViewById(R.id.tiltSwitch)).setChecked(false);
+        stopInput();
+        // Ramp from the speeds a path, gamepad or tilt left the robot at
+        DriveKinematics kinematics = new DriveKinematics();
+        int speeds = sentWheelSpeeds;
+        kinematics.reset(speeds >> 16, (short)speeds);
+        RobotLink link = robotSession.getLink();
+        driveStreamer = new DriveStreamer(link.getCommandQueue(), link.getCommandCodec(),
+                DriveStreamer.DEFAULT_RATE, kinematics);
+        driveStreamer.start();
+        return true;
     }
 
     /**
-     * Class for the worker thread that communicates with the robot
+     * Stops the thread that ramps the robot to the slider or button speeds
      */
-    private class ControllerThread extends Thread {
-        /// The bluetooth socket this thread will communicate with
-        private final BluetoothSocket socket;
-        /// Reader for incoming communication from the robot
-        private final BufferedReader bufferedReader;
-        /// Byte stream for outgoing communication to the robot
-        private final OutputStream outputStream;
+    private void stopDriveStreamer() {
+        if (driveStreamer != null) {
+            driveStreamer.terminate();
+            driveStreamer = null;
+        }
+    }
+
+    /**
+     * Starts driving from a gamepad or tilt, turning streaming off
+     * @param curve Shapes the input's axes
+     * @return The running input pipeline, or null if the robot is not connected
+     */
+    private InputPipeline startInput(InputCurve curve) {
+        if (inputPipeline != null) {
+            return inputPipeline;
+        }
+        if (robotSession == null || !robotSession.isResumed()) {
+            return null;
+        }
+        // The input and the sliders or a button ramp would fight over the motors
+        ((CompoundButton)findViewById(R.id.streamSwitch)).setChecked(false);
+        stopDriveStreamer();
+        stopTrajectory();
+        RobotLink link = robotSession.getLink();
+        inputPipeline = new InputPipeline(link.getCommandQueue(), link.getCommandCodec(),
+                InputPipeline.DEFAULT_RATE, curve, curve, robotSession.getMetrics().registry);
+        inputPipeline.start();
+        return inputPipeline;
+    }
+
+    /**
+     * Stops driving from a gamepad or tilt, stopping the robot, and logs the input latency
+     */
+    private void stopInput() {
+        if (inputPipeline == null) {
+            return;
+        }
+        // Terminating stops the robot if the input left it moving
+        inputPipeline.terminate();
+        inputPipeline = null;
+        gamepadDeviceId = NO_GAMEPAD;
+        if (robotSession != null) {
+            MetricsSnapshot snapshot = robotSession.getMetrics().registry.snapshot();
+            Log.i("Input Metric", "Event to queue p50 "
+                    + snapshot.getMedian(InputPipeline.EVENT_TO_QUEUE) / 1e6 + " ms, p99 "
+                    + snapshot.getTail(InputPipeline.EVENT_TO_QUEUE) / 1e6
+                    + " ms; event to wire p50 "
+                    + snapshot.getMedian(InputPipeline.EVENT_TO_WIRE) / 1e6 + " ms, p99 "
+                    + snapshot.getTail(InputPipeline.EVENT_TO_WIRE) / 1e6 + " ms");
+        }
+    }
+
+    /**
+     * Starts driving by tilting the phone, from the pose it is held in now
+     */
+    private void startTilt() {
+        if (tiltListener != null) {
+            return;
+        }
+        SensorManager sensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
+        Sensor accelerometer = sensorManager == null ? null
+                : sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (accelerometer == null) {
+            Toast.makeText(this, R.string.tilt_unavailable, Toast.LENGTH_SHORT).show();
+            ((CompoundButton)findViewById(R.id.tiltSwitch)).setChecked(false);
+            return;
+        }
+        stopInput();
+        InputPipeline pipeline = startInput(InputCurve.TILT);
+        if (pipeline == null) {
+            return;
+        }
+
+        // Sensor events are delivered off the UI thread so a busy screen does not delay them
+        sensorThread = new HandlerThread("TiltSensors");
+        sensorThread.start();
+        Handler sensorHandler = new Handler(sensorThread.getLooper());
+        tiltListener = new TiltListener(pipeline);
+        sensorManager.registerListener(tiltListener, accelerometer,
+                SensorManager.SENSOR_DELAY_GAME, sensorHandler);
+        Sensor gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        if (gyroscope != null) {
+            sensorManager.registerListener(tiltListener, gyroscope,
+                    SensorManager.SENSOR_DELAY_GAME, sensorHandler);
+        }
+    }
+
+    /**
+     * Stops listening to the tilt sensors
+     */
+    private void stopTilt() {
+        if (tiltListener == null) {
+            return;
+        }
+        SensorManager sensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
+        if (sensorManager != null) {
+            sensorManager.unregisterListener(tiltListener);
+        }
+        sensorThread.quitSafely();
+        sensorThread = null;
+        tiltListener = null;
+    }
+
+    /**
+     * Runs the saved path, replacing any path already running
+     */
+    private void startTrajectory() {
+        if (robotSession == null || !robotSession.isResumed()) {
+            return;
+        }
+        File file = new File(getFilesDir(), TRAJECTORY_FILE);
+        Trajectory trajectory;
+        try {
+            trajectory = Trajectory.load(file);
+        } catch (IOException e) {
+            Log.w("Trajectory", "Cannot load " + file, e);
+            Toast.makeText(this, getString(R.string.trajectory_missing_format, file),
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+        if (trajectory.getSegmentCount() == 0) {
+            return;
+        }
+        trajectory.compile(TRAJECTORY_REFRESH_MS);
+
+        // The path and the sliders or a button ramp would fight over the motors
+        ((CompoundButton)findViewById(R.id.streamSwitch)).setChecked(false);
+        stopDriveStreamer();
+        ((CompoundButton)findViewById(R.id.tiltSwitch)).setChecked(false);
+        stopInput();
+        stopTrajectory();
+        trajectoryExecutor = new TrajectoryExecutor(robotSession.getLink().getCommandQueue(),
+                trajectory, new TrajectoryListener());
+        trajectoryExecutor.start();
+    }
+
+    /**
+     * Aborts the running path, if any, which stops the robot
+     */
+    private void stopTrajectory() {
+        if (trajectoryExecutor != null) {
+            trajectoryExecutor.abort();
+            trajectoryExecutor = null;
+        }
+    }
+
+    /**
+     * Reports session events from the robot session's worker threads on screen while this
+     * activity is attached
+     */
+    private class SessionListener implements RobotSession.Listener {
 
         /**
-         * Constructor for this controller thread
-         * Establishes input and output streams
-         * @param socket The robot's bluetooth socket
+         * Tracks the wheel speeds the robot was sent and measures the event to wire time
+         * of gamepad and tilt commands. Commands are recorded by the service.
+         * @param command The command that was sent
          */
-        public ControllerThread(@NonNull BluetoothSocket socket) {
-            this.socket = socket;
-            InputStream inputStream = null;
-            OutputStream outputStream = null;
-
-            try {
-                inputStream = socket.getInputStream();
-            } catch (IOException e) {
-                setCommunicationActive(false);
-                Toast.makeText(ControllerActivity.this,
-                        R.string.failed_input, Toast.LENGTH_SHORT).show();
+        @Override
+        public void onCommandSent(RobotCommand command) {
+            int speeds = command.getWheelSpeeds();
+            if (speeds != RobotCommand.SPEEDS_UNCHANGED) {
+                sentWheelSpeeds = speeds;
             }
-
-            try {
-                outputStream = socket.getOutputStream();
-            } catch (IOException e) {
-                setCommunicationActive(false);
-                Toast.makeText(ControllerActivity.this,
-                        R.string.failed_output, Toast.LENGTH_SHORT).show();
+            InputPipeline pipeline = inputPipeline;
+            if (pipeline != null) {
+                pipeline.onCommandSent(command);
             }
+        }
 
-            bufferedReader = inputStream == null ? null :
-                    new BufferedReader(new InputStreamReader(inputStream));
-            this.outputStream = outputStream;
+        /**
+         * Tells the user the link dropped and shows the reconnect progress
+         * @param attempt The attempt number, starting at 1
+         * @param delayMs The delay before the attempt, in milliseconds
+         */
+        @Override
+        public void onReconnecting(final int attempt, long delayMs) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (attempt == 1) {
+                        Toast.makeText(ControllerActivity.this,
+                                R.string.communication_disrupted, Toast.LENGTH_SHORT).show();
+                    }
+                    ((TextView)findViewById(R.id.latencyText))
+                            .setText(getString(R.string.reconnecting_format, attempt));
+                }
+            });
         }
 
         /**
-         * Listens to incoming messages from the robot
+         * Restarts streaming on the new connection
+         * @param transport The new connection to the robot
          */
         @Override
-        public void run() {
-            try {
-                String line;
-                while ((line = bufferedReader.readLine()) != null) {
-                    Log.i("Robot Message", line);
+        public void onResumed(RobotTransport transport) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    // The old streamer, path and input fed the failed link's queue
+                    stopDriveStreamer();
+                    stopTrajectory();
+                    stopTilt();
+                    stopInput();
+                    if (((CompoundButton)findViewById(R.id.streamSwitch)).isChecked()) {
+                        startStreaming();
+                    }
+                    if (((CompoundButton)findViewById(R.id.tiltSwitch)).isChecked()) {
+                        startTilt();
+                    }
+                    Toast.makeText(ControllerActivity.this,
+                            R.string.reconnected, Toast.LENGTH_SHORT).show();
                 }
-            } catch (IOException e) {
-                presentErrorUI();
-            }
+            });
         }
 
         /**
-         * Sends a command to the robot as a byte array.
-         * @param command The command string
+         * Reports a link that could not be reconnected to the user
+         * @param e The last failure
          */
-        public void sendCommand(String command) {
-            try {
-                outputStream.write((command + "\r\n").getBytes(StandardCharsets.UTF_8));
-                Log.i("User Command", command);
-            } catch (IOException e) {
-                presentErrorUI();
-            }
+        @Override
+        public void onSessionLost(IOException e) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    ((TextView)findViewById(R.id.latencyText)).setText(R.string.connection_lost);
+                    Toast.makeText(ControllerActivity.this,
+                            R.string.connection_lost, Toast.LENGTH_SHORT).show();
+                }
+            });
         }
 
         /**
-         * Terminates the thread by closing the socket
+         * Shows the latest round trip percentiles on screen
+         * @param histogram The latency window the sample was recorded in
          */
-        public void terminate() {
-            try {
-                socket.close();
-                setCommunicationActive(false);
-            } catch (IOException e) {
-                // Ignore
-            }
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {
+            final double median = histogram.getPercentile(50) / 1e6;
+            final double tail = histogram.getPercentile(99) / 1e6;
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    ((TextView)findViewById(R.id.latencyText))
+                            .setText(getString(R.string.latency_format, median, tail));
+                }
+            });
         }
 
         /**
-         * Presents an error message on the UI thread
+         * Tells the user the robot has been stopped because the link stalled
          */
-        private void presentErrorUI() {
+        @Override
+        public void onLinkStalled() {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
+                    stopTrajectory();
+                    ((TextView)findViewById(R.id.latencyText)).setText(R.string.link_stalled);
                     Toast.makeText(ControllerActivity.this,
-                            R.string.communication_disrupted, Toast.LENGTH_SHORT).show();
+                            R.string.link_stalled, Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+
+        /**
+         * Nothing to do until the next latency update replaces the stalled message
+         */
+        @Override
+        public void onLinkRestored() {}
+    }
+
+    /**
+     * Reports the jitter of each path run on screen and in the log
+     */
+    private class TrajectoryListener implements TrajectoryExecutor.Listener {
+
+        /**
+         * Shows the jitter percentiles and overruns of the finished run
+         * @param executor The executor, for its jitter statistics
+         * @param completed true if every command was queued, false if aborted
+         */
+        @Override
+        public void onTrajectoryFinished(final TrajectoryExecutor executor,
+                                         final boolean completed) {
+            LatencyHistogram jitter = executor.getJitter();
+            final double median = jitter.getPercentile(50) / 1e6;
+            final double tail = jitter.getPercentile(99) / 1e6;
+            final double max = executor.getMaxJitterNanos() / 1e6;
+            final int overruns = executor.getOverrunCount();
+            Log.i("Trajectory", (completed ? "Completed" : "Aborted") + ", jitter p50 "
+                    + median + " ms, p99 " + tail + " ms, max " + max + " ms, "
+                    + overruns + " overruns, " + executor.getSkippedCount() + " skipped");
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (trajectoryExecutor == executor) {
+                        trajectoryExecutor = null;
+                    }
+                    ((TextView)findViewById(R.id.latencyText)).setText(getString(
+                            completed ? R.string.trajectory_finished_format
+                                    : R.string.trajectory_aborted_format,
+                            median, tail, max, overruns));
                 }
             });
         }
+    }
+
+    /**
+     * Turns the phone's tilt into throttle and steering for the input pipeline. Tilting the
+     * top edge away drives forward and turning the phone like a steering wheel steers.
+     */
+    private static class TiltListener implements SensorEventListener {
+        /// Estimates the tilt from both sensors
+        private final TiltFilter filter = new TiltFilter();
+        /// Receives the throttle and steering
+        private final InputPipeline pipeline;
+
+        /**
+         * Constructor for this tilt listener
+         * @param pipeline Receives the throttle and steering
+         */
+        TiltListener(InputPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
 
+        /**
+         * Adds a sensor sample to the tilt and passes the tilt on
+         * @param event The sensor event
+         */
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            // Sensor times are on the boot clock, which keeps running in deep sleep
+            long nanos = System.nanoTime()
+                    - (SystemClock.elapsedRealtimeNanos() - event.timestamp);
+            if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+                filter.onAccelerometer(event.values[0], event.values[1], event.values[2],
+                        nanos);
+            }
+            else {
+                filter.onGyroscope(event.values[0], event.values[1], event.values[2], nanos);
+            }
+            if (filter.isInitialized()) {
+                // In landscape the device's x axis points up the screen
+                pipeline.setAxes((float)(-filter.getPitch() / MAX_TILT_RAD),
+                        (float)(filter.getRoll() / MAX_TILT_RAD), nanos);
+            }
+        }
+
+        /**
+         * Accuracy changes are handled by the filter's pull towards the accelerometer
+         * @param sensor The sensor
+         * @param accuracy The new accuracy
+         */
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
     }
 
     // Do nothing for these
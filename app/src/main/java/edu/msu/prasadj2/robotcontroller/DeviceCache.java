@@ -0,0 +1,297 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cache of robots this app has recently connected to, so they can be reconnected
+ * directly without a discovery scan.
+ *
+ * Each entry keeps the device's address, name, last signal strength, last connect latency,
+ * and connect success rate. Candidates are ranked by success rate, then by how recently
+ * they connected. The cache is stored as a single string, one device per line.
+ */
+public class DeviceCache {
+
+    /// Most devices kept. The least useful device is evicted first.
+    public static final int MAX_ENTRIES = 8;
+    /// Signal strength of a device that has not been seen in a scan
+    public static final int UNKNOWN_RSSI = Short.MIN_VALUE;
+
+    /// Separates the fields of one stored device
+    private static final char FIELD_SEPARATOR = '\t';
+
+    /**
+     * A cached robot device
+     */
+    public static class Entry {
+        /// The hardware address
+        private final String address;
+        /// The device name, or null if it has none
+        private String name;
+        /// The last signal strength seen in a scan, in dBm
+        private int lastRssi = UNKNOWN_RSSI;
+        /// The time the last successful connect took, in milliseconds
+        private long lastConnectMs = 0;
+        /// Number of connect attempts
+        private int attempts = 0;
+        /// Number of successful connects
+        private int successes = 0;
+        /// The wall clock time of the last successful connect, in milliseconds
+        private long lastConnectedAt = 0;
+
+        /**
+         * Constructor for this entry
+         * @param address The hardware address
+         * @param name The device name, or null if it has none
+         */
+        Entry(String address, String name) {
+            this.address = address;
+            this.name = name;
+        }
+
+        /**
+         * Gets the hardware address
+         * @return The hardware address
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the device name
+         * @return The device name, or null if it has none
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the last signal strength seen in a scan
+         * @return The signal strength in dBm, or UNKNOWN_RSSI
+         */
+        public int getLastRssi() {
+            return lastRssi;
+        }
+
+        /**
+         * Gets the time the last successful connect took
+         * @return The connect latency, in milliseconds
+         */
+        public long getLastConnectMs() {
+            return lastConnectMs;
+        }
+
+        /**
+         * Gets the share of connect attempts that succeeded. Devices with few attempts
+         * are pulled towards one half so a single failure does not bury them.
+         * @return The success rate, from 0 to 1
+         */
+        public double getSuccessRate() {
+            return (successes + 1.0) / (attempts + 2.0);
+        }
+
+        /**
+         * Gets the number of connect attempts
+         * @return The number of attempts
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Gets the number of successful connects
+         * @return The number of successes
+         */
+        public int getSuccesses() {
+            return successes;
+        }
+
+        /**
+         * Gets the wall clock time of the last successful connect
+         * @return The time, in milliseconds since the epoch
+         */
+        public long getLastConnectedAt() {
+            return lastConnectedAt;
+        }
+    }
+
+    /// Ranks the most promising device first
+    private static final Comparator<Entry> RANKING = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int bySuccess = Double.compare(b.getSuccessRate(), a.getSuccessRate());
+            if (bySuccess != 0) {
+                return bySuccess;
+            }
+            return Long.compare(b.lastConnectedAt, a.lastConnectedAt);
+        }
+    };
+
+    /// The cached devices
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * Records a successful connect, adding the device if it is not cached
+     * @param address The hardware address
+     * @param name The device name, or null if it has none
+     * @param connectMs The time the connect took, in milliseconds
+     * @param now The current wall clock time, in milliseconds
+     */
+    public synchronized void recordSuccess(@NonNull String address, @Nullable String name,
+                                           long connectMs, long now) {
+        Entry entry = find(address);
+        if (entry == null) {
+            entry = add(address, name);
+        }
+        if (name != null) {
+            entry.name = name;
+        }
+        entry.attempts++;
+        entry.successes++;
+        entry.lastConnectMs = connectMs;
+        entry.lastConnectedAt = now;
+    }
+
+    /**
+     * Records a failed connect to a cached device
+     * @param address The hardware address
+     */
+    public synchronized void recordFailure(@NonNull String address) {
+        Entry entry = find(address);
+        if (entry != null) {
+            entry.attempts++;
+        }
+    }
+
+    /**
+     * Records the signal strength of a cached device seen in a scan
+     * @param address The hardware address
+     * @param rssi The signal strength, in dBm
+     */
+    public synchronized void recordRssi(@NonNull String address, int rssi) {
+        Entry entry = find(address);
+        if (entry != null) {
+            entry.lastRssi = rssi;
+        }
+    }
+
+    /**
+     * Gets the most promising devices to connect to directly
+     * @param max The most devices to return
+     * @return The best ranked devices, best first
+     */
+    public synchronized List<Entry> getCandidates(int max) {
+        List<Entry> ranked = new ArrayList<Entry>(entries);
+        Collections.sort(ranked, RANKING);
+        return ranked.subList(0, Math.min(max, ranked.size()));
+    }
+
+    /**
+     * Gets the number of cached devices
+     * @return The number of devices
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Converts the cache to a string for storage
+     * @return The stored form, one device per line
+     */
+    public synchronized String encode() {
+        StringBuilder builder = new StringBuilder();
+        for (Entry entry : entries) {
+            builder.append(entry.address).append(FIELD_SEPARATOR)
+                    .append(entry.name == null ? "" : clean(entry.name)).append(FIELD_SEPARATOR)
+                    .append(entry.lastRssi).append(FIELD_SEPARATOR)
+                    .append(entry.lastConnectMs).append(FIELD_SEPARATOR)
+                    .append(entry.attempts).append(FIELD_SEPARATOR)
+                    .append(entry.successes).append(FIELD_SEPARATOR)
+                    .append(entry.lastConnectedAt).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Restores a cache from its stored form. Malformed lines are skipped.
+     * @param stored The stored form, or null for an empty cache
+     * @return The restored cache
+     */
+    public static DeviceCache decode(@Nullable String stored) {
+        DeviceCache cache = new DeviceCache();
+        if (stored == null) {
+            return cache;
+        }
+        for (String line : stored.split("\n")) {
+            String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+            if (fields.length != 7 || fields[0].isEmpty() || cache.find(fields[0]) != null) {
+                continue;
+            }
+            try {
+                Entry entry = new Entry(fields[0], fields[1].isEmpty() ? null : fields[1]);
+                entry.lastRssi = Integer.parseInt(fields[2]);
+                entry.lastConnectMs = Long.parseLong(fields[3]);
+                entry.attempts = Integer.parseInt(fields[4]);
+                entry.successes = Integer.parseInt(fields[5]);
+                entry.lastConnectedAt = Long.parseLong(fields[6]);
+                if (cache.entries.size() < MAX_ENTRIES) {
+                    cache.entries.add(entry);
+                }
+            } catch (NumberFormatException e) {
+                // Skip the line
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Finds a cached device
+     * @param address The hardware address
+     * @return The entry, or null if the device is not cached
+     */
+    private Entry find(String address) {
+        for (Entry entry : entries) {
+            if (entry.address.equals(address)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a device, evicting the lowest ranked device if the cache is full
+     * @param address The hardware address
+     * @param name The device name, or null if it has none
+     * @return The new entry
+     */
+    private Entry add(String address, String name) {
+        if (entries.size() >= MAX_ENTRIES) {
+            Collections.sort(entries, RANKING);
+            entries.remove(entries.size() - 1);
+        }
+        Entry entry = new Entry(address, name);
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Removes characters from a name that would break the stored form
+     * @param name The device name
+     * @return The name without separators
+     */
+    private static String clean(String name) {
+        return name.replace(FIELD_SEPARATOR, ' ').replace('\n', ' ');
+    }
+}
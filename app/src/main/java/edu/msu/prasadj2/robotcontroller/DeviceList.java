@@ -0,0 +1,337 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rows of an on-screen list of bluetooth devices, keyed by hardware address.
+ *
+ * Updates are collected as they arrive and applied together once per frame by dispatch,
+ * which reports the changed rows as a few ranges so the list only rebinds what changed.
+ * A device keeps its row until it is removed: a new device is appended, a renamed one is
+ * updated in place, and an update that changes nothing is counted and dropped, so the
+ * repeated found broadcasts of a discovery scan cost nothing on screen.
+ *
+ * Used on the UI thread only.
+ */
+public class DeviceList {
+
+    /**
+     * Receives the ranges of rows changed by a dispatch
+     */
+    public interface Observer {
+        /**
+         * Called when rows are added
+         * @param position The position of the first new row
+         * @param count The number of rows added
+         */
+        void onRowsInserted(int position, int count);
+
+        /**
+         * Called when rows are updated in place
+         * @param position The position of the first updated row
+         * @param count The number of rows updated
+         */
+        void onRowsChanged(int position, int count);
+
+        /**
+         * Called when rows are removed
+         * @param position The position of the first removed row
+         * @param count The number of rows removed
+         */
+        void onRowsRemoved(int position, int count);
+    }
+
+    /**
+     * One device in the list
+     */
+    public static class Row {
+        /// Identifier of the row, stable while the row exists
+        private final long id;
+        /// The device's hardware address
+        private final String address;
+        /// The device's name, or null if it has none
+        private String name;
+
+        /**
+         * Constructor for this row
+         * @param id Identifier of the row
+         * @param address The device's hardware address
+         * @param name The device's name, or null
+         */
+        Row(long id, String address, String name) {
+            this.id = id;
+            this.address = address;
+            this.name = name;
+        }
+
+        /**
+         * Gets the row's stable identifier
+         * @return The row id
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the device's hardware address
+         * @return The address
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the device's name
+         * @return The name, or null if it has none
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the text shown for the device
+         * @return The name, or the address if the device has no name
+         */
+        public String getLabel() {
+            return name == null ? address : name;
+        }
+    }
+
+    /// The rows on screen, in the order their devices were first seen
+    private final List<Row> rows = new ArrayList<Row>();
+    /// Position of each row, by address
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+    /// Rows waiting to be added or renamed, by address, in arrival order
+    private final Map<String, Row> pending = new LinkedHashMap<String, Row>();
+    /// Addresses of rows waiting to be removed
+    private final Set<String> pendingRemovals = new HashSet<String>();
+
+    /// Positions updated or removed by the current dispatch, reused between dispatches
+    private int[] changed = new int[16];
+    /// Tracks if every row is removed by the next dispatch
+    private boolean pendingClear = false;
+    /// Number of updates dropped because they changed nothing
+    private long duplicateCount = 0;
+
+    /**
+     * Records a device to show, applied by the next dispatch
+     * @param id Identifier of the device's row, such as its device registry id
+     * @param address The device's hardware address
+     * @param name The device's name, or null if it has none
+     * @return true if the update changes the list, false if it was a duplicate
+     */
+    public boolean update(long id, @NonNull String address, @Nullable String name) {
+        Row staged = pending.get(address);
+        if (staged != null) {
+            if (equal(staged.name, name)) {
+                duplicateCount++;
+                return false;
+            }
+        }
+        else if (!pendingClear && !pendingRemovals.contains(address)) {
+            Integer position = positions.get(address);
+            if (position != null && equal(rows.get(position).name, name)) {
+                duplicateCount++;
+                return false;
+            }
+        }
+        pendingRemovals.remove(address);
+        pending.put(address, new Row(id, address, name));
+        return true;
+    }
+
+    /**
+     * Removes a device's row with the next dispatch
+     * @param address The device's hardware address
+     * @return true if the device had a row or a waiting update
+     */
+    public boolean remove(@NonNull String address) {
+        boolean staged = pending.remove(address) != null;
+        if (!pendingClear && positions.containsKey(address)) {
+            pendingRemovals.add(address);
+            return true;
+        }
+        return staged;
+    }
+
+    /**
+     * Removes every row with the next dispatch, along with any updates not yet applied
+     */
+    public void clear() {
+        pending.clear();
+        pendingRemovals.clear();
+        pendingClear = !rows.isEmpty();
+    }
+
+    /**
+     * Determines if a dispatch would change the list
+     * @return true if updates are waiting
+     */
+    public boolean hasPendingChanges() {
+        return pendingClear || !pending.isEmpty() || !pendingRemovals.isEmpty();
+    }
+
+    /**
+     * Applies the waiting updates and reports them as ranges: removals first, from the
+     * end of the list, then updated rows in order, then the appended rows
+     * @param observer Receives the changed ranges
+     * @return The number of ranges reported
+     */
+    public int dispatch(@NonNull Observer observer) {
+        int ranges = 0;
+        if (pendingClear) {
+            int removed = rows.size();
+            rows.clear();
+            positions.clear();
+            pendingClear = false;
+            observer.onRowsRemoved(0, removed);
+            ranges++;
+        }
+        if (!pendingRemovals.isEmpty()) {
+            ranges += dispatchRemovals(observer);
+        }
+        if (pending.isEmpty()) {
+            return ranges;
+        }
+
+        int insertStart = rows.size();
+        int changedCount = 0;
+        for (Row staged : pending.values()) {
+            Integer position = positions.get(staged.address);
+            if (position == null) {
+                positions.put(staged.address, rows.size());
+                rows.add(staged);
+            }
+            else if (!equal(rows.get(position).name, staged.name)) {
+                rows.get(position).name = staged.name;
+                changedCount = addChanged(changedCount, position);
+            }
+        }
+        pending.clear();
+
+        // Report updated rows as runs of neighbouring positions
+        Arrays.sort(changed, 0, changedCount);
+        int i = 0;
+        while (i < changedCount) {
+            int start = changed[i];
+            int end = start;
+            while (++i < changedCount && changed[i] == end + 1) {
+                end++;
+            }
+            observer.onRowsChanged(start, end - start + 1);
+            ranges++;
+        }
+        if (rows.size() > insertStart) {
+            observer.onRowsInserted(insertStart, rows.size() - insertStart);
+            ranges++;
+        }
+        return ranges;
+    }
+
+    /**
+     * Gets the number of rows on screen
+     * @return The row count
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Gets a row
+     * @param position The row position
+     * @return The row
+     */
+    public Row getRow(int position) {
+        return rows.get(position);
+    }
+
+    /**
+     * Finds a device's row
+     * @param address The device's hardware address
+     * @return The row position, or -1 if the device has no row
+     */
+    public int indexOf(@Nullable String address) {
+        Integer position = address == null ? null : positions.get(address);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Gets the number of updates dropped because they changed nothing
+     * @return The duplicate count
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Removes the rows waiting to be removed, reporting runs of neighbouring rows from the
+     * end of the list so every reported position is still valid when it is reported
+     * @param observer Receives the removed ranges
+     * @return The number of ranges reported
+     */
+    private int dispatchRemovals(Observer observer) {
+        int changedCount = 0;
+        for (String address : pendingRemovals) {
+            changedCount = addChanged(changedCount, positions.remove(address));
+        }
+        pendingRemovals.clear();
+        Arrays.sort(changed, 0, changedCount);
+
+        int ranges = 0;
+        int i = changedCount - 1;
+        while (i >= 0) {
+            int end = changed[i];
+            int start = end;
+            while (--i >= 0 && changed[i] == start - 1) {
+                start--;
+            }
+            rows.subList(start, end + 1).clear();
+            observer.onRowsRemoved(start, end - start + 1);
+            ranges++;
+        }
+        for (int position = changed[0]; position < rows.size(); position++) {
+            positions.put(rows.get(position).address, position);
+        }
+        return ranges;
+    }
+
+    /**
+     * Adds a position to the reusable list of changed positions, growing it as needed
+     * @param count The number of positions already in the list
+     * @param position The position to add
+     * @return The new number of positions
+     */
+    private int addChanged(int count, int position) {
+        if (count == changed.length) {
+            changed = Arrays.copyOf(changed, changed.length * 2);
+        }
+        changed[count] = position;
+        return count + 1;
+    }
+
+    /**
+     * Compares two names that may be null
+     * @param a The first name
+     * @param b The second name
+     * @return true if both are null or they are equal
+     */
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
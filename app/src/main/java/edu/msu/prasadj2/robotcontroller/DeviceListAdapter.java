@@ -0,0 +1,189 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import android.graphics.Color;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Shows a device list in a recycler view, one borderless button per device.
+ *
+ * Row views are recycled as the list scrolls, and the list's dispatched ranges are passed
+ * straight to the recycler view, so a discovery scan only binds the rows that changed.
+ * The selected device's row is highlighted.
+ */
+public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.RowHolder>
+        implements DeviceList.Observer {
+
+    /**
+     * Receives taps on the list's rows
+     */
+    public interface Listener {
+        /**
+         * Called when a device's row is tapped
+         * @param adapter The adapter showing the row
+         * @param id The row's id
+         */
+        void onDeviceTapped(DeviceListAdapter adapter, long id);
+    }
+
+    /**
+     * Holds one recycled row view
+     */
+    class RowHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        /// The row's button
+        final Button button;
+
+        /**
+         * Constructor for this row holder
+         * @param button The row's button
+         */
+        RowHolder(Button button) {
+            super(button);
+            this.button = button;
+            button.setOnClickListener(this);
+        }
+
+        /**
+         * Passes a tap on the row to the listener
+         * @param view The row's button
+         */
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                listener.onDeviceTapped(DeviceListAdapter.this, getItemId());
+            }
+        }
+    }
+
+    /// The rows shown
+    private final DeviceList list;
+    /// Receives taps on the rows
+    private final Listener listener;
+    /// Hardware address of the selected device, or null
+    private String selectedAddress = null;
+
+    /**
+     * Constructor for this adapter
+     * @param list The rows to show
+     * @param listener Receives taps on the rows
+     */
+    public DeviceListAdapter(@NonNull DeviceList list, @NonNull Listener listener) {
+        this.list = list;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Gets the rows shown
+     * @return The device list
+     */
+    public DeviceList getList() {
+        return list;
+    }
+
+    /**
+     * Highlights a device's row, and removes the highlight from the previous one
+     * @param address The device's hardware address, or null to select nothing
+     */
+    public void setSelectedAddress(@Nullable String address) {
+        int previous = list.indexOf(selectedAddress);
+        selectedAddress = address;
+        if (previous >= 0) {
+            notifyItemChanged(previous);
+        }
+        int current = list.indexOf(address);
+        if (current >= 0 && current != previous) {
+            notifyItemChanged(current);
+        }
+    }
+
+    /**
+     * Creates a row view
+     * @param parent The recycler view
+     * @param viewType The row type, unused
+     * @return The holder of the new row
+     */
+    @NonNull
+    @Override
+    public RowHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        Button button = new Button(parent.getContext(), null,
+                android.R.attr.borderlessButtonStyle);
+        button.setLayoutParams(new RecyclerView.LayoutParams(
+                RecyclerView.LayoutParams.MATCH_PARENT, RecyclerView.LayoutParams.WRAP_CONTENT));
+        return new RowHolder(button);
+    }
+
+    /**
+     * Shows a device in a recycled row view
+     * @param holder The row's holder
+     * @param position The row position
+     */
+    @Override
+    public void onBindViewHolder(@NonNull RowHolder holder, int position) {
+        DeviceList.Row row = list.getRow(position);
+        holder.button.setText(row.getLabel());
+        holder.button.setBackgroundColor(row.getAddress().equals(selectedAddress)
+                ? Color.LTGRAY : Color.TRANSPARENT);
+    }
+
+    /**
+     * Gets the number of rows
+     * @return The row count
+     */
+    @Override
+    public int getItemCount() {
+        return list.size();
+    }
+
+    /**
+     * Gets a row's stable identifier, so recycled views follow their devices
+     * @param position The row position
+     * @return The row id
+     */
+    @Override
+    public long getItemId(int position) {
+        return list.getRow(position).getId();
+    }
+
+    /**
+     * Passes new rows to the recycler view
+     * @param position The position of the first new row
+     * @param count The number of rows added
+     */
+    @Override
+    public void onRowsInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    /**
+     * Passes updated rows to the recycler view
+     * @param position The position of the first updated row
+     * @param count The number of rows updated
+     */
+    @Override
+    public void onRowsChanged(int position, int count) {
+        notifyItemRangeChanged(position, count);
+    }
+
+    /**
+     * Passes removed rows to the recycler view
+     * @param position The position of the first removed row
+     * @param count The number of rows removed
+     */
+    @Override
+    public void onRowsRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+}
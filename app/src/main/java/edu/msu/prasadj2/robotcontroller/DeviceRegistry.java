@@ -0,0 +1,307 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every bluetooth device known to the device screen, indexed by hardware address, name
+ * and row id, so a found broadcast, a tap on a row or a lookup by name is one hash lookup
+ * instead of a scan over every device seen.
+ *
+ * Each device keeps one entry with the latest name, signal strength, bond state and time
+ * it was seen, and one id for as long as it is known, which is the id of its list row.
+ * Discoveries that have not been seen again for a while are aged out; paired devices are
+ * kept. The device type is left open so the registry can be used without android.
+ *
+ * Used on the UI thread only.
+ *
+ * @param <D> The device type, a BluetoothDevice in the app
+ */
+public class DeviceRegistry<D> {
+    /// Bond state of a device that is not paired, as in BluetoothDevice
+    public static final int BOND_NONE = 10;
+    /// Bond state of a device being paired, as in BluetoothDevice
+    public static final int BOND_BONDING = 11;
+    /// Bond state of a paired device, as in BluetoothDevice
+    public static final int BOND_BONDED = 12;
+    /// Signal strength of a device that has not been discovered
+    public static final int RSSI_UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * One known device
+     * @param <D> The device type
+     */
+    public static class Entry<D> {
+        /// Identifier of the device, stable while it is known
+        private final long id;
+        /// The device's hardware address
+        private final String address;
+        /// The device
+        private D device;
+        /// The device's latest name, or null if it has none
+        private String name;
+        /// Latest signal strength in dBm, or RSSI_UNKNOWN
+        private int rssi = RSSI_UNKNOWN;
+        /// Time the device was last discovered in milliseconds, or -1 if it has not been
+        private long lastSeenMs = -1;
+        /// The device's bond state
+        private int bondState = BOND_NONE;
+
+        /**
+         * Constructor for this entry
+         * @param id Identifier of the device
+         * @param address The device's hardware address
+         */
+        Entry(long id, String address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        /**
+         * Gets the device's identifier, also the id of its list row
+         * @return The id
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Gets the device's hardware address
+         * @return The address
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the device
+         * @return The device
+         */
+        public D getDevice() {
+            return device;
+        }
+
+        /**
+         * Gets the device's latest name
+         * @return The name, or null if it has none
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the device's latest signal strength
+         * @return The strength in dBm, or RSSI_UNKNOWN
+         */
+        public int getRssi() {
+            return rssi;
+        }
+
+        /**
+         * Gets the time the device was last discovered
+         * @return The time in milliseconds, or -1 if it has not been discovered
+         */
+        public long getLastSeenMs() {
+            return lastSeenMs;
+        }
+
+        /**
+         * Gets the device's bond state
+         * @return One of the BOND_ constants
+         */
+        public int getBondState() {
+            return bondState;
+        }
+
+        /**
+         * Determines if the device is paired
+         * @return true if bonded
+         */
+        public boolean isBonded() {
+            return bondState == BOND_BONDED;
+        }
+
+        /**
+         * Determines if the device was found by the current or a recent discovery
+         * @return true if discovered
+         */
+        public boolean isDiscovered() {
+            return lastSeenMs >= 0;
+        }
+    }
+
+    /// Entries by hardware address
+    private final Map<String, Entry<D>> byAddress = new HashMap<String, Entry<D>>();
+    /// The most recently seen entry with each name
+    private final Map<String, Entry<D>> byName = new HashMap<String, Entry<D>>();
+    /// Entries by id
+    private final Map<Long, Entry<D>> byId = new HashMap<Long, Entry<D>>();
+
+    /// Id given to the next new device
+    private long nextId = 1;
+
+    /**
+     * Records a paired device
+     * @param device The device
+     * @param address The device's hardware address
+     * @param name The device's name, or null if it has none
+     * @return The device's entry
+     */
+    @NonNull
+    public Entry<D> recordBonded(@NonNull D device, @NonNull String address,
+                                 @Nullable String name) {
+        Entry<D> entry = obtain(device, address, name);
+        entry.bondState = BOND_BONDED;
+        return entry;
+    }
+
+    /**
+     * Records a device found by discovery
+     * @param device The device
+     * @param address The device's hardware address
+     * @param name The device's name, or null if the broadcast did not carry it
+     * @param rssi The signal strength in dBm, or RSSI_UNKNOWN
+     * @param bondState The device's bond state
+     * @param nowMs The current time in milliseconds
+     * @return The device's entry
+     */
+    @NonNull
+    public Entry<D> recordDiscovery(@NonNull D device, @NonNull String address,
+                                    @Nullable String name, int rssi, int bondState,
+                                    long nowMs) {
+        // A later broadcast without the name does not forget it
+        Entry<D> entry = byAddress.get(address);
+        if (name == null && entry != null) {
+            name = entry.name;
+        }
+        entry = obtain(device, address, name);
+        if (rssi != RSSI_UNKNOWN) {
+            entry.rssi = rssi;
+        }
+        entry.bondState = bondState;
+        entry.lastSeenMs = nowMs;
+        return entry;
+    }
+
+    /**
+     * Finds a device by hardware address
+     * @param address The address
+     * @return The entry, or null if the device is not known
+     */
+    @Nullable
+    public Entry<D> getByAddress(@Nullable String address) {
+        return address == null ? null : byAddress.get(address);
+    }
+
+    /**
+     * Finds the most recently seen device with a name
+     * @param name The name
+     * @return The entry, or null if no known device has the name
+     */
+    @Nullable
+    public Entry<D> getByName(@Nullable String name) {
+        return name == null ? null : byName.get(name);
+    }
+
+    /**
+     * Finds a device by id, such as the id of a tapped row
+     * @param id The id
+     * @return The entry, or null if the device is not known
+     */
+    @Nullable
+    public Entry<D> getById(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Ages out discoveries not seen for a while. Devices that are not paired are forgotten;
+     * paired devices are kept but are no longer marked as discovered.
+     * @param nowMs The current time in milliseconds
+     * @param maxAgeMs The longest time a discovery is kept without being seen again
+     * @return The entries aged out
+     */
+    @NonNull
+    public List<Entry<D>> expire(long nowMs, long maxAgeMs) {
+        List<Entry<D>> expired = new ArrayList<Entry<D>>();
+        Iterator<Entry<D>> iterator = byAddress.values().iterator();
+        while (iterator.hasNext()) {
+            Entry<D> entry = iterator.next();
+            if (!entry.isDiscovered() || nowMs - entry.lastSeenMs <= maxAgeMs) {
+                continue;
+            }
+            expired.add(entry);
+            entry.lastSeenMs = -1;
+            entry.rssi = RSSI_UNKNOWN;
+            if (!entry.isBonded()) {
+                iterator.remove();
+                byId.remove(entry.id);
+                unindexName(entry);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Forgets every device
+     */
+    public void clear() {
+        byAddress.clear();
+        byName.clear();
+        byId.clear();
+    }
+
+    /**
+     * Gets the number of known devices
+     * @return The device count
+     */
+    public int size() {
+        return byAddress.size();
+    }
+
+    /**
+     * Finds or creates a device's entry and brings its device and name up to date
+     * @param device The device
+     * @param address The device's hardware address
+     * @param name The device's name, or null
+     * @return The entry
+     */
+    private Entry<D> obtain(D device, String address, String name) {
+        Entry<D> entry = byAddress.get(address);
+        if (entry == null) {
+            entry = new Entry<D>(nextId++, address);
+            byAddress.put(address, entry);
+            byId.put(entry.id, entry);
+        }
+        else if (name == null ? entry.name != null : !name.equals(entry.name)) {
+            unindexName(entry);
+        }
+        entry.device = device;
+        entry.name = name;
+        if (name != null) {
+            byName.put(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes an entry from the name index, if it is the entry indexed under its name
+     * @param entry The entry
+     */
+    private void unindexName(Entry<D> entry) {
+        if (entry.name != null && byName.get(entry.name) == entry) {
+            byName.remove(entry.name);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ranks the devices found by a discovery scan by how likely they are to be a robot and how
+ * strong their signal is, and ends the scan as soon as a configured robot is found.
+ *
+ * A full inquiry takes about twelve seconds and takes radio time from any open connection,
+ * so the scan is stopped the moment a robot the app has connected to or paired with shows
+ * up. The time from the start of the scan until then is kept as the time to robot.
+ *
+ * Used on the UI thread only.
+ */
+public class DiscoveryController {
+    /// Class of device reported by HC-05 and HC-06 modules (major class uncategorized)
+    public static final int ROBOT_DEVICE_CLASS = 0x1F00;
+    /// Device class of a device that did not report one
+    public static final int UNKNOWN_DEVICE_CLASS = -1;
+
+    /// Likeness of a device that does not look like a robot
+    public static final int LIKENESS_NONE = 0;
+    /// Likeness of a device with the robot module's class of device
+    public static final int LIKENESS_CLASS = 1;
+    /// Likeness of a device with a robot module's name
+    public static final int LIKENESS_NAME = 2;
+    /// Likeness of a configured robot
+    public static final int LIKENESS_CONFIGURED = 3;
+
+    /// Name prefixes of the serial bluetooth modules robots are built with, in lower case
+    private static final String[] ROBOT_NAME_PREFIXES = {"hc-06", "hc-05", "linvor", "bt04"};
+
+    /**
+     * Receives the end of a scan
+     */
+    public interface Listener {
+        /**
+         * Called once per scan, when a configured robot is found
+         * @param candidate The robot
+         * @param timeToRobotNanos Time from the start of the scan, in nanoseconds
+         */
+        void onRobotFound(Candidate candidate, long timeToRobotNanos);
+    }
+
+    /**
+     * One device found by the scan
+     */
+    public static class Candidate {
+        /// The device's hardware address
+        private final String address;
+        /// The device's name, or null if it has none
+        private String name;
+        /// Strongest signal seen in this scan, in dBm
+        private int rssi = DeviceRegistry.RSSI_UNKNOWN;
+        /// How much the device looks like a robot, one of the LIKENESS_ constants
+        private int likeness = LIKENESS_NONE;
+
+        /**
+         * Constructor for this candidate
+         * @param address The device's hardware address
+         */
+        Candidate(String address) {
+            this.address = address;
+        }
+
+        /**
+         * Gets the device's hardware address
+         * @return The address
+         */
+        public String getAddress() {
+            return address;
+        }
+
+        /**
+         * Gets the device's name
+         * @return The name, or null if it has none
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the strongest signal seen in this scan
+         * @return The strength in dBm, or DeviceRegistry.RSSI_UNKNOWN
+         */
+        public int getRssi() {
+            return rssi;
+        }
+
+        /**
+         * Gets how much the device looks like a robot
+         * @return One of the LIKENESS_ constants
+         */
+        public int getLikeness() {
+            return likeness;
+        }
+    }
+
+    /// Ranks the most robot-like device first, then the strongest signal
+    private static final Comparator<Candidate> RANKING = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            if (a.likeness != b.likeness) {
+                return b.likeness - a.likeness;
+            }
+            return Integer.compare(b.rssi, a.rssi);
+        }
+    };
+
+    /// Receives the end of a scan
+    private final Listener listener;
+    /// Addresses of the robots that end a scan when found
+    private final Set<String> configuredAddresses = new HashSet<String>();
+    /// The devices found by this scan, by address
+    private final Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+
+    /// Time the scan started, in nanoseconds
+    private long startNanos = 0;
+    /// Tracks if a scan is running
+    private boolean scanning = false;
+    /// Time from the start of the last scan to a configured robot, or -1 if none was found
+    private long timeToRobotNanos = -1;
+
+    /**
+     * Constructor for this controller
+     * @param listener Receives the end of a scan
+     */
+    public DiscoveryController(@NonNull Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a robot that ends a scan as soon as it is found
+     * @param address The robot's hardware address
+     */
+    public void addConfiguredRobot(@NonNull String address) {
+        configuredAddresses.add(address);
+    }
+
+    /**
+     * Starts ranking a new scan
+     * @param nowNanos The current time, in nanoseconds
+     */
+    public void onScanStarted(long nowNanos) {
+        candidates.clear();
+        startNanos = nowNanos;
+        scanning = true;
+        timeToRobotNanos = -1;
+    }
+
+    /**
+     * Stops ranking the scan, keeping its candidates
+     */
+    public void onScanFinished() {
+        scanning = false;
+    }
+
+    /**
+     * Records a found broadcast. The listener is called, and the scan ends, if the device
+     * is a configured robot.
+     * @param address The device's hardware address
+     * @param name The device's name, or null if the broadcast did not carry it
+     * @param rssi The signal strength in dBm, or DeviceRegistry.RSSI_UNKNOWN
+     * @param deviceClass The device's class of device, or UNKNOWN_DEVICE_CLASS
+     * @param nowNanos The current time, in nanoseconds
+     * @return The device's candidate
+     */
+    @NonNull
+    public Candidate onDeviceFound(@NonNull String address, @Nullable String name, int rssi,
+                                   int deviceClass, long nowNanos) {
+        Candidate candidate = candidates.get(address);
+        if (candidate == null) {
+            candidate = new Candidate(address);
+            candidates.put(address, candidate);
+        }
+        if (name != null) {
+            candidate.name = name;
+        }
+        candidate.rssi = Math.max(candidate.rssi, rssi);
+        candidate.likeness = Math.max(candidate.likeness,
+                getLikeness(address, candidate.name, deviceClass));
+
+        if (scanning && candidate.likeness == LIKENESS_CONFIGURED) {
+            scanning = false;
+            timeToRobotNanos = nowNanos - startNanos;
+            listener.onRobotFound(candidate, timeToRobotNanos);
+        }
+        return candidate;
+    }
+
+    /**
+     * Gets the best robot-like device found, for selecting when no configured robot was
+     * found
+     * @return The best candidate, or null if nothing found looks like a robot
+     */
+    @Nullable
+    public Candidate getBestRobot() {
+        Candidate best = null;
+        for (Candidate candidate : candidates.values()) {
+            if (candidate.likeness > LIKENESS_NONE
+                    && (best == null || RANKING.compare(candidate, best) < 0)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the devices found by the scan
+     * @return The candidates, best first
+     */
+    @NonNull
+    public List<Candidate> getRanked() {
+        List<Candidate> ranked = new ArrayList<Candidate>(candidates.values());
+        Collections.sort(ranked, RANKING);
+        return ranked;
+    }
+
+    /**
+     * Determines if a scan is being ranked
+     * @return true until the scan finishes or a configured robot is found
+     */
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    /**
+     * Gets the time from the start of the last scan until a configured robot was found
+     * @return The time in nanoseconds, or -1 if none was found
+     */
+    public long getTimeToRobotNanos() {
+        return timeToRobotNanos;
+    }
+
+    /**
+     * Determines if a name is one a robot's bluetooth module advertises
+     * @param name The device's name, or null
+     * @return true if the name matches a robot module
+     */
+    public static boolean isRobotName(@Nullable String name) {
+        if (name == null) {
+            return false;
+        }
+        String lower = name.toLowerCase(Locale.US);
+        for (String prefix : ROBOT_NAME_PREFIXES) {
+            if (lower.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return lower.contains("robot");
+    }
+
+    /**
+     * Determines how much a device looks like a robot
+     * @param address The device's hardware address
+     * @param name The device's name, or null
+     * @param deviceClass The device's class of device, or UNKNOWN_DEVICE_CLASS
+     * @return One of the LIKENESS_ constants
+     */
+    private int getLikeness(String address, String name, int deviceClass) {
+        if (configuredAddresses.contains(address)) {
+            return LIKENESS_CONFIGURED;
+        }
+        if (isRobotName(name)) {
+            return LIKENESS_NAME;
+        }
+        return deviceClass == ROBOT_DEVICE_CLASS ? LIKENESS_CLASS : LIKENESS_NONE;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+/**
+ * Differential drive kinematics with a jerk limited motion profile.
+ *
+ * Targets are a linear velocity (the average of the two wheel speeds) and an angular
+ * velocity (half their difference, positive turning right), both in motor speed units.
+ * Jumping the wheels straight to a new speed makes them slip and draws current spikes
+ * that can brown out the robot, so each call to step moves the current velocities towards
+ * the targets with bounded acceleration and bounded change of acceleration, and returns
+ * the wheel speeds to send for that tick. The state is kept in primitive arrays and
+ * nothing is allocated per step.
+ *
+ * Not thread safe; used by the thread that sends the setpoints.
+ */
+public class DriveKinematics {
+    /// Fastest motor speed
+    public static final int MAX_SPEED = 100;
+    /// Acceleration limit used when none is given, in speed units per second
+    public static final double DEFAULT_MAX_ACCELERATION = 250;
+    /// Jerk limit used when none is given, in speed units per second squared
+    public static final double DEFAULT_MAX_JERK = 2500;
+
+    /// Offset of the linear axis in the state, target and limit arrays
+    private static final int LINEAR = 0;
+    /// Offset of the angular axis in the state, target and limit arrays
+    private static final int ANGULAR = 2;
+
+    /// Velocity and acceleration of each axis, at LINEAR and ANGULAR
+    private final double[] state = new double[4];
+    /// Target velocity of each axis, at LINEAR and ANGULAR
+    private final double[] target = new double[4];
+    /// Acceleration and jerk limits of each axis, at LINEAR and ANGULAR
+    private final double[] limits = new double[4];
+
+    /**
+     * Constructor for kinematics with the default limits on both axes
+     */
+    public DriveKinematics() {
+        this(DEFAULT_MAX_ACCELERATION, DEFAULT_MAX_JERK,
+                DEFAULT_MAX_ACCELERATION, DEFAULT_MAX_JERK);
+    }
+
+    /**
+     * Constructor for this drive kinematics
+     * @param maxLinearAcceleration Linear acceleration limit, in speed units per second
+     * @param maxLinearJerk Linear jerk limit, in speed units per second squared
+     * @param maxAngularAcceleration Angular acceleration limit, in speed units per second
+     * @param maxAngularJerk Angular jerk limit, in speed units per second squared
+     */
+    public DriveKinematics(double maxLinearAcceleration, double maxLinearJerk,
+                           double maxAngularAcceleration, double maxAngularJerk) {
+        if (maxLinearAcceleration <= 0 || maxLinearJerk <= 0
+                || maxAngularAcceleration <= 0 || maxAngularJerk <= 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        limits[LINEAR] = maxLinearAcceleration;
+        limits[LINEAR + 1] = maxLinearJerk;
+        limits[ANGULAR] = maxAngularAcceleration;
+        limits[ANGULAR + 1] = maxAngularJerk;
+    }
+
+    /**
+     * Converts velocities to wheel speeds. If a wheel would pass full speed, both are
+     * scaled down together so the robot still follows the same curve.
+     * @param linear The linear velocity, in speed units
+     * @param angular The angular velocity, in speed units, positive turning right
+     * @return The wheel speeds packed as (left << 16) | (right & 0xFFFF)
+     */
+    public static int toWheels(double linear, double angular) {
+        double left = linear + angular;
+        double right = linear - angular;
+        double scale = Math.max(1, Math.max(Math.abs(left), Math.abs(right)) / MAX_SPEED);
+        int leftSpeed = (int)Math.round(left / scale);
+        int rightSpeed = (int)Math.round(right / scale);
+        return (leftSpeed << 16) | (rightSpeed & 0xFFFF);
+    }
+
+    /**
+     * Sets the velocities to ramp towards
+     * @param linear The linear velocity, clamped to -100 to 100
+     * @param angular The angular velocity, clamped to -100 to 100, positive turning right
+     */
+    public void setTarget(double linear, double angular) {
+        target[LINEAR] = clamp(linear, MAX_SPEED);
+        target[ANGULAR] = clamp(angular, MAX_SPEED);
+    }
+
+    /**
+     * Sets the wheel speeds to ramp towards
+     * @param leftSpeed The left motor speed, clamped to -100 to 100
+     * @param rightSpeed The right motor speed, clamped to -100 to 100
+     */
+    public void setWheelTarget(int leftSpeed, int rightSpeed) {
+        double left = clamp(leftSpeed, MAX_SPEED);
+        double right = clamp(rightSpeed, MAX_SPEED);
+        setTarget((left + right) / 2, (left - right) / 2);
+    }
+
+    /**
+     * Advances the motion profile by one control tick
+     * @param dt The time since the last step, in seconds
+     * @return The wheel speeds to send, packed as (left << 16) | (right & 0xFFFF)
+     */
+    public int step(double dt) {
+        profile(LINEAR, dt);
+        profile(ANGULAR, dt);
+        return toWheels(state[LINEAR], state[ANGULAR]);
+    }
+
+    /**
+     * Stops the profile at once, for when the robot has been sent a stop
+     */
+    public void reset() {
+        reset(0, 0);
+    }
+
+    /**
+     * Restarts the profile at rest at wheel speeds the robot is already running at, so the
+     * first setpoints do not jump away from them
+     * @param leftSpeed The left motor speed, clamped to -100 to 100
+     * @param rightSpeed The right motor speed, clamped to -100 to 100
+     */
+    public void reset(int leftSpeed, int rightSpeed) {
+        setWheelTarget(leftSpeed, rightSpeed);
+        state[LINEAR] = target[LINEAR];
+        state[LINEAR + 1] = 0;
+        state[ANGULAR] = target[ANGULAR];
+        state[ANGULAR + 1] = 0;
+    }
+
+    /**
+     * Determines if both axes have reached their targets
+     * @return true if the current wheel speeds are the target wheel speeds
+     */
+    public boolean isSettled() {
+        return state[LINEAR] == target[LINEAR] && state[LINEAR + 1] == 0
+                && state[ANGULAR] == target[ANGULAR] && state[ANGULAR + 1] == 0;
+    }
+
+    /**
+     * Gets the current linear velocity
+     * @return The velocity, in speed units
+     */
+    public double getLinearVelocity() {
+        return state[LINEAR];
+    }
+
+    /**
+     * Gets the current angular velocity
+     * @return The velocity, in speed units, positive turning right
+     */
+    public double getAngularVelocity() {
+        return state[ANGULAR];
+    }
+
+    /**
+     * Moves one axis towards its target. The acceleration is steered, within the jerk
+     * limit, towards the largest value that can still be ramped back to zero by the time
+     * the target is reached.
+     * @param axis The axis offset, LINEAR or ANGULAR
+     * @param dt The time since the last step, in seconds
+     */
+    private void profile(int axis, double dt) {
+        double velocity = state[axis];
+        double acceleration = state[axis + 1];
+        double error = target[axis] - velocity;
+        if (error == 0 && acceleration == 0) {
+            return;
+        }
+
+        double maxAcceleration = limits[axis];
+        double maxJerk = limits[axis + 1];
+        double desired = Math.signum(error)
+                * Math.min(maxAcceleration, Math.sqrt(2 * maxJerk * Math.abs(error)));
+        acceleration += clamp(desired - acceleration, maxJerk * dt);
+        velocity += acceleration * dt;
+
+        // Reaching or passing the target ends the ramp there
+        if ((target[axis] - velocity) * error <= 0) {
+            velocity = target[axis];
+            acceleration = 0;
+        }
+        state[axis] = velocity;
+        state[axis + 1] = acceleration;
+    }
+
+    /**
+     * Clamps a value to a symmetric range
+     * @param value The value
+     * @param limit The largest magnitude allowed
+     * @return The clamped value
+     */
+    private static double clamp(double value, double limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+}
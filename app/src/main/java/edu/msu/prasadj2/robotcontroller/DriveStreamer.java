@@ -0,0 +1,318 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread that streams the current left and right motor speeds to the robot
+ * at a fixed control rate.
+ *
+ * The speed targets can be changed as often as the sliders report them. Each tick
+ * only queues a drive command if the targets changed since the last one was sent,
+ * so bursts of slider events are folded into one command per tick. The rate is
+ * capped so the drive commands never use more than part of the link's bandwidth.
+ *
+ * With drive kinematics, the targets are not sent as they are. Each tick sends the next
+ * setpoint of a jerk limited ramp towards them instead, until the ramp settles.
+ *
+ * Targets are sent as drive commands unless another motion opcode is given with them,
+ * so firmware that predates the drive command can still be ramped with the commands it
+ * understands. Each of those commands can only set some wheel speeds: forward keeps both
+ * wheels equal and moving forwards, a right turn keeps the left wheel forwards and the
+ * right one backwards, and so on. A ramp is fitted to what its command can set, and only
+ * changes command at speeds both commands can set, ramping down to a stop first when there
+ * are none, such as from a right turn to forward. A target its own command cannot set is
+ * stepped to at once.
+ */
+public class DriveStreamer extends Thread {
+
+    /// Usable bytes per second of the HC-06 serial link (9600 baud, 10 bits per byte)
+    public static final int LINK_BYTES_PER_SECOND = 960;
+    /// Share of the link drive commands are allowed to use, in percent
+    public static final int LINK_BUDGET_PERCENT = 75;
+
+    /// Slowest supported control rate, in hertz
+    public static final int MIN_RATE = 1;
+    /// Control rate used when none is given, in hertz
+    public static final int DEFAULT_RATE = 25;
+
+    /// Marks that nothing has been sent yet
+    private static final long NOTHING_SENT = Long.MIN_VALUE;
+
+    /// The queue drive commands are added to
+    private final CommandQueue queue;
+    /// The effective control rate, in hertz
+    private final int rate;
+    /// Time between ticks, in nanoseconds
+    private final long periodNanos;
+    /// Ramps the wheel speeds towards the targets, or null to send the targets directly.
+    /// Guarded by this.
+    private final DriveKinematics kinematics;
+
+    /// Latest targets, packed as (opcode << 32) | (left << 16) | (right & 0xFFFF) so all
+    /// three are read together
+    private volatile long packedTarget = (long)RobotCommand.DRIVE << 32;
+    /// Tracks if the streamer has been terminated. Only set while holding this.
+    private volatile boolean terminated = false;
+    /// Opcode and speeds of the last command queued, packed like the targets. Guarded by
+    /// this.
+    private long lastSent = NOTHING_SENT;
+    /// Command each setpoint is built in. Guarded by this.
+    private final RobotCommand setpoint = new RobotCommand();
+    /// Motion opcode the ramp is sent with, which only changes at wheel speeds both the old
+    /// and the new opcode can set. Guarded by this.
+    private int rampOpcode = RobotCommand.STOP;
+    /// Wheel speeds the profile last stepped to, before they were fitted to the ramp's
+    /// opcode. Guarded by this.
+    private int rampSpeeds = 0;
+
+    /// Number of drive commands queued
+    private volatile long sentCount = 0;
+    /// Number of ticks skipped because the targets had not changed
+    private volatile long unchangedCount = 0;
+
+    /**
+     * Constructor for this drive streamer
+     * @param queue The queue drive commands are added to
+     * @param codec The codec commands will be sent with, used to size the rate cap
+     * @param requestedRate The requested control rate, in hertz
+     */
+    public DriveStreamer(@NonNull CommandQueue queue, @NonNull CommandCodec codec,
+                         int requestedRate) {
+        this(queue, codec, requestedRate, null);
+    }
+
+    /**
+     * Constructor for a drive streamer that ramps towards its targets
+     * @param queue The queue drive commands are added to
+     * @param codec The codec commands will be sent with, used to size the rate cap
+     * @param requestedRate The requested control rate, in hertz
+     * @param kinematics Ramps the wheel speeds, or null to send the targets directly
+     */
+    public DriveStreamer(@NonNull CommandQueue queue, @NonNull CommandCodec codec,
+                         int requestedRate, @Nullable DriveKinematics kinematics) {
+        super("DriveStreamer");
+        this.queue = queue;
+        this.kinematics = kinematics;
+        rate = Math.max(MIN_RATE, Math.min(requestedRate, getMaxRate(codec)));
+        periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    }
+
+    /**
+     * Gets the fastest control rate the link budget allows with a given codec. Sized for
+     * the longest drive setpoint, whether the firmware is sent drive commands or the
+     * original turn commands.
+     * @param codec The codec commands will be sent with
+     * @return The maximum rate, in hertz
+     */
+    public static int getMaxRate(@NonNull CommandCodec codec) {
+        byte[] frame = new byte[codec.getMaxFrameLength()];
+        RobotCommand command = new RobotCommand();
+        command.set(RobotCommand.DRIVE, -100, -100);
+        int frameLength = codec.encode(command, frame, 0);
+        command.set(RobotCommand.TURN_RIGHT, 100, 100);
+        frameLength = Math.max(frameLength, codec.encode(command, frame, 0));
+        int budget = LINK_BYTES_PER_SECOND * LINK_BUDGET_PERCENT / 100;
+        return Math.max(MIN_RATE, budget / frameLength);
+    }
+
+    /**
+     * Sets the motor speeds to stream. Never blocks.
+     * @param leftSpeed The left motor speed, -100 to 100
+     * @param rightSpeed The right motor speed, -100 to 100
+     */
+    public void setTarget(int leftSpeed, int rightSpeed) {
+        setTarget(leftSpeed, rightSpeed, RobotCommand.DRIVE);
+    }
+
+    /**
+     * Sets the motor speeds to stream and the motion command to send them with. Never
+     * blocks.
+     * @param leftSpeed The left motor speed, -100 to 100
+     * @param rightSpeed The right motor speed, -100 to 100
+     * @param opcode The motion opcode the setpoints are sent with
+     */
+    public void setTarget(int leftSpeed, int rightSpeed, int opcode) {
+        if (!RobotCommand.isMotion(opcode)) {
+            throw new IllegalArgumentException("Not a motion opcode: " + opcode);
+        }
+        packedTarget = ((long)opcode << 32)
+                | (((leftSpeed << 16) | (rightSpeed & 0xFFFF)) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Stops the robot at once instead of ramping down, and sets the targets to zero
+     * @return true if the stop was queued, false if the queue has been closed
+     */
+    public boolean halt() {
+        synchronized (this) {
+            // A stop with zero speeds packs to 0, which is also what the tick compares with
+            packedTarget = 0;
+            if (kinematics != null) {
+                kinematics.reset();
+            }
+            rampOpcode = RobotCommand.STOP;
+            rampSpeeds = 0;
+            // Under the lock, so no setpoint from before the stop can be queued after it
+            if (!queue.offer(RobotCommand.STOP, 0, 0)) {
+                return false;
+            }
+            lastSent = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Runs control ticks at the fixed rate until terminated
+     */
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (tick()) {
+            // Fixed rate: the next deadline does not drift with the time spent above
+            nextTick += periodNanos;
+            long delay = nextTick - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+            }
+            else {
+                nextTick = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Runs one control tick, queuing a command if the targets or the ramp towards them
+     * have changed
+     * @return false once the streamer has been terminated or the queue has been closed
+     */
+    synchronized boolean tick() {
+        // Under the lock, so no setpoint is queued after terminate returns
+        if (terminated) {
+            return false;
+        }
+        long packed = packedTarget;
+        long next = packed;
+        if (kinematics != null) {
+            next = stepRamp((int)(packed >>> 32), (int)packed, periodNanos / 1e9);
+        }
+        if (next == lastSent) {
+            unchangedCount++;
+            return true;
+        }
+        int speeds = (int)next;
+        setpoint.setWheelSpeeds((int)(next >>> 32), speeds >> 16, (short)speeds);
+        // Motion commands are only refused once the queue has been closed
+        if (!queue.offer(setpoint.opcode, setpoint.arg0, setpoint.arg1)) {
+            return false;
+        }
+        lastSent = next;
+        sentCount++;
+        return true;
+    }
+
+    /**
+     * Advances the ramp towards the targets by one tick
+     * @param opcode The motion opcode of the targets
+     * @param target The target speeds, packed as (left << 16) | (right & 0xFFFF)
+     * @param periodSeconds The time between ticks, in seconds
+     * @return The opcode and speeds to send, packed like the targets
+     */
+    private long stepRamp(int opcode, int target, double periodSeconds) {
+        int targetLeft = target >> 16;
+        int targetRight = (short)target;
+        if (!RobotCommand.canSet(opcode, targetLeft, targetRight)) {
+            // No ramp with this opcode ends at the target, so step to what it can set
+            setpoint.setWheelSpeeds(opcode, targetLeft, targetRight);
+            int reached = setpoint.getWheelSpeeds();
+            kinematics.reset(reached >> 16, (short)reached);
+            rampOpcode = opcode;
+            rampSpeeds = reached;
+            return ((long)opcode << 32) | (reached & 0xFFFFFFFFL);
+        }
+
+        // The speeds the robot was last sent, or a stop before anything was sent
+        int current = (int)lastSent;
+        if (rampOpcode != opcode) {
+            if (RobotCommand.canSet(opcode, current >> 16, (short)current)) {
+                // Both opcodes set the current speeds, so the robot does not notice the change
+                rampOpcode = opcode;
+                if (rampSpeeds != current) {
+                    kinematics.reset(current >> 16, (short)current);
+                }
+            }
+            else if (!RobotCommand.canSet(rampOpcode, targetLeft, targetRight)) {
+                // Neither opcode can go the whole way, so stop with the old one first
+                targetLeft = 0;
+                targetRight = 0;
+            }
+        }
+
+        kinematics.setWheelTarget(targetLeft, targetRight);
+        rampSpeeds = kinematics.step(periodSeconds);
+        int speeds = RobotCommand.getNearestSpeeds(rampOpcode, rampSpeeds >> 16,
+                (short)rampSpeeds);
+        return ((long)rampOpcode << 32) | (speeds & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Terminates the streamer. No setpoint is queued once this returns, so a stop queued
+     * afterwards is the last motion the robot is sent.
+     */
+    public void terminate() {
+        synchronized (this) {
+            terminated = true;
+        }
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Determines if the robot has been sent the current targets, so no ramp is under way
+     * @return true if the last command queued carries the target speeds
+     */
+    public synchronized boolean isSettled() {
+        long packed = packedTarget;
+        if (kinematics == null) {
+            return lastSent == packed;
+        }
+        int opcode = (int)(packed >>> 32);
+        int target = (int)packed;
+        if (!RobotCommand.canSet(opcode, target >> 16, (short)target)) {
+            return true;
+        }
+        return (int)lastSent == target && kinematics.isSettled();
+    }
+
+    /**
+     * Gets the effective control rate after the link budget cap
+     * @return The rate, in hertz
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Gets the number of drive commands queued so far
+     * @return The sent count
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * Gets the number of ticks skipped because the targets had not changed
+     * @return The unchanged count
+     */
+    public long getUnchangedCount() {
+        return unchangedCount;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One robot in a fleet: its connection, command queue, parser, heartbeat, and traffic counters.
+ *
+ * The fleet's I/O thread services every robot in turn: it runs the heartbeat, encodes
+ * queued commands and parses what has arrived, and every listener is called on it. The
+ * blocking socket calls are left to two small pump threads per robot, which only move
+ * bytes. Transports only offer blocking streams, so a robot that stops reading can block
+ * a write indefinitely and a read can only wait for data; without the pumps one slow
+ * robot would stall the I/O thread and every other robot. The writer pump drains a bounded
+ * outbound buffer and the reader pump fills an inbound one, and both wait on this robot
+ * while there is nothing to move. Commands stay in the coalescing queue until they fit in
+ * the buffer, and a robot whose writes make no progress for twice the heartbeat deadline
+ * fails. The reader pump also sees the end of the stream when the robot closes the
+ * connection cleanly.
+ */
+public class FleetRobot implements TelemetryParser.Listener, HeartbeatMonitor.Listener {
+
+    /// Bytes of encoded commands that can wait for a robot to read them
+    public static final int OUTBOUND_CAPACITY = 256;
+    /// Bytes read from a robot that can wait for the I/O thread
+    public static final int INBOUND_CAPACITY = 1024;
+
+    /// Name of the robot within its fleet
+    private final String id;
+    /// The connection to the robot
+    private final RobotTransport transport;
+    /// Converts commands to the bytes sent to the robot
+    private final CommandCodec codec;
+    /// The fleet this robot belongs to
+    private final RobotFleet fleet;
+    /// Byte stream for incoming communication from the robot
+    private final InputStream inputStream;
+    /// Byte stream for outgoing communication to the robot
+    private final OutputStream outputStream;
+    /// Commands waiting to be written to the robot
+    private final CommandQueue commandQueue = new CommandQueue();
+    /// Parses incoming communication from the robot into typed messages
+    private final TelemetryParser telemetryParser = new TelemetryParser();
+    /// Pings the robot and stops it if the link stalls. Driven by the fleet, never started.
+    private final HeartbeatMonitor heartbeatMonitor;
+    /// Reused command being written
+    private final RobotCommand command = new RobotCommand();
+    /// Reused buffer for encoded commands
+    private final byte[] frame;
+    /// The time the robot joined the fleet
+    private final long startNanos = System.nanoTime();
+    /// Longest time queued bytes may wait for the robot to read, in nanoseconds
+    private final long writeDeadlineNanos;
+    /// Bytes moved from the inbound buffer to the parser. Used on the I/O thread only.
+    private final byte[] received = new byte[INBOUND_CAPACITY];
+    /// Thread that writes the outbound buffer to the robot
+    private final Thread writerPump;
+    /// Thread that reads from the robot into the inbound buffer
+    private final Thread readerPump;
+
+    /// Encoded commands waiting for the writer pump. Guarded by this robot.
+    private final byte[] outbound = new byte[OUTBOUND_CAPACITY];
+    /// Index of the oldest outbound byte. Guarded by this robot.
+    private int outboundHead = 0;
+    /// Number of outbound bytes waiting. Guarded by this robot.
+    private int outboundSize = 0;
+    /// Time the outbound buffer last started filling or drained some. Guarded by this robot.
+    private long outboundProgressNanos = 0;
+    /// Bytes read from the robot, waiting for the I/O thread. Guarded by this robot.
+    private final byte[] inbound = new byte[INBOUND_CAPACITY];
+    /// Index of the oldest inbound byte. Guarded by this robot.
+    private int inboundHead = 0;
+    /// Number of inbound bytes waiting. Guarded by this robot.
+    private int inboundSize = 0;
+    /// Tracks if the robot closed the connection. Guarded by this robot.
+    private boolean endOfStream = false;
+    /// Why a pump stopped, or null if both are running. Guarded by this robot.
+    private IOException pumpFailure = null;
+    /// Tracks if the robot has been closed. Guarded by this robot.
+    private boolean closed = false;
+
+    /// Number of commands written to the robot
+    private volatile long commandsSent = 0;
+    /// Number of bytes written to the robot
+    private volatile long bytesSent = 0;
+    /// Number of bytes read from the robot
+    private volatile long bytesReceived = 0;
+
+    /**
+     * Constructor for this fleet robot
+     * @param id Name of the robot within its fleet
+     * @param transport The connection to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param fleet The fleet this robot belongs to
+     * @param heartbeatIntervalMs Time between heartbeat pings, in milliseconds
+     * @param heartbeatDeadlineMs Time without a reply before the link stalls, in milliseconds
+     * @throws IOException If the transport's streams are not available
+     */
+    FleetRobot(@NonNull String id, @NonNull RobotTransport transport,
+               @NonNull CommandCodec codec, @NonNull RobotFleet fleet,
+               long heartbeatIntervalMs, long heartbeatDeadlineMs) throws IOException {
+        this.id = id;
+        this.transport = transport;
+        this.codec = codec;
+        this.fleet = fleet;
+        inputStream = transport.getInputStream();
+        outputStream = transport.getOutputStream();
+        frame = new byte[codec.getMaxFrameLength()];
+        heartbeatMonitor = new HeartbeatMonitor(commandQueue, this,
+                heartbeatIntervalMs, heartbeatDeadlineMs);
+        telemetryParser.addListener(this);
+        // Past the heartbeat deadline, so a robot that stops reading is reported stalled
+        // before it is removed
+        writeDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(2 * heartbeatDeadlineMs);
+        writerPump = new Thread("FleetRobotWriter-" + id) {
+            @Override
+            public void run() {
+                pumpWrites();
+            }
+        };
+        readerPump = new Thread("FleetRobotReader-" + id) {
+            @Override
+            public void run() {
+                pumpReads();
+            }
+        };
+        writerPump.setDaemon(true);
+        readerPump.setDaemon(true);
+    }
+
+    /**
+     * Starts the robot's pump threads
+     */
+    void start() {
+        writerPump.start();
+        readerPump.start();
+    }
+
+    /**
+     * Moves queued commands to the writer pump, parses whatever has arrived, and sends a
+     * heartbeat if one is due. Never blocks. Called on the fleet's I/O thread.
+     * @param nanos The current time
+     * @return The time this robot next needs service if nothing wakes the I/O thread
+     * first: the given time if any bytes were queued for writing or parsed, otherwise the
+     * sooner of the next heartbeat and the deadline for the robot to read waiting bytes
+     * @throws IOException If a pump failed, the robot stopped reading, or it disconnected
+     */
+    long service(long nanos) throws IOException {
+        long due = heartbeatMonitor.tick(nanos);
+
+        boolean busy = false;
+        // Commands wait in the coalescing queue until they fit, so only the newest motion
+        // and any stop are held back for a robot that reads slowly
+        while (getOutboundSpace() >= frame.length && commandQueue.poll(command)) {
+            int length = codec.encode(command, frame, 0);
+            addOutbound(frame, length, nanos);
+            if (command.opcode == RobotCommand.PING) {
+                heartbeatMonitor.onPingSent(command.arg0, System.nanoTime());
+            }
+            commandsSent++;
+            bytesSent += length;
+            busy = true;
+        }
+
+        int count;
+        synchronized (this) {
+            if (pumpFailure != null) {
+                throw pumpFailure;
+            }
+            if (outboundSize > 0) {
+                long writeDue = outboundProgressNanos + writeDeadlineNanos;
+                if (nanos - writeDue > 0) {
+                    throw new IOException("The robot stopped reading");
+                }
+                // Checked again just past the deadline
+                if (writeDue + 1 - due < 0) {
+                    due = writeDue + 1;
+                }
+            }
+            count = inboundSize;
+            int first = Math.min(count, inbound.length - inboundHead);
+            System.arraycopy(inbound, inboundHead, received, 0, first);
+            System.arraycopy(inbound, 0, received, first, count - first);
+            inboundHead = (inboundHead + count) % inbound.length;
+            inboundSize = 0;
+            if (count == 0 && endOfStream) {
+                throw new EOFException("The robot closed the connection");
+            }
+            // Room for the reader pump again
+            notifyAll();
+        }
+        if (count > 0) {
+            telemetryParser.feed(received, 0, count);
+            bytesReceived += count;
+            busy = true;
+        }
+        return busy ? nanos : due;
+    }
+
+    /**
+     * Gets the free space in the outbound buffer
+     * @return The number of bytes that can be added
+     */
+    private synchronized int getOutboundSpace() {
+        return outbound.length - outboundSize;
+    }
+
+    /**
+     * Adds encoded bytes to the outbound buffer and wakes the writer pump
+     * @param data The bytes, which must fit
+     * @param length The number of bytes
+     * @param nanos The current time
+     */
+    private synchronized void addOutbound(byte[] data, int length, long nanos) {
+        if (outboundSize == 0) {
+            outboundProgressNanos = nanos;
+        }
+        int tail = (outboundHead + outboundSize) % outbound.length;
+        int first = Math.min(length, outbound.length - tail);
+        System.arraycopy(data, 0, outbound, tail, first);
+        System.arraycopy(data, first, outbound, 0, length - first);
+        outboundSize += length;
+        notifyAll();
+    }
+
+    /**
+     * Writes the outbound buffer to the robot until the robot is closed or a write fails.
+     * Runs on the writer pump.
+     */
+    private void pumpWrites() {
+        byte[] chunk = new byte[OUTBOUND_CAPACITY];
+        try {
+            while (true) {
+                int length;
+                synchronized (this) {
+                    while (!closed && outboundSize == 0) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    length = Math.min(outboundSize, outbound.length - outboundHead);
+                    System.arraycopy(outbound, outboundHead, chunk, 0, length);
+                }
+                outputStream.write(chunk, 0, length);
+                outputStream.flush();
+                synchronized (this) {
+                    outboundHead = (outboundHead + length) % outbound.length;
+                    outboundSize -= length;
+                    outboundProgressNanos = System.nanoTime();
+                }
+                fleet.wake();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (IOException e) {
+            onPumpFailed(e);
+        }
+    }
+
+    /**
+     * Reads from the robot into the inbound buffer until the robot is closed, the
+     * connection ends, or a read fails. Runs on the reader pump.
+     */
+    private void pumpReads() {
+        byte[] chunk = new byte[INBOUND_CAPACITY];
+        try {
+            while (true) {
+                int count = inputStream.read(chunk, 0, chunk.length);
+                synchronized (this) {
+                    if (count < 0) {
+                        endOfStream = true;
+                        break;
+                    }
+                    while (!closed && inbound.length - inboundSize < count) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    int tail = (inboundHead + inboundSize) % inbound.length;
+                    int first = Math.min(count, inbound.length - tail);
+                    System.arraycopy(chunk, 0, inbound, tail, first);
+                    System.arraycopy(chunk, first, inbound, 0, count - first);
+                    inboundSize += count;
+                }
+                fleet.wake();
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            onPumpFailed(e);
+            return;
+        }
+        fleet.wake();
+    }
+
+    /**
+     * Records why a pump stopped, unless the robot was closed, and wakes the I/O thread to
+     * remove the robot
+     * @param e The failure
+     */
+    private void onPumpFailed(IOException e) {
+        synchronized (this) {
+            if (closed || pumpFailure != null) {
+                return;
+            }
+            pumpFailure = e;
+        }
+        fleet.wake();
+    }
+
+    /**
+     * Queues a command to be sent to the robot. Never blocks.
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return true if the command was queued
+     */
+    boolean offer(int opcode, int arg0, int arg1) {
+        return commandQueue.offer(opcode, arg0, arg1);
+    }
+
+    /**
+     * Closes the robot's queue and connection
+     */
+    void close() {
+        commandQueue.close();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Gets the name of the robot within its fleet
+     * @return The robot's id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the connection to the robot
+     * @return The robot transport
+     */
+    public RobotTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets the queue of commands waiting to be sent, for monitoring its depth and drops
+     * @return The outbound command queue
+     */
+    public CommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    /**
+     * Gets the parser for incoming messages, for registering telemetry listeners
+     * @return The telemetry parser
+     */
+    public TelemetryParser getTelemetryParser() {
+        return telemetryParser;
+    }
+
+    /**
+     * Gets the round trip times of recent heartbeats
+     * @return The latency window
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return heartbeatMonitor.getLatencyHistogram();
+    }
+
+    /**
+     * Determines if the robot's heartbeats have missed their deadline
+     * @return true if the link is stalled
+     */
+    public boolean isStalled() {
+        return heartbeatMonitor.isStalled();
+    }
+
+    /**
+     * Gets the number of commands passed to the robot's writer
+     * @return The number of commands sent
+     */
+    public long getCommandsSent() {
+        return commandsSent;
+    }
+
+    /**
+     * Gets the number of bytes passed to the robot's writer
+     * @return The number of bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Gets the number of bytes read from the robot
+     * @return The number of bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Gets the average rate commands have been written since the robot joined the fleet
+     * @return The command throughput, in commands per second
+     */
+    public double getCommandRate() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? commandsSent / seconds : 0;
+    }
+
+    /**
+     * Passes heartbeat replies to the heartbeat monitor
+     * @param sequence The echoed ping sequence number
+     * @param nanos The time the reply was received
+     */
+    @Override
+    public void onPong(int sequence, long nanos) {
+        heartbeatMonitor.onPong(sequence, nanos);
+    }
+
+    /**
+     * Text lines are handled by listeners registered on the parser
+     * @param buffer Buffer holding the line
+     * @param offset The position of the line in the buffer
+     * @param length The length of the line
+     * @param nanos The time the line was received
+     */
+    @Override
+    public void onTextLine(byte[] buffer, int offset, int length, long nanos) {}
+
+    /**
+     * Encoder counts are handled by listeners registered on the parser
+     * @param left The left encoder count
+     * @param right The right encoder count
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onEncoders(int left, int right, long nanos) {}
+
+    /**
+     * Battery voltage is handled by listeners registered on the parser
+     * @param millivolts The battery voltage, in millivolts
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onBattery(int millivolts, long nanos) {}
+
+    /**
+     * Fleet robots do not batch, so there is nothing to acknowledge
+     * @param sequence The sequence number of the newest batch received
+     * @param nanos The time the acknowledgement was received
+     */
+    @Override
+    public void onAck(int sequence, long nanos) {}
+
+    /**
+     * Passes latency updates to the fleet
+     * @param histogram The latency window the sample was recorded in
+     */
+    @Override
+    public void onLatencyUpdated(LatencyHistogram histogram) {
+        fleet.onRobotLatency(this);
+    }
+
+    /**
+     * Passes link stalls to the fleet
+     */
+    @Override
+    public void onLinkStalled() {
+        fleet.onRobotStalled(this);
+    }
+
+    /**
+     * Nothing to do until the next latency update
+     */
+    @Override
+    public void onLinkRestored() {}
+}
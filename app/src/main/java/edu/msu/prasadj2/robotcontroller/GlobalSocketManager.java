@@ -6,28 +6,29 @@
 
 package edu.msu.prasadj2.robotcontroller;
 
-import android.bluetooth.BluetoothSocket;
-
 /**
- * Class for managing a bluetooth socket across multiple activities
+ * Class for managing the connection to the robot across multiple activities.
+ *
+ * The connection is held as a robot transport, so the controller works the same over
+ * bluetooth or a TCP connection to the robot simulator.
  */
 public class GlobalSocketManager {
-    /// The bluetooth socket
-    private static BluetoothSocket bluetoothSocket;
+    /// The connection to the robot
+    private static RobotTransport transport;
 
     /**
-     * Gets the bluetooth socket
-     * @return The bluetooth socket
+     * Gets the connection to the robot
+     * @return The robot transport
      */
-    public static synchronized BluetoothSocket getBluetoothSocket() {
-        return bluetoothSocket;
+    public static synchronized RobotTransport getTransport() {
+        return transport;
     }
 
     /**
-     * Sets the bluetooth socket that will be managed throughout the app
-     * @param bluetoothSocket The bluetooth socket
+     * Sets the connection to the robot that will be managed throughout the app
+     * @param transport The robot transport
      */
-    public static synchronized void setBluetoothSocket(BluetoothSocket bluetoothSocket) {
-        GlobalSocketManager.bluetoothSocket = bluetoothSocket;
+    public static synchronized void setTransport(RobotTransport transport) {
+        GlobalSocketManager.transport = transport;
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread that pings the robot at a fixed interval and acts as a dead-man switch.
+ *
+ * Each "PING n" is timestamped when the writer puts it on the wire and matched with the
+ * robot's "PONG n" reply to measure the round trip time. If no reply arrives within the
+ * deadline the link is considered stalled and a stop command is queued, so the robot
+ * does not keep driving its last command. The deadline is only enforced once the robot
+ * has answered at least one ping, since older firmware does not reply at all.
+ */
+public class HeartbeatMonitor extends Thread {
+
+    /**
+     * Receives link state changes. Called on the heartbeat or reader thread.
+     */
+    public interface Listener {
+        /**
+         * Called after each round trip measurement
+         * @param histogram The latency window the sample was recorded in
+         */
+        void onLatencyUpdated(LatencyHistogram histogram);
+
+        /**
+         * Called once when heartbeats miss the deadline and a stop has been queued
+         */
+        void onLinkStalled();
+
+        /**
+         * Called once when heartbeats resume after a stall
+         */
+        void onLinkRestored();
+    }
+
+    /// Time between pings when none is given, in milliseconds
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+    /// Time without a reply before the link is stalled when none is given, in milliseconds
+    public static final long DEFAULT_DEADLINE_MS = 3000;
+
+    /// Ping sequence numbers wrap at this value so they fit in a signed byte
+    public static final int SEQUENCE_RANGE = 128;
+
+    /// The queue pings and stops are added to
+    private final CommandQueue queue;
+    /// Receives link state changes
+    private final Listener listener;
+    /// Time between pings, in nanoseconds
+    private final long intervalNanos;
+    /// Time without a reply before the link is stalled, in nanoseconds
+    private final long deadlineNanos;
+
+    /// Round trip times of recent pings
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    /// Time each outstanding ping was written, indexed by sequence number. 0 if not sent.
+    private final long[] sentTimes = new long[SEQUENCE_RANGE];
+    /// Sequence number of the next ping
+    private int nextSequence = 0;
+    /// Time the last reply arrived, or the monitor started
+    private long lastReplyNanos;
+    /// Time the next ping is due
+    private long nextPingNanos;
+    /// Tracks if the robot has answered a ping, which arms the deadline
+    private boolean armed = false;
+    /// Tracks if the link is currently considered stalled
+    private boolean stalled = false;
+    /// Number of times the link has stalled
+    private long stallCount = 0;
+
+    /// Tracks if the monitor has been terminated
+    private volatile boolean terminated = false;
+
+    /**
+     * Constructor for a monitor with the default interval and deadline
+     * @param queue The queue pings and stops are added to
+     * @param listener Receives link state changes
+     */
+    public HeartbeatMonitor(@NonNull CommandQueue queue, @NonNull Listener listener) {
+        this(queue, listener, DEFAULT_INTERVAL_MS, DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * Constructor for this heartbeat monitor
+     * @param queue The queue pings and stops are added to
+     * @param listener Receives link state changes
+     * @param intervalMs Time between pings, in milliseconds
+     * @param deadlineMs Time without a reply before the link is stalled, in milliseconds
+     */
+    public HeartbeatMonitor(@NonNull CommandQueue queue, @NonNull Listener listener,
+                            long intervalMs, long deadlineMs) {
+        super("HeartbeatMonitor");
+        this.queue = queue;
+        this.listener = listener;
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        lastReplyNanos = System.nanoTime();
+        nextPingNanos = lastReplyNanos;
+    }
+
+    /**
+     * Sends pings and checks the deadline until terminated
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            lastReplyNanos = System.nanoTime();
+            nextPingNanos = lastReplyNanos;
+        }
+        while (!terminated) {
+            long due = tick(System.nanoTime());
+            LockSupport.parkNanos(this, due - System.nanoTime());
+        }
+    }
+
+    /**
+     * Checks the deadline and queues a ping if one is due. Lets a caller that services
+     * several links from one thread drive the monitor instead of starting it.
+     * @param nanos The current time
+     * @return The time the next ping is due
+     */
+    public long tick(long nanos) {
+        if (checkDeadline(nanos)) {
+            listener.onLinkStalled();
+        }
+        int sequence;
+        long due;
+        synchronized (this) {
+            if (nanos - nextPingNanos < 0) {
+                return nextPingNanos;
+            }
+            nextPingNanos = nanos + intervalNanos;
+            due = nextPingNanos;
+            sequence = nextSequence;
+            nextSequence = (nextSequence + 1) % SEQUENCE_RANGE;
+            sentTimes[sequence] = 0;
+        }
+        queue.offer(RobotCommand.PING, sequence, 0);
+        return due;
+    }
+
+    /**
+     * Records the time a ping was written to the robot. Called on the writer thread.
+     * @param sequence The ping sequence number
+     * @param nanos The time the ping was written
+     */
+    public synchronized void onPingSent(int sequence, long nanos) {
+        if (sequence >= 0 && sequence < SEQUENCE_RANGE) {
+            // Zero marks an unsent ping, so never store it as a timestamp
+            sentTimes[sequence] = nanos == 0 ? 1 : nanos;
+        }
+    }
+
+    /**
+     * Matches a reply from the robot with its ping. Called on the reader thread.
+     * @param sequence The sequence number echoed by the robot
+     * @param nanos The time the reply arrived
+     */
+    public void onPong(int sequence, long nanos) {
+        boolean restored;
+        synchronized (this) {
+            if (sequence < 0 || sequence >= SEQUENCE_RANGE || sentTimes[sequence] == 0) {
+                return;
+            }
+            histogram.record(nanos - sentTimes[sequence]);
+            sentTimes[sequence] = 0;
+            lastReplyNanos = nanos;
+            armed = true;
+            restored = stalled;
+            stalled = false;
+        }
+        if (restored) {
+            listener.onLinkRestored();
+        }
+        listener.onLatencyUpdated(histogram);
+    }
+
+    /**
+     * Stalls the link and queues a stop if the deadline has passed without a reply
+     * @param nanos The current time
+     * @return true if the link has just stalled
+     */
+    synchronized boolean checkDeadline(long nanos) {
+        if (!armed || stalled || nanos - lastReplyNanos < deadlineNanos) {
+            return false;
+        }
+        stalled = true;
+        stallCount++;
+        queue.offer(RobotCommand.STOP, 0, 0);
+        return true;
+    }
+
+    /**
+     * Terminates the monitor
+     */
+    public void terminate() {
+        terminated = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Gets the round trip times of recent pings
+     * @return The latency window
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Determines if the link is currently considered stalled
+     * @return true if heartbeats have missed the deadline
+     */
+    public synchronized boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * Gets the number of times the link has stalled
+     * @return The stall count
+     */
+    public synchronized long getStallCount() {
+        return stallCount;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+/**
+ * Shapes a raw input axis with a deadzone and an expo curve.
+ *
+ * Inputs inside the deadzone read as zero, so a stick or phone that does not rest exactly
+ * at center does not creep the robot. Outside it, the input is rescaled to start from zero
+ * and bent by the expo curve, which gives fine control near center while still reaching
+ * full speed at the ends.
+ */
+public class InputCurve {
+    /// Curve used for gamepad sticks
+    public static final InputCurve GAMEPAD = new InputCurve(0.1f, 0.3f);
+    /// Curve used for tilting the phone
+    public static final InputCurve TILT = new InputCurve(0.15f, 0.5f);
+
+    /// Share of the axis around center that reads as zero, from 0 to below 1
+    private final float deadzone;
+    /// Blend between a straight line (0) and a cubic (1)
+    private final float expo;
+
+    /**
+     * Constructor for this curve
+     * @param deadzone Share of the axis around center that reads as zero, from 0 to below 1
+     * @param expo Blend between a straight line (0) and a cubic (1)
+     */
+    public InputCurve(float deadzone, float expo) {
+        if (deadzone < 0 || deadzone >= 1) {
+            throw new IllegalArgumentException("Deadzone out of range: " + deadzone);
+        }
+        if (expo < 0 || expo > 1) {
+            throw new IllegalArgumentException("Expo out of range: " + expo);
+        }
+        this.deadzone = deadzone;
+        this.expo = expo;
+    }
+
+    /**
+     * Shapes an input
+     * @param value The raw input, from -1 to 1. Values outside are clamped.
+     * @return The shaped input, from -1 to 1
+     */
+    public float apply(float value) {
+        float magnitude = Math.min(Math.abs(value), 1);
+        if (magnitude <= deadzone) {
+            return 0;
+        }
+        float x = (magnitude - deadzone) / (1 - deadzone);
+        float shaped = (1 - expo) * x + expo * x * x * x;
+        return value < 0 ? -shaped : shaped;
+    }
+
+    /**
+     * Gets the deadzone
+     * @return Share of the axis around center that reads as zero
+     */
+    public float getDeadzone() {
+        return deadzone;
+    }
+
+    /**
+     * Gets the expo
+     * @return Blend between a straight line (0) and a cubic (1)
+     */
+    public float getExpo() {
+        return expo;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread that turns a gamepad or the phone's tilt into drive commands at a fixed
+ * control rate.
+ *
+ * Input sources report raw throttle and steering axes from whatever thread their events
+ * arrive on. Each tick takes the latest axes, shapes them with the source's deadzone and
+ * expo curves, mixes them into left and right motor speeds, and queues a drive command if
+ * the speeds changed. Nothing is allocated per event or per tick.
+ *
+ * Terminating the pipeline stops the robot if it was left moving, so input that goes
+ * away, such as a gamepad being unplugged, never leaves the last speeds running.
+ *
+ * The time from the oldest input event a command reflects until the command is queued,
+ * and until it has been written to the robot, is recorded in the session's metrics. The
+ * writer side is measured by passing sent commands to onCommandSent.
+ */
+public class InputPipeline extends Thread {
+    /// Metric name of the number of input events
+    public static final String EVENTS = "input.events";
+    /// Metric name of the time from an input event until its drive command is queued
+    public static final String EVENT_TO_QUEUE = "input.event_to_queue_ns";
+    /// Metric name of the time from an input event until its drive command is written
+    public static final String EVENT_TO_WIRE = "input.event_to_wire_ns";
+
+    /// Control rate used when none is given, in hertz
+    public static final int DEFAULT_RATE = 50;
+    /// Fastest motor speed
+    public static final int MAX_SPEED = DriveKinematics.MAX_SPEED;
+
+    /// Marks that no event is waiting for a tick, or no command is waiting to be written
+    private static final long NONE = Long.MIN_VALUE;
+    /// Marks that nothing has been queued yet
+    private static final int NOTHING_QUEUED = Integer.MIN_VALUE;
+
+    /// The queue drive commands are added to
+    private final CommandQueue queue;
+    /// Shapes the throttle axis
+    private final InputCurve throttleCurve;
+    /// Shapes the steering axis
+    private final InputCurve steeringCurve;
+    /// The effective control rate, in hertz
+    private final int rate;
+    /// Time between ticks, in nanoseconds
+    private final long periodNanos;
+    /// Counts input events
+    private final MetricsRegistry.Counter events;
+    /// Time from input events until their commands are queued, in nanoseconds
+    private final LogLinearHistogram eventToQueue;
+    /// Time from input events until their commands are written, in nanoseconds
+    private final LogLinearHistogram eventToWire;
+
+    /// Latest raw throttle, from -1 (backward) to 1 (forward). Guarded by this.
+    private float throttle = 0;
+    /// Latest raw steering, from -1 (left) to 1 (right). Guarded by this.
+    private float steering = 0;
+    /// Time of the oldest event since the last tick, or NONE. Guarded by this.
+    private long unsampledEventNanos = NONE;
+    /// Packed speeds of the command waiting to be written, or NOTHING_QUEUED. Guarded by this.
+    private int unwrittenTarget = NOTHING_QUEUED;
+    /// Time of the oldest event the waiting command reflects, or NONE. Guarded by this.
+    private long unwrittenEventNanos = NONE;
+    /// Packed speeds of the last command queued, or NOTHING_QUEUED. Guarded by this.
+    private int lastQueued = NOTHING_QUEUED;
+    /// Tracks if the pipeline has been terminated. Only set while holding this.
+    private volatile boolean terminated = false;
+    /// Number of drive commands queued
+    private volatile long sentCount = 0;
+
+    /**
+     * Constructor for this input pipeline
+     * @param queue The queue drive commands are added to
+     * @param codec The codec commands will be sent with, used to cap the rate
+     * @param requestedRate The requested control rate, in hertz
+     * @param throttleCurve Shapes the throttle axis
+     * @param steeringCurve Shapes the steering axis
+     * @param registry The registry the input metrics are kept in
+     */
+    public InputPipeline(@NonNull CommandQueue queue, @NonNull CommandCodec codec,
+                         int requestedRate, @NonNull InputCurve throttleCurve,
+                         @NonNull InputCurve steeringCurve, @NonNull MetricsRegistry registry) {
+        super("InputPipeline");
+        this.queue = queue;
+        this.throttleCurve = throttleCurve;
+        this.steeringCurve = steeringCurve;
+        rate = Math.max(DriveStreamer.MIN_RATE,
+                Math.min(requestedRate, DriveStreamer.getMaxRate(codec)));
+        periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        events = registry.counter(EVENTS);
+        eventToQueue = registry.histogram(EVENT_TO_QUEUE);
+        eventToWire = registry.histogram(EVENT_TO_WIRE);
+        setPriority(Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * Mixes throttle and steering into left and right motor speeds. Steering slows the
+     * inside wheel and speeds up the outside one, scaled down so neither exceeds full speed.
+     * @param throttle The shaped throttle, from -1 to 1
+     * @param steering The shaped steering, from -1 to 1
+     * @return The speeds packed as (left << 16) | (right & 0xFFFF)
+     */
+    public static int mix(float throttle, float steering) {
+        return DriveKinematics.toWheels(throttle * MAX_SPEED, steering * MAX_SPEED);
+    }
+
+    /**
+     * Reports the latest input axes. Never blocks for long.
+     * @param throttle The raw throttle, from -1 (backward) to 1 (forward)
+     * @param steering The raw steering, from -1 (left) to 1 (right)
+     * @param eventNanos The time of the input event, on the System.nanoTime clock
+     */
+    public void setAxes(float throttle, float steering, long eventNanos) {
+        synchronized (this) {
+            this.throttle = throttle;
+            this.steering = steering;
+            if (unsampledEventNanos == NONE) {
+                unsampledEventNanos = eventNanos;
+            }
+        }
+        events.increment();
+    }
+
+    /**
+     * Records the event to wire time of a drive command the pipeline queued. Called by the
+     * writer thread once a command has been written.
+     * @param command The command that was written
+     */
+    public void onCommandSent(@NonNull RobotCommand command) {
+        if (command.opcode != RobotCommand.DRIVE) {
+            return;
+        }
+        int target = (command.arg0 << 16) | (command.arg1 & 0xFFFF);
+        long eventNanos;
+        synchronized (this) {
+            if (target != unwrittenTarget || unwrittenEventNanos == NONE) {
+                return;
+            }
+            eventNanos = unwrittenEventNanos;
+            unwrittenEventNanos = NONE;
+        }
+        eventToWire.record(System.nanoTime() - eventNanos);
+    }
+
+    /**
+     * Queues a drive command on every tick where the mixed speeds have changed
+     */
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (!terminated) {
+            float sampledThrottle;
+            float sampledSteering;
+            long eventNanos;
+            synchronized (this) {
+                sampledThrottle = throttle;
+                sampledSteering = steering;
+                eventNanos = unsampledEventNanos;
+                unsampledEventNanos = NONE;
+            }
+
+            int target = mix(throttleCurve.apply(sampledThrottle),
+                    steeringCurve.apply(sampledSteering));
+            synchronized (this) {
+                // Under the lock, so no command can be queued after the stop of terminate
+                if (terminated) {
+                    return;
+                }
+                if (target != lastQueued) {
+                    if (eventNanos != NONE) {
+                        unwrittenTarget = target;
+                        // A target still waiting is coalesced into this one, so the oldest
+                        // event it reflected is also waiting on this command
+                        if (unwrittenEventNanos == NONE) {
+                            unwrittenEventNanos = eventNanos;
+                        }
+                    }
+                    // Motion commands are only refused once the queue has been closed
+                    if (!queue.offer(RobotCommand.DRIVE, target >> 16, (short)target)) {
+                        return;
+                    }
+                    if (eventNanos != NONE) {
+                        eventToQueue.record(System.nanoTime() - eventNanos);
+                    }
+                    lastQueued = target;
+                    sentCount++;
+                }
+            }
+
+            // Fixed rate: the next deadline does not drift with the time spent above
+            nextTick += periodNanos;
+            long delay = nextTick - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay);
+            }
+            else {
+                nextTick = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Terminates the pipeline and stops the robot if the pipeline left it moving. The stop
+     * is queued before this returns, so commands queued afterwards are not overridden.
+     */
+    public void terminate() {
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            if (lastQueued != NOTHING_QUEUED && lastQueued != 0) {
+                queue.offer(RobotCommand.STOP, 0, 0);
+            }
+        }
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Gets the effective control rate after the link budget cap
+     * @return The rate, in hertz
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Gets the number of drive commands queued so far
+     * @return The sent count
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+}
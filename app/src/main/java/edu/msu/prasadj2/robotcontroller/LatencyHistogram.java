@@ -0,0 +1,104 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import java.util.Arrays;
+
+/**
+ * Rolling window of the most recent latency samples, in nanoseconds.
+ *
+ * Percentiles are computed over the window on request using a scratch array
+ * allocated once, so recording and querying do not create garbage.
+ */
+public class LatencyHistogram {
+
+    /// Number of samples kept when no window size is given
+    public static final int DEFAULT_WINDOW = 128;
+
+    /// Ring of recorded samples
+    private final long[] samples;
+    /// Scratch space for sorting the window
+    private final long[] sorted;
+    /// Index the next sample is written to
+    private int next = 0;
+    /// Number of samples in the window
+    private int size = 0;
+    /// Total number of samples ever recorded
+    private long count = 0;
+
+    /**
+     * Constructor for a histogram with the default window
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructor for this latency histogram
+     * @param window The number of recent samples to keep
+     */
+    public LatencyHistogram(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        samples = new long[window];
+        sorted = new long[window];
+    }
+
+    /**
+     * Records a latency sample
+     * @param nanos The latency, in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        count++;
+    }
+
+    /**
+     * Gets a percentile of the samples in the window
+     * @param percentile The percentile to get, 0 to 100
+     * @return The latency at that percentile in nanoseconds, or -1 if there are no samples
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (size == 0) {
+            return -1;
+        }
+        System.arraycopy(samples, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        int rank = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, rank))];
+    }
+
+    /**
+     * Gets the most recently recorded sample
+     * @return The latest latency in nanoseconds, or -1 if there are no samples
+     */
+    public synchronized long getLatest() {
+        if (size == 0) {
+            return -1;
+        }
+        return samples[(next + samples.length - 1) % samples.length];
+    }
+
+    /**
+     * Gets the number of samples currently in the window
+     * @return The window size
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the total number of samples ever recorded
+     * @return The sample count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The metrics of a robot link, looked up once from a registry.
+ *
+ * A session passes the same link metrics to every link it creates, so the totals cover
+ * the whole session across reconnects. Times are in nanoseconds.
+ */
+public class LinkMetrics {
+
+    /// Name of the count of commands written to the robot
+    public static final String COMMANDS_SENT = "link.commands_sent";
+    /// Name of the count of commands rejected because the queue was full or closed
+    public static final String COMMANDS_DROPPED = "link.commands_dropped";
+    /// Name of the count of bytes written to the robot
+    public static final String BYTES_OUT = "link.bytes_out";
+    /// Name of the count of bytes read from the robot
+    public static final String BYTES_IN = "link.bytes_in";
+    /// Name of the histogram of time spent in each write, in nanoseconds
+    public static final String WRITE_LATENCY = "link.write_latency_ns";
+    /// Name of the histogram of heartbeat round trip times, in nanoseconds
+    public static final String ROUND_TRIP = "link.round_trip_ns";
+    /// Name of the gauge of commands waiting to be written
+    public static final String QUEUE_DEPTH = "link.queue_depth";
+    /// Name of the histogram of commands per write
+    public static final String BATCH_SIZE = "link.batch_size";
+    /// Name of the count of batches the robot acknowledged
+    public static final String BATCHES_ACKED = "link.batches_acked";
+    /// Name of the histogram of time from writing a batch to its acknowledgement
+    public static final String BATCH_ACK_LATENCY = "link.batch_ack_ns";
+    /// Name of the count of reliable frames the robot acknowledged
+    public static final String FRAMES_ACKED = "link.frames_acked";
+    /// Name of the histogram of time from first writing a reliable frame to its acknowledgement
+    public static final String FRAME_ACK_LATENCY = "link.frame_ack_ns";
+    /// Name of the count of reliable frames sent again after a timeout
+    public static final String RETRANSMITS = "link.retransmits";
+    /// Name of the gauge of reliable frames holding a slot in the window
+    public static final String FRAMES_IN_FLIGHT = "link.frames_in_flight";
+    /// Name of the count of successful reconnects
+    public static final String RECONNECTS = "link.reconnects";
+    /// Name of the count of link failures and failed reconnect attempts
+    public static final String ERRORS = "link.errors";
+    /// Name of the gauge of the adaptive write rate, in hertz
+    public static final String SEND_RATE = "link.send_rate_hz";
+    /// Name of the gauge of the estimated link bandwidth, in bytes per second
+    public static final String BANDWIDTH = "link.bandwidth_bps";
+    /// Name of the gauge of the smoothed round trip the write rate adapts to
+    public static final String SMOOTHED_ROUND_TRIP = "link.srtt_ns";
+    /// Name of the gauge of the fastest recent round trip the write rate adapts to
+    public static final String MIN_ROUND_TRIP = "link.min_rtt_ns";
+    /// Name of the gauge of the time the writer last spent coalescing commands
+    public static final String COALESCING_WINDOW = "link.coalescing_window_ns";
+    /// Name of the count of times the adaptive write rate was cut for congestion
+    public static final String RATE_DECREASES = "link.rate_decreases";
+    /// Name of the histogram of time from offering a stop to writing it
+    public static final String SAFETY_LATENCY = "link.safety_latency_ns";
+    /// Name of the histogram of time from offering any other command to writing it
+    public static final String MOTION_LATENCY = "link.motion_latency_ns";
+    /// Name of the histogram of time from submitting a configuration transfer to writing it
+    public static final String CONFIG_LATENCY = "link.config_latency_ns";
+    /// Name of the histogram of time from submitting a bulk transfer to writing it
+    public static final String BULK_LATENCY = "link.bulk_latency_ns";
+    /// Name of the count of transfer fragments written to the robot
+    public static final String FRAGMENTS_SENT = "link.fragments_sent";
+    /// Name of the count of transfers rejected because their class was full
+    public static final String TRANSFERS_DROPPED = "link.transfers_dropped";
+
+    /// The registry the metrics belong to
+    public final MetricsRegistry registry;
+    /// Commands written to the robot
+    public final MetricsRegistry.Counter commandsSent;
+    /// Commands rejected because the queue was full or closed
+    public final MetricsRegistry.Counter commandsDropped;
+    /// Bytes written to the robot
+    public final MetricsRegistry.Counter bytesOut;
+    /// Bytes read from the robot
+    public final MetricsRegistry.Counter bytesIn;
+    /// Time spent in each write
+    public final LogLinearHistogram writeLatency;
+    /// Heartbeat round trip times
+    public final LogLinearHistogram roundTrip;
+    /// Commands waiting to be written
+    public final MetricsRegistry.Gauge queueDepth;
+    /// Commands per write
+    public final LogLinearHistogram batchSize;
+    /// Batches the robot acknowledged
+    public final MetricsRegistry.Counter batchesAcked;
+    /// Time from writing a batch to its acknowledgement
+    public final LogLinearHistogram batchAckLatency;
+    /// Reliable frames the robot acknowledged
+    public final MetricsRegistry.Counter framesAcked;
+    /// Time from first writing a reliable frame to its acknowledgement
+    public final LogLinearHistogram frameAckLatency;
+    /// Reliable frames sent again after a timeout
+    public final MetricsRegistry.Counter retransmits;
+    /// Reliable frames holding a slot in the window
+    public final MetricsRegistry.Gauge framesInFlight;
+    /// Successful reconnects
+    public final MetricsRegistry.Counter reconnects;
+    /// Link failures and failed reconnect attempts
+    public final MetricsRegistry.Counter errors;
+    /// Adaptive write rate, in hertz
+    public final MetricsRegistry.Gauge sendRate;
+    /// Estimated link bandwidth, in bytes per second
+    public final MetricsRegistry.Gauge bandwidth;
+    /// Smoothed round trip the write rate adapts to
+    public final MetricsRegistry.Gauge smoothedRoundTrip;
+    /// Fastest recent round trip the write rate adapts to
+    public final MetricsRegistry.Gauge minRoundTrip;
+    /// Time the writer last spent coalescing commands
+    public final MetricsRegistry.Gauge coalescingWindow;
+    /// Times the adaptive write rate was cut for congestion
+    public final MetricsRegistry.Counter rateDecreases;
+    /// Time from offering a stop to writing it
+    public final LogLinearHistogram safetyLatency;
+    /// Time from offering any other command to writing it
+    public final LogLinearHistogram motionLatency;
+    /// Time from submitting a configuration transfer to writing it
+    public final LogLinearHistogram configLatency;
+    /// Time from submitting a bulk transfer to writing it
+    public final LogLinearHistogram bulkLatency;
+    /// Transfer fragments written to the robot
+    public final MetricsRegistry.Counter fragmentsSent;
+    /// Transfers rejected because their class was full
+    public final MetricsRegistry.Counter transfersDropped;
+
+    /**
+     * Constructor for link metrics in a new registry
+     */
+    public LinkMetrics() {
+        this(new MetricsRegistry());
+    }
+
+    /**
+     * Constructor for these link metrics
+     * @param registry The registry to register the metrics in
+     */
+    public LinkMetrics(@NonNull MetricsRegistry registry) {
+        this.registry = registry;
+        commandsSent = registry.counter(COMMANDS_SENT);
+        commandsDropped = registry.counter(COMMANDS_DROPPED);
+        bytesOut = registry.counter(BYTES_OUT);
+        bytesIn = registry.counter(BYTES_IN);
+        writeLatency = registry.histogram(WRITE_LATENCY);
+        roundTrip = registry.histogram(ROUND_TRIP);
+        queueDepth = registry.gauge(QUEUE_DEPTH);
+        batchSize = registry.histogram(BATCH_SIZE);
+        batchesAcked = registry.counter(BATCHES_ACKED);
+        batchAckLatency = registry.histogram(BATCH_ACK_LATENCY);
+        framesAcked = registry.counter(FRAMES_ACKED);
+        frameAckLatency = registry.histogram(FRAME_ACK_LATENCY);
+        retransmits = registry.counter(RETRANSMITS);
+        framesInFlight = registry.gauge(FRAMES_IN_FLIGHT);
+        reconnects = registry.counter(RECONNECTS);
+        errors = registry.counter(ERRORS);
+        sendRate = registry.gauge(SEND_RATE);
+        bandwidth = registry.gauge(BANDWIDTH);
+        smoothedRoundTrip = registry.gauge(SMOOTHED_ROUND_TRIP);
+        minRoundTrip = registry.gauge(MIN_ROUND_TRIP);
+        coalescingWindow = registry.gauge(COALESCING_WINDOW);
+        rateDecreases = registry.counter(RATE_DECREASES);
+        safetyLatency = registry.histogram(SAFETY_LATENCY);
+        motionLatency = registry.histogram(MOTION_LATENCY);
+        configLatency = registry.histogram(CONFIG_LATENCY);
+        bulkLatency = registry.histogram(BULK_LATENCY);
+        fragmentsSent = registry.counter(FRAGMENTS_SENT);
+        transfersDropped = registry.counter(TRANSFERS_DROPPED);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with bounded relative error, in the style of
+ * an HDR histogram.
+ *
+ * Values below 64 get a bucket each. Above that, every power of two is split into 32
+ * linear buckets, so any recorded value is reported within about 3% of its true value
+ * across the whole range of a long. Recording is a few atomic increments with no locks or
+ * allocation, so it is safe to call on every command from any thread. Unlike the rolling
+ * LatencyHistogram, counts cover everything recorded since the histogram was created.
+ */
+public class LogLinearHistogram {
+
+    /// Number of bits of each value kept exactly
+    private static final int SUB_BUCKET_BITS = 5;
+    /// Number of linear buckets per power of two
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /// Number of buckets needed for any non-negative long
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    /// Number of values recorded in each bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    /// Total number of values recorded
+    private final AtomicLong count = new AtomicLong();
+    /// Sum of every value recorded
+    private final AtomicLong sum = new AtomicLong();
+    /// Largest value recorded
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     * @param value The value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets a percentile of every value recorded
+     * @param percentile The percentile to get, 0 to 100
+     * @return The highest value equivalent to the one at that percentile, or -1 if empty
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+        // Values recorded while walking the buckets
+        return max.get();
+    }
+
+    /**
+     * Gets the number of values recorded
+     * @return The count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the mean of every value recorded
+     * @return The mean, or 0 if empty
+     */
+    public long getMean() {
+        long total = count.get();
+        return total == 0 ? 0 : sum.get() / total;
+    }
+
+    /**
+     * Gets the largest value recorded
+     * @return The maximum, or 0 if empty
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the bucket a value is counted in
+     * @param value The non-negative value
+     * @return The bucket index
+     */
+    static int getBucket(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the largest value counted in a bucket
+     * @param bucket The bucket index
+     * @return The upper bound of the bucket
+     */
+    static long getUpperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long top = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Worker thread that appends a snapshot of a metrics registry to a file at a fixed interval.
+ *
+ * Each dump is a header line with the wall clock time followed by one line per metric.
+ * A final dump is written when the dumper is terminated, so the file always ends with the
+ * totals for the whole session.
+ */
+public class MetricsDumper extends Thread {
+
+    /// Time between dumps when none is given, in milliseconds
+    public static final long DEFAULT_INTERVAL_MS = 10000;
+
+    /// The registry being dumped
+    private final MetricsRegistry registry;
+    /// The file snapshots are appended to
+    private final File file;
+    /// Time between dumps, in milliseconds
+    private final long intervalMs;
+
+    /// Number of dumps written
+    private volatile int dumpCount = 0;
+    /// The failure that stopped dumping, or null
+    private volatile IOException error = null;
+
+    /**
+     * Constructor for this metrics dumper
+     * @param registry The registry to dump
+     * @param file The file snapshots are appended to
+     * @param intervalMs Time between dumps, in milliseconds
+     */
+    public MetricsDumper(@NonNull MetricsRegistry registry, @NonNull File file,
+                         long intervalMs) {
+        super("MetricsDumper");
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.registry = registry;
+        this.file = file;
+        this.intervalMs = intervalMs;
+        setDaemon(true);
+    }
+
+    /**
+     * Dumps at every interval until terminated, then dumps once more
+     */
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                dump();
+            }
+            dump();
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /**
+     * Appends one snapshot to the file
+     * @throws IOException If the file cannot be written
+     */
+    public void dump() throws IOException {
+        MetricsSnapshot snapshot = registry.snapshot();
+        StringBuilder builder = new StringBuilder("# ").append(snapshot.getTimeMillis())
+                .append('\n');
+        snapshot.format(builder);
+        synchronized (this) {
+            Writer writer = new FileWriter(file, true);
+            try {
+                writer.write(builder.toString());
+            } finally {
+                writer.close();
+            }
+            dumpCount++;
+        }
+    }
+
+    /**
+     * Terminates the dumper after a final dump
+     */
+    public void terminate() {
+        interrupt();
+    }
+
+    /**
+     * Gets the number of dumps written
+     * @return The dump count
+     */
+    public int getDumpCount() {
+        return dumpCount;
+    }
+
+    /**
+     * Gets the failure that stopped dumping
+     * @return The failure, or null
+     */
+    public IOException getError() {
+        return error;
+    }
+}
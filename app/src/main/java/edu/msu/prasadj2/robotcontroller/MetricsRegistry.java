@@ -0,0 +1,186 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process registry of named counters, gauges and histograms.
+ *
+ * Metrics are looked up by name once, when the code that updates them is set up, and the
+ * returned objects are then updated without locks. Only registering a metric and taking a
+ * snapshot touch the registry itself, so the hot paths never contend on it. A snapshot
+ * captures every metric at one moment for display, logging or a dump file.
+ */
+public class MetricsRegistry {
+
+    /**
+     * A count that only goes up, such as commands sent or bytes received
+     */
+    public static class Counter {
+        /// The current count
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         * Adds one to the count
+         */
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        /**
+         * Adds to the count
+         * @param delta The amount to add
+         */
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        /**
+         * Gets the current count
+         * @return The count
+         */
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * A level that goes up and down, such as queue depth, along with its highest value
+     */
+    public static class Gauge {
+        /// The current level
+        private final AtomicLong value = new AtomicLong();
+        /// The highest level set
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Sets the current level
+         * @param level The new level
+         */
+        public void set(long level) {
+            value.set(level);
+            long current;
+            while (level > (current = max.get())) {
+                if (max.compareAndSet(current, level)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Gets the current level
+         * @return The level
+         */
+        public long get() {
+            return value.get();
+        }
+
+        /**
+         * Gets the highest level set
+         * @return The maximum level
+         */
+        public long getMax() {
+            return max.get();
+        }
+    }
+
+    /// Names of the registered metrics, in registration order. Guarded by this registry.
+    private final List<String> names = new ArrayList<String>();
+    /// The registered metrics, parallel to the names. Guarded by this registry.
+    private final List<Object> metrics = new ArrayList<Object>();
+
+    /**
+     * Gets a counter, registering it the first time its name is used
+     * @param name The metric name
+     * @return The counter
+     */
+    public synchronized Counter counter(@NonNull String name) {
+        Counter counter = find(name, Counter.class);
+        if (counter == null) {
+            counter = new Counter();
+            register(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Gets a gauge, registering it the first time its name is used
+     * @param name The metric name
+     * @return The gauge
+     */
+    public synchronized Gauge gauge(@NonNull String name) {
+        Gauge gauge = find(name, Gauge.class);
+        if (gauge == null) {
+            gauge = new Gauge();
+            register(name, gauge);
+        }
+        return gauge;
+    }
+
+    /**
+     * Gets a histogram, registering it the first time its name is used
+     * @param name The metric name
+     * @return The histogram
+     */
+    public synchronized LogLinearHistogram histogram(@NonNull String name) {
+        LogLinearHistogram histogram = find(name, LogLinearHistogram.class);
+        if (histogram == null) {
+            histogram = new LogLinearHistogram();
+            register(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Captures the current value of every metric
+     * @return The snapshot
+     */
+    public MetricsSnapshot snapshot() {
+        String[] snapshotNames;
+        Object[] snapshotMetrics;
+        synchronized (this) {
+            snapshotNames = names.toArray(new String[0]);
+            snapshotMetrics = metrics.toArray();
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), snapshotNames, snapshotMetrics);
+    }
+
+    /**
+     * Finds a registered metric. Called with the registry locked.
+     * @param name The metric name
+     * @param type The kind of metric expected
+     * @param <T> The kind of metric expected
+     * @return The metric, or null if the name is not registered
+     */
+    private <T> T find(String name, Class<T> type) {
+        int index = names.indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        Object metric = metrics.get(index);
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is already registered as a "
+                    + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Registers a new metric. Called with the registry locked.
+     * @param name The metric name
+     * @param metric The metric
+     */
+    private void register(String name, Object metric) {
+        names.add(name);
+        metrics.add(metric);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The values of every metric in a registry at one moment.
+ *
+ * Counters keep their count, gauges their level and highest level, and histograms their
+ * count, mean, median, 99th percentile and maximum. A snapshot never changes after it is
+ * taken, so it can be handed to the UI thread or written to a file without locking.
+ */
+public class MetricsSnapshot {
+
+    /// Kind of a counter entry
+    public static final int COUNTER = 0;
+    /// Kind of a gauge entry
+    public static final int GAUGE = 1;
+    /// Kind of a histogram entry
+    public static final int HISTOGRAM = 2;
+
+    /// Number of values stored per entry
+    private static final int STRIDE = 5;
+
+    /// The wall clock time the snapshot was taken, in milliseconds
+    private final long timeMillis;
+    /// Name of each entry
+    private final String[] names;
+    /// Kind of each entry
+    private final int[] kinds;
+    /// Values of each entry, STRIDE per entry
+    private final long[] values;
+
+    /**
+     * Constructor for this snapshot, which reads every metric once
+     * @param timeMillis The wall clock time of the snapshot, in milliseconds
+     * @param names Name of each metric
+     * @param metrics The metrics, parallel to the names
+     */
+    MetricsSnapshot(long timeMillis, String[] names, Object[] metrics) {
+        this.timeMillis = timeMillis;
+        this.names = names;
+        kinds = new int[names.length];
+        values = new long[names.length * STRIDE];
+        for (int i = 0; i < names.length; i++) {
+            int base = i * STRIDE;
+            Object metric = metrics[i];
+            if (metric instanceof MetricsRegistry.Counter) {
+                kinds[i] = COUNTER;
+                values[base] = ((MetricsRegistry.Counter) metric).get();
+            }
+            else if (metric instanceof MetricsRegistry.Gauge) {
+                MetricsRegistry.Gauge gauge = (MetricsRegistry.Gauge) metric;
+                kinds[i] = GAUGE;
+                values[base] = gauge.get();
+                values[base + 1] = gauge.getMax();
+            }
+            else {
+                LogLinearHistogram histogram = (LogLinearHistogram) metric;
+                kinds[i] = HISTOGRAM;
+                values[base] = histogram.getCount();
+                values[base + 1] = histogram.getMean();
+                values[base + 2] = histogram.getPercentile(50);
+                values[base + 3] = histogram.getPercentile(99);
+                values[base + 4] = histogram.getMax();
+            }
+        }
+    }
+
+    /**
+     * Gets the wall clock time the snapshot was taken
+     * @return The time, in milliseconds
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Gets the number of metrics in the snapshot
+     * @return The entry count
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Gets the name of an entry
+     * @param index The entry index
+     * @return The metric name
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Gets the kind of an entry
+     * @param index The entry index
+     * @return COUNTER, GAUGE or HISTOGRAM
+     */
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * Gets a counter's count, a gauge's level or a histogram's count
+     * @param name The metric name
+     * @return The value, or 0 if the metric is not in the snapshot
+     */
+    public long getValue(@NonNull String name) {
+        int index = indexOf(name);
+        return index < 0 ? 0 : values[index * STRIDE];
+    }
+
+    /**
+     * Gets a gauge's highest level or a histogram's maximum
+     * @param name The metric name
+     * @return The maximum, or 0 if the metric is not in the snapshot or is a counter
+     */
+    public long getMax(@NonNull String name) {
+        int index = indexOf(name);
+        if (index < 0 || kinds[index] == COUNTER) {
+            return 0;
+        }
+        return values[index * STRIDE + (kinds[index] == GAUGE ? 1 : 4)];
+    }
+
+    /**
+     * Gets a histogram's median
+     * @param name The metric name
+     * @return The median, or -1 if the histogram is empty or not in the snapshot
+     */
+    public long getMedian(@NonNull String name) {
+        int index = indexOf(name);
+        return index < 0 || kinds[index] != HISTOGRAM ? -1 : values[index * STRIDE + 2];
+    }
+
+    /**
+     * Gets a histogram's 99th percentile
+     * @param name The metric name
+     * @return The 99th percentile, or -1 if the histogram is empty or not in the snapshot
+     */
+    public long getTail(@NonNull String name) {
+        int index = indexOf(name);
+        return index < 0 || kinds[index] != HISTOGRAM ? -1 : values[index * STRIDE + 3];
+    }
+
+    /**
+     * Appends one line per metric in a plain text form
+     * @param builder Receives the text
+     * @return The builder, for chaining
+     */
+    public StringBuilder format(@NonNull StringBuilder builder) {
+        for (int i = 0; i < names.length; i++) {
+            int base = i * STRIDE;
+            builder.append(names[i]);
+            switch (kinds[i]) {
+                case COUNTER:
+                    builder.append(' ').append(values[base]);
+                    break;
+                case GAUGE:
+                    builder.append(' ').append(values[base])
+                            .append(" max=").append(values[base + 1]);
+                    break;
+                default:
+                    builder.append(" count=").append(values[base])
+                            .append(" mean=").append(values[base + 1])
+                            .append(" p50=").append(values[base + 2])
+                            .append(" p99=").append(values[base + 3])
+                            .append(" max=").append(values[base + 4]);
+                    break;
+            }
+            builder.append('\n');
+        }
+        return builder;
+    }
+
+    /**
+     * Formats the snapshot in its plain text form
+     * @return One line per metric
+     */
+    @Override
+    public String toString() {
+        return format(new StringBuilder()).toString();
+    }
+
+    /**
+     * Finds an entry by name
+     * @param name The metric name
+     * @return The entry index, or -1
+     */
+    private int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
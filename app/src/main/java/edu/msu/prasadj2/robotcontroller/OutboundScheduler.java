@@ -0,0 +1,357 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decides what the command writer puts on the wire next when commands share the link with
+ * data transfers.
+ *
+ * Outbound traffic is split into four classes. Safety is the stop command, which always
+ * goes next. Below it, motion (every other command, taken from the link's command queue),
+ * configuration and bulk transfers share the link by deficit round robin: each turn a
+ * class may write its weight in fragments' worth of bytes, so a busy bulk transfer gets
+ * its share without holding back the others. Transfers are cut into fragment frames of
+ * a few dozen bytes, so a stop or motion command waits behind at most one fragment
+ * instead of a whole upload.
+ *
+ * A fragment frame is the sync byte, FRAME_FRAGMENT, a header byte, the payload length,
+ * the payload and an XOR checksum of the type, header, length and payload bytes. The
+ * header's top bit marks the last fragment of a transfer, the next bit is set for bulk
+ * transfers, and the low six bits count the fragments of each transfer, wrapping at 64.
+ * Configuration and bulk fragments are interleaved, so the robot reassembles each class
+ * on its own.
+ *
+ * The time from offering a command or submitting a transfer to the end of its last write
+ * is recorded per class in the link metrics. Transfers are submitted from any thread;
+ * writes are made on the writer thread.
+ */
+public class OutboundScheduler {
+
+    /// Class of stop commands, written before anything else
+    public static final int SAFETY = 0;
+    /// Class of motion and other commands
+    public static final int MOTION = 1;
+    /// Class of configuration transfers
+    public static final int CONFIG = 2;
+    /// Class of bulk transfers
+    public static final int BULK = 3;
+    /// The number of classes
+    public static final int CLASS_COUNT = 4;
+
+    /// Frame type of a transfer fragment. Above every opcode, so an older decoder skips it.
+    public static final int FRAME_FRAGMENT = 0xB2;
+    /// Bytes in a fragment frame besides the payload: sync, type, header, length and checksum
+    public static final int FRAME_OVERHEAD = 5;
+    /// Largest payload a fragment frame can carry, in bytes
+    public static final int MAX_FRAGMENT_PAYLOAD = 255;
+    /// Fragment payload when none is given, in bytes
+    public static final int DEFAULT_FRAGMENT_PAYLOAD = 32;
+    /// Header bit of the last fragment of a transfer
+    public static final int LAST_FRAGMENT = 0x80;
+    /// Header bit of a bulk fragment
+    public static final int BULK_FRAGMENT = 0x40;
+    /// Mask of the fragment count in the header
+    public static final int FRAGMENT_INDEX_MASK = 0x3F;
+
+    /// Share of motion when no weights are given
+    public static final int DEFAULT_MOTION_WEIGHT = 8;
+    /// Share of configuration transfers when no weights are given
+    public static final int DEFAULT_CONFIG_WEIGHT = 2;
+    /// Share of bulk transfers when no weights are given
+    public static final int DEFAULT_BULK_WEIGHT = 1;
+    /// Bytes of configuration transfers that can be waiting at once
+    public static final int CONFIG_CAPACITY = 1024;
+    /// Bytes of bulk transfers that can be waiting at once
+    public static final int BULK_CAPACITY = 16384;
+    /// Transfers of each class that can be waiting at once
+    public static final int MAX_TRANSFERS = 16;
+
+    /// The queue commands are taken from
+    private final CommandQueue queue;
+    /// Converts commands to the bytes sent to the robot
+    private final CommandCodec codec;
+    /// Counts writes and records each class's latency
+    private final LinkMetrics metrics;
+    /// Latency of each class, indexed by class
+    private final LogLinearHistogram[] latencies;
+    /// Largest payload of each fragment, in bytes
+    private final int fragmentPayload;
+    /// Bytes each class may write per turn, indexed by class
+    private final int[] quanta = new int[CLASS_COUNT];
+
+    /// Waiting transfer bytes of each class, indexed by class. Guarded by this.
+    private final byte[][] data = new byte[CLASS_COUNT][];
+    /// Index of each class's oldest waiting byte. Guarded by this.
+    private final int[] dataHeads = new int[CLASS_COUNT];
+    /// Number of each class's waiting bytes. Guarded by this.
+    private final int[] dataSizes = new int[CLASS_COUNT];
+    /// Length of each class's waiting transfers, oldest first. Guarded by this.
+    private final int[][] transferLengths = new int[CLASS_COUNT][MAX_TRANSFERS];
+    /// Time each class's waiting transfers were submitted, in nanoseconds. Guarded by this.
+    private final long[][] transferNanos = new long[CLASS_COUNT][MAX_TRANSFERS];
+    /// Index of each class's oldest waiting transfer. Guarded by this.
+    private final int[] transferHeads = new int[CLASS_COUNT];
+    /// Number of each class's waiting transfers. Guarded by this.
+    private final int[] transferCounts = new int[CLASS_COUNT];
+    /// Bytes of each class's oldest transfer already fragmented. Guarded by this.
+    private final int[] headSent = new int[CLASS_COUNT];
+    /// Number of fragments of each class's oldest transfer already made. Guarded by this.
+    private final int[] fragmentCounts = new int[CLASS_COUNT];
+
+    /// Bytes each class may still write in its turn. Guarded by this.
+    private final int[] deficits = new int[CLASS_COUNT];
+    /// The class whose turn it is. Guarded by this.
+    private int turn = MOTION;
+    /// Tracks if the class whose turn it is has been given its quantum. Guarded by this.
+    private boolean turnStarted = false;
+
+    /// Buffer each write is encoded into. Used on the writer thread only.
+    private final byte[] frame;
+
+    /**
+     * Constructor for a scheduler with the default fragment size and weights
+     * @param queue The queue commands are taken from
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param metrics Counts writes and records each class's latency
+     */
+    public OutboundScheduler(@NonNull CommandQueue queue, @NonNull CommandCodec codec,
+                             @NonNull LinkMetrics metrics) {
+        this(queue, codec, metrics, DEFAULT_FRAGMENT_PAYLOAD, DEFAULT_MOTION_WEIGHT,
+                DEFAULT_CONFIG_WEIGHT, DEFAULT_BULK_WEIGHT);
+    }
+
+    /**
+     * Constructor for this outbound scheduler
+     * @param queue The queue commands are taken from
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param metrics Counts writes and records each class's latency
+     * @param fragmentPayload Largest payload of each fragment, up to MAX_FRAGMENT_PAYLOAD
+     * @param motionWeight Share of motion
+     * @param configWeight Share of configuration transfers
+     * @param bulkWeight Share of bulk transfers
+     */
+    public OutboundScheduler(@NonNull CommandQueue queue, @NonNull CommandCodec codec,
+                             @NonNull LinkMetrics metrics, int fragmentPayload,
+                             int motionWeight, int configWeight, int bulkWeight) {
+        if (fragmentPayload < 1 || fragmentPayload > MAX_FRAGMENT_PAYLOAD) {
+            throw new IllegalArgumentException("Fragment payload out of range: "
+                    + fragmentPayload);
+        }
+        if (motionWeight < 1 || configWeight < 1 || bulkWeight < 1) {
+            throw new IllegalArgumentException("Weights must be positive");
+        }
+        this.queue = queue;
+        this.codec = codec;
+        this.metrics = metrics;
+        this.fragmentPayload = fragmentPayload;
+        latencies = new LogLinearHistogram[] {metrics.safetyLatency, metrics.motionLatency,
+                metrics.configLatency, metrics.bulkLatency};
+
+        // A quantum covers the largest write, so every turn writes at least once
+        int largest = Math.max(codec.getMaxFrameLength(), FRAME_OVERHEAD + fragmentPayload);
+        quanta[MOTION] = motionWeight * largest;
+        quanta[CONFIG] = configWeight * largest;
+        quanta[BULK] = bulkWeight * largest;
+        data[CONFIG] = new byte[CONFIG_CAPACITY];
+        data[BULK] = new byte[BULK_CAPACITY];
+        frame = new byte[largest];
+    }
+
+    /**
+     * Queues a transfer to be written in fragments. Never blocks. The data is copied.
+     * @param trafficClass CONFIG or BULK
+     * @param buffer Buffer holding the transfer
+     * @param offset The position of the transfer in the buffer
+     * @param length The length of the transfer, at least 1
+     * @return true if the transfer was queued, false if the class has no room for it
+     */
+    public boolean submit(int trafficClass, @NonNull byte[] buffer, int offset, int length) {
+        if (trafficClass != CONFIG && trafficClass != BULK) {
+            throw new IllegalArgumentException("Not a transfer class: " + trafficClass);
+        }
+        if (length < 1) {
+            throw new IllegalArgumentException("Transfer must not be empty");
+        }
+        synchronized (this) {
+            byte[] ring = data[trafficClass];
+            if (transferCounts[trafficClass] == MAX_TRANSFERS
+                    || ring.length - dataSizes[trafficClass] < length) {
+                metrics.transfersDropped.increment();
+                return false;
+            }
+            int tail = (dataHeads[trafficClass] + dataSizes[trafficClass]) % ring.length;
+            int first = Math.min(length, ring.length - tail);
+            System.arraycopy(buffer, offset, ring, tail, first);
+            System.arraycopy(buffer, offset + first, ring, 0, length - first);
+            dataSizes[trafficClass] += length;
+
+            int slot = (transferHeads[trafficClass] + transferCounts[trafficClass])
+                    % MAX_TRANSFERS;
+            transferLengths[trafficClass][slot] = length;
+            transferNanos[trafficClass][slot] = System.nanoTime();
+            transferCounts[trafficClass]++;
+        }
+        queue.wake();
+        return true;
+    }
+
+    /**
+     * Writes the next command or fragment, whichever the schedule picks. Called on the
+     * writer thread.
+     * @param outputStream Byte stream for outgoing communication to the robot
+     * @param command Receives the command written, if a command was written
+     * @return The class written, SAFETY or MOTION if it was a command, or -1 if nothing
+     *         is waiting
+     * @throws IOException If the write fails
+     */
+    public int writeNext(@NonNull OutputStream outputStream, @NonNull RobotCommand command)
+            throws IOException {
+        int trafficClass;
+        int length;
+        long queuedNanos = 0;
+        synchronized (this) {
+            trafficClass = select();
+            if (trafficClass < 0) {
+                return -1;
+            }
+            if (trafficClass == SAFETY || trafficClass == MOTION) {
+                if (!queue.poll(command)) {
+                    // Closed since the schedule looked
+                    return -1;
+                }
+                // A stop may have superseded the motion the schedule picked
+                trafficClass = command.opcode == RobotCommand.STOP ? SAFETY : MOTION;
+                queuedNanos = queue.getPolledOfferNanos();
+                length = codec.encode(command, frame, 0);
+            }
+            else {
+                length = fragment(trafficClass);
+                if ((frame[2] & LAST_FRAGMENT) != 0) {
+                    queuedNanos = transferNanos[trafficClass][transferHeads[trafficClass]];
+                    transferHeads[trafficClass] = (transferHeads[trafficClass] + 1)
+                            % MAX_TRANSFERS;
+                    transferCounts[trafficClass]--;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        outputStream.write(frame, 0, length);
+        outputStream.flush();
+        long end = System.nanoTime();
+        metrics.writeLatency.record(end - start);
+        metrics.bytesOut.add(length);
+        if (trafficClass == CONFIG || trafficClass == BULK) {
+            metrics.fragmentsSent.increment();
+        }
+        if (queuedNanos != 0) {
+            latencies[trafficClass].record(end - queuedNanos);
+        }
+        return trafficClass;
+    }
+
+    /**
+     * Gets the number of transfer bytes waiting in a class
+     * @param trafficClass CONFIG or BULK
+     * @return The number of bytes not yet fragmented
+     */
+    public synchronized int getPendingBytes(int trafficClass) {
+        return dataSizes[trafficClass];
+    }
+
+    /**
+     * Picks the class to write next: safety first, then the others in deficit round robin
+     * @return The class, or -1 if nothing is waiting
+     */
+    private int select() {
+        int opcode = queue.peekOpcode();
+        if (opcode == RobotCommand.STOP) {
+            return SAFETY;
+        }
+        int motionSize = opcode >= 0 ? codec.getMaxFrameLength() : -1;
+        if (motionSize < 0 && transferCounts[CONFIG] == 0 && transferCounts[BULK] == 0) {
+            return -1;
+        }
+        // Ends within a round, since every quantum covers the largest write
+        while (true) {
+            int size = turn == MOTION ? motionSize : getNextFragmentLength(turn);
+            if (size < 0) {
+                // An idle class does not save up its share
+                deficits[turn] = 0;
+            }
+            else {
+                if (!turnStarted) {
+                    deficits[turn] += quanta[turn];
+                    turnStarted = true;
+                }
+                if (deficits[turn] >= size) {
+                    deficits[turn] -= size;
+                    return turn;
+                }
+            }
+            turn = turn == BULK ? MOTION : turn + 1;
+            turnStarted = false;
+        }
+    }
+
+    /**
+     * Gets the length of the next fragment frame of a class
+     * @param trafficClass CONFIG or BULK
+     * @return The frame length, or -1 if no transfer is waiting
+     */
+    private int getNextFragmentLength(int trafficClass) {
+        if (transferCounts[trafficClass] == 0) {
+            return -1;
+        }
+        int remaining = transferLengths[trafficClass][transferHeads[trafficClass]]
+                - headSent[trafficClass];
+        return FRAME_OVERHEAD + Math.min(remaining, fragmentPayload);
+    }
+
+    /**
+     * Moves the next fragment of a class's oldest transfer into the frame buffer
+     * @param trafficClass CONFIG or BULK
+     * @return The length of the fragment frame
+     */
+    private int fragment(int trafficClass) {
+        byte[] ring = data[trafficClass];
+        int transferLength = transferLengths[trafficClass][transferHeads[trafficClass]];
+        int payloadLength = Math.min(transferLength - headSent[trafficClass], fragmentPayload);
+        int head = dataHeads[trafficClass];
+        int first = Math.min(payloadLength, ring.length - head);
+        System.arraycopy(ring, head, frame, 4, first);
+        System.arraycopy(ring, 0, frame, 4 + first, payloadLength - first);
+        dataHeads[trafficClass] = (head + payloadLength) % ring.length;
+        dataSizes[trafficClass] -= payloadLength;
+        headSent[trafficClass] += payloadLength;
+
+        int header = fragmentCounts[trafficClass] & FRAGMENT_INDEX_MASK;
+        if (trafficClass == BULK) {
+            header |= BULK_FRAGMENT;
+        }
+        if (headSent[trafficClass] == transferLength) {
+            header |= LAST_FRAGMENT;
+            headSent[trafficClass] = 0;
+            fragmentCounts[trafficClass] = 0;
+        }
+        else {
+            fragmentCounts[trafficClass]++;
+        }
+        frame[0] = BinaryCommandCodec.SYNC;
+        frame[1] = (byte) FRAME_FRAGMENT;
+        frame[2] = (byte) header;
+        frame[3] = (byte) payloadLength;
+        int checksumIndex = 4 + payloadLength;
+        frame[checksumIndex] = BinaryCommandCodec.checksum(frame, 1, checksumIndex - 1);
+        return checksumIndex + 1;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to whichever of several known robots answers first.
+ *
+ * Each address is dialed on its own thread. The first connection wins. Dials still running
+ * when the race ends, because of a winner, a timeout or an interrupt, are cancelled, and
+ * connections that complete anyway are closed. Used to reconnect to cached robots without
+ * waiting for a discovery scan.
+ */
+public class ParallelConnector {
+
+    /**
+     * Opens connections to one address
+     */
+    public interface Dialer {
+        /**
+         * Prepares an attempt to connect to a robot, without connecting yet
+         * @param address The robot's address
+         * @return The attempt, which can be cancelled from another thread
+         * @throws IOException If the attempt cannot be prepared
+         */
+        StrategyConnector.Attempt open(String address) throws IOException;
+    }
+
+    /**
+     * The outcome of a race
+     */
+    public static class Result {
+        /// The address that connected first
+        public final String address;
+        /// The winning connection
+        public final RobotTransport transport;
+        /// Time from the start of the race until the winner connected, in nanoseconds
+        public final long elapsedNanos;
+        /// Addresses whose connect failed before the race ended
+        public final List<String> failedAddresses;
+
+        /**
+         * Constructor for this result
+         * @param address The address that connected first
+         * @param transport The winning connection
+         * @param elapsedNanos Time until the winner connected, in nanoseconds
+         * @param failedAddresses Addresses whose connect failed before the race ended
+         */
+        Result(String address, RobotTransport transport, long elapsedNanos,
+               List<String> failedAddresses) {
+            this.address = address;
+            this.transport = transport;
+            this.elapsedNanos = elapsedNanos;
+            this.failedAddresses = failedAddresses;
+        }
+    }
+
+    /// Opens connections
+    private final Dialer dialer;
+
+    /**
+     * Constructor for this parallel connector
+     * @param dialer Opens connections
+     */
+    public ParallelConnector(@NonNull Dialer dialer) {
+        this.dialer = dialer;
+    }
+
+    /**
+     * Dials every address at once and waits for the first connection
+     * @param addresses The addresses to dial
+     * @param timeoutMs The longest time to wait, in milliseconds
+     * @return The winning connection
+     * @throws IOException If every connect failed or none finished in time. Dials still
+     *                     running are cancelled.
+     * @throws InterruptedException If the waiting thread is interrupted. Dials still
+     *                              running are cancelled.
+     */
+    public Result connect(@NonNull List<String> addresses, long timeoutMs)
+            throws IOException, InterruptedException {
+        final Race race = new Race(addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            final int index = i;
+            final String address = addresses.get(i);
+            new Thread("Dial " + address) {
+                @Override
+                public void run() {
+                    runDial(race, index, address);
+                }
+            }.start();
+        }
+        return race.await(timeoutMs);
+    }
+
+    /**
+     * Dials one address on its own thread
+     * @param race The race the dial is part of
+     * @param index The address's place in the list
+     * @param address The address
+     */
+    private void runDial(Race race, int index, String address) {
+        StrategyConnector.Attempt attempt;
+        try {
+            attempt = dialer.open(address);
+        } catch (IOException e) {
+            race.fail(index, address, e);
+            return;
+        }
+        if (!race.begin(index, attempt)) {
+            attempt.cancel();
+            return;
+        }
+
+        try {
+            RobotTransport transport = attempt.connect();
+            if (!race.finish(index, address, transport)) {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        } catch (IOException e) {
+            race.fail(index, address, e);
+        }
+    }
+
+    /**
+     * Shared state of one race
+     */
+    private static class Race {
+        /// The time the race started
+        private final long startNanos = System.nanoTime();
+        /// Addresses whose connect failed
+        private final List<String> failedAddresses = new ArrayList<String>();
+        /// Each dial still connecting, so it can be cancelled, or null
+        private final StrategyConnector.Attempt[] attempts;
+        /// Tracks which dials are over
+        private final boolean[] ended;
+        /// Number of dials still running
+        private int pending;
+        /// The winner, once there is one
+        private Result result = null;
+        /// Tracks if the waiting thread gave up
+        private boolean abandoned = false;
+        /// The most recent failure
+        private IOException lastFailure = null;
+
+        /**
+         * Constructor for this race
+         * @param dials The number of dials started
+         */
+        Race(int dials) {
+            attempts = new StrategyConnector.Attempt[dials];
+            ended = new boolean[dials];
+            pending = dials;
+        }
+
+        /**
+         * Registers a prepared dial as connecting
+         * @param index The address's place in the list
+         * @param attempt The attempt
+         * @return true if the dial should connect, false if the race is over and the caller
+         *         must cancel it
+         */
+        synchronized boolean begin(int index, StrategyConnector.Attempt attempt) {
+            if (isOver()) {
+                end(index);
+                return false;
+            }
+            attempts[index] = attempt;
+            return true;
+        }
+
+        /**
+         * Reports a successful connect
+         * @param index The address's place in the list
+         * @param address The address that connected
+         * @param transport The connection
+         * @return true if it won the race, false if the caller must close it
+         */
+        synchronized boolean finish(int index, String address, RobotTransport transport) {
+            boolean won = !isOver() && !ended[index];
+            end(index);
+            if (won) {
+                result = new Result(address, transport, System.nanoTime() - startNanos,
+                        new ArrayList<String>(failedAddresses));
+            }
+            return won;
+        }
+
+        /**
+         * Reports a failed connect. Dials cancelled because the race is over are not
+         * counted as failures.
+         * @param index The address's place in the list
+         * @param address The address that failed
+         * @param e The failure
+         */
+        synchronized void fail(int index, String address, IOException e) {
+            if (!isOver()) {
+                failedAddresses.add(address);
+                lastFailure = e;
+            }
+            end(index);
+        }
+
+        /**
+         * Waits for a winner
+         * @param timeoutMs The longest time to wait, in milliseconds
+         * @return The winner
+         * @throws IOException If every connect failed or none finished in time
+         * @throws InterruptedException If the waiting thread is interrupted
+         */
+        synchronized Result await(long timeoutMs) throws IOException, InterruptedException {
+            long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            try {
+                long remaining;
+                while (result == null && pending > 0
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } finally {
+                if (result == null) {
+                    abandoned = true;
+                }
+                // Cancel the losers still connecting
+                for (int i = 0; i < attempts.length; i++) {
+                    if (!ended[i] && attempts[i] != null) {
+                        attempts[i].cancel();
+                    }
+                }
+            }
+            if (result != null) {
+                return result;
+            }
+            if (pending == 0 && lastFailure != null) {
+                throw lastFailure;
+            }
+            throw new IOException("No robot connected within " + timeoutMs + " ms");
+        }
+
+        /**
+         * Marks a dial as over
+         * @param index The address's place in the list
+         */
+        private void end(int index) {
+            if (!ended[index]) {
+                ended[index] = true;
+                attempts[index] = null;
+                pending--;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Determines if the race is over
+         * @return true if there is a winner or the waiting thread gave up
+         */
+        private boolean isOver() {
+            return result != null || abandoned;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts how often the command writer writes to what the link is measured to carry.
+ *
+ * Writing faster than the serial link drains only fills the buffers in the Bluetooth
+ * stack, and every command then waits behind them. The controller watches two signs of
+ * that: a socket write that blocks because the stack's buffer is full, and round trips
+ * (heartbeat replies and batch acknowledgements) that take clearly longer than the
+ * fastest seen. Either halves the write rate, at most once per round trip; otherwise the
+ * rate grows by a fixed step per second, up to what the estimated bandwidth can carry
+ * for the size of the recent writes.
+ *
+ * The writer waits out the time until the next write is allowed while it collects a
+ * batch, so commands arriving in between are coalesced into that write instead of
+ * queueing up. Stops are never held back by the writer.
+ *
+ * The estimator state is kept in the link metrics. Called on the writer and reader
+ * threads.
+ */
+public class RateController {
+    /// Slowest write rate, in hertz
+    public static final double MIN_RATE_HZ = 2;
+    /// Write rate the controller starts at, in hertz
+    public static final double INITIAL_RATE_HZ = 20;
+    /// Additive increase of the write rate, in hertz per second without congestion
+    public static final double INCREASE_HZ_PER_SECOND = 10;
+    /// Factor the write rate is multiplied by on congestion
+    public static final double DECREASE_FACTOR = 0.5;
+    /// A write that blocks this long means the stack's buffer is full, in nanoseconds
+    public static final long BLOCKED_WRITE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    /// Queueing delay over the fastest round trip that counts as congestion, at least
+    public static final long MIN_QUEUEING_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /// Shortest time between two decreases, in nanoseconds, before a round trip is known
+    public static final long MIN_DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    /// Time after which the fastest round trip is forgotten, in nanoseconds
+    public static final long MIN_ROUND_TRIP_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /// Where the estimator state is kept
+    private final LinkMetrics metrics;
+
+    /// Current write rate, in hertz. Guarded by this.
+    private double rate = INITIAL_RATE_HZ;
+    /// Estimated bytes per second the link carries. Guarded by this.
+    private double bandwidth = DriveStreamer.LINK_BYTES_PER_SECOND;
+    /// Smoothed bytes per write. Guarded by this.
+    private double averageWriteBytes = 0;
+    /// Smoothed round trip, in nanoseconds, or 0 before the first. Guarded by this.
+    private long smoothedRoundTrip = 0;
+    /// Fastest round trip in the current window, in nanoseconds, or 0. Guarded by this.
+    private long minRoundTrip = 0;
+    /// Time the fastest round trip was measured, in nanoseconds. Guarded by this.
+    private long minRoundTripNanos = 0;
+    /// Time the last write started, in nanoseconds, or 0 before the first. Guarded by this.
+    private long lastWriteNanos = 0;
+    /// Time the rate was last increased, in nanoseconds, or 0. Guarded by this.
+    private long lastIncreaseNanos = 0;
+    /// Time the rate was last decreased, in nanoseconds, or 0. Guarded by this.
+    private long lastDecreaseNanos = 0;
+
+    /**
+     * Constructor for this rate controller
+     * @param metrics Where the estimator state is kept
+     */
+    public RateController(@NonNull LinkMetrics metrics) {
+        this.metrics = metrics;
+        publish();
+    }
+
+    /**
+     * Gets the time the writer should keep collecting commands before writing
+     * @param nowNanos The current time, in nanoseconds
+     * @param minimumNanos The writer's own batch window, in nanoseconds
+     * @return The coalescing window, in nanoseconds
+     */
+    public synchronized long getCoalescingWindowNanos(long nowNanos, long minimumNanos) {
+        long window = minimumNanos;
+        if (lastWriteNanos != 0) {
+            long nextWrite = lastWriteNanos + (long)(TimeUnit.SECONDS.toNanos(1) / rate);
+            window = Math.max(window, nextWrite - nowNanos);
+        }
+        metrics.coalescingWindow.set(window);
+        return window;
+    }
+
+    /**
+     * Records a write and adjusts the rate for what its timing shows. Called on the
+     * writer thread.
+     * @param bytes The number of bytes written
+     * @param startNanos The time the write started, in nanoseconds
+     * @param endNanos The time the write returned, in nanoseconds
+     */
+    public synchronized void onWrite(int bytes, long startNanos, long endNanos) {
+        lastWriteNanos = startNanos;
+        averageWriteBytes = averageWriteBytes == 0 ? bytes
+                : averageWriteBytes + (bytes - averageWriteBytes) / 8;
+        long duration = endNanos - startNanos;
+        if (duration >= BLOCKED_WRITE_NANOS) {
+            // The write returned as the link drained the stack's buffer, so it shows
+            // the rate the link carries
+            double sample = bytes * 1e9 / duration;
+            bandwidth += (sample - bandwidth) / 4;
+            decrease(endNanos);
+        }
+        else {
+            increase(endNanos);
+        }
+        publish();
+    }
+
+    /**
+     * Records a round trip and slows down if it shows commands queueing. Called on the
+     * reader or heartbeat thread.
+     * @param roundTripNanos The round trip, in nanoseconds
+     * @param nowNanos The current time, in nanoseconds
+     */
+    public synchronized void onRoundTrip(long roundTripNanos, long nowNanos) {
+        if (roundTripNanos <= 0) {
+            return;
+        }
+        smoothedRoundTrip = smoothedRoundTrip == 0 ? roundTripNanos
+                : smoothedRoundTrip + (roundTripNanos - smoothedRoundTrip) / 8;
+        if (minRoundTrip == 0 || roundTripNanos <= minRoundTrip
+                || nowNanos - minRoundTripNanos > MIN_ROUND_TRIP_WINDOW_NANOS) {
+            minRoundTrip = roundTripNanos;
+            minRoundTripNanos = nowNanos;
+        }
+        long queueing = roundTripNanos - minRoundTrip;
+        if (queueing > Math.max(MIN_QUEUEING_DELAY_NANOS, minRoundTrip)) {
+            decrease(nowNanos);
+        }
+        publish();
+    }
+
+    /**
+     * Gets the current write rate
+     * @return The rate, in hertz
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Gets the estimated bandwidth of the link
+     * @return The bandwidth, in bytes per second
+     */
+    public synchronized double getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Gets the fastest round trip in the current window
+     * @return The round trip, in nanoseconds, or 0 if none has been measured
+     */
+    public synchronized long getMinRoundTrip() {
+        return minRoundTrip;
+    }
+
+    /**
+     * Gets the smoothed round trip
+     * @return The round trip, in nanoseconds, or 0 if none has been measured
+     */
+    public synchronized long getSmoothedRoundTrip() {
+        return smoothedRoundTrip;
+    }
+
+    /**
+     * Grows the rate by the additive step for the time since the last increase, up to what
+     * the bandwidth carries
+     * @param nowNanos The current time, in nanoseconds
+     */
+    private void increase(long nowNanos) {
+        if (lastIncreaseNanos != 0) {
+            double seconds = Math.min((nowNanos - lastIncreaseNanos) / 1e9, 1);
+            rate += INCREASE_HZ_PER_SECOND * Math.max(seconds, 0);
+        }
+        lastIncreaseNanos = nowNanos;
+        double ceiling = averageWriteBytes > 0 ? bandwidth / averageWriteBytes : rate;
+        rate = Math.max(MIN_RATE_HZ, Math.min(rate, ceiling));
+    }
+
+    /**
+     * Halves the rate, unless it was already halved within the last round trip, since the
+     * samples in between still show the load from before that decrease
+     * @param nowNanos The current time, in nanoseconds
+     */
+    private void decrease(long nowNanos) {
+        long interval = Math.max(smoothedRoundTrip, MIN_DECREASE_INTERVAL_NANOS);
+        if (lastDecreaseNanos != 0 && nowNanos - lastDecreaseNanos < interval) {
+            return;
+        }
+        lastDecreaseNanos = nowNanos;
+        lastIncreaseNanos = nowNanos;
+        rate = Math.max(MIN_RATE_HZ, rate * DECREASE_FACTOR);
+        metrics.rateDecreases.increment();
+    }
+
+    /**
+     * Copies the estimator state into the link metrics
+     */
+    private void publish() {
+        metrics.sendRate.set(Math.round(rate));
+        metrics.bandwidth.set(Math.round(bandwidth));
+        metrics.smoothedRoundTrip.set(smoothedRoundTrip);
+        metrics.minRoundTrip.set(minRoundTrip);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back a recording written by a CommandRecorder, one entry at a time.
+ *
+ * The file is read through a channel in large blocks, and the current entry is exposed
+ * through reused objects, so reading costs no allocation per entry. A recording that was
+ * cut off mid entry, for example because the app was killed, ends at the last whole entry.
+ */
+public class RecordingReader implements Closeable {
+
+    /// Size of the read buffer, in bytes
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /// The channel entries are read from
+    private final FileChannel channel;
+    /// Bytes read but not yet decoded
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /// The wall clock time the recording started, in milliseconds
+    private final long startMillis;
+    /// The current command entry
+    private final RobotCommand command = new RobotCommand();
+    /// The current line entry
+    private final byte[] line = new byte[CommandRecorder.MAX_LINE_LENGTH];
+
+    /// Tracks if the channel has no more bytes
+    private boolean endOfChannel = false;
+    /// Type of the current entry
+    private int type = 0;
+    /// Time of the current entry, in nanoseconds since the recording started
+    private long nanos = 0;
+    /// Length of the current line entry
+    private int lineLength = 0;
+
+    /**
+     * Constructor for this recording reader
+     * @param channel The channel entries are read from, positioned at the header
+     * @throws IOException If the header cannot be read or is not a recording
+     */
+    public RecordingReader(@NonNull FileChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        fill(CommandRecorder.HEADER_LENGTH);
+        if (buffer.remaining() < CommandRecorder.HEADER_LENGTH
+                || buffer.getInt() != CommandRecorder.MAGIC) {
+            throw new IOException("Not a robot recording");
+        }
+        int version = buffer.get();
+        if (version != CommandRecorder.VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        startMillis = buffer.getLong();
+    }
+
+    /**
+     * Opens a recording file
+     * @param file The recording
+     * @return The reader
+     * @throws IOException If the file cannot be opened or is not a recording
+     */
+    public static RecordingReader open(@NonNull File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            return new RecordingReader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Advances to the next entry
+     * @return true if there is an entry, false at the end of the recording
+     * @throws IOException If reading fails or the recording is corrupt
+     */
+    public boolean next() throws IOException {
+        fill(CommandRecorder.MAX_ENTRY_LENGTH);
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+        buffer.mark();
+        try {
+            int entryType = buffer.get();
+            long delta = getVarLong();
+            if (entryType == CommandRecorder.ENTRY_COMMAND) {
+                int opcode = buffer.get();
+                int arg0 = unzigzag(getVarLong());
+                int arg1 = unzigzag(getVarLong());
+                command.set(opcode, arg0, arg1);
+            }
+            else if (entryType == CommandRecorder.ENTRY_LINE) {
+                int length = (int) getVarLong();
+                if (length > line.length) {
+                    throw new IOException("Corrupt recording line of " + length + " bytes");
+                }
+                buffer.get(line, 0, length);
+                lineLength = length;
+            }
+            else {
+                throw new IOException("Corrupt recording entry type " + entryType);
+            }
+            type = entryType;
+            nanos += delta;
+            return true;
+        } catch (BufferUnderflowException e) {
+            // The recording was cut off mid entry
+            buffer.reset();
+            return false;
+        }
+    }
+
+    /**
+     * Gets the type of the current entry
+     * @return CommandRecorder.ENTRY_COMMAND or CommandRecorder.ENTRY_LINE
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Gets the time of the current entry
+     * @return The time, in nanoseconds since the recording started
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Gets the current command entry. Reused by the next call to next.
+     * @return The command
+     */
+    public RobotCommand getCommand() {
+        return command;
+    }
+
+    /**
+     * Gets the buffer holding the current line entry. Reused by the next call to next.
+     * @return The line buffer
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the length of the current line entry
+     * @return The line length
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * Gets the wall clock time the recording started
+     * @return The start time, in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Closes the recording
+     * @throws IOException If closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads from the channel until the buffer holds enough bytes or the channel ends
+     * @param wanted The number of bytes wanted
+     * @throws IOException If reading fails
+     */
+    private void fill(int wanted) throws IOException {
+        if (buffer.remaining() >= wanted || endOfChannel) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < wanted && !endOfChannel) {
+            if (channel.read(buffer) < 0) {
+                endOfChannel = true;
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Reads an unsigned variable length integer, 7 bits per byte
+     * @return The value
+     * @throws IOException If the value is longer than a long
+     */
+    private long getVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt recording number");
+    }
+
+    /**
+     * Reverses zigzag encoding
+     * @param value The zigzag encoded value
+     * @return The signed value
+     */
+    private static int unzigzag(long value) {
+        int n = (int) value;
+        return (n >>> 1) ^ -(n & 1);
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends commands in sequenced, checksummed frames the robot acknowledges one by one, and
+ * retransmits any frame that is not acknowledged in time.
+ *
+ * A reliable frame is the sync byte, FRAME_RELIABLE, the sequence number, the payload
+ * length, the payload and a CRC-16 of the type, sequence, length and payload bytes, high
+ * byte first. The payload is one command encoded with the link's codec. The robot answers
+ * every intact frame with "ACK n" or an ack frame, including frames it has already seen,
+ * and applies each sequence number once.
+ *
+ * Up to a window of frames may be unacknowledged at once, so throughput is a window of
+ * commands per round trip rather than one. Acknowledgements are selective: each covers
+ * only its own frame, and only the frames whose timeout passes are sent again. The
+ * timeout follows the measured round trip the way TCP's does, from frames acknowledged
+ * on their first attempt, and doubles for each retry of a frame. A frame that runs out of
+ * attempts fails the link.
+ *
+ * The robot applies frames as they arrive, so a retransmitted command can land after
+ * newer ones. To keep that from restarting a stopped robot, a stop or motion command
+ * supersedes every stop and motion command still in flight, and superseded frames are
+ * never sent again.
+ */
+public class ReliableSender {
+
+    /// Frame type of a reliable command. Above every opcode and the batch frame type.
+    public static final int FRAME_RELIABLE = 0xB1;
+    /// Bytes in a reliable frame besides the payload: sync, type, sequence, length and CRC
+    public static final int FRAME_OVERHEAD = 6;
+    /// Number of distinct sequence numbers
+    public static final int SEQUENCE_RANGE = 256;
+    /// Frames in flight when no window is given
+    public static final int DEFAULT_WINDOW = 32;
+    /// Largest window. Half the sequence range, so the robot can tell new frames from repeats.
+    public static final int MAX_WINDOW = SEQUENCE_RANGE / 2;
+    /// Times a frame is sent before the link is failed
+    public static final int MAX_ATTEMPTS = 10;
+
+    /// Timeout before any round trip has been measured, in nanoseconds
+    private static final long INITIAL_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    /// Shortest timeout, in nanoseconds
+    private static final long MIN_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /// Longest timeout, in nanoseconds
+    private static final long MAX_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /// Slot holds no frame
+    private static final int EMPTY = 0;
+    /// Slot holds a frame waiting for its acknowledgement
+    private static final int IN_FLIGHT = 1;
+    /// Slot holds a frame that was acknowledged or superseded
+    private static final int DONE = 2;
+
+    /// CRC-16/CCITT lookup table, polynomial 0x1021
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    /// Converts commands to the payload of each frame
+    private final CommandCodec codec;
+    /// Counts acknowledgements, retransmits and their timing
+    private final LinkMetrics metrics;
+    /// Most frames in flight
+    private final int window;
+    /// Encoded frame held by each slot. Only written by the writer thread.
+    private final byte[][] frames;
+    /// Length of the frame held by each slot
+    private final int[] lengths;
+    /// Opcode of the command held by each slot
+    private final int[] opcodes;
+    /// EMPTY, IN_FLIGHT or DONE for each slot. Guarded by this sender.
+    private final int[] states;
+    /// Time each slot's frame was first sent. Guarded by this sender.
+    private final long[] sentTimes;
+    /// Time each slot's frame is sent again. Guarded by this sender.
+    private final long[] deadlines;
+    /// Number of times each slot's frame has been sent. Guarded by this sender.
+    private final int[] attempts;
+    /// Reusable list of slots due for retransmission
+    private final int[] due;
+
+    /// Sequence number of the oldest frame still holding a slot. Guarded by this sender.
+    private int base = 0;
+    /// Sequence number of the next frame. Guarded by this sender.
+    private int nextSequence = 0;
+    /// Smoothed round trip, or -1 before the first measurement. Guarded by this sender.
+    private long smoothedRoundTrip = -1;
+    /// Smoothed round trip variation, in nanoseconds. Guarded by this sender.
+    private long roundTripVariation = 0;
+    /// Current timeout, in nanoseconds. Guarded by this sender.
+    private long timeoutNanos = INITIAL_TIMEOUT_NANOS;
+    /// Number of frames sent again. Guarded by this sender.
+    private long retransmitCount = 0;
+    /// Number of frames superseded before they were acknowledged. Guarded by this sender.
+    private long supersededCount = 0;
+    /// Tracks if the sender has been closed. Guarded by this sender.
+    private boolean closed = false;
+
+    /**
+     * Constructor for a reliable sender with the default window
+     * @param codec Converts commands to the payload of each frame
+     * @param metrics Counts acknowledgements, retransmits and their timing
+     */
+    public ReliableSender(@NonNull CommandCodec codec, @NonNull LinkMetrics metrics) {
+        this(codec, metrics, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructor for this reliable sender
+     * @param codec Converts commands to the payload of each frame
+     * @param metrics Counts acknowledgements, retransmits and their timing
+     * @param window Most frames in flight. Must be a power of two no larger than MAX_WINDOW.
+     */
+    public ReliableSender(@NonNull CommandCodec codec, @NonNull LinkMetrics metrics,
+                          int window) {
+        if (window <= 0 || window > MAX_WINDOW || (window & (window - 1)) != 0) {
+            throw new IllegalArgumentException("Window must be a power of two up to "
+                    + MAX_WINDOW);
+        }
+        this.codec = codec;
+        this.metrics = metrics;
+        this.window = window;
+        frames = new byte[window][FRAME_OVERHEAD + codec.getMaxFrameLength()];
+        lengths = new int[window];
+        opcodes = new int[window];
+        states = new int[window];
+        sentTimes = new long[window];
+        deadlines = new long[window];
+        attempts = new int[window];
+        due = new int[window];
+    }
+
+    /**
+     * Computes the CRC-16/CCITT of a range of bytes, starting from 0xFFFF
+     * @param buffer The buffer holding the bytes
+     * @param offset The position of the first byte
+     * @param length The number of bytes
+     * @return The CRC, in the low 16 bits
+     */
+    public static int crc16(byte[] buffer, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ buffer[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    /**
+     * Determines if another frame may be sent
+     * @return true if the window has room
+     */
+    public synchronized boolean hasSpace() {
+        return getSpan() < window;
+    }
+
+    /**
+     * Waits until the window has room, the timeout passes or the sender is closed
+     * @param timeoutNanos The longest time to wait, in nanoseconds
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public synchronized void awaitSpace(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long remaining;
+        while (!closed && getSpan() == window
+                && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    /**
+     * Frames a command with the next sequence number and writes it. Called on the writer
+     * thread, only when the window has room.
+     * @param command The command to send
+     * @param outputStream Stream to the robot
+     * @return The length of the frame written
+     * @throws IOException If the write fails
+     */
+    public int send(@NonNull RobotCommand command, @NonNull OutputStream outputStream)
+            throws IOException {
+        int slot;
+        byte[] frame;
+        int length;
+        synchronized (this) {
+            if (getSpan() == window) {
+                throw new IllegalStateException("Window is full");
+            }
+            if (command.opcode == RobotCommand.STOP || RobotCommand.isMotion(command.opcode)) {
+                supersedeMotion();
+            }
+            int sequence = nextSequence;
+            nextSequence = (nextSequence + 1) % SEQUENCE_RANGE;
+            slot = sequence & (window - 1);
+            frame = frames[slot];
+            frame[0] = BinaryCommandCodec.SYNC;
+            frame[1] = (byte) FRAME_RELIABLE;
+            frame[2] = (byte) sequence;
+            int payloadLength = codec.encode(command, frame, 4);
+            frame[3] = (byte) payloadLength;
+            int crc = crc16(frame, 1, payloadLength + 3);
+            frame[payloadLength + 4] = (byte) (crc >> 8);
+            frame[payloadLength + 5] = (byte) crc;
+            length = payloadLength + FRAME_OVERHEAD;
+            lengths[slot] = length;
+            opcodes[slot] = command.opcode;
+            states[slot] = IN_FLIGHT;
+            attempts[slot] = 1;
+            long now = System.nanoTime();
+            sentTimes[slot] = now;
+            deadlines[slot] = now + timeoutNanos;
+            metrics.framesInFlight.set(getSpan());
+        }
+        // Only this thread reuses the slot, so the frame is stable outside the lock
+        outputStream.write(frame, 0, length);
+        outputStream.flush();
+        return length;
+    }
+
+    /**
+     * Sends again every frame whose timeout has passed. Called on the writer thread.
+     * @param outputStream Stream to the robot
+     * @param now The current time, in nanoseconds
+     * @return The number of frames sent again
+     * @throws IOException If a frame has run out of attempts or the write fails
+     */
+    public int retransmitExpired(@NonNull OutputStream outputStream, long now)
+            throws IOException {
+        int count = 0;
+        synchronized (this) {
+            int span = getSpan();
+            for (int i = 0; i < span; i++) {
+                int sequence = (base + i) % SEQUENCE_RANGE;
+                int slot = sequence & (window - 1);
+                if (states[slot] != IN_FLIGHT || deadlines[slot] - now > 0) {
+                    continue;
+                }
+                if (attempts[slot] == MAX_ATTEMPTS) {
+                    throw new IOException("Frame " + sequence + " was not acknowledged after "
+                            + MAX_ATTEMPTS + " attempts");
+                }
+                // Back off each retry of the same frame
+                long backoff = Math.min(timeoutNanos << attempts[slot], MAX_TIMEOUT_NANOS);
+                attempts[slot]++;
+                deadlines[slot] = now + backoff;
+                due[count++] = slot;
+            }
+            retransmitCount += count;
+        }
+        int bytes = 0;
+        for (int i = 0; i < count; i++) {
+            outputStream.write(frames[due[i]], 0, lengths[due[i]]);
+            bytes += lengths[due[i]];
+        }
+        if (count > 0) {
+            outputStream.flush();
+            metrics.retransmits.add(count);
+            metrics.bytesOut.add(bytes);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the time until the next frame's timeout
+     * @param now The current time, in nanoseconds
+     * @return The time in nanoseconds, 0 if a timeout has passed, or Long.MAX_VALUE if no
+     *         frame is waiting for an acknowledgement
+     */
+    public synchronized long getNanosUntilNextTimeout(long now) {
+        long next = Long.MAX_VALUE;
+        int span = getSpan();
+        for (int i = 0; i < span; i++) {
+            int slot = (base + i) & (window - 1);
+            if (states[slot] == IN_FLIGHT) {
+                next = Math.min(next, Math.max(0, deadlines[slot] - now));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Acknowledges one frame. Called on the reader thread.
+     * @param sequence The sequence number of the frame the robot received
+     * @param nanos The time the acknowledgement arrived
+     * @return true if the frame was waiting for this acknowledgement
+     */
+    public synchronized boolean onAck(int sequence, long nanos) {
+        if (sequence < 0 || sequence >= SEQUENCE_RANGE) {
+            return false;
+        }
+        int offset = (sequence - base + SEQUENCE_RANGE) % SEQUENCE_RANGE;
+        int slot = sequence & (window - 1);
+        if (offset >= getSpan() || states[slot] != IN_FLIGHT) {
+            // A repeat, or an acknowledgement for a superseded frame
+            return false;
+        }
+        states[slot] = DONE;
+        long roundTrip = nanos - sentTimes[slot];
+        metrics.framesAcked.increment();
+        metrics.frameAckLatency.record(roundTrip);
+        if (attempts[slot] == 1) {
+            // Only frames sent once give an unambiguous round trip
+            updateTimeout(roundTrip);
+        }
+        slide();
+        return true;
+    }
+
+    /**
+     * Closes the sender, waking a writer waiting for room
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Gets the most frames in flight
+     * @return The window size
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Gets the number of frames holding a slot in the window
+     * @return The number of frames sent and not yet slid out of the window
+     */
+    public synchronized int getInFlightCount() {
+        return getSpan();
+    }
+
+    /**
+     * Gets the current retransmit timeout
+     * @return The timeout, in nanoseconds
+     */
+    public synchronized long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Gets the number of frames sent again
+     * @return The retransmit count
+     */
+    public synchronized long getRetransmitCount() {
+        return retransmitCount;
+    }
+
+    /**
+     * Gets the number of frames superseded before they were acknowledged
+     * @return The superseded count
+     */
+    public synchronized long getSupersededCount() {
+        return supersededCount;
+    }
+
+    /**
+     * Gets the number of sequence numbers from the oldest held frame to the next frame.
+     * Called with the sender locked.
+     * @return The span of the window in use
+     */
+    private int getSpan() {
+        return (nextSequence - base + SEQUENCE_RANGE) % SEQUENCE_RANGE;
+    }
+
+    /**
+     * Marks every stop and motion frame in flight as done, so it is never sent again.
+     * Called with the sender locked.
+     */
+    private void supersedeMotion() {
+        int span = getSpan();
+        for (int i = 0; i < span; i++) {
+            int slot = (base + i) & (window - 1);
+            if (states[slot] == IN_FLIGHT && (opcodes[slot] == RobotCommand.STOP
+                    || RobotCommand.isMotion(opcodes[slot]))) {
+                states[slot] = DONE;
+                supersededCount++;
+            }
+        }
+        slide();
+    }
+
+    /**
+     * Frees the slots of done frames at the start of the window and wakes a waiting
+     * writer. Called with the sender locked.
+     */
+    private void slide() {
+        boolean moved = false;
+        while (getSpan() > 0 && states[base & (window - 1)] == DONE) {
+            states[base & (window - 1)] = EMPTY;
+            base = (base + 1) % SEQUENCE_RANGE;
+            moved = true;
+        }
+        if (moved) {
+            metrics.framesInFlight.set(getSpan());
+            notifyAll();
+        }
+    }
+
+    /**
+     * Updates the smoothed round trip and the timeout derived from it. Called with the
+     * sender locked.
+     * @param roundTrip The measured round trip, in nanoseconds
+     */
+    private void updateTimeout(long roundTrip) {
+        if (smoothedRoundTrip < 0) {
+            smoothedRoundTrip = roundTrip;
+            roundTripVariation = roundTrip / 2;
+        }
+        else {
+            roundTripVariation += (Math.abs(smoothedRoundTrip - roundTrip)
+                    - roundTripVariation) / 4;
+            smoothedRoundTrip += (roundTrip - smoothedRoundTrip) / 8;
+        }
+        timeoutNanos = Math.max(MIN_TIMEOUT_NANOS, Math.min(MAX_TIMEOUT_NANOS,
+                smoothedRoundTrip + 4 * roundTripVariation));
+    }
+}
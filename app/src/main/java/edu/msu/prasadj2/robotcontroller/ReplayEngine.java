@@ -0,0 +1,189 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread that plays a recording's commands back to a robot over any transport.
+ *
+ * Commands are sent at their recorded times scaled by a speed factor: 1 reproduces the
+ * original run, 10 plays it ten times faster, and AS_FAST_AS_POSSIBLE writes them back to
+ * back to stress the firmware. Commands are encoded and written directly rather than
+ * queued, so none are coalesced and the robot sees exactly the recorded sequence.
+ * However the replay ends, whether at the end of the recording, at an entry cut short by a
+ * crash while recording, or by being terminated, the robot is sent a stop last so it
+ * never keeps driving at the last recorded speeds.
+ *
+ * Replies from the robot are drained on a second thread and parsed, so listeners can be
+ * registered on the telemetry parser to compare them with the recording.
+ */
+public class ReplayEngine extends Thread {
+
+    /// Speed factor that sends commands without waiting between them
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    /// The recording being played
+    private final RecordingReader reader;
+    /// Byte stream for outgoing communication to the robot
+    private final OutputStream outputStream;
+    /// Byte stream for incoming communication from the robot
+    private final InputStream inputStream;
+    /// Converts commands to the bytes sent to the robot
+    private final CommandCodec codec;
+    /// How many times faster than recorded to play, or AS_FAST_AS_POSSIBLE
+    private final double speed;
+    /// Parses replies from the robot
+    private final TelemetryParser telemetryParser = new TelemetryParser();
+    /// Reused buffer for encoded commands
+    private final byte[] frame;
+
+    /// Tracks if the replay has been terminated
+    private volatile boolean terminated = false;
+    /// Number of commands written to the robot
+    private volatile long commandsSent = 0;
+    /// Latest any command was written after its scheduled time, in nanoseconds
+    private volatile long maxLatenessNanos = 0;
+    /// The failure that ended the replay early, or null
+    private volatile IOException error = null;
+
+    /**
+     * Constructor for this replay engine
+     * @param reader The recording to play
+     * @param transport The connection to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param speed How many times faster than recorded to play, or AS_FAST_AS_POSSIBLE
+     * @throws IOException If the transport's streams are not available
+     */
+    public ReplayEngine(@NonNull RecordingReader reader, @NonNull RobotTransport transport,
+                        @NonNull CommandCodec codec, double speed) throws IOException {
+        super("ReplayEngine");
+        if (speed < 0) {
+            throw new IllegalArgumentException("Replay speed must not be negative");
+        }
+        this.reader = reader;
+        this.codec = codec;
+        this.speed = speed;
+        outputStream = transport.getOutputStream();
+        inputStream = transport.getInputStream();
+        frame = new byte[codec.getMaxFrameLength()];
+    }
+
+    /**
+     * Drains replies on a second thread, then plays every recorded command in order and
+     * stops the robot
+     */
+    @Override
+    public void run() {
+        Thread drainThread = new Thread("ReplayDrain") {
+            @Override
+            public void run() {
+                drainReplies();
+            }
+        };
+        drainThread.setDaemon(true);
+        drainThread.start();
+
+        long startNanos = System.nanoTime();
+        try {
+            while (!terminated && reader.next()) {
+                if (reader.getType() != CommandRecorder.ENTRY_COMMAND) {
+                    continue;
+                }
+                if (speed != AS_FAST_AS_POSSIBLE) {
+                    long due = startNanos + (long) (reader.getNanos() / speed);
+                    long delay;
+                    while (!terminated && (delay = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(this, delay);
+                    }
+                    if (terminated) {
+                        break;
+                    }
+                    maxLatenessNanos = Math.max(maxLatenessNanos, System.nanoTime() - due);
+                }
+                int length = codec.encode(reader.getCommand(), frame, 0);
+                outputStream.write(frame, 0, length);
+                outputStream.flush();
+                commandsSent++;
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+
+        // Also tried after a failed write, which may have been a transient one
+        RobotCommand stop = new RobotCommand();
+        stop.set(RobotCommand.STOP, 0, 0);
+        try {
+            int length = codec.encode(stop, frame, 0);
+            outputStream.write(frame, 0, length);
+            outputStream.flush();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Terminates the replay, which stops the robot. Commands already written are not
+     * recalled.
+     */
+    public void terminate() {
+        terminated = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Gets the parser for replies from the robot, for registering telemetry listeners
+     * @return The telemetry parser
+     */
+    public TelemetryParser getTelemetryParser() {
+        return telemetryParser;
+    }
+
+    /**
+     * Gets the number of recorded commands written to the robot, not counting the final stop
+     * @return The number of commands sent
+     */
+    public long getCommandsSent() {
+        return commandsSent;
+    }
+
+    /**
+     * Gets the latest any command was written after its scheduled time
+     * @return The worst lateness, in nanoseconds
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * Gets the failure that ended the replay early
+     * @return The failure, or null if the replay ran to the end or was terminated
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Reads and parses replies until the robot disconnects
+     */
+    private void drainReplies() {
+        try {
+            while (telemetryParser.readFrom(inputStream) >= 0) {
+                // Keep reading
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
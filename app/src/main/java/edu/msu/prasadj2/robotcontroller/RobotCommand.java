@@ -0,0 +1,296 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+/**
+ * A single command understood by the robot's firmware.
+ *
+ * Commands are stored as a primitive opcode and argument pair so they can be queued
+ * and handed between threads without building strings. Instances are mutable and
+ * are meant to be reused by whichever thread drains the outbound queue.
+ */
+public class RobotCommand {
+
+    /// Stops all movement
+    public static final int STOP = 0;
+    /// Moves the robot forward at a given speed
+    public static final int FORWARD = 1;
+    /// Moves the robot backward at a given speed
+    public static final int BACKWARD = 2;
+    /// Turns the robot right with a right and left motor speed
+    public static final int TURN_RIGHT = 3;
+    /// Turns the robot left with a right and left motor speed
+    public static final int TURN_LEFT = 4;
+    /// Spins the robot right at a given speed
+    public static final int SPIN_RIGHT = 5;
+    /// Spins the robot left at a given speed
+    public static final int SPIN_LEFT = 6;
+    /// Drives the left and right motors at signed speeds. Used when streaming. Only newer
+    /// firmware understands it; older firmware is sent the closest original command instead.
+    public static final int DRIVE = 7;
+    /// Asks the robot to echo a sequence number back as "PONG n". Used for heartbeats.
+    public static final int PING = 8;
+
+    /// The number of opcodes
+    public static final int OPCODE_COUNT = 9;
+    /// Returned by getWheelSpeeds for commands that leave the motors as they are
+    public static final int SPEEDS_UNCHANGED = Integer.MIN_VALUE;
+
+    /// The mnemonic sent to the robot for each opcode
+    private static final String[] MNEMONICS =
+            {"STP", "F", "B", "TR", "TL", "SR", "SL", "D", "PING"};
+    /// The number of arguments that follow each opcode
+    private static final int[] ARGUMENT_COUNTS = {0, 1, 1, 2, 2, 1, 1, 2, 1};
+
+    /// The command opcode
+    public int opcode = STOP;
+    /// The first command argument, if any
+    public int arg0 = 0;
+    /// The second command argument, if any
+    public int arg1 = 0;
+
+    /**
+     * Overwrites this command with new values
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     */
+    public void set(int opcode, int arg0, int arg1) {
+        this.opcode = opcode;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+    }
+
+    /**
+     * Determines if an opcode is a motion command. A newer motion command
+     * always supersedes an older one that has not been sent yet.
+     * @param opcode The command opcode
+     * @return true if the opcode sets a motion target
+     */
+    public static boolean isMotion(int opcode) {
+        return opcode >= FORWARD && opcode <= DRIVE;
+    }
+
+    /**
+     * Gets the wheel speeds this command sets, the way the robot firmware applies it
+     * @return The speeds packed as (left << 16) | (right & 0xFFFF), or SPEEDS_UNCHANGED if
+     * the command does not set the motors
+     */
+    public int getWheelSpeeds() {
+        int left;
+        int right;
+        switch (opcode) {
+            case STOP:
+                left = 0;
+                right = 0;
+                break;
+            case FORWARD:
+                left = arg0;
+                right = arg0;
+                break;
+            case BACKWARD:
+                left = -arg0;
+                right = -arg0;
+                break;
+            case TURN_RIGHT:
+                left = arg1;
+                right = -arg0;
+                break;
+            case TURN_LEFT:
+                left = -arg1;
+                right = arg0;
+                break;
+            case SPIN_RIGHT:
+                left = arg0;
+                right = 0;
+                break;
+            case SPIN_LEFT:
+                left = 0;
+                right = arg0;
+                break;
+            case DRIVE:
+                left = arg0;
+                right = arg1;
+                break;
+            default:
+                return SPEEDS_UNCHANGED;
+        }
+        return (left << 16) | (right & 0xFFFF);
+    }
+
+    /**
+     * Finds the wheel speeds nearest to a pair that a motion command of a given kind can set.
+     * Forward and backward keep both wheels equal, each turn keeps the wheels turning its
+     * way, and each spin keeps one wheel still, none of them running a wheel backwards that
+     * the command only drives forwards. Every kind can set both wheels to zero.
+     * @param opcode The motion opcode, or STOP
+     * @param left The left wheel speed
+     * @param right The right wheel speed
+     * @return The nearest speeds packed as (left << 16) | (right & 0xFFFF)
+     */
+    public static int getNearestSpeeds(int opcode, int left, int right) {
+        switch (opcode) {
+            case STOP:
+                left = 0;
+                right = 0;
+                break;
+            case FORWARD:
+                left = Math.max(0, (left + right) / 2);
+                right = left;
+                break;
+            case BACKWARD:
+                left = Math.min(0, (left + right) / 2);
+                right = left;
+                break;
+            case TURN_RIGHT:
+                left = Math.max(0, left);
+                right = Math.min(0, right);
+                break;
+            case TURN_LEFT:
+                left = Math.min(0, left);
+                right = Math.max(0, right);
+                break;
+            case SPIN_RIGHT:
+                left = Math.max(0, left);
+                right = 0;
+                break;
+            case SPIN_LEFT:
+                left = 0;
+                right = Math.max(0, right);
+                break;
+            case DRIVE:
+                break;
+            default:
+                throw new IllegalArgumentException("Not a motion opcode: " + opcode);
+        }
+        return (left << 16) | (right & 0xFFFF);
+    }
+
+    /**
+     * Determines if a motion command of a given kind can set a pair of wheel speeds exactly
+     * @param opcode The motion opcode, or STOP
+     * @param left The left wheel speed
+     * @param right The right wheel speed
+     * @return true if getWheelSpeeds of the command would give back the same speeds
+     */
+    public static boolean canSet(int opcode, int left, int right) {
+        return getNearestSpeeds(opcode, left, right) == ((left << 16) | (right & 0xFFFF));
+    }
+
+    /**
+     * Overwrites this command with the motion command of a given kind that comes closest to
+     * a pair of wheel speeds, the inverse of getWheelSpeeds. Drive and the turns set both
+     * wheels exactly; forward and backward send the mean speed, and the spins only the
+     * wheel that moves, since the older firmware has no way to say more.
+     * @param opcode The motion opcode, or STOP
+     * @param left The left wheel speed
+     * @param right The right wheel speed
+     */
+    public void setWheelSpeeds(int opcode, int left, int right) {
+        switch (opcode) {
+            case STOP:
+                set(STOP, 0, 0);
+                break;
+            case FORWARD:
+                set(FORWARD, (left + right) / 2, 0);
+                break;
+            case BACKWARD:
+                set(BACKWARD, -(left + right) / 2, 0);
+                break;
+            case TURN_RIGHT:
+                set(TURN_RIGHT, -right, left);
+                break;
+            case TURN_LEFT:
+                set(TURN_LEFT, right, -left);
+                break;
+            case SPIN_RIGHT:
+                set(SPIN_RIGHT, left, 0);
+                break;
+            case SPIN_LEFT:
+                set(SPIN_LEFT, right, 0);
+                break;
+            case DRIVE:
+                set(DRIVE, left, right);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a motion opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Finds the original motion command that comes closest to a pair of wheel speeds, for
+     * firmware that predates the drive command. Every pair the original commands can express
+     * is matched exactly. They cannot express a curve, with both wheels turning the same way
+     * at different speeds, so a curve is driven straight at the mean speed.
+     * @param left The left wheel speed
+     * @param right The right wheel speed
+     * @return The command packed as (opcode << 32) | (arg0 << 16) | (arg1 & 0xFFFF)
+     */
+    public static long getClosestMotion(int left, int right) {
+        int opcode;
+        int arg0;
+        int arg1 = 0;
+        if (left == 0 && right == 0) {
+            opcode = STOP;
+            arg0 = 0;
+        }
+        else if (left >= 0 && right <= 0) {
+            opcode = right == 0 ? SPIN_RIGHT : TURN_RIGHT;
+            arg0 = right == 0 ? left : -right;
+            arg1 = right == 0 ? 0 : left;
+        }
+        else if (left <= 0 && right >= 0) {
+            opcode = left == 0 ? SPIN_LEFT : TURN_LEFT;
+            arg0 = right;
+            arg1 = left == 0 ? 0 : -left;
+        }
+        else if (left > 0) {
+            opcode = FORWARD;
+            arg0 = (left + right) / 2;
+        }
+        else {
+            opcode = BACKWARD;
+            arg0 = -(left + right) / 2;
+        }
+        return ((long)opcode << 32) | (((arg0 << 16) | (arg1 & 0xFFFF)) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the mnemonic the robot expects for an opcode
+     * @param opcode The command opcode
+     * @return The mnemonic string
+     */
+    public static String getMnemonic(int opcode) {
+        return MNEMONICS[opcode];
+    }
+
+    /**
+     * Gets the number of arguments the robot expects for an opcode
+     * @param opcode The command opcode
+     * @return The argument count
+     */
+    public static int getArgumentCount(int opcode) {
+        return ARGUMENT_COUNTS[opcode];
+    }
+
+    /**
+     * Formats this command the way it is written in the text protocol
+     * @return The command string, without a line terminator
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(MNEMONICS[opcode]);
+        int argumentCount = ARGUMENT_COUNTS[opcode];
+        if (argumentCount > 0) {
+            builder.append(' ').append(arg0);
+        }
+        if (argumentCount > 1) {
+            builder.append(' ').append(arg1);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Foreground service that owns the control session with the robot.
+ *
+ * The session used to belong to the controller screen, so any configuration change that
+ * recreated the screen closed the socket and left the robot running on its last command
+ * until the link was reopened. The session, its recording and its metrics now live here;
+ * the controller screen binds to the service, attaches a listener while it is shown, and
+ * stops the session only when it is finished for good. The robot's telemetry is kept here
+ * too, so charts keep their history across screens.
+ */
+public class RobotControlService extends Service {
+    /// Notification channel of the ongoing connection notification
+    private static final String NOTIFICATION_CHANNEL_ID = "robot_link";
+    /// Id of the ongoing connection notification
+    private static final int NOTIFICATION_ID = 1;
+    /// Directory under the app's files that session recordings are kept in
+    private static final String RECORDINGS_DIRECTORY = "recordings";
+    /// Number of session recordings kept before the oldest are deleted
+    private static final int MAX_RECORDINGS = 10;
+    /// Time to collect commands into one write, in milliseconds. Batches are sent unframed
+    /// since the robot firmware does not acknowledge them.
+    private static final long BATCH_WINDOW_MS = 2;
+    /// File under the app's files that session metrics are dumped to
+    private static final String METRICS_FILE = "metrics.txt";
+
+    /**
+     * Gives bound screens the service itself, since they run in the same process
+     */
+    public class LocalBinder extends Binder {
+        /**
+         * Gets the service
+         * @return The robot control service
+         */
+        public RobotControlService getService() {
+            return RobotControlService.this;
+        }
+    }
+
+    /// Returned to every bound screen
+    private final IBinder binder = new LocalBinder();
+    /// Owns the session, its recording and its metrics
+    private final SessionHost host = new SessionHost();
+    /// Runs foreground changes on the main thread
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    /// History of the robot's telemetry for charting, kept while the service runs
+    private final TelemetryStore telemetry = new TelemetryStore();
+    /// Encodes every session's commands. Sends drive commands as the original motion
+    /// commands until the robot's firmware is known to understand them.
+    private final AsciiCommandCodec codec = new AsciiCommandCodec();
+
+    /// Keeps the app's connection up to date and leaves the foreground if the session ends
+    private final RobotSession.Listener ownerListener = new RobotSession.Listener() {
+        @Override
+        public void onCommandSent(RobotCommand command) {}
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {}
+
+        @Override
+        public void onLinkStalled() {}
+
+        @Override
+        public void onLinkRestored() {}
+
+        @Override
+        public void onReconnecting(int attempt, long delayMs) {}
+
+        @Override
+        public void onResumed(RobotTransport transport) {
+            GlobalSocketManager.setTransport(transport);
+        }
+
+        @Override
+        public void onSessionLost(IOException e) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!host.isActive()) {
+                        stopForeground(true);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Creates this service
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        host.attach(ownerListener);
+    }
+
+    /**
+     * Keeps the service running after the screens unbind, until the session is stopped
+     * @param intent The start intent
+     * @param flags Start flags
+     * @param startId Identifier of this start
+     * @return START_NOT_STICKY, since a restarted service has no connection to host
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Binds a screen to this service
+     * @param intent The bind intent
+     * @return The local binder
+     */
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    /**
+     * Stops the session when the service is destroyed
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        host.stop();
+    }
+
+    /**
+     * Starts a session on a connection, unless one is already running
+     * @param transport The connection to the robot
+     * @return true if a session is running
+     */
+    public boolean startSession(@Nullable RobotTransport transport) {
+        if (host.isActive()) {
+            return true;
+        }
+        if (transport == null) {
+            return false;
+        }
+        RobotSession session = new RobotSession(transport, codec,
+                createConnector(transport), new Backoff(), host);
+        session.setBatching(BATCH_WINDOW_MS, false);
+        session.setAdaptiveRate(true);
+        session.addTelemetryListener(new MessageLogger());
+        telemetry.clear();
+        session.addTelemetryListener(telemetry);
+        try {
+            host.start(session, startRecording(), createMetricsDumper(session));
+        } catch (IOException e) {
+            Log.w("Robot Service", "Cannot start session", e);
+            return false;
+        }
+        startForeground(NOTIFICATION_ID, createNotification());
+        return true;
+    }
+
+    /**
+     * Stops the session and the service, once no screen needs the robot any more
+     */
+    public void stopSession() {
+        host.stop();
+        stopForeground(true);
+        stopSelf();
+    }
+
+    /**
+     * Sets whether the robot's firmware understands drive commands. Until it does,
+     * streaming, the gamepad, tilt and paths are sent as the closest original motion
+     * commands. Takes effect from the next command sent.
+     * @param supported true if the firmware understands drive commands
+     */
+    public void setDriveCommandSupported(boolean supported) {
+        codec.setDriveSupported(supported);
+    }
+
+    /**
+     * Attaches a screen's listener to the session's events
+     * @param listener The listener
+     * @return The session, or null if none has been started
+     */
+    @Nullable
+    public RobotSession attach(@NonNull RobotSession.Listener listener) {
+        return host.attach(listener);
+    }
+
+    /**
+     * Detaches a screen's listener. The session carries on.
+     * @param listener The listener
+     */
+    public void detach(@NonNull RobotSession.Listener listener) {
+        host.detach(listener);
+    }
+
+    /**
+     * Determines if a session is running
+     * @return true if a session was started and has been neither stopped nor lost
+     */
+    public boolean isSessionActive() {
+        return host.isActive();
+    }
+
+    /**
+     * Gets the history of the robot's telemetry
+     * @return The telemetry store, which the current session records into
+     */
+    @NonNull
+    public TelemetryStore getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Creates the ongoing notification shown while the robot is connected
+     * @return The notification, which opens the controller screen
+     */
+    private Notification createNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+                    getString(R.string.notification_channel_name),
+                    NotificationManager.IMPORTANCE_LOW);
+            NotificationManager manager =
+                    (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, ControllerActivity.class), 0);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_connected))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    /**
+     * Creates a recording file for this session, deleting the oldest recordings
+     * @return The recorder, or null if the file cannot be created
+     */
+    private CommandRecorder startRecording() {
+        File directory = new File(getFilesDir(), RECORDINGS_DIRECTORY);
+        File[] recordings = directory.listFiles();
+        if (recordings != null && recordings.length >= MAX_RECORDINGS) {
+            // Names start with the time they were made, so they sort oldest first
+            Arrays.sort(recordings);
+            for (int i = 0; i <= recordings.length - MAX_RECORDINGS; i++) {
+                if (!recordings[i].delete()) {
+                    Log.w("Recording", "Cannot delete " + recordings[i]);
+                }
+            }
+        }
+
+        File file = new File(directory, System.currentTimeMillis() + ".rcl");
+        try {
+            return CommandRecorder.create(file);
+        } catch (IOException e) {
+            Log.w("Recording", "Cannot record session", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a dumper for this session's metrics, replacing the previous session's dump
+     * @param session The session
+     * @return The dumper, not yet started
+     */
+    private MetricsDumper createMetricsDumper(RobotSession session) {
+        File file = new File(getFilesDir(), METRICS_FILE);
+        if (file.exists() && !file.delete()) {
+            Log.w("Metrics", "Cannot delete " + file);
+        }
+        return new MetricsDumper(session.getMetrics().registry, file,
+                MetricsDumper.DEFAULT_INTERVAL_MS);
+    }
+
+    /**
+     * Creates a connector that reconnects to the same robot without discovery, through the
+     * strategy connector shared with the connection screen
+     * @param transport The connection the session starts on
+     * @return The connector, or null if the connection cannot be reopened
+     */
+    private RobotSession.Connector createConnector(RobotTransport transport) {
+        if (!(transport instanceof BluetoothTransport)) {
+            return null;
+        }
+        final String address = ((BluetoothTransport)transport).getAddress();
+        if (address == null) {
+            return null;
+        }
+        return new RobotSession.Connector() {
+            @Override
+            public RobotTransport connect() throws IOException {
+                BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+                if (adapter == null || !adapter.isEnabled()) {
+                    throw new IOException("Bluetooth is off");
+                }
+                try {
+                    return BluetoothTransport.connect(adapter, address);
+                } finally {
+                    // Reconnects teach the strategy order as much as the first connect
+                    getSharedPreferences(BluetoothActivity.DEVICE_CACHE_PREFERENCES,
+                            MODE_PRIVATE).edit().putString(BluetoothActivity.STRATEGY_STATS_KEY,
+                            BluetoothTransport.getConnector(adapter).encode()).apply();
+                }
+            }
+        };
+    }
+
+    /**
+     * Logs lines from the robot that are not telemetry, when debug logging is enabled
+     */
+    private static class MessageLogger implements TelemetryParser.Listener {
+        /// Log tag for lines from the robot
+        private static final String TAG = "Robot Message";
+
+        /**
+         * Logs a line from the robot if debug logging is enabled for the tag
+         * @param buffer Buffer holding the line
+         * @param offset The position of the line in the buffer
+         * @param length The length of the line
+         * @param nanos The time the line was received
+         */
+        @Override
+        public void onTextLine(byte[] buffer, int offset, int length, long nanos) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, new String(buffer, offset, length, StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Heartbeat replies are handled by the robot link
+         * @param sequence The echoed ping sequence number
+         * @param nanos The time the reply was received
+         */
+        @Override
+        public void onPong(int sequence, long nanos) {}
+
+        /**
+         * Encoder counts are not used by the controller screen
+         * @param left The left encoder count
+         * @param right The right encoder count
+         * @param nanos The time the report was received
+         */
+        @Override
+        public void onEncoders(int left, int right, long nanos) {}
+
+        /**
+         * Battery voltage is not used by the controller screen
+         * @param millivolts The battery voltage, in millivolts
+         * @param nanos The time the report was received
+         */
+        @Override
+        public void onBattery(int millivolts, long nanos) {}
+
+        /**
+         * Batch acknowledgements are handled by the robot link
+         * @param sequence The sequence number of the newest batch received
+         * @param nanos The time the acknowledgement was received
+         */
+        @Override
+        public void onAck(int sequence, long nanos) {}
+    }
+}
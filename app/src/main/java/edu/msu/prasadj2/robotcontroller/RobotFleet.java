@@ -0,0 +1,309 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives several robots at once from one controller.
+ *
+ * Every robot has its own command queue, parser and heartbeat. One protocol thread
+ * services all of them and calls every listener: it encodes what each robot has queued
+ * for that robot's writer pump and parses what its reader pump has received, so it never
+ * blocks on a socket. Between passes it parks until the earliest heartbeat or write
+ * deadline is due, and queuing a command or a pump moving bytes wakes it at once.
+ *
+ * The socket I/O itself still takes a writer and a reader pump per robot, so N robots use
+ * 2N + 1 threads. Bluetooth sockets on Android only offer blocking streams, with no
+ * selectable channel: a read can only block or be polled, and a write can block with no
+ * way to check first that it will not. The pumps wait on their robot's buffers rather than
+ * spinning, and a stalled robot only blocks its own writer pump. Commands can be sent to
+ * one robot, to a named group, or to the whole fleet.
+ */
+public class RobotFleet {
+
+    /**
+     * Receives per-robot events. Called on the fleet's I/O thread.
+     */
+    public interface Listener {
+        /**
+         * Called after each heartbeat round trip measurement
+         * @param robot The robot that answered
+         */
+        void onRobotLatency(FleetRobot robot);
+
+        /**
+         * Called once when a robot's heartbeats miss their deadline and a stop has been queued
+         * @param robot The stalled robot
+         */
+        void onRobotStalled(FleetRobot robot);
+
+        /**
+         * Called when writing to or reading from a robot fails, the robot stops reading for
+         * twice the heartbeat deadline, or it closes the connection. The robot is removed.
+         * @param robot The failed robot
+         * @param e The failure
+         */
+        void onRobotFailed(FleetRobot robot, IOException e);
+    }
+
+    /// Receives per-robot events
+    private final Listener listener;
+    /// Time between heartbeat pings, in milliseconds
+    private final long heartbeatIntervalMs;
+    /// Time without a reply before a link stalls, in milliseconds
+    private final long heartbeatDeadlineMs;
+    /// The robots, in the order they are serviced
+    private final List<FleetRobot> robots = new CopyOnWriteArrayList<FleetRobot>();
+    /// Robot ids in each named group. Guarded by this fleet.
+    private final Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+    /// Thread that services every robot
+    private final Thread ioThread;
+
+    /// Tracks if the fleet has been terminated
+    private volatile boolean terminated = false;
+
+    /**
+     * Constructor for a fleet with the default heartbeat timing
+     * @param listener Receives per-robot events
+     */
+    public RobotFleet(@NonNull Listener listener) {
+        this(listener, HeartbeatMonitor.DEFAULT_INTERVAL_MS, HeartbeatMonitor.DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * Constructor for this robot fleet
+     * @param listener Receives per-robot events
+     * @param heartbeatIntervalMs Time between heartbeat pings, in milliseconds
+     * @param heartbeatDeadlineMs Time without a reply before a link stalls, in milliseconds
+     */
+    public RobotFleet(@NonNull Listener listener, long heartbeatIntervalMs,
+                      long heartbeatDeadlineMs) {
+        this.listener = listener;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.heartbeatDeadlineMs = heartbeatDeadlineMs;
+        ioThread = new Thread("RobotFleetIO") {
+            @Override
+            public void run() {
+                serviceRobots();
+            }
+        };
+    }
+
+    /**
+     * Starts the fleet's I/O thread
+     */
+    public void start() {
+        ioThread.start();
+    }
+
+    /**
+     * Adds a connected robot to the fleet
+     * @param id Name of the robot within the fleet
+     * @param transport The connection to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @return The new fleet robot
+     * @throws IOException If the transport's streams are not available
+     */
+    public FleetRobot add(@NonNull String id, @NonNull RobotTransport transport,
+                          @NonNull CommandCodec codec) throws IOException {
+        if (getRobot(id) != null) {
+            throw new IllegalArgumentException("Robot " + id + " is already in the fleet");
+        }
+        FleetRobot robot = new FleetRobot(id, transport, codec, this,
+                heartbeatIntervalMs, heartbeatDeadlineMs);
+        robots.add(robot);
+        robot.start();
+        LockSupport.unpark(ioThread);
+        return robot;
+    }
+
+    /**
+     * Removes a robot from the fleet and closes its connection
+     * @param id Name of the robot within the fleet
+     * @return true if the robot was in the fleet
+     */
+    public boolean remove(@NonNull String id) {
+        FleetRobot robot = getRobot(id);
+        if (robot == null || !robots.remove(robot)) {
+            return false;
+        }
+        robot.close();
+        return true;
+    }
+
+    /**
+     * Gets a robot by name
+     * @param id Name of the robot within the fleet
+     * @return The robot, or null if it is not in the fleet
+     */
+    public FleetRobot getRobot(@NonNull String id) {
+        for (FleetRobot robot : robots) {
+            if (robot.getId().equals(id)) {
+                return robot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets every robot in the fleet
+     * @return The robots, in the order they joined
+     */
+    public List<FleetRobot> getRobots() {
+        return new ArrayList<FleetRobot>(robots);
+    }
+
+    /**
+     * Sets the robots in a named group, replacing any previous members
+     * @param group Name of the group
+     * @param ids Names of the robots in the group
+     */
+    public synchronized void setGroup(@NonNull String group, @NonNull Collection<String> ids) {
+        groups.put(group, new LinkedHashSet<String>(ids));
+    }
+
+    /**
+     * Queues a command for one robot. Never blocks.
+     * @param id Name of the robot within the fleet
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return true if the command was queued
+     */
+    public boolean send(@NonNull String id, int opcode, int arg0, int arg1) {
+        FleetRobot robot = getRobot(id);
+        if (robot == null || !robot.offer(opcode, arg0, arg1)) {
+            return false;
+        }
+        LockSupport.unpark(ioThread);
+        return true;
+    }
+
+    /**
+     * Queues a command for every robot in a named group. Never blocks.
+     * @param group Name of the group
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return The number of robots the command was queued for
+     */
+    public int sendToGroup(@NonNull String group, int opcode, int arg0, int arg1) {
+        Set<String> members;
+        synchronized (this) {
+            members = groups.get(group);
+            if (members == null) {
+                return 0;
+            }
+            members = new LinkedHashSet<String>(members);
+        }
+        int queued = 0;
+        for (FleetRobot robot : robots) {
+            if (members.contains(robot.getId()) && robot.offer(opcode, arg0, arg1)) {
+                queued++;
+            }
+        }
+        LockSupport.unpark(ioThread);
+        return queued;
+    }
+
+    /**
+     * Queues a command for every robot in the fleet. Never blocks.
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return The number of robots the command was queued for
+     */
+    public int broadcast(int opcode, int arg0, int arg1) {
+        int queued = 0;
+        for (FleetRobot robot : robots) {
+            if (robot.offer(opcode, arg0, arg1)) {
+                queued++;
+            }
+        }
+        LockSupport.unpark(ioThread);
+        return queued;
+    }
+
+    /**
+     * Terminates the fleet and closes every robot's connection
+     */
+    public void terminate() {
+        terminated = true;
+        LockSupport.unpark(ioThread);
+        for (FleetRobot robot : robots) {
+            robot.close();
+        }
+        robots.clear();
+    }
+
+    /**
+     * Wakes the I/O thread, after a pump has moved bytes or failed
+     */
+    void wake() {
+        LockSupport.unpark(ioThread);
+    }
+
+    /**
+     * Passes a robot's latency update on. Called on the I/O thread.
+     * @param robot The robot that answered
+     */
+    void onRobotLatency(FleetRobot robot) {
+        listener.onRobotLatency(robot);
+    }
+
+    /**
+     * Passes a robot's stall on. Called on the I/O thread.
+     * @param robot The stalled robot
+     */
+    void onRobotStalled(FleetRobot robot) {
+        listener.onRobotStalled(robot);
+    }
+
+    /**
+     * Services every robot in turn until terminated. After each pass, parks until the
+     * soonest time a robot needs service, or until woken when no robot has a deadline.
+     */
+    private void serviceRobots() {
+        while (!terminated) {
+            long now = System.nanoTime();
+            long next = now;
+            boolean waiting = false;
+            for (FleetRobot robot : robots) {
+                try {
+                    long due = robot.service(now);
+                    if (!waiting || due - next < 0) {
+                        next = due;
+                        waiting = true;
+                    }
+                } catch (IOException e) {
+                    if (robots.remove(robot)) {
+                        robot.close();
+                        listener.onRobotFailed(robot, e);
+                    }
+                }
+            }
+            if (!waiting) {
+                LockSupport.park(this);
+            }
+            else if (next - now > 0) {
+                LockSupport.parkNanos(this, next - now);
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The communication pipeline for one connected robot.
+ *
+ * Commands are queued without blocking and written by a command writer thread. A reader
+ * thread feeds everything the robot sends through a telemetry parser, and a heartbeat
+ * monitor measures latency and stops the robot if the link stalls. Traffic, write times,
+ * round trips and failures are counted in the link metrics. The pipeline only
+ * depends on a robot transport, so it runs the same over bluetooth, TCP or in memory.
+ */
+public class RobotLink implements CommandWriter.Listener, HeartbeatMonitor.Listener,
+        TelemetryParser.Listener {
+
+    /**
+     * Receives link events. Called on the link's worker threads.
+     */
+    public interface Listener {
+        /**
+         * Called after a command has been written to the robot
+         * @param command The command that was sent
+         */
+        void onCommandSent(RobotCommand command);
+
+        /**
+         * Called after each heartbeat round trip measurement
+         * @param histogram The latency window the sample was recorded in
+         */
+        void onLatencyUpdated(LatencyHistogram histogram);
+
+        /**
+         * Called once when heartbeats miss their deadline and a stop has been queued
+         */
+        void onLinkStalled();
+
+        /**
+         * Called once when heartbeats resume after a stall
+         */
+        void onLinkRestored();
+
+        /**
+         * Called once when reading or writing fails. The link is terminated afterwards.
+         * @param e The failure
+         */
+        void onLinkFailed(IOException e);
+    }
+
+    /// The connection to the robot
+    private final RobotTransport transport;
+    /// Receives link events
+    private final Listener listener;
+    /// Converts commands to the bytes sent to the robot
+    private final CommandCodec codec;
+    /// Byte stream for incoming communication from the robot
+    private final InputStream inputStream;
+    /// Commands waiting to be written to the robot
+    private final CommandQueue commandQueue = new CommandQueue();
+    /// Parses incoming communication from the robot into typed messages
+    private final TelemetryParser telemetryParser = new TelemetryParser();
+    /// Worker thread that writes queued commands to the robot
+    private final CommandWriter commandWriter;
+    /// Worker thread that pings the robot and stops it if the link stalls
+    private final HeartbeatMonitor heartbeatMonitor;
+    /// Worker thread that reads from the robot
+    private final ReaderThread readerThread = new ReaderThread();
+    /// Counts the link's traffic, timing and failures
+    private final LinkMetrics metrics;
+
+    /// Tracks if the link has been terminated, locally or by a failure
+    private boolean terminated = false;
+
+    /**
+     * Constructor for a link with the default heartbeat timing
+     * @param transport The connection to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param listener Receives link events
+     * @throws IOException If the transport's streams are not available
+     */
+    public RobotLink(@NonNull RobotTransport transport, @NonNull CommandCodec codec,
+                     @NonNull Listener listener) throws IOException {
+        this(transport, codec, listener, HeartbeatMonitor.DEFAULT_INTERVAL_MS,
+                HeartbeatMonitor.DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * Constructor for this robot link
+     * @param transport The connection to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param listener Receives link events
+     * @param heartbeatIntervalMs Time between heartbeat pings, in milliseconds
+     * @param heartbeatDeadlineMs Time without a reply before the link stalls, in milliseconds
+     * @throws IOException If the transport's streams are not available
+     */
+    public RobotLink(@NonNull RobotTransport transport, @NonNull CommandCodec codec,
+                     @NonNull Listener listener, long heartbeatIntervalMs,
+                     long heartbeatDeadlineMs) throws IOException {
+        this(transport, codec, listener, heartbeatIntervalMs, heartbeatDeadlineMs,
+                new LinkMetrics());
+    }
+
+    /**
+     * Constructor for this robot link
+     * @param transport The connection to the robot
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param listener Receives link events
+     * @param heartbeatIntervalMs Time between heartbeat pings, in milliseconds
+     * @param heartbeatDeadlineMs Time without a reply before the link stalls, in milliseconds
+     * @param metrics Counts the link's traffic, timing and failures
+     * @throws IOException If the transport's streams are not available
+     */
+    public RobotLink(@NonNull RobotTransport transport, @NonNull CommandCodec codec,
+                     @NonNull Listener listener, long heartbeatIntervalMs,
+                     long heartbeatDeadlineMs, @NonNull LinkMetrics metrics)
+            throws IOException {
+        this.transport = transport;
+        this.metrics = metrics;
+        this.codec = codec;
+        this.listener = listener;
+        inputStream = transport.getInputStream();
+        OutputStream outputStream = transport.getOutputStream();
+        commandWriter = new CommandWriter(commandQueue, outputStream, codec, this, metrics);
+        heartbeatMonitor = new HeartbeatMonitor(commandQueue, this,
+                heartbeatIntervalMs, heartbeatDeadlineMs);
+        telemetryParser.addListener(this);
+    }
+
+    /**
+     * Sends commands in batches instead of one write each. Must be called before starting.
+     * @param windowMs Time to keep collecting commands after the first of a batch,
+     *                 in milliseconds
+     * @param framed true to wrap each batch in a sequenced frame the robot acknowledges,
+     *               false to send the commands back to back
+     */
+    public void enableBatching(long windowMs, boolean framed) {
+        commandWriter.setBatching(windowMs, framed ? new BatchFramer(metrics) : null);
+    }
+
+    /**
+     * Paces batched writes to the rate the link is measured to carry, adapting it to write
+     * timing, heartbeat round trips and batch acknowledgements. Must be called after
+     * enableBatching and before starting.
+     */
+    public void enableRateControl() {
+        commandWriter.setRateControl(new RateController(metrics));
+    }
+
+    /**
+     * Lets commands share the link with configuration and bulk transfers, stops first and
+     * the rest by weighted shares. Must be called before starting.
+     */
+    public void enableScheduling() {
+        commandWriter.setScheduler(new OutboundScheduler(commandQueue, codec, metrics));
+    }
+
+    /**
+     * Sends every command in a frame the robot acknowledges, and retransmits frames that
+     * are not acknowledged in time. Must be called before starting.
+     * @param window Most frames in flight, a power of two up to ReliableSender.MAX_WINDOW
+     */
+    public void enableReliableDelivery(int window) {
+        commandWriter.setReliable(new ReliableSender(codec, metrics, window));
+    }
+
+    /**
+     * Starts the link's worker threads
+     */
+    public void start() {
+        commandWriter.start();
+        heartbeatMonitor.start();
+        readerThread.start();
+    }
+
+    /**
+     * Queues a command to be sent to the robot. Never blocks.
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return true if the command was queued
+     */
+    public boolean sendCommand(int opcode, int arg0, int arg1) {
+        if (!commandQueue.offer(opcode, arg0, arg1)) {
+            metrics.commandsDropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a transfer to be sent to the robot in fragments. Never blocks. Needs
+     * scheduling to be enabled.
+     * @param trafficClass OutboundScheduler.CONFIG or OutboundScheduler.BULK
+     * @param buffer Buffer holding the transfer, which is copied
+     * @param offset The position of the transfer in the buffer
+     * @param length The length of the transfer
+     * @return true if the transfer was queued, false if its class is full or the link
+     *         does not schedule transfers
+     */
+    public boolean sendTransfer(int trafficClass, byte[] buffer, int offset, int length) {
+        OutboundScheduler scheduler = commandWriter.getScheduler();
+        return scheduler != null && scheduler.submit(trafficClass, buffer, offset, length);
+    }
+
+    /**
+     * Terminates the link by stopping its worker threads and closing the transport
+     */
+    public void terminate() {
+        shutDown();
+    }
+
+    /**
+     * Stops the worker threads and closes the transport, unless the link was already
+     * terminated. Checking and marking the link terminated is one step, so only one of
+     * racing callers shuts it down.
+     * @return true if this call terminated the link
+     */
+    private boolean shutDown() {
+        synchronized (this) {
+            if (terminated) {
+                return false;
+            }
+            terminated = true;
+        }
+        heartbeatMonitor.terminate();
+        commandWriter.terminate();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        return true;
+    }
+
+    /**
+     * Determines if the link has been terminated
+     * @return true if the link is no longer running
+     */
+    public synchronized boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Gets the connection to the robot
+     * @return The robot transport
+     */
+    public RobotTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets the codec commands are sent with
+     * @return The command codec
+     */
+    public CommandCodec getCommandCodec() {
+        return codec;
+    }
+
+    /**
+     * Gets the queue of commands waiting to be sent, for monitoring its depth and drops
+     * @return The outbound command queue
+     */
+    public CommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    /**
+     * Gets the parser for incoming messages, for registering telemetry listeners
+     * @return The telemetry parser
+     */
+    public TelemetryParser getTelemetryParser() {
+        return telemetryParser;
+    }
+
+    /**
+     * Gets the metrics the link counts its traffic, timing and failures in
+     * @return The link metrics
+     */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the heartbeat monitor, for querying round trip latency and link state
+     * @return The heartbeat monitor
+     */
+    public HeartbeatMonitor getHeartbeatMonitor() {
+        return heartbeatMonitor;
+    }
+
+    /**
+     * Timestamps heartbeat pings and passes the sent command on
+     * @param command The command that was sent
+     */
+    @Override
+    public void onCommandSent(RobotCommand command) {
+        if (command.opcode == RobotCommand.PING) {
+            heartbeatMonitor.onPingSent(command.arg0, System.nanoTime());
+        }
+        listener.onCommandSent(command);
+    }
+
+    /**
+     * Fails the link when a write fails
+     * @param e The write failure
+     */
+    @Override
+    public void onWriteFailed(IOException e) {
+        fail(e);
+    }
+
+    /**
+     * Passes latency updates on, and to the rate controller if writes are paced
+     * @param histogram The latency window the sample was recorded in
+     */
+    @Override
+    public void onLatencyUpdated(LatencyHistogram histogram) {
+        metrics.roundTrip.record(histogram.getLatest());
+        RateController controller = commandWriter.getRateController();
+        if (controller != null) {
+            controller.onRoundTrip(histogram.getLatest(), System.nanoTime());
+        }
+        listener.onLatencyUpdated(histogram);
+    }
+
+    /**
+     * Passes link stalls on
+     */
+    @Override
+    public void onLinkStalled() {
+        listener.onLinkStalled();
+    }
+
+    /**
+     * Passes link recoveries on
+     */
+    @Override
+    public void onLinkRestored() {
+        listener.onLinkRestored();
+    }
+
+    /**
+     * Passes heartbeat replies to the heartbeat monitor
+     * @param sequence The echoed ping sequence number
+     * @param nanos The time the reply was received
+     */
+    @Override
+    public void onPong(int sequence, long nanos) {
+        heartbeatMonitor.onPong(sequence, nanos);
+    }
+
+    /**
+     * Passes acknowledgements to the reliable sender or the batch framer, whichever the
+     * link uses. A batch's acknowledgement time is also a round trip for the rate controller.
+     * @param sequence The acknowledged sequence number
+     * @param nanos The time the acknowledgement was received
+     */
+    @Override
+    public void onAck(int sequence, long nanos) {
+        ReliableSender sender = commandWriter.getReliableSender();
+        BatchFramer framer = commandWriter.getBatchFramer();
+        if (sender != null) {
+            sender.onAck(sequence, nanos);
+        }
+        else if (framer != null && framer.onAck(sequence, nanos) > 0) {
+            RateController controller = commandWriter.getRateController();
+            if (controller != null) {
+                controller.onRoundTrip(framer.getLastAckLatency(), nanos);
+            }
+        }
+    }
+
+    /**
+     * Text lines are handled by listeners registered on the parser
+     * @param buffer Buffer holding the line
+     * @param offset The position of the line in the buffer
+     * @param length The length of the line
+     * @param nanos The time the line was received
+     */
+    @Override
+    public void onTextLine(byte[] buffer, int offset, int length, long nanos) {}
+
+    /**
+     * Encoder counts are handled by listeners registered on the parser
+     * @param left The left encoder count
+     * @param right The right encoder count
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onEncoders(int left, int right, long nanos) {}
+
+    /**
+     * Battery voltage is handled by listeners registered on the parser
+     * @param millivolts The battery voltage, in millivolts
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onBattery(int millivolts, long nanos) {}
+
+    /**
+     * Terminates the link after a failure and reports it, unless it was already terminated
+     * @param e The failure
+     */
+    private void fail(IOException e) {
+        // The reader and writer can fail at once, but only one of them reports it
+        if (!shutDown()) {
+            return;
+        }
+        metrics.errors.increment();
+        listener.onLinkFailed(e);
+    }
+
+    /**
+     * Worker thread that feeds everything the robot sends to the telemetry parser
+     */
+    private class ReaderThread extends Thread {
+        /**
+         * Constructor for this reader thread
+         */
+        ReaderThread() {
+            super("RobotLinkReader");
+        }
+
+        /**
+         * Reads until the stream ends or fails
+         */
+        @Override
+        public void run() {
+            try {
+                int count;
+                while ((count = telemetryParser.readFrom(inputStream)) >= 0) {
+                    // Messages are delivered to the parser's listeners
+                    metrics.bytesIn.add(count);
+                }
+                fail(new EOFException("The robot closed the connection"));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A control session with one robot that survives dropped connections.
+ *
+ * When the robot link fails, a background thread reconnects to the same robot with jittered
+ * exponential backoff and swaps a new link in without the user going back through discovery.
+ * The first command on a new link is a stop, so the robot never resumes a motion from before
+ * the outage. The session resumes accepting commands once the robot has answered a heartbeat,
+ * or after the heartbeat deadline for firmware that does not answer pings.
+ *
+ * Every link the session creates counts into the same link metrics, so the totals,
+ * reconnects and errors cover the whole session.
+ */
+public class RobotSession {
+
+    /**
+     * Opens a new connection to the same robot
+     */
+    public interface Connector {
+        /**
+         * Connects to the robot
+         * @return The connected transport
+         * @throws IOException If the connection fails
+         */
+        RobotTransport connect() throws IOException;
+    }
+
+    /**
+     * Receives session events. Called on the session's worker threads.
+     */
+    public interface Listener {
+        /**
+         * Called after a command has been written to the robot
+         * @param command The command that was sent
+         */
+        void onCommandSent(RobotCommand command);
+
+        /**
+         * Called after each heartbeat round trip measurement
+         * @param histogram The latency window the sample was recorded in
+         */
+        void onLatencyUpdated(LatencyHistogram histogram);
+
+        /**
+         * Called once when heartbeats miss their deadline and a stop has been queued
+         */
+        void onLinkStalled();
+
+        /**
+         * Called once when heartbeats resume after a stall
+         */
+        void onLinkRestored();
+
+        /**
+         * Called before each reconnect attempt
+         * @param attempt The attempt number, starting at 1
+         * @param delayMs The delay before the attempt, in milliseconds
+         */
+        void onReconnecting(int attempt, long delayMs);
+
+        /**
+         * Called when a new link has completed the stop/resume handshake
+         * @param transport The new connection to the robot
+         */
+        void onResumed(RobotTransport transport);
+
+        /**
+         * Called when the link failed and could not be reconnected. The session is over.
+         * @param e The last failure
+         */
+        void onSessionLost(IOException e);
+    }
+
+    /// Converts commands to the bytes sent to the robot
+    private final CommandCodec codec;
+    /// Opens new connections, or null if the session cannot reconnect
+    private final Connector connector;
+    /// Delays between reconnect attempts
+    private final Backoff backoff;
+    /// Receives session events
+    private final Listener listener;
+    /// Time between heartbeat pings, in milliseconds
+    private final long heartbeatIntervalMs;
+    /// Time without a reply before the link stalls, in milliseconds
+    private final long heartbeatDeadlineMs;
+    /// Metrics shared by every link of the session
+    private final LinkMetrics metrics = new LinkMetrics();
+    /// Telemetry listeners registered on every link
+    private final List<TelemetryParser.Listener> telemetryListeners =
+            new ArrayList<TelemetryParser.Listener>();
+
+    /// The connection the session starts on
+    private RobotTransport initialTransport;
+    /// The current link. Guarded by this session.
+    private RobotLink link = null;
+    /// The handshake the current link is waiting on, or null. Guarded by this session.
+    private CountDownLatch handshake = null;
+    /// Tracks if commands are accepted. Guarded by this session.
+    private boolean resumed = false;
+    /// Worker thread that reconnects, or null if not reconnecting. Guarded by this session.
+    private Thread reconnectThread = null;
+    /// Tracks if the session has been terminated. Guarded by this session.
+    private boolean terminated = false;
+    /// Number of successful reconnects. Guarded by this session.
+    private int reconnectCount = 0;
+    /// Batch window of every link in milliseconds, or -1 to not batch. Guarded by this session.
+    private long batchWindowMs = -1;
+    /// Tracks if batches are framed and acknowledged. Guarded by this session.
+    private boolean batchFramed = false;
+    /// Reliable delivery window of every link, or 0 for none. Guarded by this session.
+    private int reliableWindow = 0;
+    /// Tracks if batched writes are paced to the link. Guarded by this session.
+    private boolean adaptiveRate = false;
+    /// Tracks if commands share the link with transfers. Guarded by this session.
+    private boolean scheduling = false;
+
+    /**
+     * Constructor for a session with the default heartbeat timing
+     * @param transport The connection to start the session on
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param connector Opens new connections, or null if the session cannot reconnect
+     * @param backoff Delays between reconnect attempts
+     * @param listener Receives session events
+     */
+    public RobotSession(@NonNull RobotTransport transport, @NonNull CommandCodec codec,
+                        @Nullable Connector connector, @NonNull Backoff backoff,
+                        @NonNull Listener listener) {
+        this(transport, codec, connector, backoff, listener, HeartbeatMonitor.DEFAULT_INTERVAL_MS,
+                HeartbeatMonitor.DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * Constructor for this robot session
+     * @param transport The connection to start the session on
+     * @param codec Converts commands to the bytes sent to the robot
+     * @param connector Opens new connections, or null if the session cannot reconnect
+     * @param backoff Delays between reconnect attempts
+     * @param listener Receives session events
+     * @param heartbeatIntervalMs Time between heartbeat pings, in milliseconds
+     * @param heartbeatDeadlineMs Time without a reply before the link stalls, in milliseconds
+     */
+    public RobotSession(@NonNull RobotTransport transport, @NonNull CommandCodec codec,
+                        @Nullable Connector connector, @NonNull Backoff backoff,
+                        @NonNull Listener listener, long heartbeatIntervalMs,
+                        long heartbeatDeadlineMs) {
+        this.initialTransport = transport;
+        this.codec = codec;
+        this.connector = connector;
+        this.backoff = backoff;
+        this.listener = listener;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.heartbeatDeadlineMs = heartbeatDeadlineMs;
+    }
+
+    /**
+     * Sends commands in batches on every link. Must be called before starting.
+     * @param windowMs Time to keep collecting commands after the first of a batch,
+     *                 in milliseconds
+     * @param framed true to wrap each batch in a sequenced frame the robot acknowledges,
+     *               false to send the commands back to back
+     */
+    public synchronized void setBatching(long windowMs, boolean framed) {
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("Batch window must not be negative");
+        }
+        batchWindowMs = windowMs;
+        batchFramed = framed;
+    }
+
+    /**
+     * Paces the batched writes of every link to the rate the link is measured to carry.
+     * Only applies while batching. Must be called before starting.
+     * @param adaptive true to adapt the write rate, false to write each batch when its
+     *                 window closes
+     */
+    public synchronized void setAdaptiveRate(boolean adaptive) {
+        adaptiveRate = adaptive;
+    }
+
+    /**
+     * Lets commands share every link with configuration and bulk transfers. Takes the
+     * place of batching and reliable delivery. Must be called before starting.
+     * @param scheduled true to schedule transfers alongside commands
+     */
+    public synchronized void setScheduling(boolean scheduled) {
+        scheduling = scheduled;
+    }
+
+    /**
+     * Delivers commands reliably on every link. Must be called before starting.
+     * @param window Most frames in flight, a power of two up to ReliableSender.MAX_WINDOW
+     */
+    public synchronized void setReliableDelivery(int window) {
+        if (window <= 0 || window > ReliableSender.MAX_WINDOW) {
+            throw new IllegalArgumentException("Window out of range: " + window);
+        }
+        reliableWindow = window;
+    }
+
+    /**
+     * Starts the session on its initial connection
+     * @throws IOException If the connection's streams are not available
+     */
+    public void start() throws IOException {
+        RobotLink first = createLink(initialTransport);
+        initialTransport = null;
+        synchronized (this) {
+            link = first;
+            resumed = true;
+        }
+        first.start();
+    }
+
+    /**
+     * Queues a command to be sent to the robot. Never blocks.
+     * Commands are dropped while the session is reconnecting.
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return true if the command was queued
+     */
+    public boolean sendCommand(int opcode, int arg0, int arg1) {
+        RobotLink current;
+        synchronized (this) {
+            if (!resumed) {
+                return false;
+            }
+            current = link;
+        }
+        return current.sendCommand(opcode, arg0, arg1);
+    }
+
+    /**
+     * Queues a transfer to be sent to the robot in fragments. Never blocks. Transfers are
+     * dropped while the session is reconnecting, and a transfer cut off by a reconnect is
+     * not sent again.
+     * @param trafficClass OutboundScheduler.CONFIG or OutboundScheduler.BULK
+     * @param buffer Buffer holding the transfer, which is copied
+     * @param offset The position of the transfer in the buffer
+     * @param length The length of the transfer
+     * @return true if the transfer was queued
+     */
+    public boolean sendTransfer(int trafficClass, byte[] buffer, int offset, int length) {
+        RobotLink current;
+        synchronized (this) {
+            if (!resumed) {
+                return false;
+            }
+            current = link;
+        }
+        return current.sendTransfer(trafficClass, buffer, offset, length);
+    }
+
+    /**
+     * Registers a telemetry listener on the current link and every future link
+     * @param telemetryListener The listener to add
+     */
+    public void addTelemetryListener(@NonNull TelemetryParser.Listener telemetryListener) {
+        RobotLink current;
+        synchronized (this) {
+            telemetryListeners.add(telemetryListener);
+            current = link;
+        }
+        if (current != null) {
+            current.getTelemetryParser().addListener(telemetryListener);
+        }
+    }
+
+    /**
+     * Gets the current link, which is replaced after every reconnect
+     * @return The current robot link, or null before the session starts
+     */
+    public synchronized RobotLink getLink() {
+        return link;
+    }
+
+    /**
+     * Determines if the session is accepting commands
+     * @return true if the link is up and not reconnecting
+     */
+    public synchronized boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Gets the number of successful reconnects
+     * @return The number of reconnects
+     */
+    public synchronized int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * Gets the metrics shared by every link of the session
+     * @return The session's link metrics
+     */
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Terminates the session, including any reconnect in progress
+     */
+    public void terminate() {
+        RobotLink current;
+        Thread reconnecting;
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            resumed = false;
+            current = link;
+            reconnecting = reconnectThread;
+        }
+        if (reconnecting != null) {
+            reconnecting.interrupt();
+        }
+        if (current != null) {
+            current.terminate();
+        }
+    }
+
+    /**
+     * Creates a link over a connection, with the session's telemetry listeners registered
+     * @param transport The connection to the robot
+     * @return The new link, not yet started
+     * @throws IOException If the connection's streams are not available
+     */
+    private RobotLink createLink(RobotTransport transport) throws IOException {
+        LinkListener linkListener = new LinkListener();
+        RobotLink created = new RobotLink(transport, codec, linkListener,
+                heartbeatIntervalMs, heartbeatDeadlineMs, metrics);
+        linkListener.source = created;
+        synchronized (this) {
+            if (scheduling) {
+                created.enableScheduling();
+            }
+            else if (reliableWindow > 0) {
+                created.enableReliableDelivery(reliableWindow);
+            }
+            else if (batchWindowMs >= 0) {
+                created.enableBatching(batchWindowMs, batchFramed);
+                if (adaptiveRate) {
+                    created.enableRateControl();
+                }
+            }
+            for (TelemetryParser.Listener telemetryListener : telemetryListeners) {
+                created.getTelemetryParser().addListener(telemetryListener);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Starts reconnecting after the current link fails
+     * @param failed The link that failed
+     * @param e The failure
+     */
+    private void onLinkFailed(RobotLink failed, IOException e) {
+        synchronized (this) {
+            // Failures of old links, and of new links during a handshake, are handled
+            // by the reconnect thread
+            if (terminated || failed != link || reconnectThread != null) {
+                return;
+            }
+            resumed = false;
+            if (connector != null) {
+                reconnectThread = new ReconnectThread(e);
+                reconnectThread.start();
+                return;
+            }
+        }
+        listener.onSessionLost(e);
+    }
+
+    /**
+     * Passes events from one link on, as long as it is the current link
+     */
+    private class LinkListener implements RobotLink.Listener {
+        /// The link these events come from
+        RobotLink source;
+
+        /**
+         * Determines if events from the link should be passed on
+         * @return true if the link is the session's current link
+         */
+        private boolean isCurrent() {
+            synchronized (RobotSession.this) {
+                return source == link;
+            }
+        }
+
+        /**
+         * Passes sent commands on
+         * @param command The command that was sent
+         */
+        @Override
+        public void onCommandSent(RobotCommand command) {
+            if (isCurrent()) {
+                listener.onCommandSent(command);
+            }
+        }
+
+        /**
+         * Completes a pending handshake and passes latency updates on
+         * @param histogram The latency window the sample was recorded in
+         */
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {
+            CountDownLatch pending;
+            synchronized (RobotSession.this) {
+                if (source != link) {
+                    return;
+                }
+                pending = handshake;
+            }
+            if (pending != null) {
+                pending.countDown();
+            }
+            listener.onLatencyUpdated(histogram);
+        }
+
+        /**
+         * Passes link stalls on
+         */
+        @Override
+        public void onLinkStalled() {
+            if (isCurrent()) {
+                listener.onLinkStalled();
+            }
+        }
+
+        /**
+         * Passes link recoveries on
+         */
+        @Override
+        public void onLinkRestored() {
+            if (isCurrent()) {
+                listener.onLinkRestored();
+            }
+        }
+
+        /**
+         * Starts reconnecting if the current link failed
+         * @param e The failure
+         */
+        @Override
+        public void onLinkFailed(IOException e) {
+            RobotSession.this.onLinkFailed(source, e);
+        }
+    }
+
+    /**
+     * Worker thread that reconnects with backoff and performs the stop/resume handshake
+     */
+    private class ReconnectThread extends Thread {
+        /// The most recent failure
+        private IOException cause;
+
+        /**
+         * Constructor for this reconnect thread
+         * @param cause The failure that started reconnecting
+         */
+        ReconnectThread(IOException cause) {
+            super("RobotSessionReconnect");
+            this.cause = cause;
+        }
+
+        /**
+         * Attempts to reconnect until one attempt completes the handshake or all attempts fail
+         */
+        @Override
+        public void run() {
+            try {
+                for (int attempt = 0; attempt < backoff.getMaxAttempts(); attempt++) {
+                    long delayMs = backoff.getDelayMs(attempt);
+                    listener.onReconnecting(attempt + 1, delayMs);
+                    Thread.sleep(delayMs);
+                    if (attemptReconnect()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Terminated
+                return;
+            }
+            synchronized (RobotSession.this) {
+                reconnectThread = null;
+                if (terminated) {
+                    return;
+                }
+            }
+            listener.onSessionLost(cause);
+        }
+
+        /**
+         * Connects once and performs the stop/resume handshake
+         * @return true if the session resumed on a new link
+         * @throws InterruptedException If the session was terminated
+         */
+        private boolean attemptReconnect() throws InterruptedException {
+            RobotTransport transport;
+            RobotLink created;
+            try {
+                transport = connector.connect();
+            } catch (IOException e) {
+                metrics.errors.increment();
+                cause = e;
+                return false;
+            }
+            try {
+                created = createLink(transport);
+            } catch (IOException e) {
+                cause = e;
+                try {
+                    transport.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+                return false;
+            }
+
+            CountDownLatch pending = new CountDownLatch(1);
+            synchronized (RobotSession.this) {
+                if (terminated) {
+                    created.terminate();
+                    throw new InterruptedException();
+                }
+                link = created;
+                handshake = pending;
+            }
+            created.start();
+
+            // Stop first, then wait for the robot to answer a heartbeat before resuming
+            created.sendCommand(RobotCommand.STOP, 0, 0);
+            pending.await(heartbeatDeadlineMs, TimeUnit.MILLISECONDS);
+
+            synchronized (RobotSession.this) {
+                handshake = null;
+                if (created.isTerminated()) {
+                    cause = new EOFException("The link failed during the handshake");
+                    return false;
+                }
+                reconnectThread = null;
+                resumed = true;
+                reconnectCount++;
+            }
+            metrics.reconnects.increment();
+            listener.onResumed(transport);
+            return true;
+        }
+    }
+}
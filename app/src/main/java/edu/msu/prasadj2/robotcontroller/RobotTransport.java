@@ -0,0 +1,54 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connected byte stream to a robot.
+ *
+ * The controller only needs a pair of streams, so the same pipeline can run over a
+ * bluetooth RFCOMM socket, a TCP socket to a simulator, or an in-memory pipe in tests.
+ */
+public interface RobotTransport extends Closeable {
+
+    /**
+     * Gets the stream of bytes sent by the robot
+     * @return The input stream
+     * @throws IOException If the stream is not available
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Gets the stream of bytes sent to the robot
+     * @return The output stream
+     * @throws IOException If the stream is not available
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Determines if the transport is still connected
+     * @return true if the transport is connected
+     */
+    boolean isConnected();
+
+    /**
+     * Gets a short description of the remote end, for logs and metrics
+     * @return The transport name
+     */
+    String getName();
+
+    /**
+     * Closes the transport. Blocked reads and writes fail with an IOException.
+     * @throws IOException If closing fails
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,330 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Owns a robot session, its recording and its metrics dump independently of any screen.
+ *
+ * Screens attach a listener while they are shown and detach it when they are destroyed.
+ * The session, its writer and reader threads and its metrics carry on in between, so a
+ * recreated screen picks up the same link instead of reconnecting. Session events are
+ * passed to every attached listener on the thread they happen on.
+ *
+ * The recording is written out at a fixed interval by a thread of its own, so a crash
+ * loses at most that much of it and the writer thread never waits on the file. It is
+ * closed when the session stops or is lost.
+ *
+ * Stopping a running session first queues a stop for the robot and waits briefly for the
+ * writer to send it, so the robot is not left driving when the link is closed.
+ */
+public class SessionHost implements RobotSession.Listener {
+    /// Time between writes of the recording to its file, in milliseconds
+    public static final long FLUSH_INTERVAL_MS = 1000;
+    /// Longest time stopping waits for the robot's stop to be sent, in milliseconds
+    public static final long STOP_FLUSH_TIMEOUT_MS = 200;
+
+    /// Listeners of the attached screens and of the host's owner
+    private final List<RobotSession.Listener> listeners =
+            new CopyOnWriteArrayList<RobotSession.Listener>();
+
+    /// The hosted session, or null before the first start
+    private RobotSession session = null;
+    /// Records the session's commands and robot messages, or null
+    private CommandRecorder recorder = null;
+    /// Writes the recording out at a fixed interval, or null
+    private Flusher flusher = null;
+    /// Dumps the session's metrics to a file, or null
+    private MetricsDumper dumper = null;
+    /// Tracks if the session is running and has not been lost
+    private boolean active = false;
+    /// Counted down once the stop queued by stop has been sent, or null. Guarded by this.
+    private CountDownLatch stopSent = null;
+
+    /**
+     * Starts hosting a session, stopping any session hosted before
+     * @param session The session, created with this host as its listener and not yet started
+     * @param recorder Records the session, or null to not record it
+     * @param dumper Dumps the session's metrics, not yet started, or null to not dump them
+     * @throws IOException If the session's connection cannot be used
+     */
+    public void start(@NonNull RobotSession session, @Nullable CommandRecorder recorder,
+                      @Nullable MetricsDumper dumper) throws IOException {
+        stop();
+        if (recorder != null) {
+            session.addTelemetryListener(recorder);
+        }
+        synchronized (this) {
+            this.session = session;
+            this.recorder = recorder;
+            this.dumper = dumper;
+            if (recorder != null) {
+                flusher = new Flusher(recorder);
+                flusher.start();
+            }
+            active = true;
+        }
+        try {
+            session.start();
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+        if (dumper != null) {
+            dumper.start();
+        }
+    }
+
+    /**
+     * Stops the hosted session, its recording and its metrics dump. A running session is
+     * sent a stop first, waiting at most STOP_FLUSH_TIMEOUT_MS for it to be written.
+     */
+    public void stop() {
+        RobotSession stopped;
+        MetricsDumper terminated;
+        CountDownLatch flushed = null;
+        synchronized (this) {
+            stopped = session;
+            terminated = dumper;
+            dumper = null;
+            if (active) {
+                flushed = new CountDownLatch(1);
+                stopSent = flushed;
+            }
+            active = false;
+        }
+        if (flushed != null && stopped.sendCommand(RobotCommand.STOP, 0, 0)) {
+            try {
+                flushed.await(STOP_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            stopSent = null;
+        }
+        if (stopped != null) {
+            stopped.terminate();
+        }
+        if (terminated != null) {
+            terminated.terminate();
+        }
+        closeRecording();
+    }
+
+    /**
+     * Stops writing the recording out and closes it, if it is still open
+     */
+    private void closeRecording() {
+        CommandRecorder closed;
+        Flusher stopped;
+        synchronized (this) {
+            closed = recorder;
+            stopped = flusher;
+            recorder = null;
+            flusher = null;
+        }
+        if (stopped != null) {
+            stopped.terminate();
+        }
+        if (closed != null) {
+            closed.close();
+        }
+    }
+
+    /**
+     * Attaches a listener to the hosted session's events
+     * @param listener The listener
+     * @return The hosted session, or null if none has been started
+     */
+    @Nullable
+    public synchronized RobotSession attach(@NonNull RobotSession.Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+        return session;
+    }
+
+    /**
+     * Detaches a listener. The session carries on.
+     * @param listener The listener
+     */
+    public void detach(@NonNull RobotSession.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Gets the hosted session, which is kept after it stops for its metrics
+     * @return The session, or null if none has been started
+     */
+    @Nullable
+    public synchronized RobotSession getSession() {
+        return session;
+    }
+
+    /**
+     * Determines if the hosted session is running
+     * @return true if a session was started and has been neither stopped nor lost
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Gets the number of attached listeners
+     * @return The listener count
+     */
+    public int getListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Records a sent command and passes it on
+     * @param command The command that was sent
+     */
+    @Override
+    public void onCommandSent(RobotCommand command) {
+        CommandRecorder current;
+        synchronized (this) {
+            current = recorder;
+            if (stopSent != null && command.opcode == RobotCommand.STOP) {
+                stopSent.countDown();
+            }
+        }
+        if (current != null) {
+            current.recordCommand(command, System.nanoTime());
+        }
+        for (RobotSession.Listener listener : listeners) {
+            listener.onCommandSent(command);
+        }
+    }
+
+    /**
+     * Passes on a latency update
+     * @param histogram The latency window the sample was recorded in
+     */
+    @Override
+    public void onLatencyUpdated(LatencyHistogram histogram) {
+        for (RobotSession.Listener listener : listeners) {
+            listener.onLatencyUpdated(histogram);
+        }
+    }
+
+    /**
+     * Passes on a stalled link
+     */
+    @Override
+    public void onLinkStalled() {
+        for (RobotSession.Listener listener : listeners) {
+            listener.onLinkStalled();
+        }
+    }
+
+    /**
+     * Passes on a restored link
+     */
+    @Override
+    public void onLinkRestored() {
+        for (RobotSession.Listener listener : listeners) {
+            listener.onLinkRestored();
+        }
+    }
+
+    /**
+     * Passes on a reconnect attempt
+     * @param attempt The attempt number, starting at 1
+     * @param delayMs The delay before the attempt, in milliseconds
+     */
+    @Override
+    public void onReconnecting(int attempt, long delayMs) {
+        for (RobotSession.Listener listener : listeners) {
+            listener.onReconnecting(attempt, delayMs);
+        }
+    }
+
+    /**
+     * Passes on a resumed session
+     * @param transport The new connection to the robot
+     */
+    @Override
+    public void onResumed(RobotTransport transport) {
+        for (RobotSession.Listener listener : listeners) {
+            listener.onResumed(transport);
+        }
+    }
+
+    /**
+     * Marks the session as no longer running, closes its recording and passes the loss on
+     * @param e The last failure
+     */
+    @Override
+    public void onSessionLost(IOException e) {
+        synchronized (this) {
+            active = false;
+        }
+        closeRecording();
+        for (RobotSession.Listener listener : listeners) {
+            listener.onSessionLost(e);
+        }
+    }
+
+    /**
+     * Worker thread that writes a recording out at a fixed interval. It is never
+     * interrupted, since that would close the recording's file channel.
+     */
+    private static class Flusher extends Thread {
+        /// The recording written out
+        private final CommandRecorder recorder;
+        /// Tracks if the flusher has been terminated
+        private volatile boolean terminated = false;
+
+        /**
+         * Constructor for this flusher
+         * @param recorder The recording written out
+         */
+        Flusher(@NonNull CommandRecorder recorder) {
+            super("RecordingFlusher");
+            this.recorder = recorder;
+            setDaemon(true);
+        }
+
+        /**
+         * Writes the recording out at every interval until terminated
+         */
+        @Override
+        public void run() {
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+            long due = System.nanoTime() + intervalNanos;
+            while (!terminated) {
+                long delay = due - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                    continue;
+                }
+                recorder.flush();
+                due = System.nanoTime() + intervalNanos;
+            }
+        }
+
+        /**
+         * Terminates the flusher. The recording is closed by its owner.
+         */
+        void terminate() {
+            terminated = true;
+            LockSupport.unpark(this);
+        }
+    }
+}
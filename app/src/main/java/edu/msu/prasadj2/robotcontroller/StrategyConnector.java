@@ -0,0 +1,620 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to one robot by racing several ways of opening the connection.
+ *
+ * Serial bluetooth modules answer some socket types much faster than others, and which one
+ * varies from phone to phone. The strategies are started one after another, best first,
+ * with a short stagger so a fast strategy is not slowed down by the others; a strategy that
+ * fails starts the next one right away. The first connection wins and every other attempt
+ * is cancelled. Each attempt has its own timeout.
+ *
+ * Success rate and connect time are kept per strategy, so the strategy that connected
+ * fastest is started first on the next connect. They can be stored across app restarts.
+ * Failures are only counted once another strategy has reached the robot: a race nobody
+ * wins most likely means the robot is off or out of range, which says nothing about the
+ * strategies, and counting it would let retries against a missing robot reorder them.
+ */
+public class StrategyConnector {
+    /// Default longest time one attempt may take, in milliseconds
+    public static final long DEFAULT_ATTEMPT_TIMEOUT_MS = 4000;
+    /// Default time between starting one strategy and the next, in milliseconds
+    public static final long DEFAULT_STAGGER_MS = 500;
+
+    /// Weight of the newest connect time in the average connect time
+    private static final double CONNECT_TIME_WEIGHT = 0.25;
+    /// Separates the fields of one stored strategy
+    private static final char FIELD_SEPARATOR = '|';
+
+    /// State of an attempt that has not started
+    private static final int WAITING = 0;
+    /// State of an attempt that is connecting
+    private static final int RUNNING = 1;
+    /// State of an attempt that is over or was never needed
+    private static final int DONE = 2;
+    /// State of an attempt cancelled for taking too long, also over
+    private static final int TIMED_OUT = 3;
+
+    /**
+     * One way of opening a connection
+     */
+    public interface Strategy {
+        /**
+         * Gets the strategy's name, used to keep its statistics
+         * @return The name
+         */
+        String getName();
+
+        /**
+         * Prepares an attempt to connect, without connecting yet
+         * @param address The robot's address
+         * @return The attempt
+         * @throws IOException If the attempt cannot be prepared
+         */
+        Attempt open(String address) throws IOException;
+    }
+
+    /**
+     * One attempt to connect
+     */
+    public interface Attempt {
+        /**
+         * Connects, blocking until connected
+         * @return The connected transport
+         * @throws IOException If the connect fails or the attempt is cancelled
+         */
+        RobotTransport connect() throws IOException;
+
+        /**
+         * Cancels the attempt, making a blocked connect fail. Called from another thread.
+         */
+        void cancel();
+    }
+
+    /**
+     * Success rate and connect time of one strategy
+     */
+    public static class Stats {
+        /// The strategy's name
+        private final String name;
+        /// Number of attempts that succeeded or failed
+        private int attempts = 0;
+        /// Number of attempts that connected
+        private int successes = 0;
+        /// Moving average of the time a successful connect took, in nanoseconds
+        private long averageConnectNanos = 0;
+
+        /**
+         * Constructor for these statistics
+         * @param name The strategy's name
+         */
+        Stats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the strategy's name
+         * @return The name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the number of attempts that succeeded or failed
+         * @return The attempt count
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Gets the number of attempts that connected
+         * @return The success count
+         */
+        public int getSuccesses() {
+            return successes;
+        }
+
+        /**
+         * Gets the fraction of attempts that connected
+         * @return The success rate, or 0 if the strategy has not been tried
+         */
+        public double getSuccessRate() {
+            return attempts == 0 ? 0 : (double)successes / attempts;
+        }
+
+        /**
+         * Gets the moving average of the time a successful connect took
+         * @return The time in nanoseconds, or 0 if the strategy has never connected
+         */
+        public long getAverageConnectNanos() {
+            return averageConnectNanos;
+        }
+    }
+
+    /**
+     * The outcome of a race
+     */
+    public static class Result {
+        /// Name of the strategy that connected
+        public final String strategy;
+        /// The winning connection
+        public final RobotTransport transport;
+        /// Time from the start of the race until the winner connected, in nanoseconds
+        public final long elapsedNanos;
+        /// Time the winning attempt itself took, in nanoseconds
+        public final long connectNanos;
+        /// Names of the strategies that failed or timed out before the race ended
+        public final List<String> failedStrategies;
+
+        /**
+         * Constructor for this result
+         * @param strategy Name of the strategy that connected
+         * @param transport The winning connection
+         * @param elapsedNanos Time until the winner connected, in nanoseconds
+         * @param connectNanos Time the winning attempt took, in nanoseconds
+         * @param failedStrategies Names of the strategies that failed before the race ended
+         */
+        Result(String strategy, RobotTransport transport, long elapsedNanos, long connectNanos,
+               List<String> failedStrategies) {
+            this.strategy = strategy;
+            this.transport = transport;
+            this.elapsedNanos = elapsedNanos;
+            this.connectNanos = connectNanos;
+            this.failedStrategies = failedStrategies;
+        }
+    }
+
+    /// Orders the strategy most likely to connect fast first
+    private final Comparator<Strategy> ranking = new Comparator<Strategy>() {
+        @Override
+        public int compare(Strategy a, Strategy b) {
+            Stats statsA = stats.get(a.getName());
+            Stats statsB = stats.get(b.getName());
+            if (statsA.successes > 0 && statsB.successes > 0) {
+                // Expected time to a connection, counting failed attempts as wasted tries
+                return Double.compare(statsA.averageConnectNanos / statsA.getSuccessRate(),
+                        statsB.averageConnectNanos / statsB.getSuccessRate());
+            }
+            if (statsA.successes > 0 || statsB.successes > 0) {
+                return statsA.successes > 0 ? -1 : 1;
+            }
+            // Untried strategies before ones that only ever failed
+            return statsA.attempts - statsB.attempts;
+        }
+    };
+
+    /// The strategies, in their configured order
+    private final List<Strategy> strategies;
+    /// Statistics of each strategy, by name
+    private final Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+
+    /**
+     * Constructor for this strategy connector
+     * @param strategies The strategies, in the order to use before any have been measured
+     */
+    public StrategyConnector(@NonNull List<Strategy> strategies) {
+        this.strategies = new ArrayList<Strategy>(strategies);
+        for (Strategy strategy : strategies) {
+            stats.put(strategy.getName(), new Stats(strategy.getName()));
+        }
+    }
+
+    /**
+     * Gets the order the strategies will be started in
+     * @return The strategies, best first
+     */
+    public synchronized List<Strategy> getOrder() {
+        List<Strategy> order = new ArrayList<Strategy>(strategies);
+        Collections.sort(order, ranking);
+        return order;
+    }
+
+    /**
+     * Gets the statistics of a strategy
+     * @param name The strategy's name
+     * @return The statistics, or null if there is no such strategy
+     */
+    @Nullable
+    public synchronized Stats getStats(@NonNull String name) {
+        return stats.get(name);
+    }
+
+    /**
+     * Races the strategies against one robot and waits for the first connection
+     * @param address The robot's address
+     * @param attemptTimeoutMs The longest time one attempt may take, in milliseconds
+     * @param staggerMs The time between starting one strategy and the next, in milliseconds
+     * @return The winning connection
+     * @throws IOException If every attempt failed or timed out
+     * @throws InterruptedException If the waiting thread is interrupted. Attempts still
+     *                              running are cancelled.
+     */
+    public Result connect(@NonNull String address, long attemptTimeoutMs, long staggerMs)
+            throws IOException, InterruptedException {
+        return connect(address, attemptTimeoutMs, staggerMs, strategies.size());
+    }
+
+    /**
+     * Races the best few strategies against one robot and waits for the first connection.
+     * Dialing several robots at once with one strategy each keeps the number of sockets
+     * connecting at the same time down.
+     * @param address The robot's address
+     * @param attemptTimeoutMs The longest time one attempt may take, in milliseconds
+     * @param staggerMs The time between starting one strategy and the next, in milliseconds
+     * @param strategyCount The most strategies to race, best first
+     * @return The winning connection
+     * @throws IOException If every attempt failed or timed out
+     * @throws InterruptedException If the waiting thread is interrupted. Attempts still
+     *                              running are cancelled.
+     */
+    public Result connect(@NonNull final String address, long attemptTimeoutMs, long staggerMs,
+                          int strategyCount) throws IOException, InterruptedException {
+        List<Strategy> order = getOrder();
+        order = order.subList(0, Math.max(1, Math.min(strategyCount, order.size())));
+        final Race race = new Race(order);
+        final long staggerNanos = TimeUnit.MILLISECONDS.toNanos(staggerMs);
+        for (int i = 0; i < order.size(); i++) {
+            final int index = i;
+            final Strategy strategy = order.get(i);
+            new Thread("Connect " + strategy.getName()) {
+                @Override
+                public void run() {
+                    runAttempt(race, index, strategy, address, index * staggerNanos);
+                }
+            }.start();
+        }
+        return race.await(TimeUnit.MILLISECONDS.toNanos(attemptTimeoutMs));
+    }
+
+    /**
+     * Converts the statistics to a string for storage
+     * @return The stored form, one strategy per line
+     */
+    public synchronized String encode() {
+        StringBuilder builder = new StringBuilder();
+        for (Stats entry : stats.values()) {
+            builder.append(entry.name).append(FIELD_SEPARATOR)
+                    .append(entry.attempts).append(FIELD_SEPARATOR)
+                    .append(entry.successes).append(FIELD_SEPARATOR)
+                    .append(entry.averageConnectNanos).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Restores statistics from their stored form. Lines for unknown strategies and
+     * malformed lines are skipped.
+     * @param stored The stored form, or null to keep the current statistics
+     */
+    public synchronized void restore(@Nullable String stored) {
+        if (stored == null) {
+            return;
+        }
+        for (String line : stored.split("\n")) {
+            String[] fields = line.split("\\" + FIELD_SEPARATOR, -1);
+            Stats entry = fields.length == 4 ? stats.get(fields[0]) : null;
+            if (entry == null) {
+                continue;
+            }
+            try {
+                int attempts = Integer.parseInt(fields[1]);
+                int successes = Integer.parseInt(fields[2]);
+                long averageConnectNanos = Long.parseLong(fields[3]);
+                entry.attempts = attempts;
+                entry.successes = successes;
+                entry.averageConnectNanos = averageConnectNanos;
+            } catch (NumberFormatException e) {
+                // Skip the line
+            }
+        }
+    }
+
+    /**
+     * Runs one strategy's attempt on its own thread once its turn comes
+     * @param race The race the attempt is part of
+     * @param index The strategy's place in the starting order
+     * @param strategy The strategy
+     * @param address The robot's address
+     * @param delayNanos Time after the start of the race at which the attempt starts
+     */
+    private void runAttempt(Race race, int index, Strategy strategy, String address,
+                            long delayNanos) {
+        try {
+            if (!race.awaitTurn(index, delayNanos)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            race.skip(index);
+            return;
+        }
+
+        Attempt attempt;
+        try {
+            attempt = strategy.open(address);
+        } catch (IOException e) {
+            race.fail(index, e);
+            return;
+        }
+        if (!race.begin(index, attempt)) {
+            attempt.cancel();
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            RobotTransport transport = attempt.connect();
+            if (!race.finish(index, transport, System.nanoTime() - startNanos)) {
+                try {
+                    transport.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        } catch (IOException e) {
+            race.fail(index, e);
+        }
+    }
+
+    /**
+     * Records a successful attempt
+     * @param name The strategy's name
+     * @param connectNanos The time the attempt took, in nanoseconds
+     */
+    private synchronized void recordSuccess(String name, long connectNanos) {
+        Stats entry = stats.get(name);
+        entry.attempts++;
+        entry.successes++;
+        entry.averageConnectNanos = entry.successes == 1 ? connectNanos
+                : (long)(entry.averageConnectNanos
+                        + CONNECT_TIME_WEIGHT * (connectNanos - entry.averageConnectNanos));
+    }
+
+    /**
+     * Records a failed or timed out attempt
+     * @param name The strategy's name
+     */
+    private synchronized void recordFailure(String name) {
+        stats.get(name).attempts++;
+    }
+
+    /**
+     * Shared state of one race
+     */
+    private class Race {
+        /// The time the race started
+        private final long startNanos = System.nanoTime();
+        /// The strategies, in starting order
+        private final List<Strategy> order;
+        /// State of each attempt
+        private final int[] states;
+        /// Each running attempt, so it can be cancelled
+        private final Attempt[] attempts;
+        /// Time each attempt started, in nanoseconds
+        private final long[] attemptStarts;
+        /// Names of the strategies that failed or timed out
+        private final List<String> failedStrategies = new ArrayList<String>();
+        /// Number of attempts not yet over
+        private int pending;
+        /// Number of attempts that failed or timed out
+        private int failures = 0;
+        /// The winner, once there is one
+        private Result result = null;
+        /// Tracks if the waiting thread gave up
+        private boolean abandoned = false;
+        /// The most recent failure
+        private IOException lastFailure = null;
+
+        /**
+         * Constructor for this race
+         * @param order The strategies, in starting order
+         */
+        Race(List<Strategy> order) {
+            this.order = order;
+            states = new int[order.size()];
+            attempts = new Attempt[order.size()];
+            attemptStarts = new long[order.size()];
+            pending = order.size();
+        }
+
+        /**
+         * Waits until an attempt may start: its start time has come, or every attempt
+         * before it has failed
+         * @param index The attempt's place in the starting order
+         * @param delayNanos Time after the start of the race at which the attempt starts
+         * @return true if the attempt should start, false if the race is over
+         * @throws InterruptedException If the attempt's thread is interrupted
+         */
+        synchronized boolean awaitTurn(int index, long delayNanos)
+                throws InterruptedException {
+            long startAt = startNanos + delayNanos;
+            long remaining;
+            while (!isOver() && failures < index
+                    && (remaining = startAt - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            if (isOver()) {
+                end(index);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Registers a prepared attempt as running
+         * @param index The attempt's place in the starting order
+         * @param attempt The attempt
+         * @return true if the attempt should connect, false if the race is over and the
+         *         caller must cancel it
+         */
+        synchronized boolean begin(int index, Attempt attempt) {
+            if (isOver()) {
+                end(index);
+                return false;
+            }
+            states[index] = RUNNING;
+            attempts[index] = attempt;
+            attemptStarts[index] = System.nanoTime();
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Reports a successful connect
+         * @param index The attempt's place in the starting order
+         * @param transport The connection
+         * @param connectNanos The time the attempt took, in nanoseconds
+         * @return true if it won the race, false if the caller must close it
+         */
+        synchronized boolean finish(int index, RobotTransport transport, long connectNanos) {
+            boolean won = !isOver() && states[index] == RUNNING;
+            end(index);
+            if (won) {
+                // The robot could be reached, so the strategies that failed were at fault
+                for (String failed : failedStrategies) {
+                    recordFailure(failed);
+                }
+                String name = order.get(index).getName();
+                recordSuccess(name, connectNanos);
+                result = new Result(name, transport, System.nanoTime() - startNanos,
+                        connectNanos, new ArrayList<String>(failedStrategies));
+            }
+            return won;
+        }
+
+        /**
+         * Reports a failed attempt. Attempts cancelled because the race is over are not
+         * counted against their strategy.
+         * @param index The attempt's place in the starting order
+         * @param e The failure
+         */
+        synchronized void fail(int index, IOException e) {
+            if (!isOver() && states[index] != TIMED_OUT) {
+                recordFailed(index, e);
+            }
+            end(index);
+        }
+
+        /**
+         * Reports an attempt that never started
+         * @param index The attempt's place in the starting order
+         */
+        synchronized void skip(int index) {
+            end(index);
+        }
+
+        /**
+         * Waits for a winner, cancelling attempts that run past their timeout
+         * @param attemptTimeoutNanos The longest time one attempt may take, in nanoseconds
+         * @return The winner
+         * @throws IOException If every attempt failed or timed out
+         * @throws InterruptedException If the waiting thread is interrupted
+         */
+        synchronized Result await(long attemptTimeoutNanos)
+                throws IOException, InterruptedException {
+            try {
+                while (result == null && pending > 0) {
+                    long now = System.nanoTime();
+                    long nextDeadline = Long.MAX_VALUE;
+                    for (int i = 0; i < states.length; i++) {
+                        if (states[i] != RUNNING) {
+                            continue;
+                        }
+                        long deadline = attemptStarts[i] + attemptTimeoutNanos;
+                        if (deadline - now <= 0) {
+                            // A timed out attempt no longer holds up the race
+                            states[i] = TIMED_OUT;
+                            pending--;
+                            attempts[i].cancel();
+                            recordFailed(i, new IOException(order.get(i).getName()
+                                    + " timed out"));
+                        }
+                        else {
+                            nextDeadline = Math.min(nextDeadline, deadline);
+                        }
+                    }
+                    if (pending == 0) {
+                        break;
+                    }
+                    if (nextDeadline == Long.MAX_VALUE) {
+                        // Woken when an attempt starts or ends
+                        wait();
+                    }
+                    else {
+                        TimeUnit.NANOSECONDS.timedWait(this, nextDeadline - now);
+                    }
+                }
+            } finally {
+                if (result == null) {
+                    abandoned = true;
+                }
+                // Cancel the losers
+                for (int i = 0; i < states.length; i++) {
+                    if (states[i] == RUNNING) {
+                        states[i] = DONE;
+                        attempts[i].cancel();
+                    }
+                }
+                notifyAll();
+            }
+            if (result != null) {
+                return result;
+            }
+            throw lastFailure != null ? lastFailure
+                    : new IOException("No connection strategy succeeded");
+        }
+
+        /**
+         * Notes a failed or timed out attempt, to be counted against its strategy if
+         * another strategy wins
+         * @param index The attempt's place in the starting order
+         * @param e The failure
+         */
+        private void recordFailed(int index, IOException e) {
+            String name = order.get(index).getName();
+            failedStrategies.add(name);
+            lastFailure = e;
+            failures++;
+            notifyAll();
+        }
+
+        /**
+         * Marks an attempt as over
+         * @param index The attempt's place in the starting order
+         */
+        private void end(int index) {
+            if (states[index] < DONE) {
+                states[index] = DONE;
+                pending--;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Determines if the race is over
+         * @return true if there is a winner or the waiting thread gave up
+         */
+        private boolean isOver() {
+            return result != null || abandoned;
+        }
+    }
+}
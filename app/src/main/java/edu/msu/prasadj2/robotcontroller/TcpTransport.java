@@ -0,0 +1,103 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Robot transport over a TCP socket, used to drive the robot simulator over the network
+ */
+public class TcpTransport implements RobotTransport {
+    /// TCP port the robot simulator serves by default
+    public static final int SIMULATOR_PORT = 7476;
+
+    /// The connected TCP socket
+    private final Socket socket;
+
+    /**
+     * Constructor for this TCP transport
+     * @param socket A connected TCP socket
+     */
+    public TcpTransport(@NonNull Socket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Connects to a robot or simulator listening on a TCP port
+     * @param host The host name or address
+     * @param port The TCP port
+     * @param timeoutMs The connect timeout, in milliseconds
+     * @return The connected transport
+     * @throws IOException If the connection fails
+     */
+    public static TcpTransport connect(@NonNull String host, int port, int timeoutMs)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            // Commands are tiny, so send each one immediately instead of coalescing
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new TcpTransport(socket);
+    }
+
+    /**
+     * Gets the stream of bytes sent by the robot
+     * @return The input stream
+     * @throws IOException If the stream is not available
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    /**
+     * Gets the stream of bytes sent to the robot
+     * @return The output stream
+     * @throws IOException If the stream is not available
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    /**
+     * Determines if the transport is still connected
+     * @return true if the transport is connected
+     */
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected() && !socket.isClosed();
+    }
+
+    /**
+     * Gets a short description of the remote end
+     * @return The transport name
+     */
+    @Override
+    public String getName() {
+        return "tcp:" + socket.getRemoteSocketAddress();
+    }
+
+    /**
+     * Closes the socket
+     * @throws IOException If closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live chart of one telemetry channel over a recent time window.
+ *
+ * Each frame asks the time series for at most one point per pixel column and draws each
+ * point as a vertical line from its minimum to its maximum, joined to the next point. The
+ * point and line buffers are sized when the view is, so drawing at the display's frame
+ * rate does not allocate. The chart redraws every frame while it is shown.
+ */
+public class TelemetryChartView extends View {
+    /// Time window shown when none is given, in nanoseconds
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /// Draws the chart line
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /// The charted channel, or null to draw nothing
+    private TimeSeries series = null;
+    /// Time window shown, in nanoseconds
+    private long windowNanos = DEFAULT_WINDOW_NANOS;
+
+    /// Receives the time of each point
+    private long[] times = new long[0];
+    /// Receives the smallest value of each point
+    private float[] mins = new float[0];
+    /// Receives the largest value of each point
+    private float[] maxes = new float[0];
+    /// Line end points passed to the canvas, eight coordinates per point
+    private float[] lines = new float[0];
+
+    /**
+     * Constructor for a chart created from code
+     * @param context The view's context
+     */
+    public TelemetryChartView(Context context) {
+        this(context, null);
+    }
+
+    /**
+     * Constructor for a chart inflated from a layout
+     * @param context The view's context
+     * @param attrs The layout attributes
+     */
+    public TelemetryChartView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        linePaint.setColor(Color.BLUE);
+        linePaint.setStrokeWidth(getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * Sets the channel to chart
+     * @param series The channel's time series, or null to draw nothing
+     * @param windowNanos The time window shown, in nanoseconds
+     */
+    public void setSeries(@Nullable TimeSeries series, long windowNanos) {
+        this.series = series;
+        this.windowNanos = windowNanos;
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * Sizes the point and line buffers to one point per pixel column
+     * @param w The new width
+     * @param h The new height
+     * @param oldw The old width
+     * @param oldh The old height
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int points = Math.max(w - getPaddingLeft() - getPaddingRight(), 0);
+        times = new long[points];
+        mins = new float[points];
+        maxes = new float[points];
+        lines = new float[points * 8];
+    }
+
+    /**
+     * Draws the latest window of the channel, scaled to fill the view's height
+     * @param canvas The canvas to draw on
+     */
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        TimeSeries current = series;
+        if (current == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long from = now - windowNanos;
+        int count = current.query(from, now, times, mins, maxes);
+        if (count > 0) {
+            float low = mins[0];
+            float high = maxes[0];
+            for (int i = 1; i < count; i++) {
+                low = Math.min(low, mins[i]);
+                high = Math.max(high, maxes[i]);
+            }
+            if (high == low) {
+                high += 0.5f;
+                low -= 0.5f;
+            }
+
+            float left = getPaddingLeft();
+            float top = getPaddingTop();
+            float width = getWidth() - getPaddingLeft() - getPaddingRight();
+            float height = getHeight() - getPaddingTop() - getPaddingBottom();
+            float xScale = width / windowNanos;
+            float yScale = height / (high - low);
+            int length = 0;
+            float previousX = 0;
+            float previousY = 0;
+            for (int i = 0; i < count; i++) {
+                float x = left + Math.max(times[i] - from, 0) * xScale;
+                float yMin = top + (high - mins[i]) * yScale;
+                float yMax = top + (high - maxes[i]) * yScale;
+                if (i > 0) {
+                    lines[length++] = previousX;
+                    lines[length++] = previousY;
+                    lines[length++] = x;
+                    lines[length++] = yMin;
+                }
+                lines[length++] = x;
+                lines[length++] = yMin;
+                lines[length++] = x;
+                lines[length++] = yMax;
+                previousX = x;
+                previousY = yMax;
+            }
+            canvas.drawLines(lines, 0, length, linePaint);
+        }
+
+        if (isShown()) {
+            postInvalidateOnAnimation();
+        }
+    }
+}
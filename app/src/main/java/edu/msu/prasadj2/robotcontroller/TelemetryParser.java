@@ -0,0 +1,536 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Incremental parser for messages sent by the robot.
+ *
+ * Bytes are read straight into a ring buffer and complete messages are parsed in place.
+ * A partial message stays in the ring until the rest arrives. Two kinds of message are
+ * framed:
+ *
+ * Text lines of printable ASCII ending in "\n", such as "PONG 12", "ACK 5", "ENC 1042 -37"
+ * or "BAT 7.42". Known lines are decoded into typed events and any other line is passed on
+ * as raw bytes. A line longer than the ring is discarded.
+ *
+ * Binary telemetry frames: the sync byte, a type, a payload length, the payload and an
+ * XOR checksum of the type, length and payload bytes. Multi-byte fields are big-endian.
+ *
+ * Numbers are decoded directly from the buffer, so parsing does not create strings.
+ */
+public class TelemetryParser {
+
+    /**
+     * Receives typed messages from the robot. Called on the thread feeding the parser.
+     */
+    public interface Listener {
+        /**
+         * Called for each text line that is not a known telemetry message
+         * @param buffer Buffer holding the line, without its terminator.
+         *               Only valid during the call.
+         * @param offset The position of the line in the buffer
+         * @param length The length of the line
+         * @param nanos The time the line was received
+         */
+        void onTextLine(byte[] buffer, int offset, int length, long nanos);
+
+        /**
+         * Called when the robot answers a heartbeat ping
+         * @param sequence The echoed ping sequence number
+         * @param nanos The time the reply was received
+         */
+        void onPong(int sequence, long nanos);
+
+        /**
+         * Called when the robot reports its wheel encoder counts
+         * @param left The left encoder count
+         * @param right The right encoder count
+         * @param nanos The time the report was received
+         */
+        void onEncoders(int left, int right, long nanos);
+
+        /**
+         * Called when the robot reports its battery voltage
+         * @param millivolts The battery voltage, in millivolts
+         * @param nanos The time the report was received
+         */
+        void onBattery(int millivolts, long nanos);
+
+        /**
+         * Called when the robot acknowledges a batch, which covers every batch sent before
+         * it, or a reliable frame, which covers only itself
+         * @param sequence The acknowledged sequence number
+         * @param nanos The time the acknowledgement was received
+         */
+        void onAck(int sequence, long nanos);
+    }
+
+    /// Binary frame type for a heartbeat reply. Payload: sequence (1 byte).
+    public static final int FRAME_PONG = 0x80;
+    /// Binary frame type for encoder counts. Payload: left, right (4 bytes each).
+    public static final int FRAME_ENCODERS = 0x81;
+    /// Binary frame type for battery voltage. Payload: millivolts (2 bytes, unsigned).
+    public static final int FRAME_BATTERY = 0x82;
+    /// Binary frame type for a batch acknowledgement. Payload: sequence (1 byte).
+    public static final int FRAME_ACK = 0x83;
+
+    /// Ring size used when none is given. Must be a power of two.
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /// Bytes in a binary frame besides the payload: sync, type, length and checksum
+    private static final int FRAME_OVERHEAD = 4;
+
+    /// Text line prefixes, as bytes
+    private static final byte[] PONG_PREFIX = {'P', 'O', 'N', 'G', ' '};
+    private static final byte[] ENCODERS_PREFIX = {'E', 'N', 'C', ' '};
+    private static final byte[] BATTERY_PREFIX = {'B', 'A', 'T', ' '};
+    private static final byte[] ACK_PREFIX = {'A', 'C', 'K', ' '};
+
+    /// The ring of received bytes
+    private final byte[] ring;
+    /// Mask for wrapping positions into the ring
+    private final int mask;
+    /// Contiguous copy of a wrapped text line, handed to listeners
+    private final byte[] lineBuffer;
+    /// Position of the first unparsed byte. Positions only grow and are wrapped with the mask.
+    private int head = 0;
+    /// Position after the last received byte
+    private int tail = 0;
+    /// Position up to which the current text line has been searched for its terminator
+    private int scanned = 0;
+    /// Position after the last decoded number, set by the number readers
+    private int cursor = 0;
+    /// Tracks if the rest of an overlong text line is being thrown away
+    private boolean discardingLine = false;
+
+    /// Registered listeners. Replaced, never modified, so dispatch needs no lock.
+    private volatile Listener[] listeners = new Listener[0];
+
+    /// Number of complete messages parsed
+    private long messageCount = 0;
+    /// Number of bytes discarded because they were not part of a valid message
+    private long discardedBytes = 0;
+
+    /**
+     * Constructor for a parser with the default capacity
+     */
+    public TelemetryParser() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for this telemetry parser
+     * @param capacity The ring size in bytes, a power of two. Also the longest message.
+     */
+    public TelemetryParser(int capacity) {
+        if (capacity < 16 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two of at least 16");
+        }
+        ring = new byte[capacity];
+        mask = capacity - 1;
+        lineBuffer = new byte[capacity];
+    }
+
+    /**
+     * Registers a listener for parsed messages
+     * @param listener The listener to add
+     */
+    public synchronized void addListener(@NonNull Listener listener) {
+        Listener[] updated = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, updated, 0, listeners.length);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Unregisters a listener
+     * @param listener The listener to remove
+     */
+    public synchronized void removeListener(@NonNull Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Listener[] updated = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Performs one read from a stream into the ring and parses whatever is complete.
+     * Blocks only as long as the stream's read does.
+     * @param inputStream The stream to read from
+     * @return The number of bytes read, or -1 at the end of the stream
+     * @throws IOException If the read fails
+     */
+    public int readFrom(@NonNull InputStream inputStream) throws IOException {
+        makeRoom();
+        int writeIndex = tail & mask;
+        int contiguous = Math.min(ring.length - (tail - head), ring.length - writeIndex);
+        int count = inputStream.read(ring, writeIndex, contiguous);
+        if (count > 0) {
+            tail += count;
+            parse(System.nanoTime());
+        }
+        return count;
+    }
+
+    /**
+     * Adds received bytes to the ring and parses whatever is complete. Never blocks.
+     * @param data The received bytes
+     * @param offset The position of the first byte
+     * @param length The number of bytes
+     */
+    public void feed(byte[] data, int offset, int length) {
+        long nanos = System.nanoTime();
+        while (length > 0) {
+            makeRoom();
+            int writeIndex = tail & mask;
+            int count = Math.min(length,
+                    Math.min(ring.length - (tail - head), ring.length - writeIndex));
+            System.arraycopy(data, offset, ring, writeIndex, count);
+            tail += count;
+            offset += count;
+            length -= count;
+            parse(nanos);
+        }
+    }
+
+    /**
+     * Gets the number of complete messages parsed
+     * @return The message count
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Gets the number of bytes discarded because they were not part of a valid message
+     * @return The discarded byte count
+     */
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    /**
+     * Discards the buffered message if it has filled the ring without completing
+     */
+    private void makeRoom() {
+        if (tail - head == ring.length) {
+            discardedBytes += ring.length;
+            head = tail;
+            scanned = tail;
+            discardingLine = true;
+        }
+    }
+
+    /**
+     * Parses every complete message in the ring
+     * @param nanos The time the bytes were received
+     */
+    private void parse(long nanos) {
+        while (tail - head > 0) {
+            byte first = ring[head & mask];
+            if (discardingLine) {
+                if (!parseLine(nanos)) {
+                    return;
+                }
+            }
+            else if (first == BinaryCommandCodec.SYNC) {
+                if (!parseFrame(nanos)) {
+                    return;
+                }
+            }
+            else if (first < ' ' || first > '~') {
+                // Text lines are printable ASCII, so this is a blank line terminator
+                // or the leftovers of a corrupt frame
+                if (first != '\r' && first != '\n') {
+                    discardedBytes++;
+                }
+                head++;
+                scanned = head;
+            }
+            else if (!parseLine(nanos)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses a binary frame at the head of the ring
+     * @param nanos The time the frame was received
+     * @return false if the frame is not complete yet
+     */
+    private boolean parseFrame(long nanos) {
+        int available = tail - head;
+        if (available < 3) {
+            return false;
+        }
+        int payloadLength = get(head + 2) & 0xFF;
+        int frameLength = payloadLength + FRAME_OVERHEAD;
+        if (frameLength > ring.length) {
+            // Corrupt length; resynchronize on the next byte
+            skip(1);
+            return true;
+        }
+        if (available < frameLength) {
+            return false;
+        }
+
+        int checksum = 0;
+        for (int i = 1; i < frameLength - 1; i++) {
+            checksum ^= get(head + i);
+        }
+        if ((byte) checksum != get(head + frameLength - 1)) {
+            skip(1);
+            return true;
+        }
+
+        int type = get(head + 1) & 0xFF;
+        int payload = head + 3;
+        Listener[] current = listeners;
+        if (type == FRAME_PONG && payloadLength == 1) {
+            int sequence = get(payload) & 0xFF;
+            for (Listener listener : current) {
+                listener.onPong(sequence, nanos);
+            }
+        }
+        else if (type == FRAME_ACK && payloadLength == 1) {
+            int sequence = get(payload) & 0xFF;
+            for (Listener listener : current) {
+                listener.onAck(sequence, nanos);
+            }
+        }
+        else if (type == FRAME_ENCODERS && payloadLength == 8) {
+            int left = getInt(payload);
+            int right = getInt(payload + 4);
+            for (Listener listener : current) {
+                listener.onEncoders(left, right, nanos);
+            }
+        }
+        else if (type == FRAME_BATTERY && payloadLength == 2) {
+            int millivolts = ((get(payload) & 0xFF) << 8) | (get(payload + 1) & 0xFF);
+            for (Listener listener : current) {
+                listener.onBattery(millivolts, nanos);
+            }
+        }
+        // Unknown frame types are skipped whole so newer firmware does not break parsing
+
+        messageCount++;
+        head += frameLength;
+        scanned = head;
+        return true;
+    }
+
+    /**
+     * Parses a text line at the head of the ring
+     * @param nanos The time the line was received
+     * @return false if the line is not complete yet
+     */
+    private boolean parseLine(long nanos) {
+        int newline = -1;
+        for (int i = scanned - head > 0 ? scanned : head; tail - i > 0; i++) {
+            if (ring[i & mask] == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0) {
+            scanned = tail;
+            return false;
+        }
+
+        if (discardingLine) {
+            // The start of this line was thrown away when it overflowed the ring
+            discardedBytes += newline + 1 - head;
+            discardingLine = false;
+        }
+        else {
+            int end = newline;
+            if (end - head > 0 && get(end - 1) == '\r') {
+                end--;
+            }
+            dispatchLine(head, end, nanos);
+            messageCount++;
+        }
+        head = newline + 1;
+        scanned = head;
+        return true;
+    }
+
+    /**
+     * Decodes a complete text line and notifies the listeners
+     * @param start The position of the line's first byte
+     * @param end The position after the line's last byte
+     * @param nanos The time the line was received
+     */
+    private void dispatchLine(int start, int end, long nanos) {
+        Listener[] current = listeners;
+        if (startsWith(start, end, PONG_PREFIX)) {
+            int numberStart = start + PONG_PREFIX.length;
+            int sequence = readInt(numberStart, end);
+            if (cursor != numberStart && cursor == end && sequence >= 0) {
+                for (Listener listener : current) {
+                    listener.onPong(sequence, nanos);
+                }
+                return;
+            }
+        }
+        else if (startsWith(start, end, ACK_PREFIX)) {
+            int numberStart = start + ACK_PREFIX.length;
+            int sequence = readInt(numberStart, end);
+            if (cursor != numberStart && cursor == end && sequence >= 0) {
+                for (Listener listener : current) {
+                    listener.onAck(sequence, nanos);
+                }
+                return;
+            }
+        }
+        else if (startsWith(start, end, ENCODERS_PREFIX)) {
+            int leftStart = start + ENCODERS_PREFIX.length;
+            int left = readInt(leftStart, end);
+            int leftEnd = cursor;
+            if (leftEnd != leftStart && end - leftEnd > 1 && get(leftEnd) == ' ') {
+                int right = readInt(leftEnd + 1, end);
+                if (cursor != leftEnd + 1 && cursor == end) {
+                    for (Listener listener : current) {
+                        listener.onEncoders(left, right, nanos);
+                    }
+                    return;
+                }
+            }
+        }
+        else if (startsWith(start, end, BATTERY_PREFIX)) {
+            int millivolts = readMillis(start + BATTERY_PREFIX.length, end);
+            if (millivolts >= 0 && cursor == end) {
+                for (Listener listener : current) {
+                    listener.onBattery(millivolts, nanos);
+                }
+                return;
+            }
+        }
+
+        // Not a known message: hand the raw line over as one contiguous range
+        int length = end - start;
+        int startIndex = start & mask;
+        byte[] buffer = ring;
+        int offset = startIndex;
+        if (startIndex + length > ring.length) {
+            int firstPart = ring.length - startIndex;
+            System.arraycopy(ring, startIndex, lineBuffer, 0, firstPart);
+            System.arraycopy(ring, 0, lineBuffer, firstPart, length - firstPart);
+            buffer = lineBuffer;
+            offset = 0;
+        }
+        for (Listener listener : current) {
+            listener.onTextLine(buffer, offset, length, nanos);
+        }
+    }
+
+    /**
+     * Reads a signed decimal integer and leaves the cursor after its last digit
+     * @param start The position of the number
+     * @param end The position after the end of the line
+     * @return The value. The cursor equals start if there were no digits.
+     */
+    private int readInt(int start, int end) {
+        int position = start;
+        boolean negative = end - position > 0 && get(position) == '-';
+        if (negative) {
+            position++;
+        }
+        int digitsStart = position;
+        int value = 0;
+        while (end - position > 0 && get(position) >= '0' && get(position) <= '9') {
+            value = value * 10 + (get(position) - '0');
+            position++;
+        }
+        cursor = position == digitsStart ? start : position;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads an unsigned decimal such as "7.42" as thousandths and leaves the cursor after it
+     * @param start The position of the number
+     * @param end The position after the end of the line
+     * @return The value in thousandths, or -1 if there were no digits
+     */
+    private int readMillis(int start, int end) {
+        int whole = readInt(start, end);
+        if (cursor == start || whole < 0) {
+            return -1;
+        }
+        int value = whole * 1000;
+        int position = cursor;
+        if (end - position > 0 && get(position) == '.') {
+            position++;
+            int scale = 100;
+            while (end - position > 0 && get(position) >= '0' && get(position) <= '9') {
+                value += (get(position) - '0') * scale;
+                scale /= 10;
+                position++;
+            }
+        }
+        cursor = position;
+        return value;
+    }
+
+    /**
+     * Determines if the line in the ring starts with a prefix
+     * @param start The position of the line
+     * @param end The position after the end of the line
+     * @param prefix The prefix bytes
+     * @return true if the line starts with the prefix
+     */
+    private boolean startsWith(int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a big-endian 32 bit integer from the ring
+     * @param position The position of the first byte
+     * @return The integer value
+     */
+    private int getInt(int position) {
+        return ((get(position) & 0xFF) << 24) | ((get(position + 1) & 0xFF) << 16)
+                | ((get(position + 2) & 0xFF) << 8) | (get(position + 3) & 0xFF);
+    }
+
+    /**
+     * Gets a byte from the ring
+     * @param position The unwrapped position of the byte
+     * @return The byte
+     */
+    private byte get(int position) {
+        return ring[position & mask];
+    }
+
+    /**
+     * Discards bytes that are not part of a valid message
+     * @param count The number of bytes to discard
+     */
+    private void skip(int count) {
+        head += count;
+        scanned = head;
+        discardedBytes += count;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Keeps the telemetry the robot reports as time series that the controller screen can
+ * chart.
+ *
+ * Each channel is a fixed memory TimeSeries, so minutes of high rate reports are kept
+ * without the memory growing or any allocation per report. Reports are recorded on the
+ * session's reader thread and charts query them on the UI thread.
+ */
+public class TelemetryStore implements TelemetryParser.Listener {
+    /// Channel of the battery voltage, in volts
+    public static final int BATTERY = 0;
+    /// Channel of the left encoder count
+    public static final int LEFT_ENCODER = 1;
+    /// Channel of the right encoder count
+    public static final int RIGHT_ENCODER = 2;
+    /// The number of channels
+    public static final int CHANNEL_COUNT = 3;
+
+    /// History of each channel
+    private final TimeSeries[] channels = new TimeSeries[CHANNEL_COUNT];
+
+    /**
+     * Constructor for a store with the default history per channel
+     */
+    public TelemetryStore() {
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            channels[i] = new TimeSeries();
+        }
+    }
+
+    /**
+     * Gets the history of a channel
+     * @param channel The channel, such as BATTERY
+     * @return The channel's time series
+     */
+    @NonNull
+    public TimeSeries getChannel(int channel) {
+        return channels[channel];
+    }
+
+    /**
+     * Removes the history of every channel
+     */
+    public void clear() {
+        for (TimeSeries channel : channels) {
+            channel.clear();
+        }
+    }
+
+    /**
+     * Lines that are not telemetry are not charted
+     * @param buffer Buffer holding the line
+     * @param offset The position of the line in the buffer
+     * @param length The length of the line
+     * @param nanos The time the line was received
+     */
+    @Override
+    public void onTextLine(byte[] buffer, int offset, int length, long nanos) {}
+
+    /**
+     * Heartbeat replies are handled by the robot link
+     * @param sequence The echoed ping sequence number
+     * @param nanos The time the reply was received
+     */
+    @Override
+    public void onPong(int sequence, long nanos) {}
+
+    /**
+     * Records the encoder counts
+     * @param left The left encoder count
+     * @param right The right encoder count
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onEncoders(int left, int right, long nanos) {
+        channels[LEFT_ENCODER].record(nanos, left);
+        channels[RIGHT_ENCODER].record(nanos, right);
+    }
+
+    /**
+     * Records the battery voltage
+     * @param millivolts The battery voltage, in millivolts
+     * @param nanos The time the report was received
+     */
+    @Override
+    public void onBattery(int millivolts, long nanos) {
+        channels[BATTERY].record(nanos, millivolts / 1000f);
+    }
+
+    /**
+     * Batch acknowledgements are handled by the robot link
+     * @param sequence The sequence number of the newest batch received
+     * @param nanos The time the acknowledgement was received
+     */
+    @Override
+    public void onAck(int sequence, long nanos) {}
+}
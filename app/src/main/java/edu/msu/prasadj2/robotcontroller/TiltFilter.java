@@ -0,0 +1,128 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+/**
+ * Estimates how far the phone is tilted from the accelerometer and gyroscope.
+ *
+ * The gyroscope answers within a sample but drifts; the accelerometer does not drift but
+ * is noisy and lags once it is smoothed. This complementary filter integrates the gyroscope
+ * and pulls the result slowly towards the tilt the accelerometer measures, which gives a
+ * tilt that follows the hand without the accelerometer's lag.
+ *
+ * Angles are in device axes: pitch is the rotation about the y axis (the long edge, which
+ * is horizontal in landscape) and roll is how far the y axis is raised out of level. Both
+ * are relative to the pose at the last calibration, in radians. The gyroscope terms use the
+ * small angle approximation, which the accelerometer corrects.
+ *
+ * Used on the sensor thread only.
+ */
+public class TiltFilter {
+    /// Time constant of the pull towards the accelerometer tilt, in seconds
+    public static final double TIME_CONSTANT_S = 0.25;
+
+    /// Tracks if the filter has an estimate
+    private boolean initialized = false;
+    /// Estimated pitch, in radians, not relative to the calibration
+    private double pitch = 0;
+    /// Estimated roll, in radians, not relative to the calibration
+    private double roll = 0;
+    /// Pitch of the calibrated pose, in radians
+    private double zeroPitch = 0;
+    /// Roll of the calibrated pose, in radians
+    private double zeroRoll = 0;
+    /// Time of the last accelerometer sample, in nanoseconds
+    private long lastAccelerometerNanos = 0;
+    /// Time of the last gyroscope sample, in nanoseconds, or 0 if there has been none
+    private long lastGyroscopeNanos = 0;
+
+    /**
+     * Adds an accelerometer sample
+     * @param x Acceleration along the device's x axis, in m/s^2
+     * @param y Acceleration along the device's y axis, in m/s^2
+     * @param z Acceleration along the device's z axis, in m/s^2
+     * @param nanos The time of the sample, in nanoseconds
+     */
+    public void onAccelerometer(float x, float y, float z, long nanos) {
+        double accelerometerPitch = Math.atan2(x, z);
+        double accelerometerRoll = Math.atan2(y, Math.sqrt(x * x + z * z));
+        if (!initialized) {
+            pitch = accelerometerPitch;
+            roll = accelerometerRoll;
+            zeroPitch = pitch;
+            zeroRoll = roll;
+            initialized = true;
+        }
+        else {
+            double dt = (nanos - lastAccelerometerNanos) / 1e9;
+            double alpha = TIME_CONSTANT_S / (TIME_CONSTANT_S + Math.max(dt, 0));
+            pitch = alpha * pitch + (1 - alpha) * nearest(accelerometerPitch, pitch);
+            roll = alpha * roll + (1 - alpha) * accelerometerRoll;
+        }
+        lastAccelerometerNanos = nanos;
+    }
+
+    /**
+     * Adds a gyroscope sample
+     * @param x Rotation rate about the device's x axis, in rad/s
+     * @param y Rotation rate about the device's y axis, in rad/s
+     * @param z Rotation rate about the device's z axis, in rad/s
+     * @param nanos The time of the sample, in nanoseconds
+     */
+    public void onGyroscope(float x, float y, float z, long nanos) {
+        if (initialized && lastGyroscopeNanos != 0) {
+            double dt = (nanos - lastGyroscopeNanos) / 1e9;
+            pitch -= y * dt;
+            roll += x * dt;
+        }
+        lastGyroscopeNanos = nanos;
+    }
+
+    /**
+     * Makes the current pose the level pose
+     */
+    public void calibrate() {
+        zeroPitch = pitch;
+        zeroRoll = roll;
+    }
+
+    /**
+     * Determines if the filter has had an accelerometer sample
+     * @return true if the tilt is known
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Gets the pitch relative to the calibrated pose
+     * @return The pitch, in radians
+     */
+    public double getPitch() {
+        return nearest(pitch, zeroPitch) - zeroPitch;
+    }
+
+    /**
+     * Gets the roll relative to the calibrated pose
+     * @return The roll, in radians
+     */
+    public double getRoll() {
+        return roll - zeroRoll;
+    }
+
+    /**
+     * Moves an angle by whole turns to be as close as possible to a reference angle
+     * @param angle The angle, in radians
+     * @param reference The reference angle, in radians
+     * @return The equivalent angle closest to the reference
+     */
+    private static double nearest(double angle, double reference) {
+        double difference = angle - reference;
+        difference -= 2 * Math.PI * Math.floor((difference + Math.PI) / (2 * Math.PI));
+        return reference + difference;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Fixed memory history of one telemetry channel, kept at several resolutions for charting.
+ *
+ * Raw samples go into a ring of parallel time and value arrays. Each sample also updates
+ * the current bucket of every downsampled level, which keeps the minimum and maximum of
+ * its bucket's time span; each level's buckets are a fixed factor wider than the level
+ * below. Older data falls off the end of each ring, so the coarse levels reach much further
+ * back than the raw samples while the memory stays the same however long the robot runs.
+ *
+ * A chart asks for a time window and a number of points. The finest resolution with no
+ * more buckets than that in the window is copied into the caller's arrays as min/max
+ * pairs, so drawing a frame needs neither allocation nor a pass over the raw samples.
+ *
+ * Safe to record on one thread while another thread queries.
+ */
+public class TimeSeries {
+    /// Raw samples kept when no capacity is given
+    public static final int DEFAULT_RAW_CAPACITY = 16384;
+    /// Buckets kept per downsampled level when no capacity is given
+    public static final int DEFAULT_BUCKET_CAPACITY = 1024;
+    /// Width of the finest downsampled buckets when none is given, in nanoseconds
+    public static final long DEFAULT_BUCKET_NANOS = 50000000L;
+    /// Number of downsampled levels when none is given
+    public static final int DEFAULT_LEVELS = 3;
+    /// How many times wider each level's buckets are than the level below
+    public static final int LEVEL_FACTOR = 10;
+
+    /// Times of the raw samples, in nanoseconds
+    private final long[] times;
+    /// Values of the raw samples
+    private final float[] values;
+    /// Index of the oldest raw sample
+    private int head = 0;
+    /// Number of raw samples held
+    private int size = 0;
+    /// Tracks if raw samples have been overwritten, so older data is only in the buckets
+    private boolean wrapped = false;
+
+    /// Number of buckets kept per level
+    private final int bucketCapacity;
+    /// Width of each level's buckets, in nanoseconds
+    private final long[] bucketNanos;
+    /// Start times of each level's buckets, level after level
+    private final long[] bucketStarts;
+    /// Smallest value in each level's buckets, level after level
+    private final float[] bucketMins;
+    /// Largest value in each level's buckets, level after level
+    private final float[] bucketMaxes;
+    /// Index of each level's oldest bucket
+    private final int[] bucketHeads;
+    /// Number of buckets each level holds
+    private final int[] bucketSizes;
+
+    /**
+     * Constructor for a time series with the default capacities
+     */
+    public TimeSeries() {
+        this(DEFAULT_RAW_CAPACITY, DEFAULT_BUCKET_CAPACITY, DEFAULT_BUCKET_NANOS,
+                DEFAULT_LEVELS);
+    }
+
+    /**
+     * Constructor for this time series
+     * @param rawCapacity The number of raw samples kept
+     * @param bucketCapacity The number of buckets kept per downsampled level
+     * @param bucketNanos The width of the finest downsampled buckets, in nanoseconds
+     * @param levels The number of downsampled levels
+     */
+    public TimeSeries(int rawCapacity, int bucketCapacity, long bucketNanos, int levels) {
+        if (rawCapacity < 1 || bucketCapacity < 1 || bucketNanos < 1 || levels < 0) {
+            throw new IllegalArgumentException("Capacities must be positive");
+        }
+        times = new long[rawCapacity];
+        values = new float[rawCapacity];
+        this.bucketCapacity = bucketCapacity;
+        this.bucketNanos = new long[levels];
+        bucketStarts = new long[levels * bucketCapacity];
+        bucketMins = new float[levels * bucketCapacity];
+        bucketMaxes = new float[levels * bucketCapacity];
+        bucketHeads = new int[levels];
+        bucketSizes = new int[levels];
+        long width = bucketNanos;
+        for (int level = 0; level < levels; level++) {
+            this.bucketNanos[level] = width;
+            width *= LEVEL_FACTOR;
+        }
+    }
+
+    /**
+     * Adds a sample. Samples are expected in time order; an older sample is still kept
+     * raw but only widens the newest bucket of each level.
+     * @param nanos The time of the sample, in nanoseconds
+     * @param value The value of the sample
+     */
+    public synchronized void record(long nanos, float value) {
+        int index = (head + size) % times.length;
+        if (size == times.length) {
+            head = (head + 1) % times.length;
+            wrapped = true;
+        }
+        else {
+            size++;
+        }
+        times[index] = nanos;
+        values[index] = value;
+
+        for (int level = 0; level < bucketNanos.length; level++) {
+            long offset = nanos % bucketNanos[level];
+            long start = nanos - (offset < 0 ? offset + bucketNanos[level] : offset);
+            int base = level * bucketCapacity;
+            int newest = bucketSizes[level] == 0 ? -1
+                    : base + (bucketHeads[level] + bucketSizes[level] - 1) % bucketCapacity;
+            if (newest >= 0 && start <= bucketStarts[newest]) {
+                bucketMins[newest] = Math.min(bucketMins[newest], value);
+                bucketMaxes[newest] = Math.max(bucketMaxes[newest], value);
+                continue;
+            }
+            int slot = base + (bucketHeads[level] + bucketSizes[level]) % bucketCapacity;
+            if (bucketSizes[level] == bucketCapacity) {
+                bucketHeads[level] = (bucketHeads[level] + 1) % bucketCapacity;
+            }
+            else {
+                bucketSizes[level]++;
+            }
+            bucketStarts[slot] = start;
+            bucketMins[slot] = value;
+            bucketMaxes[slot] = value;
+        }
+    }
+
+    /**
+     * Copies a time window at the finest resolution that fits in the given number of
+     * points. Raw samples are copied with equal minimum and maximum.
+     * @param fromNanos The start of the window, in nanoseconds
+     * @param toNanos The end of the window, in nanoseconds
+     * @param outTimes Receives the time of each point: the sample time, or the bucket start
+     * @param outMins Receives the smallest value of each point
+     * @param outMaxes Receives the largest value of each point
+     * @return The number of points copied, at most the length of the smallest array
+     */
+    public synchronized int query(long fromNanos, long toNanos, @NonNull long[] outTimes,
+                                  @NonNull float[] outMins, @NonNull float[] outMaxes) {
+        int maxPoints = Math.min(outTimes.length, Math.min(outMins.length, outMaxes.length));
+        if (maxPoints == 0 || toNanos < fromNanos) {
+            return 0;
+        }
+
+        // Raw samples, if they reach back to the window start and are few enough
+        int first = firstRawAtOrAfter(fromNanos);
+        int end = toNanos == Long.MAX_VALUE ? size : firstRawAtOrAfter(toNanos + 1);
+        boolean rawCovers = !wrapped || (size > 0 && times[head] <= fromNanos);
+        int levels = bucketNanos.length;
+        if ((rawCovers && end - first <= maxPoints) || levels == 0) {
+            // Without levels, the newest samples are kept if there are too many
+            first = Math.max(first, end - maxPoints);
+            for (int i = first; i < end; i++) {
+                int index = (head + i) % times.length;
+                outTimes[i - first] = times[index];
+                outMins[i - first] = values[index];
+                outMaxes[i - first] = values[index];
+            }
+            return end - first;
+        }
+
+        // Otherwise the finest level whose buckets fit, falling back to the coarsest
+        int level = 0;
+        long span = toNanos - fromNanos;
+        while (level < levels - 1 && span / bucketNanos[level] + 2 > maxPoints) {
+            level++;
+        }
+        return copyLevel(level, fromNanos, toNanos, outTimes, outMins, outMaxes, maxPoints);
+    }
+
+    /**
+     * Gets the time of the newest sample
+     * @return The time, in nanoseconds, or Long.MIN_VALUE if there are no samples
+     */
+    public synchronized long getLatestTime() {
+        return size == 0 ? Long.MIN_VALUE : times[(head + size - 1) % times.length];
+    }
+
+    /**
+     * Gets the value of the newest sample
+     * @return The value, or NaN if there are no samples
+     */
+    public synchronized float getLatestValue() {
+        return size == 0 ? Float.NaN : values[(head + size - 1) % times.length];
+    }
+
+    /**
+     * Gets the number of raw samples held
+     * @return The sample count, at most the raw capacity
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of downsampled levels
+     * @return The level count
+     */
+    public int getLevelCount() {
+        return bucketNanos.length;
+    }
+
+    /**
+     * Gets the width of a level's buckets
+     * @param level The level, from 0 (finest)
+     * @return The width, in nanoseconds
+     */
+    public long getBucketNanos(int level) {
+        return bucketNanos[level];
+    }
+
+    /**
+     * Removes every sample and bucket
+     */
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        wrapped = false;
+        for (int level = 0; level < bucketNanos.length; level++) {
+            bucketHeads[level] = 0;
+            bucketSizes[level] = 0;
+        }
+    }
+
+    /**
+     * Finds the first raw sample in a window by binary search, since samples are kept in
+     * time order
+     * @param fromNanos The start of the window, in nanoseconds
+     * @return The position of the sample counted from the oldest, or size if there is none
+     */
+    private int firstRawAtOrAfter(long fromNanos) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[(head + middle) % times.length] < fromNanos) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies the buckets of one level that overlap a time window, keeping the newest if
+     * there are more than the points allowed
+     * @param level The level
+     * @param fromNanos The start of the window, in nanoseconds
+     * @param toNanos The end of the window, in nanoseconds
+     * @param outTimes Receives the bucket start times
+     * @param outMins Receives the bucket minimums
+     * @param outMaxes Receives the bucket maximums
+     * @param maxPoints The most buckets to copy
+     * @return The number of buckets copied
+     */
+    private int copyLevel(int level, long fromNanos, long toNanos, long[] outTimes,
+                          float[] outMins, float[] outMaxes, int maxPoints) {
+        int base = level * bucketCapacity;
+        int count = bucketSizes[level];
+        long width = bucketNanos[level];
+        int first = 0;
+        while (first < count
+                && bucketStarts[base + (bucketHeads[level] + first) % bucketCapacity] + width
+                <= fromNanos) {
+            first++;
+        }
+        int end = count;
+        while (end > first
+                && bucketStarts[base + (bucketHeads[level] + end - 1) % bucketCapacity]
+                > toNanos) {
+            end--;
+        }
+        first = Math.max(first, end - maxPoints);
+        for (int i = first; i < end; i++) {
+            int slot = base + (bucketHeads[level] + i) % bucketCapacity;
+            outTimes[i - first] = bucketStarts[slot];
+            outMins[i - first] = bucketMins[slot];
+            outMaxes[i - first] = bucketMaxes[slot];
+        }
+        return end - first;
+    }
+}
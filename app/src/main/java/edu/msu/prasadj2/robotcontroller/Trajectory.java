@@ -0,0 +1,284 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A precomputed motion sequence made of (left speed, right speed, duration) segments.
+ *
+ * Segments are compiled into a schedule of drive commands, each with the time it is due
+ * relative to the start of the run, stored in parallel primitive arrays so an executor can
+ * walk it without allocating. Consecutive segments with the same speeds are merged, long
+ * segments can be refreshed at a fixed interval so a dropped byte is corrected before the
+ * segment ends, and the schedule always ends with a stop.
+ *
+ * Trajectories can be written as text, one segment per line as "left right durationMs".
+ * Blank lines and lines starting with '#' are ignored.
+ */
+public class Trajectory {
+
+    /// Slowest a motor can be driven backward
+    public static final int MIN_SPEED = -100;
+    /// Fastest a motor can be driven forward
+    public static final int MAX_SPEED = 100;
+
+    /// Refresh interval that sends each segment's command only once
+    public static final long NO_REFRESH = 0;
+
+    /// Segment capacity of a new trajectory
+    private static final int INITIAL_CAPACITY = 16;
+
+    /// Left motor speed of each segment
+    private int[] segmentLeft = new int[INITIAL_CAPACITY];
+    /// Right motor speed of each segment
+    private int[] segmentRight = new int[INITIAL_CAPACITY];
+    /// Duration of each segment, in nanoseconds
+    private long[] segmentNanos = new long[INITIAL_CAPACITY];
+    /// Number of segments
+    private int segmentCount = 0;
+
+    /// Opcode of each scheduled command
+    private int[] opcodes = new int[0];
+    /// First argument of each scheduled command
+    private int[] arg0s = new int[0];
+    /// Second argument of each scheduled command
+    private int[] arg1s = new int[0];
+    /// Time each scheduled command is due after the start, in nanoseconds
+    private long[] dueNanos = new long[0];
+    /// Number of scheduled commands
+    private int commandCount = 0;
+    /// Tracks if the schedule matches the segments
+    private boolean compiled = false;
+
+    /**
+     * Loads a trajectory from a text file
+     * @param file The file to load
+     * @return The trajectory, not yet compiled
+     * @throws IOException If the file cannot be read or a line is malformed
+     */
+    public static Trajectory load(@NonNull File file) throws IOException {
+        Reader reader = new FileReader(file);
+        try {
+            return parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses a trajectory from its text form
+     * @param reader The text to parse
+     * @return The trajectory, not yet compiled
+     * @throws IOException If the text cannot be read or a line is malformed
+     */
+    public static Trajectory parse(@NonNull Reader reader) throws IOException {
+        Trajectory trajectory = new Trajectory();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3) {
+                throw new IOException("Line " + lineNumber + ": expected left right durationMs");
+            }
+            try {
+                trajectory.addSegment(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                        Long.parseLong(fields[2]));
+            } catch (IllegalArgumentException e) {
+                // Also covers NumberFormatException
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return trajectory;
+    }
+
+    /**
+     * Appends a segment to the trajectory
+     * @param leftSpeed The left motor speed, -100 to 100
+     * @param rightSpeed The right motor speed, -100 to 100
+     * @param durationMs How long to hold the speeds, in milliseconds
+     * @return This trajectory, so segments can be chained
+     */
+    public Trajectory addSegment(int leftSpeed, int rightSpeed, long durationMs) {
+        if (leftSpeed < MIN_SPEED || leftSpeed > MAX_SPEED
+                || rightSpeed < MIN_SPEED || rightSpeed > MAX_SPEED) {
+            throw new IllegalArgumentException("Speed out of range");
+        }
+        if (durationMs <= 0) {
+            throw new IllegalArgumentException("Duration must be positive");
+        }
+        if (segmentCount == segmentNanos.length) {
+            segmentLeft = Arrays.copyOf(segmentLeft, segmentCount * 2);
+            segmentRight = Arrays.copyOf(segmentRight, segmentCount * 2);
+            segmentNanos = Arrays.copyOf(segmentNanos, segmentCount * 2);
+        }
+        segmentLeft[segmentCount] = leftSpeed;
+        segmentRight[segmentCount] = rightSpeed;
+        segmentNanos[segmentCount] = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        segmentCount++;
+        compiled = false;
+        return this;
+    }
+
+    /**
+     * Compiles the segments into a schedule that sends each segment's command once
+     */
+    public void compile() {
+        compile(NO_REFRESH);
+    }
+
+    /**
+     * Compiles the segments into a timed command schedule
+     * @param refreshMs Interval to resend the current command within a segment,
+     *                  in milliseconds, or NO_REFRESH
+     */
+    public void compile(long refreshMs) {
+        if (refreshMs < 0) {
+            throw new IllegalArgumentException("Refresh interval must not be negative");
+        }
+        long refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMs);
+
+        // Size the schedule first so it is allocated exactly once
+        int count = 1;
+        for (int i = 0; i < segmentCount; ) {
+            int end = getMergedEnd(i);
+            count += getCommandsInSpan(getSpanNanos(i, end), refreshNanos);
+            i = end;
+        }
+        opcodes = new int[count];
+        arg0s = new int[count];
+        arg1s = new int[count];
+        dueNanos = new long[count];
+
+        int index = 0;
+        long start = 0;
+        for (int i = 0; i < segmentCount; ) {
+            int end = getMergedEnd(i);
+            long span = getSpanNanos(i, end);
+            int commands = getCommandsInSpan(span, refreshNanos);
+            for (int j = 0; j < commands; j++) {
+                opcodes[index] = RobotCommand.DRIVE;
+                arg0s[index] = segmentLeft[i];
+                arg1s[index] = segmentRight[i];
+                dueNanos[index] = start + j * refreshNanos;
+                index++;
+            }
+            start += span;
+            i = end;
+        }
+        opcodes[index] = RobotCommand.STOP;
+        dueNanos[index] = start;
+        commandCount = count;
+        compiled = true;
+    }
+
+    /**
+     * Gets the index after the run of segments, starting at one, that share its speeds
+     * @param first The index of the first segment in the run
+     * @return The index of the first segment after the run
+     */
+    private int getMergedEnd(int first) {
+        int end = first + 1;
+        while (end < segmentCount && segmentLeft[end] == segmentLeft[first]
+                && segmentRight[end] == segmentRight[first]) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Gets the total duration of a run of segments
+     * @param first The index of the first segment
+     * @param end The index after the last segment
+     * @return The duration, in nanoseconds
+     */
+    private long getSpanNanos(int first, int end) {
+        long span = 0;
+        for (int i = first; i < end; i++) {
+            span += segmentNanos[i];
+        }
+        return span;
+    }
+
+    /**
+     * Gets the number of commands needed to hold speeds for a span
+     * @param spanNanos The length of the span, in nanoseconds
+     * @param refreshNanos The refresh interval, in nanoseconds, or 0
+     * @return The number of commands
+     */
+    private static int getCommandsInSpan(long spanNanos, long refreshNanos) {
+        if (refreshNanos == 0) {
+            return 1;
+        }
+        // Round up, but never resend at the exact moment the next segment starts
+        return (int) ((spanNanos + refreshNanos - 1) / refreshNanos);
+    }
+
+    /**
+     * Gets the number of segments
+     * @return The segment count
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Determines if the schedule is up to date with the segments
+     * @return true if the trajectory has been compiled since it last changed
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Gets the number of commands in the compiled schedule, including the final stop
+     * @return The command count
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Gets the total length of the compiled schedule
+     * @return The time the final stop is due, in nanoseconds
+     */
+    public long getDurationNanos() {
+        return commandCount == 0 ? 0 : dueNanos[commandCount - 1];
+    }
+
+    /**
+     * Gets the time a scheduled command is due
+     * @param index The index of the command in the schedule
+     * @return The time after the start of the run, in nanoseconds
+     */
+    public long getDueNanos(int index) {
+        return dueNanos[index];
+    }
+
+    /**
+     * Copies a scheduled command into a command holder
+     * @param index The index of the command in the schedule
+     * @param command Receives the command
+     */
+    public void getCommand(int index, RobotCommand command) {
+        command.set(opcodes[index], arg0s[index], arg1s[index]);
+    }
+}
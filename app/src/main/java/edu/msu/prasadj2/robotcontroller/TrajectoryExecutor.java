@@ -0,0 +1,240 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Worker thread that runs a compiled trajectory, queuing each command at the time it is due.
+ *
+ * Deadlines are measured from the start of the run, so lateness on one command never
+ * shifts the ones after it. The thread parks until shortly before each deadline and spins
+ * for the rest, which keeps scheduling jitter well below what a park alone achieves. If
+ * the thread falls behind, for example after a long pause, commands that have already
+ * been superseded are skipped so the robot jumps to where the trajectory should be.
+ *
+ * Jitter, the time between a command being due and being queued, is recorded for every
+ * command and reported when the run ends. Aborting queues a stop straight away from the
+ * calling thread, which jumps ahead of any motion still waiting to be written.
+ */
+public class TrajectoryExecutor extends Thread {
+
+    /**
+     * Receives the outcome of a run. Called on the executor thread.
+     */
+    public interface Listener {
+        /**
+         * Called once when the run ends
+         * @param executor The executor, for its jitter statistics
+         * @param completed true if every command was queued, false if aborted
+         */
+        void onTrajectoryFinished(TrajectoryExecutor executor, boolean completed);
+    }
+
+    /// Time before a deadline the executor stops parking and spins, in nanoseconds
+    public static final long DEFAULT_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    /// Jitter above which a command counts as an overrun, in nanoseconds
+    public static final long DEFAULT_JITTER_BOUND_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /// The queue commands are added to
+    private final CommandQueue queue;
+    /// The compiled schedule being run
+    private final Trajectory trajectory;
+    /// Receives the outcome of the run
+    private final Listener listener;
+    /// Time before a deadline to stop parking, in nanoseconds
+    private final long spinNanos;
+    /// Jitter above which a command counts as an overrun, in nanoseconds
+    private final long jitterBoundNanos;
+    /// Jitter of every queued command
+    private final LatencyHistogram jitter;
+    /// Reused holder for the command being queued
+    private final RobotCommand command = new RobotCommand();
+
+    /// Tracks if the run has been aborted
+    private volatile boolean aborted = false;
+    /// Largest jitter of any queued command, in nanoseconds
+    private volatile long maxJitterNanos = 0;
+    /// Number of commands queued later than the jitter bound
+    private volatile int overrunCount = 0;
+    /// Number of commands skipped because a later one was already due
+    private volatile int skippedCount = 0;
+
+    /**
+     * Constructor for an executor with the default spin window and jitter bound
+     * @param queue The queue commands are added to
+     * @param trajectory The compiled trajectory to run
+     * @param listener Receives the outcome of the run
+     */
+    public TrajectoryExecutor(@NonNull CommandQueue queue, @NonNull Trajectory trajectory,
+                              @NonNull Listener listener) {
+        this(queue, trajectory, listener, DEFAULT_SPIN_NANOS, DEFAULT_JITTER_BOUND_NANOS);
+    }
+
+    /**
+     * Constructor for this trajectory executor
+     * @param queue The queue commands are added to
+     * @param trajectory The compiled trajectory to run
+     * @param listener Receives the outcome of the run
+     * @param spinNanos Time before a deadline to stop parking and spin, in nanoseconds
+     * @param jitterBoundNanos Jitter above which a command counts as an overrun, in nanoseconds
+     */
+    public TrajectoryExecutor(@NonNull CommandQueue queue, @NonNull Trajectory trajectory,
+                              @NonNull Listener listener, long spinNanos,
+                              long jitterBoundNanos) {
+        super("TrajectoryExecutor");
+        if (!trajectory.isCompiled()) {
+            throw new IllegalArgumentException("Trajectory has not been compiled");
+        }
+        this.queue = queue;
+        this.trajectory = trajectory;
+        this.listener = listener;
+        this.spinNanos = spinNanos;
+        this.jitterBoundNanos = jitterBoundNanos;
+        jitter = new LatencyHistogram(Math.max(1, trajectory.getCommandCount()));
+        // The schedule is timed by this thread alone, so keep it ahead of the UI
+        setPriority(Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * Queues every scheduled command at its due time, until done or aborted
+     */
+    @Override
+    public void run() {
+        int count = trajectory.getCommandCount();
+        long startNanos = System.nanoTime();
+        int index = 0;
+        while (index < count && !aborted) {
+            long due = startNanos + trajectory.getDueNanos(index);
+            if (!awaitDeadline(due)) {
+                break;
+            }
+            long now = System.nanoTime();
+
+            // Skip commands that a later, already due command supersedes
+            while (index + 1 < count
+                    && now - (startNanos + trajectory.getDueNanos(index + 1)) >= 0) {
+                index++;
+                skippedCount++;
+                due = startNanos + trajectory.getDueNanos(index);
+            }
+
+            trajectory.getCommand(index, command);
+            if (!queue.offer(command.opcode, command.arg0, command.arg1)) {
+                // The queue was closed under us
+                aborted = true;
+                break;
+            }
+            recordJitter(now - due);
+            index++;
+        }
+        if (aborted) {
+            // An abort racing the last offer may have queued its stop before that motion
+            queue.offer(RobotCommand.STOP, 0, 0);
+        }
+        listener.onTrajectoryFinished(this, !aborted);
+    }
+
+    /**
+     * Waits until a deadline, parking until the spin window and then spinning
+     * @param due The deadline
+     * @return false if the run was aborted while waiting
+     */
+    private boolean awaitDeadline(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > spinNanos) {
+            LockSupport.parkNanos(this, remaining - spinNanos);
+            if (aborted) {
+                return false;
+            }
+        }
+        while (due - System.nanoTime() > 0) {
+            if (aborted) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return !aborted;
+    }
+
+    /**
+     * Records the jitter of a queued command
+     * @param nanos The time between the command being due and being queued
+     */
+    private void recordJitter(long nanos) {
+        jitter.record(nanos);
+        if (nanos > maxJitterNanos) {
+            maxJitterNanos = nanos;
+        }
+        if (nanos > jitterBoundNanos) {
+            overrunCount++;
+        }
+    }
+
+    /**
+     * Aborts the run and stops the robot. Never blocks.
+     */
+    public void abort() {
+        if (aborted) {
+            return;
+        }
+        aborted = true;
+        queue.offer(RobotCommand.STOP, 0, 0);
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Determines if the run was aborted
+     * @return true if the run was aborted
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Gets the jitter of the commands queued so far
+     * @return The jitter window, in nanoseconds
+     */
+    public LatencyHistogram getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Gets the largest jitter of any command queued so far
+     * @return The worst jitter, in nanoseconds
+     */
+    public long getMaxJitterNanos() {
+        return maxJitterNanos;
+    }
+
+    /**
+     * Gets the jitter above which a command counts as an overrun
+     * @return The jitter bound, in nanoseconds
+     */
+    public long getJitterBoundNanos() {
+        return jitterBoundNanos;
+    }
+
+    /**
+     * Gets the number of commands queued later than the jitter bound
+     * @return The overrun count
+     */
+    public int getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Gets the number of commands skipped because a later one was already due
+     * @return The skipped count
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+}
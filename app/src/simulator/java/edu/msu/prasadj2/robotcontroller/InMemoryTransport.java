@@ -0,0 +1,309 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Robot transport over a pair of in-memory pipes.
+ *
+ * Transports are created in connected pairs: bytes written to one end are read from the
+ * other. Each pipe has a bounded buffer, so a slow reader pushes back on the writer the
+ * same way a congested socket does. Unlike the JDK's piped streams, any thread may read
+ * or write either end.
+ *
+ * A pair can also charge a fixed delay for every write call, the way each packet on a
+ * radio link costs a slot no matter how few bytes it carries, to measure how much
+ * batching writes saves.
+ */
+public class InMemoryTransport implements RobotTransport {
+
+    /// Pipe buffer size used when none is given, in bytes
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /// Pipe carrying bytes to this end
+    private final Pipe incoming;
+    /// Pipe carrying bytes away from this end
+    private final Pipe outgoing;
+    /// Name of this end
+    private final String name;
+
+    /**
+     * Constructor for one end of a connected pair
+     * @param incoming Pipe carrying bytes to this end
+     * @param outgoing Pipe carrying bytes away from this end
+     * @param name Name of this end
+     */
+    private InMemoryTransport(Pipe incoming, Pipe outgoing, String name) {
+        this.incoming = incoming;
+        this.outgoing = outgoing;
+        this.name = name;
+    }
+
+    /**
+     * Creates a connected pair of transports with the default buffer size
+     * @return The app end at index 0 and the robot end at index 1
+     */
+    public static InMemoryTransport[] createPair() {
+        return createPair(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a connected pair of transports
+     * @param bufferSize The buffer size of each direction, in bytes
+     * @return The app end at index 0 and the robot end at index 1
+     */
+    public static InMemoryTransport[] createPair(int bufferSize) {
+        return createPair(bufferSize, 0);
+    }
+
+    /**
+     * Creates a connected pair of transports where every write call is delayed
+     * @param bufferSize The buffer size of each direction, in bytes
+     * @param writeDelayMicros Delay of every write call in either direction, in microseconds
+     * @return The app end at index 0 and the robot end at index 1
+     */
+    public static InMemoryTransport[] createPair(int bufferSize, long writeDelayMicros) {
+        if (writeDelayMicros < 0) {
+            throw new IllegalArgumentException("Write delay must not be negative");
+        }
+        long writeDelayNanos = writeDelayMicros * 1000;
+        Pipe toRobot = new Pipe(bufferSize, writeDelayNanos);
+        Pipe toApp = new Pipe(bufferSize, writeDelayNanos);
+        return new InMemoryTransport[] {
+                new InMemoryTransport(toApp, toRobot, "memory:app"),
+                new InMemoryTransport(toRobot, toApp, "memory:robot")
+        };
+    }
+
+    /**
+     * Gets the stream of bytes sent by the other end
+     * @return The input stream
+     */
+    @Override
+    public InputStream getInputStream() {
+        return incoming.inputStream;
+    }
+
+    /**
+     * Gets the stream of bytes sent to the other end
+     * @return The output stream
+     */
+    @Override
+    public OutputStream getOutputStream() {
+        return outgoing.outputStream;
+    }
+
+    /**
+     * Determines if both directions are still open
+     * @return true if the transport is connected
+     */
+    @Override
+    public boolean isConnected() {
+        return !incoming.isClosed() && !outgoing.isClosed();
+    }
+
+    /**
+     * Gets the name of this end
+     * @return The transport name
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Closes both directions. The other end sees the end of its stream.
+     */
+    @Override
+    public void close() {
+        incoming.close();
+        outgoing.close();
+    }
+
+    /**
+     * Bounded, blocking, single direction byte pipe
+     */
+    private static class Pipe {
+        /// Ring of bytes in transit
+        private final byte[] buffer;
+        /// Delay of every write call, in nanoseconds
+        private final long writeDelayNanos;
+        /// Index of the oldest byte
+        private int head = 0;
+        /// Number of bytes in transit
+        private int size = 0;
+        /// Tracks if either end has closed the pipe
+        private boolean closed = false;
+
+        /// The reading end of the pipe
+        final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] data, int offset, int length) throws IOException {
+                return Pipe.this.read(data, offset, length);
+            }
+
+            @Override
+            public int available() {
+                return Pipe.this.available();
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        /// The writing end of the pipe
+        final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                delayWrite();
+                Pipe.this.write(data, offset, length);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        /**
+         * Constructor for this pipe
+         * @param capacity The buffer size, in bytes
+         * @param writeDelayNanos Delay of every write call, in nanoseconds
+         */
+        Pipe(int capacity, long writeDelayNanos) {
+            buffer = new byte[capacity];
+            this.writeDelayNanos = writeDelayNanos;
+        }
+
+        /**
+         * Waits out the delay of one write call, without holding the pipe's lock
+         * @throws InterruptedIOException If the writing thread is interrupted
+         */
+        void delayWrite() throws InterruptedIOException {
+            if (writeDelayNanos == 0) {
+                return;
+            }
+            long deadline = System.nanoTime() + writeDelayNanos;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        /**
+         * Reads at least one byte, waiting until some are available
+         * @param data Receives the bytes
+         * @param offset Where to put the first byte
+         * @param length The most bytes to read
+         * @return The number of bytes read, or -1 once the pipe is closed and empty
+         * @throws IOException If the reading thread is interrupted
+         */
+        synchronized int read(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (size == 0) {
+                if (closed) {
+                    return -1;
+                }
+                await();
+            }
+            int count = Math.min(length, size);
+            for (int i = 0; i < count; i++) {
+                data[offset + i] = buffer[(head + i) % buffer.length];
+            }
+            head = (head + count) % buffer.length;
+            size -= count;
+            notifyAll();
+            return count;
+        }
+
+        /**
+         * Writes every byte, waiting for space in the buffer as needed
+         * @param data The bytes to write
+         * @param offset The position of the first byte
+         * @param length The number of bytes
+         * @throws IOException If the pipe is closed or the writing thread is interrupted
+         */
+        synchronized void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (closed) {
+                    throw new IOException("Pipe closed");
+                }
+                if (size == buffer.length) {
+                    await();
+                    continue;
+                }
+                int count = Math.min(length, buffer.length - size);
+                for (int i = 0; i < count; i++) {
+                    buffer[(head + size + i) % buffer.length] = data[offset + i];
+                }
+                size += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Gets the number of bytes that can be read without blocking
+         * @return The number of bytes in transit
+         */
+        synchronized int available() {
+            return size;
+        }
+
+        /**
+         * Determines if the pipe has been closed
+         * @return true if the pipe is closed
+         */
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Closes the pipe and wakes any waiting reader or writer
+         */
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the other end to change the pipe
+         * @throws InterruptedIOException If the waiting thread is interrupted
+         */
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
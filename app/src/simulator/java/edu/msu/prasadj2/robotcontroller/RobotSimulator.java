@@ -0,0 +1,599 @@
+/*
+ * Author: Jaideep Prasad
+ * CSE 476: Spring 2020
+ * Honors Option Project
+ */
+
+package edu.msu.prasadj2.robotcontroller;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A simulated robot on the robot end of a transport, for load testing without hardware.
+ *
+ * The simulator decodes commands with the same codec as the app, tracks the motor speeds
+ * they set, and answers heartbeat pings. To make the conditions of a real serial link
+ * repeatable it can throttle both directions to a baud rate, delay every command by a
+ * fixed latency, and drop a fraction of commands and replies using a seeded random
+ * number generator.
+ *
+ * Batch frames are unpacked into their commands and acknowledged with "ACK n" once the
+ * batch's latency has passed. A dropped batch loses every command in it. Reliable frames
+ * are acknowledged the same way, every time they arrive, but applied only once. Transfer
+ * fragments are reassembled per class; a transfer missing a fragment is discarded.
+ *
+ * The simulator lives in its own JVM-only source set, shared by the unit tests and the
+ * benchmark module, so it is never packaged in the app. It can also be run on its own to
+ * serve TCP connections, which a debug build of the app connects to when launched with the
+ * simulator's address: ./gradlew :benchmark:runSimulator --args='[port] [baud]
+ * [latencyMs] [lossRate]'
+ */
+public class RobotSimulator {
+
+    /// TCP port served when none is given
+    public static final int DEFAULT_PORT = TcpTransport.SIMULATOR_PORT;
+    /// Baud rate of the robot's HC-06 bluetooth module
+    public static final int HC06_BAUD = 9600;
+    /// Bits on the wire per byte on a serial link: start bit, 8 data bits and stop bit
+    private static final int BITS_PER_BYTE = 10;
+    /// Opcode of a pending entry that acknowledges a batch instead of applying a command
+    private static final int ACK_ENTRY = -1;
+    /// Result of unpacking bytes that do not start with a batch, reliable or fragment frame
+    private static final int NOT_FRAMED = -2;
+
+    /// Connection to the app
+    private final RobotTransport transport;
+    /// Decodes commands from the app
+    private final CommandCodec codec;
+    /// Commands waiting for their simulated latency to pass
+    private final LinkedBlockingQueue<long[]> pending = new LinkedBlockingQueue<long[]>();
+    /// Reliable sequence numbers received recently. Only used by the receiver thread.
+    private final boolean[] receivedSequences = new boolean[ReliableSender.SEQUENCE_RANGE];
+    /// Configuration and bulk transfers being reassembled. Only used by the receiver thread.
+    private final ByteArrayOutputStream[] transfers = {
+            new ByteArrayOutputStream(), new ByteArrayOutputStream()};
+    /// Count of the next fragment of each transfer. Only used by the receiver thread.
+    private final int[] nextFragments = new int[2];
+    /// Newest configuration and bulk transfer received whole. Guarded by this simulator.
+    private final byte[][] lastTransfers = new byte[2][];
+    /// Worker thread that reads and decodes commands
+    private final Thread receiverThread;
+    /// Worker thread that applies commands once their latency has passed
+    private final Thread processorThread;
+
+    /// Link speed in bits per second, or 0 for no throttling
+    private int baudRate = 0;
+    /// Delay before each command takes effect, in nanoseconds
+    private long latencyNanos = 0;
+    /// Fraction of commands and replies that are dropped
+    private double lossRate = 0;
+    /// Decides which commands and replies are dropped
+    private Random random = new Random(0);
+
+    /// Tracks if the simulator has been terminated
+    private volatile boolean terminated = false;
+    /// The left motor speed set by the last motion command
+    private volatile int leftSpeed = 0;
+    /// The right motor speed set by the last motion command
+    private volatile int rightSpeed = 0;
+    /// Number of commands applied
+    private volatile long commandCount = 0;
+    /// Number of heartbeat pings answered
+    private volatile long pingCount = 0;
+    /// Number of batch frames received intact
+    private volatile long batchCount = 0;
+    /// Number of reliable frames received again after they were applied
+    private volatile long repeatCount = 0;
+    /// Number of transfers received whole
+    private volatile long transferCount = 0;
+    /// Number of commands and replies dropped to simulate loss. Guarded by this simulator.
+    private long lostCount = 0;
+    /// Number of received bytes that did not decode to a command
+    private volatile long invalidBytes = 0;
+
+    /**
+     * Constructor for this robot simulator
+     * @param transport The robot end of a connection to the app
+     * @param codec Decodes commands from the app
+     */
+    public RobotSimulator(@NonNull RobotTransport transport, @NonNull CommandCodec codec) {
+        this.transport = transport;
+        this.codec = codec;
+        receiverThread = new Thread("RobotSimulatorReceiver") {
+            @Override
+            public void run() {
+                receive();
+            }
+        };
+        processorThread = new Thread("RobotSimulatorProcessor") {
+            @Override
+            public void run() {
+                process();
+            }
+        };
+    }
+
+    /**
+     * Throttles both directions to a serial baud rate. Must be called before starting.
+     * @param baudRate Link speed in bits per second, or 0 for no throttling
+     */
+    public void setBaudRate(int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    /**
+     * Delays every command by a fixed latency. Must be called before starting.
+     * @param latencyMs The delay, in milliseconds
+     */
+    public void setLatencyMs(long latencyMs) {
+        latencyNanos = latencyMs * 1000000L;
+    }
+
+    /**
+     * Drops a fraction of commands and replies. Must be called before starting.
+     * @param lossRate The fraction dropped, from 0 to 1
+     * @param seed Seed for choosing which are dropped, so runs are repeatable
+     */
+    public void setLoss(double lossRate, long seed) {
+        this.lossRate = lossRate;
+        random = new Random(seed);
+    }
+
+    /**
+     * Starts the simulator's worker threads
+     */
+    public void start() {
+        receiverThread.start();
+        processorThread.start();
+    }
+
+    /**
+     * Stops the simulator and closes its transport
+     */
+    public void terminate() {
+        terminated = true;
+        processorThread.interrupt();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Waits until the app disconnects or the simulator is terminated
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    public void join() throws InterruptedException {
+        receiverThread.join();
+        processorThread.join();
+    }
+
+    /**
+     * Gets the left motor speed set by the last motion command
+     * @return The left motor speed, from -100 to 100
+     */
+    public int getLeftSpeed() {
+        return leftSpeed;
+    }
+
+    /**
+     * Gets the right motor speed set by the last motion command
+     * @return The right motor speed, from -100 to 100
+     */
+    public int getRightSpeed() {
+        return rightSpeed;
+    }
+
+    /**
+     * Gets the number of commands applied, including pings
+     * @return The number of commands applied
+     */
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * Gets the number of heartbeat pings answered
+     * @return The number of pings answered
+     */
+    public long getPingCount() {
+        return pingCount;
+    }
+
+    /**
+     * Gets the number of batch frames received intact
+     * @return The batch count
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Gets the number of reliable frames received again after they were applied
+     * @return The repeat count
+     */
+    public long getRepeatCount() {
+        return repeatCount;
+    }
+
+    /**
+     * Gets the number of commands and replies dropped to simulate loss
+     * @return The number dropped
+     */
+    public synchronized long getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * Gets the number of configuration and bulk transfers received whole
+     * @return The transfer count
+     */
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * Gets the newest transfer of a class received whole
+     * @param trafficClass OutboundScheduler.CONFIG or OutboundScheduler.BULK
+     * @return The transfer's bytes, or null if none has been received
+     */
+    public synchronized byte[] getLastTransfer(int trafficClass) {
+        return lastTransfers[trafficClass == OutboundScheduler.BULK ? 1 : 0];
+    }
+
+    /**
+     * Gets the number of received bytes that did not decode to a command
+     * @return The number of invalid bytes
+     */
+    public long getInvalidBytes() {
+        return invalidBytes;
+    }
+
+    /**
+     * Reads and decodes commands until the app disconnects, then stops the processor
+     */
+    private void receive() {
+        byte[] buffer = new byte[Math.max(256, codec.getMaxFrameLength() * 4)];
+        int length = 0;
+        RobotCommand command = new RobotCommand();
+        Pacer pacer = new Pacer();
+        try {
+            InputStream inputStream = transport.getInputStream();
+            while (!terminated) {
+                if (length == buffer.length) {
+                    // A full buffer that does not decode can never decode
+                    invalidBytes += length;
+                    length = 0;
+                }
+                int count = inputStream.read(buffer, length, buffer.length - length);
+                if (count < 0) {
+                    break;
+                }
+                pacer.pace(count);
+                length += count;
+
+                int offset = 0;
+                while (offset < length) {
+                    int result = receiveFrame(buffer, offset, length - offset, command);
+                    boolean framed = result != NOT_FRAMED;
+                    if (!framed) {
+                        result = codec.decode(buffer, offset, length - offset, command);
+                    }
+                    if (result == CommandCodec.INCOMPLETE) {
+                        break;
+                    }
+                    if (result == CommandCodec.INVALID) {
+                        // Resynchronize one byte at a time
+                        invalidBytes++;
+                        offset++;
+                        continue;
+                    }
+                    offset += result;
+                    // A frame queues its own commands
+                    if (!framed && !isLost()) {
+                        pending.offer(new long[] {System.nanoTime() + latencyNanos,
+                                command.opcode, command.arg0, command.arg1});
+                    }
+                }
+                System.arraycopy(buffer, offset, buffer, 0, length - offset);
+                length -= offset;
+            }
+        } catch (IOException e) {
+            // The app disconnected
+        }
+        terminate();
+    }
+
+    /**
+     * Unpacks a batch, reliable or fragment frame at the start of the received bytes,
+     * queueing a batch's commands and acknowledgement or adding a fragment to its transfer
+     * @param buffer Buffer holding the received bytes
+     * @param offset The position of the first unread byte
+     * @param available The number of unread bytes
+     * @param command Holder the frame's commands are decoded into
+     * @return The length of the frame, NOT_FRAMED if the bytes do not start with one, or
+     *         INCOMPLETE or INVALID as returned by a codec
+     */
+    private int receiveFrame(byte[] buffer, int offset, int available, RobotCommand command) {
+        if (buffer[offset] != BinaryCommandCodec.SYNC) {
+            return NOT_FRAMED;
+        }
+        if (available < 2) {
+            return CommandCodec.INCOMPLETE;
+        }
+        int type = buffer[offset + 1] & 0xFF;
+        int overhead;
+        if (type == BatchFramer.FRAME_BATCH) {
+            overhead = BatchFramer.FRAME_OVERHEAD;
+        }
+        else if (type == OutboundScheduler.FRAME_FRAGMENT) {
+            overhead = OutboundScheduler.FRAME_OVERHEAD;
+        }
+        else if (type == ReliableSender.FRAME_RELIABLE) {
+            overhead = ReliableSender.FRAME_OVERHEAD;
+        }
+        else {
+            return NOT_FRAMED;
+        }
+        if (available < overhead) {
+            return CommandCodec.INCOMPLETE;
+        }
+        int payloadOffset = offset + 4;
+        int payloadLength = buffer[offset + 3] & 0xFF;
+        int frameLength = payloadLength + overhead;
+        if (available < frameLength) {
+            return CommandCodec.INCOMPLETE;
+        }
+        int payloadEnd = payloadOffset + payloadLength;
+        int sequence = buffer[offset + 2] & 0xFF;
+        if (type == OutboundScheduler.FRAME_FRAGMENT) {
+            if (BinaryCommandCodec.checksum(buffer, offset + 1, payloadEnd - offset - 1)
+                    != buffer[payloadEnd]) {
+                return CommandCodec.INVALID;
+            }
+            if (!isLost()) {
+                receiveFragment(sequence, buffer, payloadOffset, payloadLength);
+            }
+            return frameLength;
+        }
+        if (type == BatchFramer.FRAME_BATCH) {
+            if (BinaryCommandCodec.checksum(buffer, offset + 1, payloadEnd - offset - 1)
+                    != buffer[payloadEnd]) {
+                return CommandCodec.INVALID;
+            }
+            batchCount++;
+        }
+        else {
+            int crc = ReliableSender.crc16(buffer, offset + 1, payloadEnd - offset - 1);
+            if (crc != ((buffer[payloadEnd] & 0xFF) << 8 | (buffer[payloadEnd + 1] & 0xFF))) {
+                return CommandCodec.INVALID;
+            }
+        }
+        if (isLost()) {
+            return frameLength;
+        }
+
+        long due = System.nanoTime() + latencyNanos;
+        boolean repeat = false;
+        if (type == ReliableSender.FRAME_RELIABLE) {
+            // Forget the sequence number half the range away, so it can be reused
+            repeat = receivedSequences[sequence];
+            receivedSequences[sequence] = true;
+            receivedSequences[(sequence + ReliableSender.SEQUENCE_RANGE / 2)
+                    % ReliableSender.SEQUENCE_RANGE] = false;
+            if (repeat) {
+                repeatCount++;
+            }
+        }
+        int position = payloadOffset;
+        while (!repeat && position < payloadEnd) {
+            int result = codec.decode(buffer, position, payloadEnd - position, command);
+            if (result <= 0) {
+                invalidBytes += payloadEnd - position;
+                break;
+            }
+            position += result;
+            pending.offer(new long[] {due, command.opcode, command.arg0, command.arg1});
+        }
+        // Repeats are acknowledged again, since the first acknowledgement may have been lost
+        pending.offer(new long[] {due, ACK_ENTRY, sequence, 0});
+        return frameLength;
+    }
+
+    /**
+     * Adds a fragment to its class's transfer, keeping the transfer once its last fragment
+     * arrives. A fragment out of order means one was lost, so the transfer is discarded.
+     * @param header The fragment's header byte
+     * @param buffer Buffer holding the fragment's payload
+     * @param offset The position of the payload in the buffer
+     * @param length The length of the payload
+     */
+    private void receiveFragment(int header, byte[] buffer, int offset, int length) {
+        int stream = (header & OutboundScheduler.BULK_FRAGMENT) != 0 ? 1 : 0;
+        int index = header & OutboundScheduler.FRAGMENT_INDEX_MASK;
+        if (index != nextFragments[stream]) {
+            invalidBytes += transfers[stream].size() + length;
+            transfers[stream].reset();
+            // A first fragment starts the next transfer over
+            if (index != 0) {
+                nextFragments[stream] = 0;
+                return;
+            }
+        }
+        transfers[stream].write(buffer, offset, length);
+        nextFragments[stream] = (index + 1) & OutboundScheduler.FRAGMENT_INDEX_MASK;
+        if ((header & OutboundScheduler.LAST_FRAGMENT) != 0) {
+            synchronized (this) {
+                lastTransfers[stream] = transfers[stream].toByteArray();
+            }
+            transfers[stream].reset();
+            nextFragments[stream] = 0;
+            transferCount++;
+        }
+    }
+
+    /**
+     * Applies commands once their latency has passed and answers pings
+     */
+    private void process() {
+        Pacer pacer = new Pacer();
+        try {
+            OutputStream outputStream = transport.getOutputStream();
+            while (!terminated) {
+                long[] entry = pending.take();
+                long wait;
+                while ((wait = entry[0] - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (terminated) {
+                        return;
+                    }
+                }
+                byte[] reply = apply((int) entry[1], (int) entry[2], (int) entry[3]);
+                if (reply != null) {
+                    if (!isLost()) {
+                        pacer.pace(reply.length);
+                        outputStream.write(reply);
+                        outputStream.flush();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Terminated
+        } catch (IOException e) {
+            terminate();
+        }
+    }
+
+    /**
+     * Applies a command the way the robot's firmware does
+     * @param opcode The command opcode
+     * @param arg0 The first command argument
+     * @param arg1 The second command argument
+     * @return The reply to send, or null if the command has none
+     */
+    private byte[] apply(int opcode, int arg0, int arg1) {
+        if (opcode == ACK_ENTRY) {
+            return ("ACK " + arg0 + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        commandCount++;
+        switch (opcode) {
+            case RobotCommand.STOP:
+                setSpeeds(0, 0);
+                break;
+            case RobotCommand.FORWARD:
+                setSpeeds(arg0, arg0);
+                break;
+            case RobotCommand.BACKWARD:
+                setSpeeds(-arg0, -arg0);
+                break;
+            case RobotCommand.TURN_RIGHT:
+                setSpeeds(arg1, -arg0);
+                break;
+            case RobotCommand.TURN_LEFT:
+                setSpeeds(-arg1, arg0);
+                break;
+            case RobotCommand.SPIN_RIGHT:
+                setSpeeds(arg0, 0);
+                break;
+            case RobotCommand.SPIN_LEFT:
+                setSpeeds(0, arg0);
+                break;
+            case RobotCommand.DRIVE:
+                setSpeeds(arg0, arg1);
+                break;
+            case RobotCommand.PING:
+                pingCount++;
+                return ("PONG " + arg0 + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        return null;
+    }
+
+    /**
+     * Sets both motor speeds
+     * @param left The left motor speed
+     * @param right The right motor speed
+     */
+    private void setSpeeds(int left, int right) {
+        leftSpeed = left;
+        rightSpeed = right;
+    }
+
+    /**
+     * Decides if the next command or reply is dropped, and counts it if so
+     * @return true if it should be dropped
+     */
+    private synchronized boolean isLost() {
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            lostCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Limits one direction of the link to the simulated baud rate
+     */
+    private class Pacer {
+        /// The time the link is free to carry the next byte
+        private long nextFreeNanos = System.nanoTime();
+
+        /**
+         * Waits for the time the link needs to carry some bytes
+         * @param bytes The number of bytes carried
+         */
+        void pace(int bytes) {
+            if (baudRate <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now)
+                    + bytes * BITS_PER_BYTE * 1000000000L / baudRate;
+            long wait;
+            while ((wait = nextFreeNanos - System.nanoTime()) > 0 && !terminated) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Serves TCP connections one at a time with a new simulated robot for each
+     * @param args Optional port, baud rate, latency in milliseconds, and loss rate
+     * @throws IOException If the port cannot be served
+     * @throws InterruptedException If the server is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int baud = args.length > 1 ? Integer.parseInt(args[1]) : HC06_BAUD;
+        long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double lossRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+
+        ServerSocket server = new ServerSocket(port);
+        System.out.println("Robot simulator listening on port " + server.getLocalPort());
+        while (true) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            RobotSimulator simulator = new RobotSimulator(new TcpTransport(socket),
+                    new AsciiCommandCodec());
+            simulator.setBaudRate(baud);
+            simulator.setLatencyMs(latencyMs);
+            simulator.setLoss(lossRate, System.nanoTime());
+            simulator.start();
+            simulator.join();
+            System.out.println("Session ended: " + simulator.getCommandCount() + " commands, "
+                    + simulator.getLostCount() + " lost, "
+                    + simulator.getInvalidBytes() + " invalid bytes");
+        }
+    }
+}
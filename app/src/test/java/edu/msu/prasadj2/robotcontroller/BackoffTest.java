@@ -0,0 +1,43 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the jittered exponential reconnect backoff.
+ */
+public class BackoffTest {
+    @Test
+    public void delays_doubleWithinJitterUpToMax() {
+        Backoff backoff = new Backoff(100, 1000, 10, new Random(7));
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (int attempt = 0; attempt < ceilings.length; attempt++) {
+            long delay = backoff.getDelayMs(attempt);
+            assertTrue(delay >= ceilings[attempt] / 2);
+            assertTrue(delay <= ceilings[attempt]);
+        }
+
+        // Very late attempts must not overflow
+        long delay = backoff.getDelayMs(Integer.MAX_VALUE);
+        assertTrue(delay >= 500 && delay <= 1000);
+    }
+
+    @Test
+    public void delays_areSpreadOut() {
+        Backoff backoff = new Backoff(100, 8000, 10, new Random(7));
+        long first = backoff.getDelayMs(5);
+        boolean differs = false;
+        for (int i = 0; i < 10; i++) {
+            differs |= backoff.getDelayMs(5) != first;
+        }
+        assertTrue(differs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTiming_isRejected() {
+        new Backoff(1000, 100, 3, new Random());
+    }
+}
@@ -0,0 +1,181 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for batched command writes, batch frames and their acknowledgements.
+ */
+public class BatchFramerTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 5000;
+
+    /// Output stream that keeps every write call separate
+    private static class WriteRecorder extends ByteArrayOutputStream {
+        final List<byte[]> writes = new ArrayList<byte[]>();
+
+        @Override
+        public synchronized void write(byte[] data, int offset, int length) {
+            super.write(data, offset, length);
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            writes.add(copy);
+        }
+    }
+
+    /// Counts sent commands and records their opcodes
+    private static class SentListener implements CommandWriter.Listener {
+        final List<Integer> opcodes = new ArrayList<Integer>();
+        final CountDownLatch sent;
+
+        SentListener(int count) {
+            sent = new CountDownLatch(count);
+        }
+
+        @Override
+        public synchronized void onCommandSent(RobotCommand command) {
+            opcodes.add(command.opcode);
+            sent.countDown();
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {}
+    }
+
+    @Test
+    public void framer_acknowledgesCumulatively() {
+        LinkMetrics metrics = new LinkMetrics();
+        BatchFramer framer = new BatchFramer(metrics);
+        byte[] buffer = new byte[BatchFramer.FRAME_OVERHEAD + BatchFramer.MAX_PAYLOAD];
+        for (int i = 0; i < 3; i++) {
+            buffer[BatchFramer.getPayloadOffset()] = 0x11;
+            assertEquals(6, framer.frame(buffer, 1, 1000 * i));
+            assertEquals(BinaryCommandCodec.SYNC, buffer[0]);
+            assertEquals(i, buffer[2]);
+        }
+        assertEquals(3, framer.getUnackedCount());
+
+        assertEquals(2, framer.onAck(1, 5000));
+        assertEquals(0, framer.onAck(1, 5000));
+        assertEquals(0, framer.onAck(9, 5000));
+        assertEquals(1, framer.onAck(2, 6000));
+        assertEquals(0, framer.getUnackedCount());
+
+        MetricsSnapshot snapshot = metrics.registry.snapshot();
+        assertEquals(3, snapshot.getValue(LinkMetrics.BATCHES_ACKED));
+        assertEquals(4000, snapshot.getMax(LinkMetrics.BATCH_ACK_LATENCY));
+    }
+
+    @Test
+    public void framer_matchesAnAckThatBeatsTheWrite() {
+        BatchFramer framer = new BatchFramer(new LinkMetrics());
+        byte[] buffer = new byte[BatchFramer.FRAME_OVERHEAD + BatchFramer.MAX_PAYLOAD];
+        framer.frame(buffer, 0, 1000);
+
+        // The reader sees the acknowledgement while the writer is still in its write call
+        assertEquals(1, framer.getUnackedCount());
+        assertEquals(1, framer.onAck(buffer[2] & 0xFF, 1500));
+        assertEquals(0, framer.getUnackedCount());
+        assertEquals(500, framer.getLastAckLatency());
+    }
+
+    @Test
+    public void writer_sendsWaitingCommandsInOneWrite() throws InterruptedException {
+        LinkMetrics metrics = new LinkMetrics();
+        CommandQueue queue = new CommandQueue();
+        WriteRecorder outputStream = new WriteRecorder();
+        SentListener listener = new SentListener(4);
+        CommandWriter writer = new CommandWriter(queue, outputStream, new AsciiCommandCodec(),
+                listener, metrics);
+        writer.setBatching(50, null);
+        queue.offer(RobotCommand.PING, 1, 0);
+        queue.offer(RobotCommand.FORWARD, 50, 0);
+        queue.offer(RobotCommand.PING, 2, 0);
+        queue.offer(RobotCommand.PING, 3, 0);
+        writer.start();
+        assertTrue(listener.sent.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        writer.terminate();
+        writer.join();
+
+        assertEquals(1, outputStream.writes.size());
+        String written = new String(outputStream.toByteArray());
+        assertTrue(written.contains("F 50\r\n"));
+        assertEquals(4, metrics.registry.snapshot().getValue(LinkMetrics.COMMANDS_SENT));
+        assertEquals(1, metrics.registry.snapshot().getValue(LinkMetrics.BATCH_SIZE));
+    }
+
+    @Test
+    public void writer_flushesStopWithoutWaiting() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        WriteRecorder outputStream = new WriteRecorder();
+        SentListener listener = new SentListener(2);
+        CommandWriter writer = new CommandWriter(queue, outputStream, new AsciiCommandCodec(),
+                listener, new LinkMetrics());
+        writer.setBatching(TIMEOUT_MS * 10, null);
+        writer.start();
+        queue.offer(RobotCommand.PING, 1, 0);
+        Thread.sleep(20);
+        queue.offer(RobotCommand.FORWARD, 50, 0);
+        queue.offer(RobotCommand.STOP, 0, 0);
+        assertTrue(listener.sent.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        writer.terminate();
+        writer.join();
+
+        // The stop ended the window and replaced the motion command in the batch
+        assertEquals(1, outputStream.writes.size());
+        assertEquals("PING 1\r\nSTP\r\n", new String(outputStream.toByteArray()));
+        assertEquals(RobotCommand.STOP, (int) listener.opcodes.get(1));
+    }
+
+    @Test
+    public void framedLink_isAcknowledgedBySimulator() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(pair[1], new BinaryCommandCodec());
+        simulator.start();
+        final RobotLink link = new RobotLink(pair[0], new BinaryCommandCodec(),
+                new RobotLink.Listener() {
+            @Override
+            public void onCommandSent(RobotCommand command) {}
+
+            @Override
+            public void onLatencyUpdated(LatencyHistogram histogram) {}
+
+            @Override
+            public void onLinkStalled() {}
+
+            @Override
+            public void onLinkRestored() {}
+
+            @Override
+            public void onLinkFailed(IOException e) {}
+        }, HeartbeatMonitor.DEFAULT_INTERVAL_MS, HeartbeatMonitor.DEFAULT_DEADLINE_MS,
+                new LinkMetrics());
+        link.enableBatching(5, true);
+        link.start();
+        try {
+            link.sendCommand(RobotCommand.DRIVE, 30, -20);
+            link.sendCommand(RobotCommand.PING, 100, 0);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            while (link.getMetrics().registry.snapshot()
+                    .getValue(LinkMetrics.BATCHES_ACKED) == 0) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+            assertEquals(30, simulator.getLeftSpeed());
+            assertEquals(-20, simulator.getRightSpeed());
+            assertTrue(simulator.getBatchCount() > 0);
+            assertEquals(0, simulator.getInvalidBytes());
+        } finally {
+            link.terminate();
+            simulator.terminate();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the text and binary command codecs.
+ */
+public class CommandCodecTest {
+    /// Commands covering every opcode and both argument signs
+    private static final int[][] COMMANDS = {
+            {RobotCommand.STOP, 0, 0},
+            {RobotCommand.FORWARD, 100, 0},
+            {RobotCommand.BACKWARD, 7, 0},
+            {RobotCommand.TURN_RIGHT, 40, 60},
+            {RobotCommand.TURN_LEFT, 0, 100},
+            {RobotCommand.SPIN_RIGHT, -55, 0},
+            {RobotCommand.SPIN_LEFT, -100, 0},
+    };
+
+    @Test
+    public void ascii_matchesOriginalTextProtocol() {
+        CommandCodec codec = new AsciiCommandCodec();
+        byte[] buffer = new byte[codec.getMaxFrameLength()];
+        RobotCommand command = new RobotCommand();
+
+        command.set(RobotCommand.TURN_RIGHT, 40, 60);
+        int length = codec.encode(command, buffer, 0);
+        assertEquals("TR 40 60\r\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        command.set(RobotCommand.SPIN_RIGHT, -100, 0);
+        length = codec.encode(command, buffer, 0);
+        assertEquals("SR -100\r\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+
+        command.set(RobotCommand.STOP, 0, 0);
+        length = codec.encode(command, buffer, 0);
+        assertEquals("STP\r\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void ascii_sendsDriveAsClosestOriginalCommand() {
+        AsciiCommandCodec codec = new AsciiCommandCodec();
+        int[][] drives = {{50, -50}, {-30, 70}, {0, 30}, {45, 0}, {40, 60}, {-20, -40}, {0, 0}};
+        String[] expected = {"TR 50 50", "TL 70 30", "SL 30", "SR 45", "F 50", "B 30", "STP"};
+        byte[] buffer = new byte[codec.getMaxFrameLength()];
+        RobotCommand command = new RobotCommand();
+        for (int i = 0; i < drives.length; i++) {
+            command.set(RobotCommand.DRIVE, drives[i][0], drives[i][1]);
+            int length = codec.encode(command, buffer, 0);
+            assertEquals(expected[i] + "\r\n",
+                    new String(buffer, 0, length, StandardCharsets.US_ASCII));
+            // The closest command matches the wheel speeds whenever it can express them
+            if (i < 4) {
+                RobotCommand sent = new RobotCommand();
+                codec.decode(buffer, 0, length, sent);
+                assertEquals((drives[i][0] << 16) | (drives[i][1] & 0xFFFF),
+                        sent.getWheelSpeeds());
+            }
+            // Listeners still see the drive command that was queued
+            assertEquals(RobotCommand.DRIVE, command.opcode);
+        }
+
+        codec.setDriveSupported(true);
+        command.set(RobotCommand.DRIVE, 40, 60);
+        int length = codec.encode(command, buffer, 0);
+        assertEquals("D 40 60\r\n", new String(buffer, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void ascii_roundTrip() {
+        assertRoundTrip(new AsciiCommandCodec());
+    }
+
+    @Test
+    public void binary_roundTrip() {
+        assertRoundTrip(new BinaryCommandCodec());
+    }
+
+    @Test
+    public void binary_isCompact() {
+        CommandCodec codec = new BinaryCommandCodec();
+        byte[] buffer = new byte[codec.getMaxFrameLength()];
+        RobotCommand command = new RobotCommand();
+
+        command.set(RobotCommand.STOP, 0, 0);
+        assertEquals(3, codec.encode(command, buffer, 0));
+        command.set(RobotCommand.FORWARD, 100, 0);
+        assertEquals(4, codec.encode(command, buffer, 0));
+        command.set(RobotCommand.TURN_LEFT, -100, 100);
+        assertEquals(5, codec.encode(command, buffer, 0));
+    }
+
+    @Test
+    public void binary_rejectsCorruptFrames() {
+        CommandCodec codec = new BinaryCommandCodec();
+        byte[] buffer = new byte[codec.getMaxFrameLength()];
+        RobotCommand command = new RobotCommand();
+        command.set(RobotCommand.TURN_RIGHT, 40, 60);
+        int length = codec.encode(command, buffer, 0);
+
+        assertEquals(CommandCodec.INCOMPLETE, codec.decode(buffer, 0, length - 1, command));
+        buffer[3] ^= 0x01;
+        assertEquals(CommandCodec.INVALID, codec.decode(buffer, 0, length, command));
+    }
+
+    @Test
+    public void encode_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        CommandCodec[] codecs = {new AsciiCommandCodec(), new BinaryCommandCodec()};
+        for (CommandCodec codec : codecs) {
+            byte[] buffer = new byte[codec.getMaxFrameLength()];
+            RobotCommand command = new RobotCommand();
+            int encodes = 100000;
+
+            // Warm up so class loading and compilation are not measured
+            encodeAll(codec, command, buffer, encodes);
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            encodeAll(codec, command, buffer, encodes);
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            // Allow for the measurement itself, which is far less than one byte per encode
+            assertTrue(codec.getClass().getSimpleName() + " allocated " + allocated + " bytes",
+                    allocated < encodes / 10);
+        }
+    }
+
+    /**
+     * Encodes and decodes every test command with a codec
+     * @param codec The codec to test
+     */
+    private static void assertRoundTrip(CommandCodec codec) {
+        byte[] buffer = new byte[codec.getMaxFrameLength() * COMMANDS.length];
+        RobotCommand command = new RobotCommand();
+
+        int length = 0;
+        for (int[] values : COMMANDS) {
+            command.set(values[0], values[1], values[2]);
+            length += codec.encode(command, buffer, length);
+        }
+
+        int position = 0;
+        for (int[] values : COMMANDS) {
+            int consumed = codec.decode(buffer, position, length - position, command);
+            assertTrue(consumed > 0);
+            assertEquals(values[0], command.opcode);
+            assertEquals(values[1], command.arg0);
+            assertEquals(values[2], command.arg1);
+            position += consumed;
+        }
+        assertEquals(length, position);
+    }
+
+    /**
+     * Encodes a rotating set of commands into the same buffer
+     * @param codec The codec to use
+     * @param command Reusable command holder
+     * @param buffer Reusable output buffer
+     * @param count The number of commands to encode
+     */
+    private static void encodeAll(CommandCodec codec, RobotCommand command, byte[] buffer,
+                                  int count) {
+        for (int i = 0; i < count; i++) {
+            int[] values = COMMANDS[i % COMMANDS.length];
+            command.set(values[0], values[1], values[2]);
+            codec.encode(command, buffer, 0);
+        }
+    }
+}
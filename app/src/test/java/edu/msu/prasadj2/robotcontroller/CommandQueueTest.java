@@ -0,0 +1,73 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the coalescing outbound command queue.
+ */
+public class CommandQueueTest {
+    @Test
+    public void motion_isCoalescedToLatest() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        queue.offer(RobotCommand.FORWARD, 10, 0);
+        queue.offer(RobotCommand.TURN_RIGHT, 20, 30);
+        queue.offer(RobotCommand.SPIN_LEFT, 40, 0);
+        assertEquals(1, queue.getDepth());
+        assertEquals(2, queue.getCoalescedCount());
+
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.take(command));
+        assertEquals("SL 40", command.toString());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void stop_jumpsQueueAndDiscardsMotion() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        queue.offer(RobotCommand.FORWARD, 10, 0);
+        queue.offer(RobotCommand.STOP, 0, 0);
+        assertEquals(1, queue.getDepth());
+
+        queue.offer(RobotCommand.BACKWARD, 50, 0);
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.take(command));
+        assertEquals("STP", command.toString());
+        assertTrue(queue.take(command));
+        assertEquals("B 50", command.toString());
+    }
+
+    @Test
+    public void orderedCommands_areDroppedWhenFull() {
+        CommandQueue queue = new CommandQueue(2);
+        // Opcodes outside the motion range are kept in order instead of coalesced
+        assertTrue(queue.offer(100, 1, 0));
+        assertTrue(queue.offer(100, 2, 0));
+        assertFalse(queue.offer(100, 3, 0));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(2, queue.getDepth());
+    }
+
+    @Test
+    public void close_releasesWaitingTaker() throws InterruptedException {
+        final CommandQueue queue = new CommandQueue();
+        final boolean[] result = {true};
+        Thread taker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = queue.take(new RobotCommand());
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+        });
+        taker.start();
+        queue.close();
+        taker.join(1000);
+        assertFalse(taker.isAlive());
+        assertFalse(result[0]);
+        assertFalse(queue.offer(RobotCommand.STOP, 0, 0));
+    }
+}
@@ -0,0 +1,140 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for recording sessions and replaying them.
+ */
+public class CommandRecorderTest {
+
+    /// Records a short session: a command, a robot line, then a turn with negative speeds
+    private static File recordSession() throws Exception {
+        File file = File.createTempFile("session", ".rcl");
+        file.deleteOnExit();
+        CommandRecorder recorder = CommandRecorder.create(file);
+        long start = System.nanoTime();
+        RobotCommand command = new RobotCommand();
+        command.set(RobotCommand.FORWARD, 60, 0);
+        recorder.recordCommand(command, start + 1000);
+        byte[] line = "Encoder fault".getBytes(StandardCharsets.US_ASCII);
+        recorder.onTextLine(line, 0, line.length, start + 5000);
+        command.set(RobotCommand.TURN_LEFT, -40, 100);
+        recorder.recordCommand(command, start + 9000);
+        recorder.close();
+        assertNull(recorder.getError());
+        assertEquals(3, recorder.getEntryCount());
+        return file;
+    }
+
+    @Test
+    public void recording_readsBackInOrder() throws Exception {
+        RecordingReader reader = RecordingReader.open(recordSession());
+        assertTrue(reader.getStartMillis() > 0);
+
+        assertTrue(reader.next());
+        assertEquals(CommandRecorder.ENTRY_COMMAND, reader.getType());
+        assertEquals("F 60", reader.getCommand().toString());
+        long first = reader.getNanos();
+
+        assertTrue(reader.next());
+        assertEquals(CommandRecorder.ENTRY_LINE, reader.getType());
+        assertEquals("Encoder fault", new String(reader.getLine(), 0, reader.getLineLength(),
+                StandardCharsets.US_ASCII));
+        assertEquals(4000, reader.getNanos() - first);
+
+        assertTrue(reader.next());
+        assertEquals(RobotCommand.TURN_LEFT, reader.getCommand().opcode);
+        assertEquals(-40, reader.getCommand().arg0);
+        assertEquals(100, reader.getCommand().arg1);
+        assertEquals(8000, reader.getNanos() - first);
+
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void truncatedRecording_endsAtLastWholeEntry() throws Exception {
+        File file = recordSession();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        RecordingReader reader = RecordingReader.open(file);
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void replay_drivesSimulatorAsFastAsPossible() throws Exception {
+        InMemoryTransport[] ends = InMemoryTransport.createPair();
+        CommandCodec codec = new AsciiCommandCodec();
+        RobotSimulator simulator = new RobotSimulator(ends[1], codec);
+        simulator.start();
+
+        ReplayEngine replay = new ReplayEngine(RecordingReader.open(recordSession()), ends[0],
+                codec, ReplayEngine.AS_FAST_AS_POSSIBLE);
+        replay.start();
+        replay.join(5000);
+        assertNull(replay.getError());
+        assertEquals(2, replay.getCommandsSent());
+
+        // Both recorded commands, then the stop the replay ends with
+        long deadline = System.currentTimeMillis() + 5000;
+        while (simulator.getCommandCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, simulator.getCommandCount());
+        assertEquals(0, simulator.getLeftSpeed());
+        assertEquals(0, simulator.getRightSpeed());
+        ends[0].close();
+        simulator.terminate();
+    }
+
+    @Test
+    public void terminatedReplay_stopsTheRobot() throws Exception {
+        File file = File.createTempFile("session", ".rcl");
+        file.deleteOnExit();
+        CommandRecorder recorder = CommandRecorder.create(file);
+        long start = System.nanoTime();
+        RobotCommand command = new RobotCommand();
+        command.set(RobotCommand.FORWARD, 60, 0);
+        recorder.recordCommand(command, start);
+        command.set(RobotCommand.BACKWARD, 30, 0);
+        recorder.recordCommand(command, start + 60000000000L);
+        recorder.close();
+
+        InMemoryTransport[] ends = InMemoryTransport.createPair();
+        CommandCodec codec = new AsciiCommandCodec();
+        RobotSimulator simulator = new RobotSimulator(ends[1], codec);
+        simulator.start();
+        ReplayEngine replay = new ReplayEngine(RecordingReader.open(file), ends[0], codec, 1);
+        replay.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (simulator.getLeftSpeed() != 60 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(60, simulator.getLeftSpeed());
+
+        // Terminated a minute before the next command, the robot does not keep driving
+        replay.terminate();
+        replay.join(5000);
+        assertFalse(replay.isAlive());
+        assertEquals(1, replay.getCommandsSent());
+        while (simulator.getCommandCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, simulator.getLeftSpeed());
+        assertEquals(0, simulator.getRightSpeed());
+        ends[0].close();
+        simulator.terminate();
+    }
+}
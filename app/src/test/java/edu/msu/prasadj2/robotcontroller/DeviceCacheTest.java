@@ -0,0 +1,62 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the cache of recently connected robots.
+ */
+public class DeviceCacheTest {
+    @Test
+    public void candidates_rankedBySuccessThenRecency() {
+        DeviceCache cache = new DeviceCache();
+        cache.recordSuccess("00:00:00:00:00:01", "Old", 900, 1000);
+        cache.recordSuccess("00:00:00:00:00:02", "Recent", 800, 2000);
+        cache.recordSuccess("00:00:00:00:00:03", "Flaky", 700, 3000);
+        cache.recordFailure("00:00:00:00:00:03");
+        cache.recordFailure("00:00:00:00:00:04");
+
+        List<DeviceCache.Entry> candidates = cache.getCandidates(2);
+        assertEquals(2, candidates.size());
+        assertEquals("Recent", candidates.get(0).getName());
+        assertEquals("Old", candidates.get(1).getName());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void encode_roundTripsAndSkipsMalformedLines() {
+        DeviceCache cache = new DeviceCache();
+        cache.recordSuccess("00:00:00:00:00:01", "Robot\tOne", 1234, 42);
+        cache.recordSuccess("00:00:00:00:00:02", null, 99, 43);
+        cache.recordRssi("00:00:00:00:00:02", -61);
+        cache.recordFailure("00:00:00:00:00:02");
+
+        DeviceCache restored = DeviceCache.decode(cache.encode() + "garbage\n1\t2\n");
+        assertEquals(cache.encode(), restored.encode());
+        DeviceCache.Entry unnamed = restored.getCandidates(2).get(1);
+        assertNull(unnamed.getName());
+        assertEquals(-61, unnamed.getLastRssi());
+        assertEquals(99, unnamed.getLastConnectMs());
+        assertEquals(2, unnamed.getAttempts());
+        assertEquals(1, unnamed.getSuccesses());
+        assertEquals(0, DeviceCache.decode(null).size());
+    }
+
+    @Test
+    public void full_evictsLowestRanked() {
+        DeviceCache cache = new DeviceCache();
+        for (int i = 0; i < DeviceCache.MAX_ENTRIES; i++) {
+            cache.recordSuccess("00:00:00:00:00:0" + i, null, 100, 100 + i);
+        }
+        cache.recordFailure("00:00:00:00:00:05");
+        cache.recordSuccess("00:00:00:00:00:FF", null, 100, 1000);
+
+        assertEquals(DeviceCache.MAX_ENTRIES, cache.size());
+        for (DeviceCache.Entry entry : cache.getCandidates(DeviceCache.MAX_ENTRIES)) {
+            assertFalse("00:00:00:00:00:05".equals(entry.getAddress()));
+        }
+    }
+}
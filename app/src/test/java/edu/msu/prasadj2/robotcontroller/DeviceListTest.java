@@ -0,0 +1,121 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the diffed device list shown during discovery.
+ */
+public class DeviceListTest {
+    /// Records dispatched ranges
+    private static class RecordingObserver implements DeviceList.Observer {
+        final List<String> ranges = new ArrayList<String>();
+
+        @Override
+        public void onRowsInserted(int position, int count) {
+            ranges.add("insert " + position + " " + count);
+        }
+
+        @Override
+        public void onRowsChanged(int position, int count) {
+            ranges.add("change " + position + " " + count);
+        }
+
+        @Override
+        public void onRowsRemoved(int position, int count) {
+            ranges.add("remove " + position + " " + count);
+        }
+    }
+
+    @Test
+    public void duplicates_areDropped() {
+        DeviceList list = new DeviceList();
+        assertTrue(list.update(1, "A", "Robot"));
+        assertFalse(list.update(1, "A", "Robot"));
+        RecordingObserver observer = new RecordingObserver();
+        assertEquals(1, list.dispatch(observer));
+        assertFalse(list.update(1, "A", "Robot"));
+        assertFalse(list.hasPendingChanges());
+        assertEquals(0, list.dispatch(observer));
+        assertEquals(2, list.getDuplicateCount());
+        assertEquals(1, observer.ranges.size());
+    }
+
+    @Test
+    public void frame_reportsCoalescedRanges() {
+        DeviceList list = new DeviceList();
+        RecordingObserver observer = new RecordingObserver();
+        for (int i = 0; i < 5; i++) {
+            list.update(i, "D" + i, null);
+        }
+        list.dispatch(observer);
+        assertEquals("D3", list.getRow(3).getLabel());
+
+        // Names arrive for rows 1, 2 and 4, and two new devices appear, all in one frame
+        list.update(4, "D4", "Four");
+        list.update(10, "N0", null);
+        list.update(1, "D1", "One");
+        list.update(2, "D2", "Two");
+        list.update(11, "N1", "New");
+        assertEquals(3, list.dispatch(observer));
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("insert 0 5");
+        expected.add("change 1 2");
+        expected.add("change 4 1");
+        expected.add("insert 5 2");
+        assertEquals(expected, observer.ranges);
+        assertEquals("Two", list.getRow(2).getLabel());
+        assertEquals(6, list.indexOf("N1"));
+        assertEquals(-1, list.indexOf("missing"));
+    }
+
+    @Test
+    public void clear_removesEveryRow() {
+        DeviceList list = new DeviceList();
+        RecordingObserver observer = new RecordingObserver();
+        list.update(1, "A", "Robot");
+        list.update(2, "B", null);
+        list.dispatch(observer);
+
+        list.clear();
+        assertTrue(list.update(3, "A", "Robot"));
+        list.dispatch(observer);
+
+        assertEquals("remove 0 2", observer.ranges.get(1));
+        assertEquals("insert 0 1", observer.ranges.get(2));
+        assertEquals(1, list.size());
+        assertEquals(3, list.getRow(0).getId());
+    }
+
+    @Test
+    public void remove_reportsRunsFromTheEnd() {
+        DeviceList list = new DeviceList();
+        RecordingObserver observer = new RecordingObserver();
+        for (int i = 0; i < 6; i++) {
+            list.update(i, "D" + i, null);
+        }
+        list.dispatch(observer);
+
+        assertTrue(list.remove("D1"));
+        assertTrue(list.remove("D4"));
+        assertTrue(list.remove("D2"));
+        assertFalse(list.remove("missing"));
+        // A device found again before the frame keeps its row
+        assertTrue(list.remove("D5"));
+        assertTrue(list.update(5, "D5", "Five"));
+        assertEquals(3, list.dispatch(observer));
+
+        assertEquals("remove 4 1", observer.ranges.get(1));
+        assertEquals("remove 1 2", observer.ranges.get(2));
+        assertEquals("change 2 1", observer.ranges.get(3));
+        assertEquals(3, list.size());
+        assertEquals(2, list.indexOf("D5"));
+        assertEquals(1, list.indexOf("D3"));
+        assertEquals("Five", list.getRow(2).getLabel());
+    }
+}
@@ -0,0 +1,72 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the indexed registry of known bluetooth devices.
+ */
+public class DeviceRegistryTest {
+    @Test
+    public void discovery_keepsOneEntryPerAddress() {
+        DeviceRegistry<String> registry = new DeviceRegistry<String>();
+        DeviceRegistry.Entry<String> first = registry.recordDiscovery("robot", "A", "HC-06",
+                -60, DeviceRegistry.BOND_NONE, 1000);
+        // A later broadcast without the name keeps the name and the id
+        DeviceRegistry.Entry<String> again = registry.recordDiscovery("robot", "A", null,
+                -50, DeviceRegistry.BOND_NONE, 2000);
+
+        assertSame(first, again);
+        assertEquals(1, registry.size());
+        assertEquals("HC-06", again.getName());
+        assertEquals(-50, again.getRssi());
+        assertEquals(2000, again.getLastSeenMs());
+        assertSame(again, registry.getById(again.getId()));
+        assertSame(again, registry.getByAddress("A"));
+        assertSame(again, registry.getByName("HC-06"));
+        assertNull(registry.getByAddress("B"));
+    }
+
+    @Test
+    public void rename_movesNameIndex() {
+        DeviceRegistry<String> registry = new DeviceRegistry<String>();
+        registry.recordBonded("robot", "A", "Old");
+        DeviceRegistry.Entry<String> entry = registry.recordBonded("robot", "A", "New");
+        DeviceRegistry.Entry<String> other = registry.recordDiscovery("other", "B", "Same",
+                DeviceRegistry.RSSI_UNKNOWN, DeviceRegistry.BOND_NONE, 0);
+
+        assertNull(registry.getByName("Old"));
+        assertSame(entry, registry.getByName("New"));
+        assertTrue(entry.isBonded());
+        assertFalse(entry.isDiscovered());
+        assertEquals(DeviceRegistry.RSSI_UNKNOWN, other.getRssi());
+        assertTrue(entry.getId() != other.getId());
+    }
+
+    @Test
+    public void expire_forgetsStaleDiscoveriesButKeepsPaired() {
+        DeviceRegistry<String> registry = new DeviceRegistry<String>();
+        DeviceRegistry.Entry<String> stale = registry.recordDiscovery("stale", "A", "Stale",
+                -70, DeviceRegistry.BOND_NONE, 0);
+        registry.recordDiscovery("fresh", "B", "Fresh", -70, DeviceRegistry.BOND_NONE, 9000);
+        registry.recordBonded("paired", "C", "Paired");
+        registry.recordDiscovery("paired", "C", null, -40, DeviceRegistry.BOND_BONDED, 0);
+
+        List<DeviceRegistry.Entry<String>> expired = registry.expire(10000, 5000);
+
+        assertEquals(2, expired.size());
+        assertEquals(2, registry.size());
+        assertNull(registry.getByAddress("A"));
+        assertNull(registry.getById(stale.getId()));
+        assertNull(registry.getByName("Stale"));
+        DeviceRegistry.Entry<String> paired = registry.getByAddress("C");
+        assertNotNull(paired);
+        assertFalse(paired.isDiscovered());
+        assertEquals("Paired", paired.getName());
+        assertTrue(registry.getByAddress("B").isDiscovered());
+        assertTrue(registry.expire(10000, 5000).isEmpty());
+    }
+}
@@ -0,0 +1,85 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ranking discovered devices and stopping discovery early.
+ */
+public class DiscoveryControllerTest {
+    /// Records the robots found
+    private static class RecordingListener implements DiscoveryController.Listener {
+        final List<String> found = new ArrayList<String>();
+        long timeToRobotNanos = -1;
+
+        @Override
+        public void onRobotFound(DiscoveryController.Candidate candidate,
+                                 long timeToRobotNanos) {
+            found.add(candidate.getAddress());
+            this.timeToRobotNanos = timeToRobotNanos;
+        }
+    }
+
+    @Test
+    public void ranking_prefersRobotsThenSignal() {
+        DiscoveryController controller = new DiscoveryController(new RecordingListener());
+        controller.onScanStarted(0);
+        controller.onDeviceFound("phone", "Pixel", -40, 0x020C, 1);
+        controller.onDeviceFound("weak", "HC-06", -90, DiscoveryController.ROBOT_DEVICE_CLASS, 2);
+        controller.onDeviceFound("strong", "hc-05 robot", -55,
+                DiscoveryController.UNKNOWN_DEVICE_CLASS, 3);
+        controller.onDeviceFound("unnamed", null, -30, DiscoveryController.ROBOT_DEVICE_CLASS, 4);
+        // A weaker later broadcast does not lower the strongest signal seen
+        controller.onDeviceFound("strong", null, -80,
+                DiscoveryController.UNKNOWN_DEVICE_CLASS, 5);
+
+        List<DiscoveryController.Candidate> ranked = controller.getRanked();
+        assertEquals("strong", ranked.get(0).getAddress());
+        assertEquals(-55, ranked.get(0).getRssi());
+        assertEquals("hc-05 robot", ranked.get(0).getName());
+        assertEquals("weak", ranked.get(1).getAddress());
+        assertEquals("unnamed", ranked.get(2).getAddress());
+        assertEquals(DiscoveryController.LIKENESS_NONE, ranked.get(3).getLikeness());
+        assertEquals("strong", controller.getBestRobot().getAddress());
+        assertTrue(controller.isScanning());
+    }
+
+    @Test
+    public void configuredRobot_endsScanOnce() {
+        RecordingListener listener = new RecordingListener();
+        DiscoveryController controller = new DiscoveryController(listener);
+        controller.addConfiguredRobot("robot");
+        controller.onScanStarted(1000);
+        controller.onDeviceFound("other", "HC-06", -40, DiscoveryController.ROBOT_DEVICE_CLASS,
+                2000);
+        assertTrue(listener.found.isEmpty());
+
+        controller.onDeviceFound("robot", null, -70, DiscoveryController.UNKNOWN_DEVICE_CLASS,
+                5000);
+        controller.onDeviceFound("robot", null, -60, DiscoveryController.UNKNOWN_DEVICE_CLASS,
+                6000);
+
+        assertEquals(1, listener.found.size());
+        assertEquals(4000, listener.timeToRobotNanos);
+        assertEquals(4000, controller.getTimeToRobotNanos());
+        assertFalse(controller.isScanning());
+        assertEquals("robot", controller.getRanked().get(0).getAddress());
+    }
+
+    @Test
+    public void finishedScan_withoutRobotsHasNoBest() {
+        DiscoveryController controller = new DiscoveryController(new RecordingListener());
+        controller.onScanStarted(0);
+        controller.onDeviceFound("phone", "Pixel", -40, 0x020C, 1);
+        controller.onScanFinished();
+
+        assertNull(controller.getBestRobot());
+        assertEquals(-1, controller.getTimeToRobotNanos());
+        assertFalse(DiscoveryController.isRobotName(null));
+        assertTrue(DiscoveryController.isRobotName("linvor"));
+    }
+}
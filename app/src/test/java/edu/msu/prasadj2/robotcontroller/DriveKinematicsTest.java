@@ -0,0 +1,97 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for differential drive kinematics and motion profiles.
+ */
+public class DriveKinematicsTest {
+    /// Control tick used by the tests, in seconds
+    private static final double DT = 0.04;
+
+    @Test
+    public void wheels_areScaledTogetherPastFullSpeed() {
+        assertEquals(pack(60, 20), DriveKinematics.toWheels(40, 20));
+        assertEquals(pack(100, -100), DriveKinematics.toWheels(0, 100));
+        // 150 and 50 keep their 3:1 ratio
+        assertEquals(pack(100, 33), DriveKinematics.toWheels(100, 50));
+        assertEquals(pack(-33, -100), DriveKinematics.toWheels(-100, 50));
+    }
+
+    @Test
+    public void ramp_respectsAccelerationAndJerkLimits() {
+        double maxAcceleration = 200;
+        double maxJerk = 1000;
+        DriveKinematics kinematics = new DriveKinematics(maxAcceleration, maxJerk,
+                maxAcceleration, maxJerk);
+        kinematics.setWheelTarget(100, 100);
+
+        double previousVelocity = 0;
+        double previousAcceleration = 0;
+        int steps = 0;
+        while (!kinematics.isSettled()) {
+            int wheels = kinematics.step(DT);
+            assertEquals(wheels >> 16, (short)wheels);
+            double velocity = kinematics.getLinearVelocity();
+            double acceleration = (velocity - previousVelocity) / DT;
+            assertTrue(velocity >= previousVelocity);
+            assertTrue(velocity <= 100);
+            assertTrue(acceleration <= maxAcceleration + 1e-9);
+            // The last step snaps onto the target, which may end the ramp a little early
+            if (velocity < 100) {
+                assertTrue(Math.abs(acceleration - previousAcceleration) <= maxJerk * DT + 1e-9);
+            }
+            previousVelocity = velocity;
+            previousAcceleration = acceleration;
+            assertTrue(++steps < 100);
+        }
+        assertEquals(pack(100, 100), kinematics.step(DT));
+        // A jump would take one step; 0 to 100 at 200/s takes at least half a second
+        assertTrue(steps * DT >= 0.5);
+    }
+
+    @Test
+    public void spin_rampsBothAxesToTheWheelTarget() {
+        DriveKinematics kinematics = new DriveKinematics();
+        kinematics.reset(50, 50);
+        assertEquals(pack(50, 50), kinematics.step(DT));
+
+        // A right spin from driving forward needs both the linear and angular axes
+        kinematics.setWheelTarget(80, 0);
+        int wheels = kinematics.step(DT);
+        assertTrue((short)wheels < 50 && (short)wheels > 0);
+        for (int i = 0; i < 100 && !kinematics.isSettled(); i++) {
+            wheels = kinematics.step(DT);
+        }
+        assertTrue(kinematics.isSettled());
+        assertEquals(pack(80, 0), wheels);
+        assertEquals(40, kinematics.getLinearVelocity(), 0);
+        assertEquals(40, kinematics.getAngularVelocity(), 0);
+
+        kinematics.reset();
+        assertTrue(kinematics.isSettled());
+        assertEquals(pack(0, 0), kinematics.step(DT));
+    }
+
+    @Test
+    public void commands_reportTheWheelSpeedsTheySet() {
+        RobotCommand command = new RobotCommand();
+        command.set(RobotCommand.TURN_RIGHT, 30, 70);
+        assertEquals(pack(70, -30), command.getWheelSpeeds());
+        command.set(RobotCommand.SPIN_LEFT, 40, 0);
+        assertEquals(pack(0, 40), command.getWheelSpeeds());
+        command.set(RobotCommand.DRIVE, -20, 90);
+        assertEquals(pack(-20, 90), command.getWheelSpeeds());
+        command.set(RobotCommand.PING, 5, 0);
+        assertEquals(RobotCommand.SPEEDS_UNCHANGED, command.getWheelSpeeds());
+    }
+
+    /**
+     * Packs wheel speeds the way the kinematics does
+     */
+    private static int pack(int left, int right) {
+        return (left << 16) | (right & 0xFFFF);
+    }
+}
@@ -0,0 +1,197 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for fixed rate drive streaming.
+ */
+public class DriveStreamerTest {
+    @Test
+    public void rate_isCappedByLinkBudget() {
+        // "D -100 -100\r\n" is 13 bytes, so 75% of 960 bytes per second allows 55 Hz
+        assertEquals(55, DriveStreamer.getMaxRate(new AsciiCommandCodec(true)));
+        // Older firmware is sent at most "TR 100 100\r\n", which is 12 bytes
+        assertEquals(60, DriveStreamer.getMaxRate(new AsciiCommandCodec()));
+        DriveStreamer streamer =
+                new DriveStreamer(new CommandQueue(), new AsciiCommandCodec(true), 500);
+        assertEquals(55, streamer.getRate());
+        streamer = new DriveStreamer(new CommandQueue(), new AsciiCommandCodec(true), 20);
+        assertEquals(20, streamer.getRate());
+    }
+
+    @Test
+    public void unchangedTargets_areSentOnce() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        DriveStreamer streamer = new DriveStreamer(queue, new BinaryCommandCodec(), 100);
+        streamer.setTarget(-40, 75);
+        streamer.start();
+
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.DRIVE, command.opcode);
+        assertEquals(-40, command.arg0);
+        assertEquals(75, command.arg1);
+
+        Thread.sleep(100);
+        assertEquals(0, queue.getDepth());
+        assertEquals(1, streamer.getSentCount());
+        assertTrue(streamer.getUnchangedCount() > 0);
+
+        streamer.setTarget(10, -10);
+        assertTrue(queue.take(command));
+        assertEquals(10, command.arg0);
+        assertEquals(-10, command.arg1);
+
+        streamer.terminate();
+        streamer.join(1000);
+        assertFalse(streamer.isAlive());
+    }
+
+    @Test
+    public void kinematics_rampsToTargetsAndHaltStopsAtOnce() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        DriveStreamer streamer = new DriveStreamer(queue, new BinaryCommandCodec(), 100,
+                new DriveKinematics());
+        streamer.setTarget(100, 100);
+        streamer.start();
+
+        // The first setpoints climb towards the target instead of jumping to it
+        RobotCommand command = new RobotCommand();
+        int previous = 0;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.take(command));
+            assertEquals(RobotCommand.DRIVE, command.opcode);
+            assertEquals(command.arg0, command.arg1);
+            assertTrue(command.arg0 >= previous);
+            assertTrue(command.arg0 < 100);
+            previous = command.arg0;
+        }
+
+        assertTrue(streamer.halt());
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.STOP, command.opcode);
+        Thread.sleep(50);
+        assertEquals(0, queue.getDepth());
+
+        streamer.terminate();
+        streamer.join(1000);
+        assertFalse(streamer.isAlive());
+    }
+
+    @Test
+    public void legacyOpcode_rampsWithTheButtonsOwnCommand() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        DriveStreamer streamer = new DriveStreamer(queue, new AsciiCommandCodec(), 100,
+                new DriveKinematics());
+        streamer.setTarget(60, -60, RobotCommand.TURN_RIGHT);
+        streamer.start();
+
+        // Every setpoint is a right turn whose wheel speeds climb towards the target
+        RobotCommand command = new RobotCommand();
+        int previous = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (previous < 60) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            assertTrue(queue.take(command));
+            assertEquals(RobotCommand.TURN_RIGHT, command.opcode);
+            int speeds = command.getWheelSpeeds();
+            assertEquals(speeds >> 16, -(short)speeds);
+            assertTrue((speeds >> 16) >= previous);
+            previous = speeds >> 16;
+        }
+
+        // The drive command is still the default
+        streamer.setTarget(60, 60);
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.DRIVE, command.opcode);
+
+        streamer.terminate();
+        streamer.join(1000);
+        assertFalse(streamer.isAlive());
+    }
+
+    @Test
+    public void legacyOpcodeChange_rampsThroughStopWithoutJumps() {
+        CommandQueue queue = new CommandQueue();
+        int rate = 50;
+        DriveStreamer streamer = new DriveStreamer(queue, new AsciiCommandCodec(), rate,
+                new DriveKinematics());
+        // One tick of full acceleration on both axes, plus rounding
+        int maxChange = (int)Math.ceil(2 * DriveKinematics.DEFAULT_MAX_ACCELERATION / rate) + 2;
+        RobotCommand command = new RobotCommand();
+
+        streamer.setTarget(50, -50, RobotCommand.TURN_RIGHT);
+        int speeds = 0;
+        for (int i = 0; i < 5 * rate && speeds != ((50 << 16) | (-50 & 0xFFFF)); i++) {
+            assertTrue(streamer.tick());
+            if (queue.poll(command)) {
+                assertEquals(RobotCommand.TURN_RIGHT, command.opcode);
+                speeds = command.getWheelSpeeds();
+            }
+        }
+        assertTrue(streamer.isSettled());
+
+        // A right turn cannot become forward directly, so it slows to a stop first
+        streamer.setTarget(50, 50, RobotCommand.FORWARD);
+        boolean stopped = false;
+        int target = (50 << 16) | 50;
+        for (int i = 0; i < 10 * rate && speeds != target; i++) {
+            assertTrue(streamer.tick());
+            if (!queue.poll(command)) {
+                continue;
+            }
+            assertTrue(command.toString(), command.arg0 >= 0 && command.arg1 >= 0);
+            int next = command.getWheelSpeeds();
+            assertTrue(command.toString(), Math.abs((next >> 16) - (speeds >> 16)) <= maxChange);
+            assertTrue(command.toString(), Math.abs((short)next - (short)speeds) <= maxChange);
+            if (next == 0) {
+                stopped = true;
+            }
+            else if (stopped) {
+                assertEquals(RobotCommand.FORWARD, command.opcode);
+            }
+            else {
+                assertEquals(RobotCommand.TURN_RIGHT, command.opcode);
+            }
+            speeds = next;
+        }
+        assertTrue(stopped);
+        assertEquals(target, speeds);
+        assertEquals(RobotCommand.FORWARD, command.opcode);
+        assertTrue(streamer.isSettled());
+    }
+
+    @Test
+    public void getNearestSpeeds_staysWithinWhatEachCommandCanSet() {
+        assertEquals((10 << 16) | 10, RobotCommand.getNearestSpeeds(RobotCommand.FORWARD, 30, -10));
+        assertEquals(0, RobotCommand.getNearestSpeeds(RobotCommand.FORWARD, -30, 10));
+        assertEquals(30 << 16, RobotCommand.getNearestSpeeds(RobotCommand.TURN_RIGHT, 30, 10));
+        assertEquals(30 << 16, RobotCommand.getNearestSpeeds(RobotCommand.SPIN_RIGHT, 30, -10));
+        assertEquals(10, RobotCommand.getNearestSpeeds(RobotCommand.SPIN_LEFT, -30, 10));
+        assertTrue(RobotCommand.canSet(RobotCommand.TURN_LEFT, -20, 40));
+        assertFalse(RobotCommand.canSet(RobotCommand.TURN_LEFT, 20, 40));
+        assertTrue(RobotCommand.canSet(RobotCommand.DRIVE, 20, -40));
+        for (int opcode = RobotCommand.STOP; opcode <= RobotCommand.DRIVE; opcode++) {
+            assertTrue(RobotCommand.canSet(opcode, 0, 0));
+        }
+    }
+
+    @Test
+    public void setWheelSpeeds_isTheInverseOfGetWheelSpeeds() {
+        RobotCommand command = new RobotCommand();
+        int[] opcodes = {RobotCommand.DRIVE, RobotCommand.TURN_RIGHT, RobotCommand.TURN_LEFT};
+        for (int opcode : opcodes) {
+            command.setWheelSpeeds(opcode, 35, -70);
+            assertEquals(opcode, command.opcode);
+            assertEquals((35 << 16) | (-70 & 0xFFFF), command.getWheelSpeeds());
+        }
+        command.setWheelSpeeds(RobotCommand.BACKWARD, -40, -40);
+        assertEquals(40, command.arg0);
+        assertEquals((-40 << 16) | (-40 & 0xFFFF), command.getWheelSpeeds());
+        command.setWheelSpeeds(RobotCommand.SPIN_LEFT, 0, 25);
+        assertEquals(25, command.arg0);
+        assertEquals(25, command.getWheelSpeeds());
+    }
+}
@@ -0,0 +1,90 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the heartbeat round trip measurement and dead-man switch.
+ */
+public class HeartbeatMonitorTest {
+    /// Counts listener callbacks
+    private static class CountingListener implements HeartbeatMonitor.Listener {
+        int updates = 0;
+        int stalls = 0;
+        int restores = 0;
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {
+            updates++;
+        }
+
+        @Override
+        public void onLinkStalled() {
+            stalls++;
+        }
+
+        @Override
+        public void onLinkRestored() {
+            restores++;
+        }
+    }
+
+    @Test
+    public void pong_recordsRoundTrip() {
+        CountingListener listener = new CountingListener();
+        HeartbeatMonitor monitor = new HeartbeatMonitor(new CommandQueue(), listener);
+        monitor.onPingSent(3, 1000);
+        monitor.onPong(3, 1000 + TimeUnit.MILLISECONDS.toNanos(25));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(25), monitor.getLatencyHistogram().getLatest());
+        assertEquals(1, listener.updates);
+
+        // A duplicate or unknown reply is ignored
+        monitor.onPong(3, 5000);
+        monitor.onPong(4, 5000);
+        assertEquals(1, monitor.getLatencyHistogram().getCount());
+    }
+
+    @Test
+    public void missedDeadline_queuesStopOnce() throws InterruptedException {
+        CommandQueue queue = new CommandQueue();
+        CountingListener listener = new CountingListener();
+        HeartbeatMonitor monitor = new HeartbeatMonitor(queue, listener, 100, 300);
+        long start = System.nanoTime();
+
+        // Not armed until the robot has answered once
+        assertFalse(monitor.checkDeadline(start + TimeUnit.SECONDS.toNanos(10)));
+
+        monitor.onPingSent(0, start);
+        monitor.onPong(0, start + 10);
+        queue.offer(RobotCommand.FORWARD, 50, 0);
+        assertFalse(monitor.checkDeadline(start + TimeUnit.MILLISECONDS.toNanos(200)));
+        assertTrue(monitor.checkDeadline(start + TimeUnit.MILLISECONDS.toNanos(400)));
+        assertFalse(monitor.checkDeadline(start + TimeUnit.MILLISECONDS.toNanos(500)));
+        assertTrue(monitor.isStalled());
+
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.STOP, command.opcode);
+        assertEquals(0, queue.getDepth());
+
+        monitor.onPingSent(1, start + TimeUnit.MILLISECONDS.toNanos(600));
+        monitor.onPong(1, start + TimeUnit.MILLISECONDS.toNanos(650));
+        assertFalse(monitor.isStalled());
+        assertEquals(1, listener.restores);
+    }
+
+    @Test
+    public void percentiles_comeFromWindow() {
+        LatencyHistogram histogram = new LatencyHistogram(100);
+        assertEquals(-1, histogram.getPercentile(50));
+        for (int i = 100; i >= 1; i--) {
+            histogram.record(i);
+        }
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(99, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100));
+    }
+}
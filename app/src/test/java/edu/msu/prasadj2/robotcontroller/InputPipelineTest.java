@@ -0,0 +1,138 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for turning gamepad and tilt input into drive commands.
+ */
+public class InputPipelineTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test
+    public void curveHasDeadzoneAndExpo() {
+        InputCurve curve = new InputCurve(0.1f, 0.5f);
+        assertEquals(0, curve.apply(0.05f), 0);
+        assertEquals(0, curve.apply(-0.1f), 0);
+        assertEquals(1, curve.apply(1), 1e-6);
+        assertEquals(-1, curve.apply(-2), 1e-6);
+
+        // Halfway past the deadzone, the expo curve is below a straight line
+        float shaped = curve.apply(0.55f);
+        assertEquals(0.5f * 0.5f + 0.5f * 0.125f, shaped, 1e-6);
+        assertEquals(-shaped, curve.apply(-0.55f), 1e-6);
+    }
+
+    @Test
+    public void mixesThrottleAndSteering() {
+        assertEquals(pack(100, 100), InputPipeline.mix(1, 0));
+        assertEquals(pack(-100, -100), InputPipeline.mix(-1, 0));
+        assertEquals(pack(100, -100), InputPipeline.mix(0, 1));
+        assertEquals(pack(0, 0), InputPipeline.mix(0, 0));
+
+        // Full throttle and steering turns on the inside wheel instead of saturating
+        assertEquals(pack(100, 0), InputPipeline.mix(1, 1));
+        assertEquals(pack(75, 25), InputPipeline.mix(0.5f, 0.25f));
+    }
+
+    @Test
+    public void queuesChangedTargetsAndMeasuresEventToWire() throws Exception {
+        CommandQueue queue = new CommandQueue();
+        MetricsRegistry registry = new MetricsRegistry();
+        InputPipeline pipeline = new InputPipeline(queue, new AsciiCommandCodec(),
+                InputPipeline.DEFAULT_RATE, InputCurve.GAMEPAD, InputCurve.GAMEPAD, registry);
+        pipeline.start();
+        try {
+            // The first tick queues the resting target
+            RobotCommand command = new RobotCommand();
+            assertTrue(queue.poll(command, TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS)));
+            assertEquals(RobotCommand.DRIVE, command.opcode);
+            assertEquals(0, command.arg0);
+            assertEquals(0, command.arg1);
+
+            pipeline.setAxes(1, 0, System.nanoTime());
+            assertTrue(queue.poll(command, TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS)));
+            assertEquals(RobotCommand.DRIVE, command.opcode);
+            assertEquals(100, command.arg0);
+            assertEquals(100, command.arg1);
+            pipeline.onCommandSent(command);
+
+            // Moving inside the deadzone does not change the target
+            pipeline.setAxes(1, 0.05f, System.nanoTime());
+            assertFalse(queue.poll(command, TimeUnit.MILLISECONDS.toNanos(100)));
+        } finally {
+            pipeline.terminate();
+            pipeline.join(TIMEOUT_MS);
+        }
+
+        assertEquals(2, pipeline.getSentCount());
+        assertEquals(2, registry.counter(InputPipeline.EVENTS).get());
+        assertEquals(1, registry.histogram(InputPipeline.EVENT_TO_QUEUE).getCount());
+        assertEquals(1, registry.histogram(InputPipeline.EVENT_TO_WIRE).getCount());
+    }
+
+    @Test
+    public void terminate_stopsARobotLeftMoving() throws Exception {
+        CommandQueue queue = new CommandQueue();
+        InputPipeline pipeline = new InputPipeline(queue, new AsciiCommandCodec(),
+                InputPipeline.DEFAULT_RATE, InputCurve.GAMEPAD, InputCurve.GAMEPAD,
+                new MetricsRegistry());
+        pipeline.setAxes(1, 0, System.nanoTime());
+        pipeline.start();
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.poll(command, TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS)));
+        assertEquals(100, command.arg0);
+
+        // The stop is queued by the time terminate returns, and nothing follows it
+        pipeline.terminate();
+        assertTrue(queue.poll(command, 0));
+        assertEquals(RobotCommand.STOP, command.opcode);
+        pipeline.join(TIMEOUT_MS);
+        assertFalse(pipeline.isAlive());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void tiltFollowsGyroscopeAndSettlesOnAccelerometer() {
+        TiltFilter filter = new TiltFilter();
+        long nanos = 1000000000L;
+        filter.onAccelerometer(0, 0, 9.81f, nanos);
+        filter.onGyroscope(0, 0, 0, nanos);
+        assertTrue(filter.isInitialized());
+        assertEquals(0, filter.getPitch(), 1e-9);
+        assertEquals(0, filter.getRoll(), 1e-9);
+
+        // Rotating about x raises the y axis; the gyroscope answers before the accelerometer
+        long step = TimeUnit.MILLISECONDS.toNanos(10);
+        for (int i = 0; i < 10; i++) {
+            nanos += step;
+            filter.onGyroscope(1, 0, 0, nanos);
+        }
+        assertEquals(0.1, filter.getRoll(), 1e-6);
+
+        // Held at a pitch, the estimate converges on the accelerometer
+        float angle = 0.3f;
+        for (int i = 0; i < 500; i++) {
+            nanos += step;
+            filter.onGyroscope(0, 0, 0, nanos);
+            filter.onAccelerometer((float)(9.81 * Math.sin(angle)), 0,
+                    (float)(9.81 * Math.cos(angle)), nanos);
+        }
+        assertEquals(angle, filter.getPitch(), 1e-3);
+        assertEquals(0, filter.getRoll(), 1e-3);
+
+        filter.calibrate();
+        assertEquals(0, filter.getPitch(), 1e-9);
+    }
+
+    /**
+     * Packs motor speeds the way the pipeline does
+     */
+    private static int pack(int left, int right) {
+        return (left << 16) | (right & 0xFFFF);
+    }
+}
@@ -0,0 +1,117 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the metrics registry, its histograms and the link metrics.
+ */
+public class MetricsRegistryTest {
+    @Test
+    public void histogram_percentilesStayWithinBucketError() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        assertEquals(-1, histogram.getPercentile(50));
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000 * 1000L, histogram.getMax());
+        assertEquals(5000500, histogram.getMean());
+
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 5000000 && median <= 5000000 * 1.04);
+        long tail = histogram.getPercentile(99);
+        assertTrue(tail >= 9900000 && tail <= 9900000 * 1.04);
+        assertEquals(10000 * 1000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void histogram_bucketsCoverEveryValue() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000003, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LogLinearHistogram.getBucket(value);
+            assertTrue(LogLinearHistogram.getUpperBound(bucket) >= value);
+            if (bucket > 0) {
+                assertTrue(LogLinearHistogram.getUpperBound(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void registry_returnsSameMetricByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Counter counter = registry.counter("a");
+        assertSame(counter, registry.counter("a"));
+        counter.add(5);
+        counter.increment();
+        registry.gauge("b").set(7);
+        registry.gauge("b").set(3);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(6, snapshot.getValue("a"));
+        assertEquals(3, snapshot.getValue("b"));
+        assertEquals(7, snapshot.getMax("b"));
+        assertEquals(0, snapshot.getValue("missing"));
+        assertEquals("a 6\nb 3 max=7\n", snapshot.toString());
+
+        try {
+            registry.histogram("a");
+            fail("Expected a name registered as another kind to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void writer_countsCommandsBytesAndDepth() throws IOException, InterruptedException {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        final CountDownLatch sent = new CountDownLatch(2);
+        LinkMetrics metrics = new LinkMetrics();
+        CommandQueue queue = new CommandQueue();
+        CommandWriter writer = new CommandWriter(queue, pair[0].getOutputStream(),
+                new AsciiCommandCodec(), new CommandWriter.Listener() {
+            @Override
+            public void onCommandSent(RobotCommand command) {
+                sent.countDown();
+            }
+
+            @Override
+            public void onWriteFailed(IOException e) {}
+        }, metrics);
+        queue.offer(RobotCommand.STOP, 0, 0);
+        queue.offer(RobotCommand.FORWARD, 50, 0);
+        writer.start();
+        assertTrue(sent.await(1, TimeUnit.SECONDS));
+        writer.terminate();
+
+        MetricsSnapshot snapshot = metrics.registry.snapshot();
+        assertEquals(2, snapshot.getValue(LinkMetrics.COMMANDS_SENT));
+        // "STP\r\n" and "F 50\r\n"
+        assertEquals(11, snapshot.getValue(LinkMetrics.BYTES_OUT));
+        assertEquals(2, snapshot.getValue(LinkMetrics.WRITE_LATENCY));
+        assertEquals(1, snapshot.getMax(LinkMetrics.QUEUE_DEPTH));
+    }
+
+    @Test
+    public void dumper_appendsSnapshots() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("link.commands_sent").add(3);
+        File file = File.createTempFile("metrics", ".txt");
+        try {
+            MetricsDumper dumper = new MetricsDumper(registry, file, 1000);
+            dumper.dump();
+            dumper.dump();
+            assertEquals(2, dumper.getDumpCount());
+            assertTrue(file.length() > 2 * "link.commands_sent 3\n".length());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for sharing the link between commands and transfers, alone and against
+ * a simulated robot.
+ */
+public class OutboundSchedulerTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 10000;
+
+    /// Ignores link events
+    private static class QuietListener implements RobotLink.Listener {
+        @Override
+        public void onCommandSent(RobotCommand command) {}
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {}
+
+        @Override
+        public void onLinkStalled() {}
+
+        @Override
+        public void onLinkRestored() {}
+
+        @Override
+        public void onLinkFailed(IOException e) {}
+    }
+
+    /**
+     * Creates a transfer whose bytes count up from a seed
+     */
+    private static byte[] transfer(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void stop_goesAheadOfTransfersAndMotion() throws IOException {
+        CommandQueue queue = new CommandQueue();
+        OutboundScheduler scheduler = new OutboundScheduler(queue, new BinaryCommandCodec(),
+                new LinkMetrics());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RobotCommand command = new RobotCommand();
+        assertEquals(-1, scheduler.writeNext(outputStream, command));
+
+        byte[] data = transfer(1000, 0);
+        assertTrue(scheduler.submit(OutboundScheduler.BULK, data, 0, data.length));
+        assertTrue(scheduler.submit(OutboundScheduler.CONFIG, data, 0, 100));
+        queue.offer(RobotCommand.DRIVE, 40, 40);
+        assertEquals(OutboundScheduler.MOTION, scheduler.writeNext(outputStream, command));
+        assertEquals(OutboundScheduler.CONFIG, scheduler.writeNext(outputStream, command));
+
+        queue.offer(RobotCommand.DRIVE, 60, 60);
+        queue.offer(RobotCommand.STOP, 0, 0);
+        assertEquals(OutboundScheduler.SAFETY, scheduler.writeNext(outputStream, command));
+        assertEquals(RobotCommand.STOP, command.opcode);
+        // The stop superseded the motion, so only transfers are left
+        assertTrue(scheduler.writeNext(outputStream, command) >= OutboundScheduler.CONFIG);
+    }
+
+    @Test
+    public void transfers_shareTheLinkByWeight() throws IOException {
+        CommandQueue queue = new CommandQueue();
+        LinkMetrics metrics = new LinkMetrics();
+        OutboundScheduler scheduler = new OutboundScheduler(queue, new BinaryCommandCodec(),
+                metrics);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RobotCommand command = new RobotCommand();
+        byte[] data = transfer(1000, 0);
+        assertTrue(scheduler.submit(OutboundScheduler.CONFIG, data, 0, data.length));
+        assertTrue(scheduler.submit(OutboundScheduler.BULK, data, 0, data.length));
+
+        int[] writes = new int[OutboundScheduler.CLASS_COUNT];
+        for (int i = 0; i < 30; i++) {
+            writes[scheduler.writeNext(outputStream, command)]++;
+        }
+        // Full fragments, with configuration weighted twice bulk
+        assertEquals(20, writes[OutboundScheduler.CONFIG]);
+        assertEquals(10, writes[OutboundScheduler.BULK]);
+        assertEquals(30 * (OutboundScheduler.FRAME_OVERHEAD
+                + OutboundScheduler.DEFAULT_FRAGMENT_PAYLOAD), outputStream.size());
+        assertEquals(30, metrics.fragmentsSent.get());
+
+        // Steady motion gets its share without starving bulk
+        Arrays.fill(writes, 0);
+        for (int i = 0; i < 200; i++) {
+            queue.offer(RobotCommand.DRIVE, i % 100, 0);
+            writes[scheduler.writeNext(outputStream, command)]++;
+        }
+        assertTrue(writes[OutboundScheduler.MOTION] > writes[OutboundScheduler.CONFIG]);
+        assertTrue(writes[OutboundScheduler.BULK] > 0);
+        assertEquals(2 * writes[OutboundScheduler.BULK], writes[OutboundScheduler.CONFIG], 2);
+    }
+
+    @Test
+    public void submit_rejectsTransfersThatDoNotFit() {
+        LinkMetrics metrics = new LinkMetrics();
+        OutboundScheduler scheduler = new OutboundScheduler(new CommandQueue(),
+                new BinaryCommandCodec(), metrics);
+        byte[] data = transfer(OutboundScheduler.CONFIG_CAPACITY, 0);
+        assertTrue(scheduler.submit(OutboundScheduler.CONFIG, data, 0, data.length - 1));
+        assertFalse(scheduler.submit(OutboundScheduler.CONFIG, data, 0, 2));
+        assertTrue(scheduler.submit(OutboundScheduler.CONFIG, data, 0, 1));
+        assertEquals(OutboundScheduler.CONFIG_CAPACITY,
+                scheduler.getPendingBytes(OutboundScheduler.CONFIG));
+        assertEquals(1, metrics.transfersDropped.get());
+        try {
+            scheduler.submit(OutboundScheduler.MOTION, data, 0, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Commands go through the queue
+        }
+    }
+
+    @Test
+    public void simulatedRobot_getsTheStopDuringABulkTransfer() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair(64);
+        RobotSimulator simulator = new RobotSimulator(pair[1], new BinaryCommandCodec());
+        simulator.setBaudRate(115200);
+        simulator.start();
+        LinkMetrics metrics = new LinkMetrics();
+        RobotLink link = new RobotLink(pair[0], new BinaryCommandCodec(), new QuietListener(),
+                HeartbeatMonitor.DEFAULT_INTERVAL_MS, HeartbeatMonitor.DEFAULT_DEADLINE_MS,
+                metrics);
+        link.enableScheduling();
+        link.start();
+        try {
+            // About 0.7 s of bulk data at 115200 baud
+            byte[] bulk = transfer(8000, 7);
+            byte[] config = transfer(300, 3);
+            assertTrue(link.sendTransfer(OutboundScheduler.BULK, bulk, 0, bulk.length));
+            assertTrue(link.sendTransfer(OutboundScheduler.CONFIG, config, 0, config.length));
+            assertTrue(link.sendCommand(RobotCommand.DRIVE, 50, 50));
+            Thread.sleep(100);
+            assertTrue(link.sendCommand(RobotCommand.STOP, 0, 0));
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            while (simulator.getTransferCount() < 2) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+            assertArrayEquals(bulk, simulator.getLastTransfer(OutboundScheduler.BULK));
+            assertArrayEquals(config, simulator.getLastTransfer(OutboundScheduler.CONFIG));
+            assertEquals(0, simulator.getInvalidBytes());
+            assertEquals(0, simulator.getLeftSpeed());
+
+            MetricsSnapshot snapshot = metrics.registry.snapshot();
+            long stopLatency = snapshot.getMax(LinkMetrics.SAFETY_LATENCY);
+            long bulkLatency = snapshot.getMax(LinkMetrics.BULK_LATENCY);
+            assertTrue(stopLatency > 0);
+            // The stop waited behind a fragment or two, not the rest of the upload
+            assertTrue(stopLatency * 4 < bulkLatency);
+            assertTrue(snapshot.getMax(LinkMetrics.CONFIG_LATENCY) < bulkLatency);
+        } finally {
+            link.terminate();
+            simulator.terminate();
+        }
+    }
+}
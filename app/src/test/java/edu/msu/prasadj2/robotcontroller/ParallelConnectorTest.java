@@ -0,0 +1,133 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for dialing several robots at once.
+ */
+public class ParallelConnectorTest {
+    /// Connects after a delay, longer for addresses starting with "slow", or fails at once
+    /// for addresses starting with "bad". Cancelling fails a connect at once.
+    private static class DelayedDialer implements ParallelConnector.Dialer {
+        final List<InMemoryTransport> dialed = new ArrayList<InMemoryTransport>();
+        final List<String> cancelled = new ArrayList<String>();
+
+        @Override
+        public StrategyConnector.Attempt open(final String address) {
+            final CountDownLatch cancel = new CountDownLatch(1);
+            return new StrategyConnector.Attempt() {
+                @Override
+                public RobotTransport connect() throws IOException {
+                    try {
+                        long delayMs = address.startsWith("slow") ? 2000
+                                : address.startsWith("bad") ? 0 : 50;
+                        if (cancel.await(delayMs, TimeUnit.MILLISECONDS)) {
+                            throw new IOException("Cancelled");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    if (address.startsWith("bad")) {
+                        throw new IOException("Host is down");
+                    }
+                    InMemoryTransport transport = InMemoryTransport.createPair()[0];
+                    synchronized (DelayedDialer.this) {
+                        dialed.add(transport);
+                    }
+                    return transport;
+                }
+
+                @Override
+                public void cancel() {
+                    synchronized (DelayedDialer.this) {
+                        cancelled.add(address);
+                    }
+                    cancel.countDown();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void firstConnection_winsAndLosersAreCancelled() throws Exception {
+        DelayedDialer dialer = new DelayedDialer();
+        ParallelConnector connector = new ParallelConnector(dialer);
+        ParallelConnector.Result result =
+                connector.connect(Arrays.asList("slow robot", "bad robot", "robot"), 5000);
+        assertEquals("robot", result.address);
+        assertTrue(result.transport.isConnected());
+        assertTrue(result.elapsedNanos > 0);
+
+        // The slow robot is hung up on as soon as the race is won
+        synchronized (dialer) {
+            assertEquals(Arrays.asList("slow robot"), dialer.cancelled);
+            assertEquals(1, dialer.dialed.size());
+            assertSame(result.transport, dialer.dialed.get(0));
+        }
+    }
+
+    @Test
+    public void everyFailure_throwsLastFailure() throws Exception {
+        ParallelConnector connector = new ParallelConnector(new DelayedDialer());
+        try {
+            connector.connect(Arrays.asList("bad one", "bad two"), 2000);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Host is down", e.getMessage());
+        }
+    }
+
+    @Test
+    public void timeout_throwsAndCancelsTheDials() throws Exception {
+        DelayedDialer dialer = new DelayedDialer();
+        ParallelConnector connector = new ParallelConnector(dialer);
+        long start = System.nanoTime();
+        try {
+            connector.connect(Arrays.asList("slow robot"), 50);
+            fail();
+        } catch (IOException e) {
+            assertTrue(System.nanoTime() - start < 150000000L);
+        }
+        synchronized (dialer) {
+            assertEquals(Arrays.asList("slow robot"), dialer.cancelled);
+            assertTrue(dialer.dialed.isEmpty());
+        }
+    }
+
+    @Test
+    public void interrupt_cancelsTheDials() throws Exception {
+        final DelayedDialer dialer = new DelayedDialer();
+        final AtomicReference<Exception> thrown = new AtomicReference<Exception>();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    new ParallelConnector(dialer).connect(
+                            Arrays.asList("slow one", "slow two"), 5000);
+                } catch (Exception e) {
+                    thrown.set(e);
+                }
+            }
+        };
+        caller.start();
+        Thread.sleep(50);
+        caller.interrupt();
+        caller.join(1000);
+
+        assertTrue(thrown.get() instanceof InterruptedException);
+        synchronized (dialer) {
+            assertEquals(2, dialer.cancelled.size());
+            assertTrue(dialer.dialed.isEmpty());
+        }
+    }
+}
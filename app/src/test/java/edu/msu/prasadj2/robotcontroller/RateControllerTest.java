@@ -0,0 +1,100 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the adaptive write rate of a robot link.
+ */
+public class RateControllerTest {
+    /// One millisecond, in nanoseconds
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void rate_increasesAdditivelyUpToTheBandwidth() {
+        LinkMetrics metrics = new LinkMetrics();
+        RateController controller = new RateController(metrics);
+        assertEquals(RateController.INITIAL_RATE_HZ, controller.getRate(), 1e-9);
+
+        long now = 1000 * MS;
+        controller.onWrite(8, now, now + 1);
+        controller.onWrite(8, now + 1000 * MS, now + 1000 * MS + 1);
+        assertEquals(RateController.INITIAL_RATE_HZ + RateController.INCREASE_HZ_PER_SECOND,
+                controller.getRate(), 1e-6);
+
+        // 960 bytes per second carries 120 writes of 8 bytes
+        for (int i = 0; i < 2000; i++) {
+            now += 10 * MS;
+            controller.onWrite(8, now, now + 1);
+        }
+        assertEquals(120, controller.getRate(), 1e-6);
+        assertEquals(120, metrics.sendRate.get());
+        assertEquals(0, metrics.rateDecreases.get());
+    }
+
+    @Test
+    public void blockedWrite_halvesTheRateOncePerRoundTrip() {
+        LinkMetrics metrics = new LinkMetrics();
+        RateController controller = new RateController(metrics);
+        long now = 1000 * MS;
+
+        controller.onWrite(8, now, now + 10 * MS);
+        assertEquals(RateController.INITIAL_RATE_HZ / 2, controller.getRate(), 1e-9);
+        // 8 bytes in 10 ms is 800 bytes per second, which pulls the estimate down
+        assertTrue(controller.getBandwidth() < DriveStreamer.LINK_BYTES_PER_SECOND);
+        assertTrue(controller.getBandwidth() > 800);
+
+        // The next blocked write still shows the load from before the decrease
+        controller.onWrite(8, now + 20 * MS, now + 30 * MS);
+        assertEquals(RateController.INITIAL_RATE_HZ / 2, controller.getRate(), 1e-9);
+
+        controller.onWrite(8, now + 200 * MS, now + 210 * MS);
+        assertEquals(RateController.INITIAL_RATE_HZ / 4, controller.getRate(), 1e-9);
+        assertEquals(2, metrics.rateDecreases.get());
+
+        for (int i = 0; i < 10; i++) {
+            now += 1000 * MS;
+            controller.onWrite(8, now, now + 20 * MS);
+        }
+        assertEquals(RateController.MIN_RATE_HZ, controller.getRate(), 1e-9);
+    }
+
+    @Test
+    public void roundTrip_decreasesTheRateWhenCommandsQueue() {
+        LinkMetrics metrics = new LinkMetrics();
+        RateController controller = new RateController(metrics);
+        long now = 1000 * MS;
+
+        for (int i = 0; i < 5; i++) {
+            controller.onRoundTrip(30 * MS + i * MS, now + i * 100 * MS);
+        }
+        assertEquals(30 * MS, controller.getMinRoundTrip());
+        assertEquals(RateController.INITIAL_RATE_HZ, controller.getRate(), 1e-9);
+        assertEquals(0, metrics.rateDecreases.get());
+
+        // 70 ms over the fastest round trip is commands waiting behind each other
+        controller.onRoundTrip(100 * MS, now + 1000 * MS);
+        assertEquals(RateController.INITIAL_RATE_HZ / 2, controller.getRate(), 1e-9);
+        assertEquals(1, metrics.rateDecreases.get());
+        assertEquals(30 * MS, metrics.minRoundTrip.get());
+        assertEquals(controller.getSmoothedRoundTrip(), metrics.smoothedRoundTrip.get());
+        assertTrue(controller.getSmoothedRoundTrip() > 30 * MS);
+    }
+
+    @Test
+    public void coalescingWindow_waitsOutTheTimeUntilTheNextWrite() {
+        LinkMetrics metrics = new LinkMetrics();
+        RateController controller = new RateController(metrics);
+        long now = 1000 * MS;
+        assertEquals(2 * MS, controller.getCoalescingWindowNanos(now, 2 * MS));
+
+        // At 20 Hz the next write is 50 ms after the last one started
+        controller.onWrite(8, now, now + 1);
+        assertEquals(40 * MS, controller.getCoalescingWindowNanos(now + 10 * MS, 2 * MS));
+        assertEquals(40 * MS, metrics.coalescingWindow.get());
+        assertEquals(2 * MS, controller.getCoalescingWindowNanos(now + 60 * MS, 2 * MS));
+    }
+}
@@ -0,0 +1,145 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for reliable delivery, alone and against a lossy simulated robot.
+ */
+public class ReliableSenderTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 10000;
+    /// Time far enough ahead that every frame has timed out
+    private static final long LATER = TimeUnit.SECONDS.toNanos(10);
+
+    /// Ignores link events
+    private static class QuietListener implements RobotLink.Listener {
+        @Override
+        public void onCommandSent(RobotCommand command) {}
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {}
+
+        @Override
+        public void onLinkStalled() {}
+
+        @Override
+        public void onLinkRestored() {}
+
+        @Override
+        public void onLinkFailed(IOException e) {}
+    }
+
+    /**
+     * Sends a command through a sender
+     */
+    private static void send(ReliableSender sender, ByteArrayOutputStream outputStream,
+                             int opcode, int arg0) throws IOException {
+        RobotCommand command = new RobotCommand();
+        command.set(opcode, arg0, 0);
+        sender.send(command, outputStream);
+    }
+
+    @Test
+    public void crc_matchesCcittCheckValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, ReliableSender.crc16(data, 0, data.length));
+    }
+
+    @Test
+    public void window_slidesOnlyPastAcknowledgedFrames() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReliableSender sender = new ReliableSender(new BinaryCommandCodec(), new LinkMetrics(), 4);
+        for (int i = 0; i < 4; i++) {
+            send(sender, outputStream, RobotCommand.PING, i);
+        }
+        assertFalse(sender.hasSpace());
+        assertEquals(4 * 10, outputStream.size());
+
+        assertTrue(sender.onAck(1, System.nanoTime()));
+        assertFalse(sender.onAck(1, System.nanoTime()));
+        assertFalse(sender.hasSpace());
+        assertTrue(sender.onAck(0, System.nanoTime()));
+        assertEquals(2, sender.getInFlightCount());
+        assertTrue(sender.hasSpace());
+
+        // Only the two frames still waiting are sent again
+        outputStream.reset();
+        assertEquals(2, sender.retransmitExpired(outputStream, System.nanoTime() + LATER));
+        byte[] written = outputStream.toByteArray();
+        assertEquals(2, written[2]);
+        assertEquals(3, written[12]);
+        assertEquals(0, sender.retransmitExpired(outputStream, System.nanoTime()));
+    }
+
+    @Test
+    public void stop_supersedesMotionInFlight() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReliableSender sender = new ReliableSender(new BinaryCommandCodec(), new LinkMetrics());
+        send(sender, outputStream, RobotCommand.FORWARD, 80);
+        send(sender, outputStream, RobotCommand.PING, 1);
+        send(sender, outputStream, RobotCommand.STOP, 0);
+        assertEquals(1, sender.getSupersededCount());
+
+        outputStream.reset();
+        assertEquals(2, sender.retransmitExpired(outputStream, System.nanoTime() + LATER));
+        byte[] written = outputStream.toByteArray();
+        assertEquals(RobotCommand.PING, written[5]);
+        assertEquals(RobotCommand.STOP, written[15]);
+    }
+
+    @Test
+    public void lossyLink_deliversEveryCommandOnce() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(pair[1], new BinaryCommandCodec());
+        simulator.setLoss(0.2, 476);
+        simulator.start();
+        RobotLink link = new RobotLink(pair[0], new BinaryCommandCodec(), new QuietListener(),
+                HeartbeatMonitor.DEFAULT_INTERVAL_MS, HeartbeatMonitor.DEFAULT_DEADLINE_MS,
+                new LinkMetrics());
+        link.enableReliableDelivery(16);
+        link.start();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            for (int i = 0; i < 100; i++) {
+                while (!link.sendCommand(RobotCommand.PING, i, 0)) {
+                    assertTrue(System.nanoTime() < deadline);
+                    Thread.sleep(1);
+                }
+            }
+            link.sendCommand(RobotCommand.DRIVE, 60, 60);
+            while (simulator.getLeftSpeed() != 60) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+            link.sendCommand(RobotCommand.STOP, 0, 0);
+
+            MetricsSnapshot snapshot = link.getMetrics().registry.snapshot();
+            while (link.getCommandQueue().getDepth() > 0
+                    || snapshot.getValue(LinkMetrics.FRAMES_IN_FLIGHT) > 0
+                    || simulator.getCommandCount() < snapshot.getValue(LinkMetrics.COMMANDS_SENT)) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(5);
+                snapshot = link.getMetrics().registry.snapshot();
+            }
+
+            // Every command arrived exactly once, despite a fifth of the frames and acks lost
+            assertTrue(simulator.getLostCount() > 0);
+            assertTrue(snapshot.getValue(LinkMetrics.RETRANSMITS) > 0);
+            assertEquals(snapshot.getValue(LinkMetrics.COMMANDS_SENT), simulator.getCommandCount());
+            assertTrue(simulator.getPingCount() >= 100);
+            assertEquals(0, simulator.getLeftSpeed());
+            assertEquals(0, simulator.getRightSpeed());
+            assertEquals(0, simulator.getInvalidBytes());
+        } finally {
+            link.terminate();
+            simulator.terminate();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for driving several simulated robots from one fleet I/O thread.
+ */
+public class RobotFleetTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 5000;
+
+    /// Records fleet events
+    private static class RecordingListener implements RobotFleet.Listener {
+        final CountDownLatch latencies = new CountDownLatch(3);
+        final CountDownLatch failed = new CountDownLatch(1);
+        volatile FleetRobot failedRobot = null;
+
+        @Override
+        public void onRobotLatency(FleetRobot robot) {
+            latencies.countDown();
+        }
+
+        @Override
+        public void onRobotStalled(FleetRobot robot) {}
+
+        @Override
+        public void onRobotFailed(FleetRobot robot, IOException e) {
+            failedRobot = robot;
+            failed.countDown();
+        }
+    }
+
+    /**
+     * Waits until a simulated robot has a motor speed pair
+     */
+    private static boolean awaitSpeeds(RobotSimulator simulator, int left, int right)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (simulator.getLeftSpeed() != left || simulator.getRightSpeed() != right) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @Test
+    public void fleet_routesCommandsToRobotsGroupsAndAll() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RobotFleet fleet = new RobotFleet(listener, 50, 1000);
+        RobotSimulator[] simulators = new RobotSimulator[3];
+        for (int i = 0; i < simulators.length; i++) {
+            InMemoryTransport[] pair = InMemoryTransport.createPair();
+            simulators[i] = new RobotSimulator(pair[1], new AsciiCommandCodec());
+            simulators[i].start();
+            fleet.add("robot" + i, pair[0], new AsciiCommandCodec());
+        }
+        fleet.setGroup("front", Arrays.asList("robot0", "robot1"));
+        fleet.start();
+
+        assertEquals(2, fleet.sendToGroup("front", RobotCommand.FORWARD, 50, 0));
+        assertTrue(fleet.send("robot2", RobotCommand.DRIVE, -20, 20));
+        assertTrue(awaitSpeeds(simulators[0], 50, 50));
+        assertTrue(awaitSpeeds(simulators[1], 50, 50));
+        assertTrue(awaitSpeeds(simulators[2], -20, 20));
+
+        assertEquals(3, fleet.broadcast(RobotCommand.STOP, 0, 0));
+        for (RobotSimulator simulator : simulators) {
+            assertTrue(awaitSpeeds(simulator, 0, 0));
+        }
+
+        // Every robot answers heartbeats and reports its own traffic
+        assertTrue(listener.latencies.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        for (FleetRobot robot : fleet.getRobots()) {
+            assertTrue(robot.getCommandsSent() >= 2);
+            assertTrue(robot.getBytesReceived() > 0);
+            assertTrue(robot.getCommandRate() > 0);
+        }
+
+        // One robot dropping off leaves the others running
+        simulators[1].terminate();
+        assertTrue(listener.failed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("robot1", listener.failedRobot.getId());
+        assertEquals(1, fleet.sendToGroup("front", RobotCommand.BACKWARD, 30, 0));
+        assertTrue(awaitSpeeds(simulators[0], -30, -30));
+        assertEquals(2, fleet.getRobots().size());
+
+        fleet.terminate();
+    }
+
+    @Test
+    public void robotThatStopsReading_doesNotStallTheOthers() throws Exception {
+        final Set<String> stalled = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger healthyLatencies = new AtomicInteger();
+        RobotFleet fleet = new RobotFleet(new RobotFleet.Listener() {
+            @Override
+            public void onRobotLatency(FleetRobot robot) {
+                if (robot.getId().equals("ok")) {
+                    healthyLatencies.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onRobotStalled(FleetRobot robot) {
+                stalled.add(robot.getId());
+            }
+
+            @Override
+            public void onRobotFailed(FleetRobot robot, IOException e) {
+                failed.add(robot.getId());
+            }
+        }, 50, 500);
+
+        // Nothing ever reads this robot's end, which holds only 16 bytes
+        InMemoryTransport[] stuck = InMemoryTransport.createPair(16);
+        fleet.add("stuck", stuck[0], new AsciiCommandCodec());
+        InMemoryTransport[] quitting = InMemoryTransport.createPair();
+        fleet.add("quitting", quitting[0], new AsciiCommandCodec());
+        InMemoryTransport[] healthy = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(healthy[1], new AsciiCommandCodec());
+        simulator.start();
+        fleet.add("ok", healthy[0], new AsciiCommandCodec());
+        fleet.start();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(fleet.send("stuck", RobotCommand.STOP, 0, 0));
+            assertTrue(fleet.send("stuck", RobotCommand.PING, i, 0));
+        }
+        Thread.sleep(100);
+        assertTrue(fleet.send("ok", RobotCommand.FORWARD, 40, 0));
+        assertTrue(awaitSpeeds(simulator, 40, 40));
+
+        // A clean close is seen without a write failing
+        quitting[1].close();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (!failed.contains("stuck") || !failed.contains("quitting")) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        assertFalse(failed.contains("ok"));
+        assertFalse(stalled.contains("ok"));
+        assertEquals(1, fleet.getRobots().size());
+
+        // The healthy robot's heartbeat kept running the whole time
+        assertTrue(healthyLatencies.get() >= 5);
+        assertTrue(fleet.send("ok", RobotCommand.BACKWARD, 20, 0));
+        assertTrue(awaitSpeeds(simulator, -20, -20));
+        fleet.terminate();
+        simulator.terminate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateId_isRejected() throws Exception {
+        RobotFleet fleet = new RobotFleet(new RecordingListener());
+        fleet.add("robot", InMemoryTransport.createPair()[0], new AsciiCommandCodec());
+        fleet.add("robot", InMemoryTransport.createPair()[0], new AsciiCommandCodec());
+    }
+}
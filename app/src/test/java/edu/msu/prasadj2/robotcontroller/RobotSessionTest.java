@@ -0,0 +1,163 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for reconnecting a robot session to the simulator.
+ */
+public class RobotSessionTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 5000;
+
+    /// Hands out simulated robots, failing a set number of times first
+    private static class SimulatorConnector implements RobotSession.Connector {
+        final List<RobotSimulator> simulators = new ArrayList<RobotSimulator>();
+        int failuresLeft;
+
+        SimulatorConnector(int failures) {
+            failuresLeft = failures;
+        }
+
+        RobotTransport start() {
+            InMemoryTransport[] pair = InMemoryTransport.createPair();
+            RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+            simulator.start();
+            synchronized (this) {
+                simulators.add(simulator);
+            }
+            return pair[0];
+        }
+
+        synchronized RobotSimulator latest() {
+            return simulators.get(simulators.size() - 1);
+        }
+
+        @Override
+        public RobotTransport connect() throws IOException {
+            synchronized (this) {
+                if (failuresLeft > 0) {
+                    failuresLeft--;
+                    throw new IOException("Robot out of range");
+                }
+            }
+            return start();
+        }
+    }
+
+    /// Records session events
+    private static class RecordingListener implements RobotSession.Listener {
+        final CountDownLatch resumed = new CountDownLatch(1);
+        final CountDownLatch lost = new CountDownLatch(1);
+        final List<RobotCommand> sent = new ArrayList<RobotCommand>();
+        int attempts = 0;
+
+        @Override
+        public synchronized void onCommandSent(RobotCommand command) {
+            RobotCommand copy = new RobotCommand();
+            copy.set(command.opcode, command.arg0, command.arg1);
+            sent.add(copy);
+        }
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {}
+
+        @Override
+        public void onLinkStalled() {}
+
+        @Override
+        public void onLinkRestored() {}
+
+        @Override
+        public synchronized void onReconnecting(int attempt, long delayMs) {
+            attempts = attempt;
+        }
+
+        @Override
+        public void onResumed(RobotTransport transport) {
+            resumed.countDown();
+        }
+
+        @Override
+        public void onSessionLost(IOException e) {
+            lost.countDown();
+        }
+    }
+
+    /**
+     * Waits until a simulated robot has a motor speed pair
+     */
+    private static boolean awaitSpeeds(RobotSimulator simulator, int left, int right)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (simulator.getLeftSpeed() != left || simulator.getRightSpeed() != right) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @Test
+    public void droppedLink_reconnectsWithStopHandshake() throws Exception {
+        SimulatorConnector connector = new SimulatorConnector(2);
+        RecordingListener listener = new RecordingListener();
+        RobotSession session = new RobotSession(connector.start(), new AsciiCommandCodec(),
+                connector, new Backoff(10, 40, 5, new Random(1)), listener, 50, 500);
+        session.start();
+        assertTrue(session.sendCommand(RobotCommand.FORWARD, 60, 0));
+        RobotSimulator first = connector.latest();
+        assertTrue(awaitSpeeds(first, 60, 60));
+
+        // The robot drops off, then comes back on the third attempt
+        first.terminate();
+        assertTrue(listener.resumed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(3, listener.attempts);
+        assertEquals(1, session.getReconnectCount());
+        RobotSimulator second = connector.latest();
+        assertNotSame(first, second);
+
+        // The new robot was stopped and answered a heartbeat before commands resumed
+        assertTrue(second.getPingCount() > 0);
+        List<Integer> opcodes = new ArrayList<Integer>();
+        synchronized (listener) {
+            for (RobotCommand command : listener.sent) {
+                if (command.opcode != RobotCommand.PING) {
+                    opcodes.add(command.opcode);
+                }
+            }
+        }
+        assertEquals(Arrays.asList(RobotCommand.FORWARD, RobotCommand.STOP), opcodes);
+        assertTrue(session.sendCommand(RobotCommand.BACKWARD, 30, 0));
+        assertTrue(awaitSpeeds(second, -30, -30));
+
+        session.terminate();
+        assertFalse(session.sendCommand(RobotCommand.STOP, 0, 0));
+    }
+
+    @Test
+    public void unreachableRobot_losesSessionAfterMaxAttempts() throws Exception {
+        SimulatorConnector connector = new SimulatorConnector(Integer.MAX_VALUE);
+        RecordingListener listener = new RecordingListener();
+        RobotSession session = new RobotSession(connector.start(), new AsciiCommandCodec(),
+                connector, new Backoff(5, 10, 3, new Random(1)), listener, 50, 500);
+        session.start();
+        connector.latest().terminate();
+
+        assertTrue(listener.lost.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(3, listener.attempts);
+        assertFalse(session.isResumed());
+        assertFalse(session.sendCommand(RobotCommand.FORWARD, 10, 0));
+        session.terminate();
+    }
+}
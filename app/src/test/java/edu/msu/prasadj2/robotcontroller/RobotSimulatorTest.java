@@ -0,0 +1,280 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the robot link driving the simulator over in-memory and TCP transports.
+ */
+public class RobotSimulatorTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 5000;
+
+    /// Records link events
+    private static class RecordingListener implements RobotLink.Listener {
+        final CountDownLatch latency = new CountDownLatch(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void onCommandSent(RobotCommand command) {}
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {
+            latency.countDown();
+        }
+
+        @Override
+        public void onLinkStalled() {}
+
+        @Override
+        public void onLinkRestored() {}
+
+        @Override
+        public void onLinkFailed(IOException e) {
+            failures.incrementAndGet();
+            failed.countDown();
+        }
+    }
+
+    /// A condition polled until it holds
+    private interface Condition {
+        boolean holds();
+    }
+
+    /**
+     * Polls a condition until it holds or the timeout passes
+     */
+    private static boolean await(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (!condition.holds()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the simulator has a motor speed pair
+     */
+    private static boolean awaitSpeeds(final RobotSimulator simulator, final int left,
+                                       final int right) throws InterruptedException {
+        return await(new Condition() {
+            @Override
+            public boolean holds() {
+                return simulator.getLeftSpeed() == left && simulator.getRightSpeed() == right;
+            }
+        });
+    }
+
+    @Test
+    public void link_drivesSimulatorInMemory() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+        simulator.setLatencyMs(20);
+        simulator.start();
+        RecordingListener listener = new RecordingListener();
+        RobotLink link = new RobotLink(pair[0], new AsciiCommandCodec(), listener, 50, 1000);
+        link.start();
+
+        assertTrue(link.sendCommand(RobotCommand.FORWARD, 40, 0));
+        assertTrue(awaitSpeeds(simulator, 40, 40));
+        assertTrue(link.sendCommand(RobotCommand.TURN_RIGHT, 30, 50));
+        assertTrue(awaitSpeeds(simulator, 50, -30));
+        assertTrue(link.sendCommand(RobotCommand.STOP, 0, 0));
+        assertTrue(awaitSpeeds(simulator, 0, 0));
+
+        // Heartbeats are answered, and the round trip includes the simulated latency
+        assertTrue(listener.latency.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(link.getHeartbeatMonitor().getLatencyHistogram().getLatest()
+                >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        link.terminate();
+        simulator.join();
+        assertEquals(1, listener.failed.getCount());
+    }
+
+    @Test
+    public void readerAndWriterFailingAtOnce_reportOneFailure() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            // Both streams block until the connection breaks, then fail together
+            final CountDownLatch broken = new CountDownLatch(1);
+            final InputStream inputStream = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return read(new byte[1], 0, 1);
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    awaitQuietly(broken);
+                    throw new IOException("Connection reset");
+                }
+            };
+            final OutputStream outputStream = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    awaitQuietly(broken);
+                    throw new IOException("Broken pipe");
+                }
+            };
+            RobotTransport transport = new RobotTransport() {
+                @Override
+                public InputStream getInputStream() {
+                    return inputStream;
+                }
+
+                @Override
+                public OutputStream getOutputStream() {
+                    return outputStream;
+                }
+
+                @Override
+                public boolean isConnected() {
+                    return broken.getCount() > 0;
+                }
+
+                @Override
+                public String getName() {
+                    return "broken";
+                }
+
+                @Override
+                public void close() {
+                    broken.countDown();
+                }
+            };
+
+            RecordingListener listener = new RecordingListener();
+            LinkMetrics metrics = new LinkMetrics();
+            RobotLink link = new RobotLink(transport, new AsciiCommandCodec(), listener, 50,
+                    1000, metrics);
+            link.start();
+            link.sendCommand(RobotCommand.FORWARD, 40, 0);
+            Thread.sleep(1);
+            broken.countDown();
+            assertTrue(listener.failed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            Thread.sleep(5);
+            assertEquals(1, listener.failures.get());
+            assertEquals(1, metrics.errors.get());
+            assertTrue(link.isTerminated());
+        }
+    }
+
+    /**
+     * Waits for a latch, ignoring interrupts
+     */
+    private static void awaitQuietly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // Keep waiting
+            }
+        }
+    }
+
+    @Test
+    public void link_drivesSimulatorOverTcp() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        TcpTransport appEnd = TcpTransport.connect("127.0.0.1", server.getLocalPort(), 1000);
+        RobotSimulator simulator = new RobotSimulator(new TcpTransport(server.accept()),
+                new BinaryCommandCodec());
+        server.close();
+        simulator.start();
+        RecordingListener listener = new RecordingListener();
+        RobotLink link = new RobotLink(appEnd, new BinaryCommandCodec(), listener, 50, 1000);
+        link.start();
+
+        assertTrue(link.sendCommand(RobotCommand.DRIVE, -60, 75));
+        assertTrue(awaitSpeeds(simulator, -60, 75));
+        assertTrue(listener.latency.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // The robot going away is reported as a link failure
+        simulator.terminate();
+        assertTrue(listener.failed.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(link.isTerminated());
+    }
+
+    @Test
+    public void simulator_throttlesToBaudRate() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        final RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+        simulator.setBaudRate(RobotSimulator.HC06_BAUD);
+        simulator.start();
+
+        // 12 pings of 8 bytes each take 100 ms at 960 bytes per second
+        long start = System.nanoTime();
+        OutputStream outputStream = pair[0].getOutputStream();
+        for (int i = 0; i < 12; i++) {
+            outputStream.write(("PING " + i + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        assertTrue(await(new Condition() {
+            @Override
+            public boolean holds() {
+                return simulator.getPingCount() == 12;
+            }
+        }));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+
+        // Every ping was answered in order
+        InputStream inputStream = pair[0].getInputStream();
+        StringBuilder replies = new StringBuilder();
+        while (replies.length() < "PONG 0\r\n".length() * 10 + "PONG 10\r\n".length() * 2) {
+            replies.append((char) inputStream.read());
+        }
+        assertTrue(replies.toString().startsWith("PONG 0\r\nPONG 1\r\n"));
+        assertTrue(replies.toString().endsWith("PONG 11\r\n"));
+        pair[0].close();
+        simulator.join();
+    }
+
+    @Test
+    public void simulator_lossIsRepeatable() throws Exception {
+        long first = runLossy(42);
+        assertTrue(first > 30 && first < 70);
+        assertEquals(first, runLossy(42));
+    }
+
+    /**
+     * Sends 100 stops to a simulator dropping half of them
+     * @return The number dropped
+     */
+    private static long runLossy(long seed) throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        final RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+        simulator.setLoss(0.5, seed);
+        simulator.start();
+        OutputStream outputStream = pair[0].getOutputStream();
+        for (int i = 0; i < 100; i++) {
+            outputStream.write("STP\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertTrue(await(new Condition() {
+            @Override
+            public boolean holds() {
+                return simulator.getCommandCount() + simulator.getLostCount() == 100;
+            }
+        }));
+        pair[0].close();
+        simulator.join();
+        return simulator.getLostCount();
+    }
+}
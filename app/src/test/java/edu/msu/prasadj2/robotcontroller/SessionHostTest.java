@@ -0,0 +1,189 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for keeping a robot session running while screens come and go.
+ */
+public class SessionHostTest {
+    /// Time allowed for anything asynchronous to happen
+    private static final long TIMEOUT_MS = 5000;
+
+    /// Counts the motion commands sent and waits for the session to be lost
+    private static class CountingListener implements RobotSession.Listener {
+        final AtomicInteger motions = new AtomicInteger();
+        final CountDownLatch lost = new CountDownLatch(1);
+
+        @Override
+        public void onCommandSent(RobotCommand command) {
+            if (RobotCommand.isMotion(command.opcode)) {
+                motions.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onLatencyUpdated(LatencyHistogram histogram) {}
+
+        @Override
+        public void onLinkStalled() {}
+
+        @Override
+        public void onLinkRestored() {}
+
+        @Override
+        public void onReconnecting(int attempt, long delayMs) {}
+
+        @Override
+        public void onResumed(RobotTransport transport) {}
+
+        @Override
+        public void onSessionLost(IOException e) {
+            lost.countDown();
+        }
+    }
+
+    /**
+     * Waits until a simulated robot has a left motor speed
+     */
+    private static void awaitSpeed(RobotSimulator simulator, int left) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (simulator.getLeftSpeed() != left) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Waits until a listener has been told of a number of motion commands, since the robot
+     * can apply a command before the writer reports it sent
+     */
+    private static void awaitMotions(CountingListener listener, int count) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (listener.motions.get() < count) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void reattachedScreen_keepsTheSameLink() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+        simulator.start();
+        File file = File.createTempFile("session", ".rcl");
+        SessionHost host = new SessionHost();
+        RobotSession session = new RobotSession(pair[0], new AsciiCommandCodec(), null,
+                new Backoff(), host);
+        try {
+            host.start(session, CommandRecorder.create(file), null);
+            CountingListener first = new CountingListener();
+            assertSame(session, host.attach(first));
+            session.sendCommand(RobotCommand.FORWARD, 40, 0);
+            awaitSpeed(simulator, 40);
+            awaitMotions(first, 1);
+
+            // The screen is recreated: the old one detaches and the new one attaches
+            host.detach(first);
+            CountingListener second = new CountingListener();
+            RobotSession attached = host.attach(second);
+            assertSame(session, attached);
+            attached.sendCommand(RobotCommand.FORWARD, 70, 0);
+            awaitSpeed(simulator, 70);
+            awaitMotions(second, 1);
+
+            assertTrue(host.isActive());
+            assertEquals(1, host.getListenerCount());
+            assertEquals(1, first.motions.get());
+            assertEquals(1, second.motions.get());
+            assertEquals(0, session.getReconnectCount());
+        } finally {
+            host.stop();
+            simulator.terminate();
+        }
+
+        assertFalse(host.isActive());
+        assertFalse(session.isResumed());
+        RecordingReader reader = RecordingReader.open(file);
+        int commands = 0;
+        while (reader.next()) {
+            if (reader.getType() == CommandRecorder.ENTRY_COMMAND
+                    && RobotCommand.isMotion(reader.getCommand().opcode)) {
+                commands++;
+            }
+        }
+        reader.close();
+        assertEquals(2, commands);
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void stop_sendsTheRobotAStopFirst() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+        simulator.start();
+        SessionHost host = new SessionHost();
+        RobotSession session = new RobotSession(pair[0], new AsciiCommandCodec(), null,
+                new Backoff(), host);
+        try {
+            host.start(session, null, null);
+            session.sendCommand(RobotCommand.FORWARD, 40, 0);
+            awaitSpeed(simulator, 40);
+
+            host.stop();
+            assertFalse(session.isResumed());
+            awaitSpeed(simulator, 0);
+        } finally {
+            host.stop();
+            simulator.terminate();
+        }
+    }
+
+    @Test
+    public void lostSession_isNoLongerActive() throws Exception {
+        InMemoryTransport[] pair = InMemoryTransport.createPair();
+        RobotSimulator simulator = new RobotSimulator(pair[1], new AsciiCommandCodec());
+        simulator.start();
+        File file = File.createTempFile("session", ".rcl");
+        file.deleteOnExit();
+        CommandRecorder recorder = CommandRecorder.create(file);
+        SessionHost host = new SessionHost();
+        CountingListener listener = new CountingListener();
+        host.attach(listener);
+        try {
+            RobotSession session = new RobotSession(pair[0], new AsciiCommandCodec(), null,
+                    new Backoff(), host);
+            host.start(session, recorder, null);
+            assertTrue(host.isActive());
+
+            // The recording reaches the file while the session is still running
+            session.sendCommand(RobotCommand.FORWARD, 40, 0);
+            awaitMotions(listener, 1);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            while (file.length() <= CommandRecorder.HEADER_LENGTH) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+
+            simulator.terminate();
+            assertTrue(listener.lost.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertFalse(host.isActive());
+            assertNotNull(host.getSession());
+
+            // The recording was closed with the session
+            long entries = recorder.getEntryCount();
+            recorder.recordCommand(new RobotCommand(), System.nanoTime());
+            assertEquals(entries, recorder.getEntryCount());
+            assertNull(recorder.getError());
+        } finally {
+            host.stop();
+        }
+    }
+}
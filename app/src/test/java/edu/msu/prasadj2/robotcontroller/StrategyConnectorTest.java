@@ -0,0 +1,172 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for racing the ways of connecting to one robot.
+ */
+public class StrategyConnectorTest {
+    /// Connects after a delay, fails, or hangs until cancelled
+    private static class FakeStrategy implements StrategyConnector.Strategy {
+        final String name;
+        final long delayMs;
+        final boolean fails;
+        final List<InMemoryTransport> connected = new ArrayList<InMemoryTransport>();
+        int opened = 0;
+        int cancelled = 0;
+
+        FakeStrategy(String name, long delayMs, boolean fails) {
+            this.name = name;
+            this.delayMs = delayMs;
+            this.fails = fails;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public synchronized StrategyConnector.Attempt open(String address) {
+            opened++;
+            return new StrategyConnector.Attempt() {
+                private final CountDownLatch cancel = new CountDownLatch(1);
+
+                @Override
+                public RobotTransport connect() throws IOException {
+                    try {
+                        if (cancel.await(delayMs, TimeUnit.MILLISECONDS)) {
+                            throw new IOException("Cancelled");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    if (fails) {
+                        throw new IOException(name + " refused");
+                    }
+                    InMemoryTransport transport = InMemoryTransport.createPair()[0];
+                    synchronized (FakeStrategy.this) {
+                        connected.add(transport);
+                    }
+                    return transport;
+                }
+
+                @Override
+                public void cancel() {
+                    synchronized (FakeStrategy.this) {
+                        cancelled++;
+                    }
+                    cancel.countDown();
+                }
+            };
+        }
+    }
+
+    /**
+     * Creates a connector over some strategies
+     */
+    private static StrategyConnector connector(FakeStrategy... strategies) {
+        List<StrategyConnector.Strategy> list = new ArrayList<StrategyConnector.Strategy>();
+        for (FakeStrategy strategy : strategies) {
+            list.add(strategy);
+        }
+        return new StrategyConnector(list);
+    }
+
+    @Test
+    public void fastestStrategy_winsAndIsTriedFirstNextTime() throws Exception {
+        FakeStrategy slow = new FakeStrategy("slow", 400, false);
+        FakeStrategy fast = new FakeStrategy("fast", 20, false);
+        StrategyConnector connector = connector(slow, fast);
+        assertEquals("slow", connector.getOrder().get(0).getName());
+
+        StrategyConnector.Result result = connector.connect("robot", 2000, 50);
+        assertEquals("fast", result.strategy);
+        assertTrue(result.transport.isConnected());
+        synchronized (slow) {
+            assertEquals(1, slow.cancelled);
+        }
+        assertEquals(1, connector.getStats("fast").getSuccesses());
+        // The loser was cancelled, not failed, so it is not counted against
+        assertEquals(0, connector.getStats("slow").getAttempts());
+        assertEquals("fast", connector.getOrder().get(0).getName());
+
+        // Restored statistics keep the order
+        StrategyConnector restored = connector(new FakeStrategy("slow", 0, false),
+                new FakeStrategy("fast", 0, false));
+        restored.restore(connector.encode() + "unknown|1|1|1\nmalformed\n");
+        assertEquals("fast", restored.getOrder().get(0).getName());
+        assertEquals(connector.getStats("fast").getAverageConnectNanos(),
+                restored.getStats("fast").getAverageConnectNanos());
+    }
+
+    @Test
+    public void failure_startsNextStrategyWithoutWaiting() throws Exception {
+        FakeStrategy refused = new FakeStrategy("refused", 10, true);
+        FakeStrategy backup = new FakeStrategy("backup", 10, false);
+        StrategyConnector connector = connector(refused, backup);
+
+        long start = System.nanoTime();
+        StrategyConnector.Result result = connector.connect("robot", 2000, 5000);
+        assertEquals("backup", result.strategy);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(1, result.failedStrategies.size());
+        // Another strategy reached the robot, so the refusal counts against its strategy
+        assertEquals(1, connector.getStats("refused").getAttempts());
+        assertEquals(0.0, connector.getStats("refused").getSuccessRate(), 0);
+        assertEquals("backup", connector.getOrder().get(0).getName());
+    }
+
+    @Test
+    public void attemptTimeout_cancelsAndFailsOver() throws Exception {
+        FakeStrategy hung = new FakeStrategy("hung", 60000, false);
+        FakeStrategy alsoHung = new FakeStrategy("also hung", 60000, false);
+        StrategyConnector connector = connector(hung, alsoHung);
+
+        long start = System.nanoTime();
+        try {
+            connector.connect("robot", 100, 5000);
+            fail();
+        } catch (IOException e) {
+            assertEquals("also hung timed out", e.getMessage());
+        }
+        // The second attempt starts when the first times out, not after the stagger
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        synchronized (hung) {
+            assertEquals(1, hung.cancelled);
+        }
+        // No strategy reached the robot, so none is counted against
+        assertEquals(0, connector.getStats("hung").getAttempts());
+        assertEquals(0, connector.getStats("also hung").getAttempts());
+    }
+
+    @Test
+    public void strategyCount_racesOnlyTheBest() throws Exception {
+        FakeStrategy best = new FakeStrategy("best", 10, false);
+        FakeStrategy other = new FakeStrategy("other", 10, false);
+        StrategyConnector connector = connector(best, other);
+        StrategyConnector.Result result = connector.connect("robot", 2000, 0, 1);
+        assertEquals("best", result.strategy);
+
+        FakeStrategy refused = new FakeStrategy("refused", 10, true);
+        connector = connector(refused, other);
+        try {
+            connector.connect("robot", 2000, 0, 1);
+            fail();
+        } catch (IOException e) {
+            assertEquals("refused refused", e.getMessage());
+        }
+        synchronized (other) {
+            assertEquals(0, other.opened);
+        }
+        assertEquals(0, connector.getStats("refused").getAttempts());
+    }
+}
@@ -0,0 +1,169 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the incremental telemetry parser.
+ * A piped stream stands in for the robot's bluetooth socket.
+ */
+public class TelemetryParserTest {
+    /// Records every event as a string for easy comparison
+    private static class RecordingListener implements TelemetryParser.Listener {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onTextLine(byte[] buffer, int offset, int length, long nanos) {
+            events.add("text " + new String(buffer, offset, length, StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void onPong(int sequence, long nanos) {
+            events.add("pong " + sequence);
+        }
+
+        @Override
+        public void onEncoders(int left, int right, long nanos) {
+            events.add("enc " + left + " " + right);
+        }
+
+        @Override
+        public void onBattery(int millivolts, long nanos) {
+            events.add("bat " + millivolts);
+        }
+
+        @Override
+        public void onAck(int sequence, long nanos) {
+            events.add("ack " + sequence);
+        }
+    }
+
+    @Test
+    public void pipedStream_isFramedIntoTypedEvents() throws Exception {
+        final PipedOutputStream robot = new PipedOutputStream();
+        PipedInputStream inputStream = new PipedInputStream(robot, 64);
+        TelemetryParser parser = new TelemetryParser(32);
+        RecordingListener listener = new RecordingListener();
+        parser.addListener(listener);
+
+        final byte[] data = concat(
+                ascii("Robot ready\r\nPONG 12\r\nENC 1042 -37\n"),
+                frame(TelemetryParser.FRAME_BATTERY, new byte[] {0x1C, (byte) 0xFC}),
+                ascii("BAT 7.42\r\n"),
+                frame(TelemetryParser.FRAME_ENCODERS, new byte[] {0, 0, 1, 0, -1, -1, -1, -2}),
+                frame(TelemetryParser.FRAME_PONG, new byte[] {5}),
+                ascii("ACK 7\r\n"),
+                frame(TelemetryParser.FRAME_ACK, new byte[] {(byte) 200}),
+                ascii("this line wraps the ring edge\n"),
+                ascii("a line far too long to fit in the ring\nok\n"));
+
+        // Dribble the bytes in small pieces so messages straddle reads and the ring edge
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < data.length; i += 3) {
+                        robot.write(data, i, Math.min(3, data.length - i));
+                        robot.flush();
+                    }
+                    robot.close();
+                } catch (IOException e) {
+                    // The test fails on the missing events
+                }
+            }
+        });
+        writer.start();
+        while (parser.readFrom(inputStream) >= 0) {
+            // Keep reading until the robot closes the stream
+        }
+        writer.join();
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("text Robot ready");
+        expected.add("pong 12");
+        expected.add("enc 1042 -37");
+        expected.add("bat 7420");
+        expected.add("bat 7420");
+        expected.add("enc 256 -2");
+        expected.add("pong 5");
+        expected.add("ack 7");
+        expected.add("ack 200");
+        expected.add("text this line wraps the ring edge");
+        expected.add("text ok");
+        assertEquals(expected, listener.events);
+        assertEquals(39, parser.getDiscardedBytes());
+    }
+
+    @Test
+    public void corruptFrame_isSkipped() {
+        TelemetryParser parser = new TelemetryParser();
+        RecordingListener listener = new RecordingListener();
+        parser.addListener(listener);
+
+        byte[] bad = frame(TelemetryParser.FRAME_PONG, new byte[] {9});
+        bad[bad.length - 1] ^= 0x10;
+        byte[] data = concat(bad, ascii("PONG 3\n"));
+        parser.feed(data, 0, data.length);
+
+        assertEquals(1, listener.events.size());
+        assertEquals("pong 3", listener.events.get(0));
+        assertTrue(parser.getDiscardedBytes() > 0);
+    }
+
+    @Test
+    public void malformedNumbers_arePassedOnAsText() {
+        TelemetryParser parser = new TelemetryParser();
+        RecordingListener listener = new RecordingListener();
+        parser.addListener(listener);
+
+        byte[] data = ascii("PONG \nENC 5\nBAT x\n");
+        parser.feed(data, 0, data.length);
+
+        assertEquals(3, listener.events.size());
+        assertEquals("text PONG ", listener.events.get(0));
+        assertEquals("text ENC 5", listener.events.get(1));
+        assertEquals("text BAT x", listener.events.get(2));
+    }
+
+    /**
+     * Builds a binary telemetry frame
+     * @param type The frame type
+     * @param payload The payload bytes
+     * @return The framed bytes
+     */
+    private static byte[] frame(int type, byte[] payload) {
+        byte[] frame = new byte[payload.length + 4];
+        frame[0] = BinaryCommandCodec.SYNC;
+        frame[1] = (byte) type;
+        frame[2] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 3, payload.length);
+        frame[frame.length - 1] = BinaryCommandCodec.checksum(frame, 1, payload.length + 2);
+        return frame;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, position, part.length);
+            position += part.length;
+        }
+        return result;
+    }
+}
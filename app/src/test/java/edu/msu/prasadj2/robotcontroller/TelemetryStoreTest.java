@@ -0,0 +1,104 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for keeping telemetry history at several resolutions.
+ */
+public class TelemetryStoreTest {
+    /// One millisecond, in nanoseconds
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void shortWindow_returnsRawSamples() {
+        TimeSeries series = new TimeSeries(100, 10, 10 * MS, 2);
+        for (int i = 0; i < 20; i++) {
+            series.record(i * MS, i);
+        }
+        long[] times = new long[32];
+        float[] mins = new float[32];
+        float[] maxes = new float[32];
+        int count = series.query(5 * MS, 9 * MS, times, mins, maxes);
+        assertEquals(5, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals((5 + i) * MS, times[i]);
+            assertEquals(5 + i, mins[i], 0);
+            assertEquals(5 + i, maxes[i], 0);
+        }
+        assertEquals(19, series.getLatestValue(), 0);
+        assertEquals(19 * MS, series.getLatestTime());
+    }
+
+    @Test
+    public void wideWindow_returnsMinMaxBuckets() {
+        TimeSeries series = new TimeSeries(100, 10, 10 * MS, 2);
+        // A sawtooth from 0 to 9 in every 10 ms
+        for (int i = 0; i < 80; i++) {
+            series.record(i * MS, i % 10);
+        }
+        long[] times = new long[10];
+        float[] mins = new float[10];
+        float[] maxes = new float[10];
+        // 80 samples do not fit in 10 points, so the 10 ms buckets are used
+        int count = series.query(0, 79 * MS, times, mins, maxes);
+        assertEquals(8, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i * 10 * MS, times[i]);
+            assertEquals(0, mins[i], 0);
+            assertEquals(9, maxes[i], 0);
+        }
+
+        // Too many 10 ms buckets for 3 points, so the 100 ms level is used
+        count = series.query(0, 79 * MS, new long[3], mins, maxes);
+        assertEquals(1, count);
+        assertEquals(0, mins[0], 0);
+        assertEquals(9, maxes[0], 0);
+    }
+
+    @Test
+    public void memoryIsFixed_andCoarseLevelsReachFurtherBack() {
+        TimeSeries series = new TimeSeries(50, 20, 10 * MS, 2);
+        for (int i = 0; i < 1000; i++) {
+            series.record(i * MS, i);
+        }
+        assertEquals(50, series.getSize());
+
+        long[] times = new long[100];
+        float[] mins = new float[100];
+        float[] maxes = new float[100];
+        // The raw ring only reaches back 50 ms, the 100 ms level 2 seconds
+        int count = series.query(0, 999 * MS, times, mins, maxes);
+        assertEquals(10, count);
+        assertEquals(0, times[0]);
+        assertEquals(0, mins[0], 0);
+        assertEquals(99, maxes[0], 0);
+        assertEquals(900 * MS, times[9]);
+        assertEquals(999, maxes[9], 0);
+
+        // Within the raw ring's reach, raw samples are still returned
+        count = series.query(960 * MS, 999 * MS, times, mins, maxes);
+        assertEquals(40, count);
+        assertEquals(960 * MS, times[0]);
+    }
+
+    @Test
+    public void store_recordsReportsByChannel() {
+        TelemetryStore store = new TelemetryStore();
+        store.onBattery(7420, 5 * MS);
+        store.onEncoders(1042, -37, 6 * MS);
+        store.onPong(3, 7 * MS);
+
+        assertEquals(7.42f, store.getChannel(TelemetryStore.BATTERY).getLatestValue(), 1e-6);
+        assertEquals(1042, store.getChannel(TelemetryStore.LEFT_ENCODER).getLatestValue(), 0);
+        assertEquals(-37, store.getChannel(TelemetryStore.RIGHT_ENCODER).getLatestValue(), 0);
+        assertEquals(6 * MS, store.getChannel(TelemetryStore.RIGHT_ENCODER).getLatestTime());
+
+        store.clear();
+        assertEquals(0, store.getChannel(TelemetryStore.BATTERY).getSize());
+        assertTrue(Float.isNaN(store.getChannel(TelemetryStore.BATTERY).getLatestValue()));
+    }
+}
@@ -0,0 +1,138 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for compiling and running trajectories.
+ */
+public class TrajectoryTest {
+    /// Records the outcome of a run
+    private static class FinishListener implements TrajectoryExecutor.Listener {
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean completed = false;
+
+        @Override
+        public void onTrajectoryFinished(TrajectoryExecutor executor, boolean completed) {
+            this.completed = completed;
+            finished.countDown();
+        }
+    }
+
+    @Test
+    public void compile_mergesSegmentsAndEndsWithStop() {
+        Trajectory trajectory = new Trajectory()
+                .addSegment(50, 50, 100)
+                .addSegment(50, 50, 100)
+                .addSegment(-30, 30, 50);
+        assertFalse(trajectory.isCompiled());
+        trajectory.compile();
+
+        assertEquals(3, trajectory.getCommandCount());
+        RobotCommand command = new RobotCommand();
+        trajectory.getCommand(0, command);
+        assertEquals(RobotCommand.DRIVE, command.opcode);
+        assertEquals(50, command.arg0);
+        assertEquals(0, trajectory.getDueNanos(0));
+        trajectory.getCommand(1, command);
+        assertEquals(-30, command.arg0);
+        assertEquals(30, command.arg1);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), trajectory.getDueNanos(1));
+        trajectory.getCommand(2, command);
+        assertEquals(RobotCommand.STOP, command.opcode);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), trajectory.getDurationNanos());
+    }
+
+    @Test
+    public void compile_refreshesLongSegments() {
+        Trajectory trajectory = new Trajectory().addSegment(20, 20, 100).addSegment(0, 40, 80);
+        trajectory.compile(40);
+
+        // 0, 40 and 80 ms for the first segment, 100 and 140 ms for the second, then the stop
+        long[] expected = {0, 40, 80, 100, 140, 180};
+        assertEquals(expected.length, trajectory.getCommandCount());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(expected[i]), trajectory.getDueNanos(i));
+        }
+    }
+
+    @Test
+    public void parse_readsSegmentsAndRejectsBadLines() throws IOException {
+        Trajectory trajectory = Trajectory.parse(new StringReader(
+                "# square\n60 60 1000\n\n60 -60 400\n"));
+        assertEquals(2, trajectory.getSegmentCount());
+
+        try {
+            Trajectory.parse(new StringReader("60 60\n"));
+            fail("Expected a malformed line to be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            Trajectory.parse(new StringReader("150 0 100\n"));
+            fail("Expected an out of range speed to be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void executor_queuesCommandsOnTime() throws InterruptedException {
+        Trajectory trajectory = new Trajectory()
+                .addSegment(40, 40, 30)
+                .addSegment(-40, 40, 30);
+        trajectory.compile();
+        CommandQueue queue = new CommandQueue();
+        FinishListener listener = new FinishListener();
+        TrajectoryExecutor executor = new TrajectoryExecutor(queue, trajectory, listener);
+        long start = System.nanoTime();
+        executor.start();
+
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.take(command));
+        assertEquals(40, command.arg1);
+        assertTrue(queue.take(command));
+        assertEquals(-40, command.arg0);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.STOP, command.opcode);
+
+        assertTrue(listener.finished.await(1, TimeUnit.SECONDS));
+        assertTrue(listener.completed);
+        assertEquals(3, executor.getJitter().getCount());
+        assertTrue(executor.getMaxJitterNanos() >= 0);
+    }
+
+    @Test
+    public void abort_queuesStopImmediately() throws InterruptedException {
+        Trajectory trajectory = new Trajectory().addSegment(80, 80, 10000);
+        trajectory.compile();
+        CommandQueue queue = new CommandQueue();
+        FinishListener listener = new FinishListener();
+        TrajectoryExecutor executor = new TrajectoryExecutor(queue, trajectory, listener);
+        executor.start();
+
+        RobotCommand command = new RobotCommand();
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.DRIVE, command.opcode);
+
+        executor.abort();
+        assertTrue(listener.finished.await(1, TimeUnit.SECONDS));
+        assertFalse(listener.completed);
+        assertTrue(queue.take(command));
+        assertEquals(RobotCommand.STOP, command.opcode);
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void uncompiledTrajectory_isRejected() {
+        new TrajectoryExecutor(new CommandQueue(), new Trajectory().addSegment(10, 10, 10),
+                new FinishListener());
+    }
+}
@@ -0,0 +1,105 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time to send a burst of commands through the command writer when every write call
+ * costs a fixed packet delay, with one write per command and with batched writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchWriteBenchmark {
+    /// Commands in each burst
+    private static final int BURST = 8;
+    /// Delay of each write call, about one bluetooth packet slot pair
+    private static final long WRITE_DELAY_MICROS = 1250;
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    @Param({"false", "true"})
+    public boolean framed;
+
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private InMemoryTransport[] pair;
+    private CommandQueue queue;
+    private CommandWriter writer;
+    private Thread drainer;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        pair = InMemoryTransport.createPair(64 * 1024, WRITE_DELAY_MICROS);
+        final InputStream robotInput = pair[1].getInputStream();
+        drainer = new Thread("Drainer") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[4096];
+                try {
+                    while (robotInput.read(buffer, 0, buffer.length) >= 0) {
+                        // Discard
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        };
+        drainer.start();
+
+        LinkMetrics metrics = new LinkMetrics();
+        queue = new CommandQueue();
+        writer = new CommandWriter(queue, pair[0].getOutputStream(), new BinaryCommandCodec(),
+                new CommandWriter.Listener() {
+            @Override
+            public void onCommandSent(RobotCommand command) {
+                sentCount.incrementAndGet();
+            }
+
+            @Override
+            public void onWriteFailed(IOException e) {}
+        }, metrics);
+        if (batching) {
+            writer.setBatching(1, framed ? new BatchFramer(metrics) : null);
+        }
+        writer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws InterruptedException {
+        writer.terminate();
+        writer.join();
+        pair[0].close();
+        pair[1].close();
+        drainer.join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst() {
+        long target = sentCount.get() + BURST;
+        queue.offer(RobotCommand.DRIVE, 60, 40);
+        for (int i = 1; i < BURST; i++) {
+            queue.offer(RobotCommand.PING, i, 0);
+        }
+        while (sentCount.get() < target) {
+            LockSupport.parkNanos(10000);
+        }
+    }
+}
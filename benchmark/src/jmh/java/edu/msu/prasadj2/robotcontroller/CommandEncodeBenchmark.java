@@ -0,0 +1,49 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one turn command into bytes: the string formatting onClick originally
+ * used, against the allocation-free text and binary codecs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandEncodeBenchmark {
+    /// Motor speeds, in fields so they are not constant folded
+    private int leftSpeed = 65;
+    private int rightSpeed = -40;
+
+    private final RobotCommand command = new RobotCommand();
+    private final CommandCodec asciiCodec = new AsciiCommandCodec();
+    private final CommandCodec binaryCodec = new BinaryCommandCodec();
+    private final byte[] frame = new byte[Math.max(asciiCodec.getMaxFrameLength(),
+            binaryCodec.getMaxFrameLength())];
+
+    @Benchmark
+    public byte[] stringFormatting() {
+        // How onClick and sendCommand built a turn command before commands were queued
+        String text = "TR " + -rightSpeed + " " + leftSpeed;
+        return (text + "\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int asciiCodec() {
+        command.set(RobotCommand.TURN_RIGHT, -rightSpeed, leftSpeed);
+        return asciiCodec.encode(command, frame, 0);
+    }
+
+    @Benchmark
+    public int binaryCodec() {
+        command.set(RobotCommand.TURN_RIGHT, -rightSpeed, leftSpeed);
+        return binaryCodec.encode(command, frame, 0);
+    }
+}
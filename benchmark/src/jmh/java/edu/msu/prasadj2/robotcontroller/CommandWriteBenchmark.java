@@ -0,0 +1,87 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound write throughput against an in-memory transport drained by another thread,
+ * comparing the original format-and-write path with the command writer's encode-and-write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CommandWriteBenchmark {
+    /// Motor speed, in a field so it is not constant folded
+    private int speed = 75;
+
+    private final RobotCommand command = new RobotCommand();
+    private final CommandCodec asciiCodec = new AsciiCommandCodec();
+    private final CommandCodec binaryCodec = new BinaryCommandCodec();
+    private final byte[] frame = new byte[asciiCodec.getMaxFrameLength()];
+
+    private InMemoryTransport[] pair;
+    private OutputStream outputStream;
+    private Thread drainer;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        pair = InMemoryTransport.createPair(64 * 1024);
+        outputStream = pair[0].getOutputStream();
+        final InputStream robotInput = pair[1].getInputStream();
+        drainer = new Thread("Drainer") {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[4096];
+                try {
+                    while (robotInput.read(buffer, 0, buffer.length) >= 0) {
+                        // Discard
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        };
+        drainer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws InterruptedException {
+        pair[0].close();
+        pair[1].close();
+        drainer.join();
+    }
+
+    @Benchmark
+    public void stringWrite() throws IOException {
+        // How sendCommand wrote each command before commands were queued
+        outputStream.write(("F " + speed + "\r\n").getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+    }
+
+    @Benchmark
+    public void asciiCodecWrite() throws IOException {
+        command.set(RobotCommand.FORWARD, speed, 0);
+        outputStream.write(frame, 0, asciiCodec.encode(command, frame, 0));
+        outputStream.flush();
+    }
+
+    @Benchmark
+    public void binaryCodecWrite() throws IOException {
+        command.set(RobotCommand.FORWARD, speed, 0);
+        outputStream.write(frame, 0, binaryCodec.encode(command, frame, 0));
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,80 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of keeping the discovered device list up to date through a discovery
+ * scan of 200 simulated devices, each of which is found several times, sometimes first
+ * without its name. The UI side of a frame is bounded by the ranges reported here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeviceListBenchmark {
+    /// Simulated devices advertising nearby
+    private static final int DEVICES = 200;
+    /// Found broadcasts per device over a scan
+    private static final int BROADCASTS_PER_DEVICE = 4;
+    /// Found broadcasts arriving between two frames
+    private static final int BROADCASTS_PER_FRAME = 16;
+    /// Frames over one scan
+    private static final int FRAMES = DEVICES * BROADCASTS_PER_DEVICE / BROADCASTS_PER_FRAME;
+
+    private final long[] ids = new long[DEVICES * BROADCASTS_PER_DEVICE];
+    private final String[] addresses = new String[DEVICES * BROADCASTS_PER_DEVICE];
+    private final String[] names = new String[DEVICES * BROADCASTS_PER_DEVICE];
+    private final DeviceList list = new DeviceList();
+
+    @Setup
+    public void simulateScan() {
+        Random random = new Random(476);
+        for (int i = 0; i < addresses.length; i++) {
+            int device = random.nextInt(DEVICES);
+            ids[i] = device;
+            addresses[i] = String.format("00:14:03:00:%02X:%02X", device >> 8, device & 0xFF);
+            // Names often arrive in a later broadcast than the address
+            names[i] = random.nextInt(4) == 0 ? null : "HC-06 " + device;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void scanFrame(final Blackhole blackhole) {
+        DeviceList.Observer observer = new DeviceList.Observer() {
+            @Override
+            public void onRowsInserted(int position, int count) {
+                blackhole.consume(position + count);
+            }
+
+            @Override
+            public void onRowsChanged(int position, int count) {
+                blackhole.consume(position + count);
+            }
+
+            @Override
+            public void onRowsRemoved(int position, int count) {
+                blackhole.consume(position + count);
+            }
+        };
+        list.clear();
+        list.dispatch(observer);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int start = frame * BROADCASTS_PER_FRAME;
+            for (int i = start; i < start + BROADCASTS_PER_FRAME; i++) {
+                list.update(ids[i], addresses[i], names[i]);
+            }
+            blackhole.consume(list.dispatch(observer));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the device behind a tapped list entry the way
+ * BluetoothActivity.onSelectDevice does it, for growing numbers of nearby devices.
+ * BluetoothDevice needs the Android SDK, so a stand-in with the same identity is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceLookupBenchmark {
+
+    /**
+     * Stand-in for BluetoothDevice, which is equal by hardware address
+     */
+    static final class Device {
+        final String address;
+        final String name;
+
+        Device(String address, String name) {
+            this.address = address;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Device && address.equals(((Device) other).address);
+        }
+
+        @Override
+        public int hashCode() {
+            return address.hashCode();
+        }
+    }
+
+    @Param({"4", "32", "256"})
+    public int deviceCount;
+
+    private final Set<Device> pairedDevices = new HashSet<Device>();
+    private final Set<Device> discoveredDevices = new HashSet<Device>();
+    private String nameLabel;
+    private String addressLabel;
+
+    @Setup
+    public void populate() {
+        for (int i = 0; i < deviceCount; i++) {
+            String address = String.format("00:14:03:%02X:%02X:%02X", i >> 16, (i >> 8) & 0xFF,
+                    i & 0xFF);
+            // Unnamed devices are listed by address
+            Device device = new Device(address, i % 3 == 0 ? null : "Device " + i);
+            if (device.name != null) {
+                nameLabel = device.name;
+            }
+            if (i % 4 == 0) {
+                pairedDevices.add(device);
+            }
+            else {
+                discoveredDevices.add(device);
+            }
+        }
+        addressLabel = String.format("00:14:03:%02X:%02X:%02X", 0, 0, 0);
+    }
+
+    @Benchmark
+    public Device selectByName() {
+        return selectDevice(nameLabel);
+    }
+
+    @Benchmark
+    public Device selectByAddress() {
+        return selectDevice(addressLabel);
+    }
+
+    /**
+     * The lookup in onSelectDevice: merge both sets, then compare every device's address
+     * and name against the tapped entry's label
+     */
+    private Device selectDevice(String label) {
+        Set<Device> allDevices = new HashSet<Device>(pairedDevices);
+        allDevices.addAll(discoveredDevices);
+        for (Device device : allDevices) {
+            if ((device.address != null && device.address.equals(label)) ||
+                    (device.name != null && device.name.equals(label))) {
+                return device;
+            }
+        }
+        return null;
+    }
+}
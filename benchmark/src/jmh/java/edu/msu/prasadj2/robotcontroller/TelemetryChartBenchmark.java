@@ -0,0 +1,62 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording telemetry and of the query a chart makes for each frame, with five
+ * minutes of 200 Hz history already recorded. A frame at 60 fps has about 16 ms; the
+ * query has to stay a small part of that for the chart to keep up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TelemetryChartBenchmark {
+    /// Time between telemetry reports, in nanoseconds (200 Hz)
+    private static final long REPORT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    /// History recorded before measuring
+    private static final long HISTORY_NANOS = TimeUnit.MINUTES.toNanos(5);
+    /// Chart width, in points
+    private static final int CHART_POINTS = 400;
+
+    private final TimeSeries series = new TimeSeries();
+    private final long[] times = new long[CHART_POINTS];
+    private final float[] mins = new float[CHART_POINTS];
+    private final float[] maxes = new float[CHART_POINTS];
+    private long now;
+
+    @Setup
+    public void recordHistory() {
+        for (now = 0; now < HISTORY_NANOS; now += REPORT_NANOS) {
+            series.record(now, (float)Math.sin(now / 1e9));
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        now += REPORT_NANOS;
+        series.record(now, (float)Math.sin(now / 1e9));
+    }
+
+    @Benchmark
+    public int queryLastSecond() {
+        return series.query(now - TimeUnit.SECONDS.toNanos(1), now, times, mins, maxes);
+    }
+
+    @Benchmark
+    public int queryLastThirtySeconds() {
+        return series.query(now - TimeUnit.SECONDS.toNanos(30), now, times, mins, maxes);
+    }
+
+    @Benchmark
+    public int queryLastFiveMinutes() {
+        return series.query(now - HISTORY_NANOS, now, times, mins, maxes);
+    }
+}
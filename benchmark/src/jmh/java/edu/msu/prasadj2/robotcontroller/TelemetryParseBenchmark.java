@@ -0,0 +1,143 @@
+package edu.msu.prasadj2.robotcontroller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound parsing cost per message: the original BufferedReader line loop, against the
+ * telemetry parser on text lines and on binary frames. Input arrives in socket sized chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TelemetryParseBenchmark {
+    /// Number of messages in each stream
+    private static final int MESSAGES = 1024;
+    /// Bytes handed to the parser per read, like a bluetooth socket read
+    private static final int CHUNK = 64;
+
+    private byte[] textStream;
+    private byte[] binaryStream;
+    private TelemetryParser parser;
+
+    @Setup
+    public void prepare(final Blackhole blackhole) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        for (int i = 0; i < MESSAGES; i++) {
+            switch (i % 4) {
+                case 0:
+                    write(text, "PONG " + (i % 128) + "\r\n");
+                    writeFrame(binary, TelemetryParser.FRAME_PONG, i % 128);
+                    break;
+                case 1:
+                    write(text, "ENC " + i * 37 + " " + -i * 41 + "\r\n");
+                    writeFrame(binary, TelemetryParser.FRAME_ENCODERS,
+                            (i * 37) >>> 24, (i * 37) >>> 16, (i * 37) >>> 8, i * 37,
+                            (-i * 41) >>> 24, (-i * 41) >>> 16, (-i * 41) >>> 8, -i * 41);
+                    break;
+                case 2:
+                    write(text, "BAT 7.42\r\n");
+                    writeFrame(binary, TelemetryParser.FRAME_BATTERY, 7420 >>> 8, 7420);
+                    break;
+                default:
+                    write(text, "Motors set\r\n");
+                    writeFrame(binary, TelemetryParser.FRAME_PONG, i % 128);
+                    break;
+            }
+        }
+        textStream = text.toByteArray();
+        binaryStream = binary.toByteArray();
+
+        parser = new TelemetryParser();
+        parser.addListener(new TelemetryParser.Listener() {
+            @Override
+            public void onTextLine(byte[] buffer, int offset, int length, long nanos) {
+                blackhole.consume(length);
+            }
+
+            @Override
+            public void onPong(int sequence, long nanos) {
+                blackhole.consume(sequence);
+            }
+
+            @Override
+            public void onEncoders(int left, int right, long nanos) {
+                blackhole.consume(left);
+                blackhole.consume(right);
+            }
+
+            @Override
+            public void onBattery(int millivolts, long nanos) {
+                blackhole.consume(millivolts);
+            }
+
+            @Override
+            public void onAck(int sequence, long nanos) {
+                blackhole.consume(sequence);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void bufferedReaderLines(Blackhole blackhole) throws IOException {
+        // How the controller thread read the robot before messages were parsed in place
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(textStream), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            blackhole.consume(line);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void parserTextLines() {
+        feedInChunks(textStream);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void parserBinaryFrames() {
+        feedInChunks(binaryStream);
+    }
+
+    private void feedInChunks(byte[] stream) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK) {
+            parser.feed(stream, offset, Math.min(CHUNK, stream.length - offset));
+        }
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int type, int... payload) {
+        int checksum = type ^ payload.length;
+        out.write(BinaryCommandCodec.SYNC);
+        out.write(type);
+        out.write(payload.length);
+        for (int b : payload) {
+            out.write(b);
+            checksum ^= b;
+        }
+        out.write(checksum);
+    }
+}